@@ -29,9 +29,25 @@ if "%JAR%"=="" (
     exit /b
 )
 
+rem #####################################################
+rem Class Data Sharing
+rem creates an archive from the class list on the
+rem first start, speeds up the start of the agent
+rem #####################################################
+set CDS_ARGS=
+set CLASSLIST=..\performator-agent.classlist
+for %%F in (%JAR%) do set ARCHIVE=%%~nF.jsa
+
+if not exist %ARCHIVE% if exist %CLASSLIST% (
+    echo Create CDS archive %ARCHIVE%
+    java -Xshare:dump -XX:SharedClassListFile=%CLASSLIST% -XX:SharedArchiveFile=%ARCHIVE% -cp %JAR% > cds-dump.log 2>&1 || del %ARCHIVE%
+)
+
+if exist %ARCHIVE% set CDS_ARGS=-XX:SharedArchiveFile=%ARCHIVE%
+
 rem #####################################################
 rem Execute Agent
 rem #####################################################
-java -Dpfr_mode=agent -Dpfr_port=%PORT% -Dpfr_agentbornePort=%AGENTBORNEPORT% -Dpfr_loglevel=%LOGLEVEL% -jar %JAR%
+java %CDS_ARGS% -Dpfr_mode=agent -Dpfr_port=%PORT% -Dpfr_agentbornePort=%AGENTBORNEPORT% -Dpfr_loglevel=%LOGLEVEL% -jar %JAR%
 
 pause
\ No newline at end of file
@@ -25,10 +25,31 @@ if [ -z "$JAR" ]; then
     exit 1
 fi
 
+#####################################################
+# Class Data Sharing
+# creates an archive from the class list on the
+# first start, speeds up the start of the agent
+#####################################################
+CDS_ARGS=""
+CLASSLIST=../performator-agent.classlist
+ARCHIVE=$(basename "$JAR" .jar).jsa
+
+if [ ! -f "$ARCHIVE" ] && [ -f "$CLASSLIST" ]; then
+    echo "Create CDS archive $ARCHIVE"
+    java -Xshare:dump \
+      -XX:SharedClassListFile="$CLASSLIST" \
+      -XX:SharedArchiveFile="$ARCHIVE" \
+      -cp "$JAR" > cds-dump.log 2>&1 || rm -f "$ARCHIVE"
+fi
+
+if [ -f "$ARCHIVE" ]; then
+    CDS_ARGS="-XX:SharedArchiveFile=$ARCHIVE"
+fi
+
 #####################################################
 # Execute Agent
 #####################################################
-java \
+java $CDS_ARGS \
   -Dpfr_mode=agent \
   -Dpfr_port=$PORT \
   -Dpfr_agentbornePort=$AGENTBORNEPORT \
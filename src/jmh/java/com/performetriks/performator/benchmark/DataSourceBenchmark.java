@@ -0,0 +1,110 @@
+package com.performetriks.performator.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.performetriks.performator.data.PFRDataSource;
+import com.performetriks.performator.data.PFRDataSource.AccessMode;
+import com.performetriks.performator.data.PFRDataSource.RetainMode;
+import com.performetriks.performator.data.PFRDataSourceJsonArray;
+import com.xresch.xrutils.data.XRRecord;
+
+/*************************************************************************************************
+ * Measures PFRDataSourceStatic.next() for all combinations of access and retain modes, with a
+ * single thread and with all threads competing for the same source.
+ * 
+ * Sources with RetainMode.ONCE are rebuilt when they are empty, the rebuild is included in the
+ * measurement but amortized over all the records of the source.
+ * 
+ * Copyright Owner: Performetriks GmbH, Switzerland
+ * License: Eclipse Public License v2.0
+ * 
+ * @author Reto Scheiwiller
+ * 
+ *************************************************************************************************/
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class DataSourceBenchmark {
+
+	@Param({"SEQUENTIAL", "RANDOM", "SHUFFLE"})
+	public AccessMode accessMode;
+	
+	@Param({"INFINITE", "ONCE"})
+	public RetainMode retainMode;
+	
+	@Param({"10000"})
+	public int records;
+	
+	private JsonArray array;
+	private volatile PFRDataSource source;
+	
+	/*****************************************************************
+	 * 
+	 *****************************************************************/
+	@Setup(Level.Trial)
+	public void setup() {
+		
+		array = new JsonArray();
+		for(int i = 0; i < records; i++) {
+			JsonObject object = new JsonObject();
+			object.addProperty("id", i);
+			object.addProperty("username", "user" + i);
+			object.addProperty("password", "secret" + i);
+			array.add(object);
+		}
+		
+		buildSource();
+	}
+	
+	/*****************************************************************
+	 * 
+	 *****************************************************************/
+	private synchronized void buildSource() {
+		source = new PFRDataSourceJsonArray("benchmark-" + accessMode + "-" + retainMode, array)
+					.accessMode(accessMode)
+					.retainMode(retainMode)
+					.build();
+	}
+	
+	/*****************************************************************
+	 * 
+	 *****************************************************************/
+	private XRRecord next() {
+		XRRecord record = source.next();
+		if(record == null) {
+			buildSource();
+			record = source.next();
+		}
+		return record;
+	}
+
+	/*****************************************************************
+	 * 
+	 *****************************************************************/
+	@Benchmark
+	public XRRecord next_singleThread() {
+		return next();
+	}
+	
+	/*****************************************************************
+	 * 
+	 *****************************************************************/
+	@Benchmark
+	@Threads(Threads.MAX)
+	public XRRecord next_contended() {
+		return next();
+	}
+}
@@ -0,0 +1,54 @@
+package com.performetriks.performator.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import com.performetriks.performator.base.PFRContext;
+
+/*************************************************************************************************
+ * Measures PFRContext.logDetailsString(), which is called for every log message written by a
+ * user while log details are set.
+ * 
+ * Copyright Owner: Performetriks GmbH, Switzerland
+ * License: Eclipse Public License v2.0
+ * 
+ * @author Reto Scheiwiller
+ * 
+ *************************************************************************************************/
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class PFRContextBenchmark {
+
+	@Param({"0", "3", "10"})
+	public int detailCount;
+	
+	/*****************************************************************
+	 * Log details are stored per thread, JMH calls setup and the
+	 * benchmark on the same thread for Scope.Thread.
+	 *****************************************************************/
+	@Setup(Level.Iteration)
+	public void setup() {
+		PFRContext.logDetailsClear();
+		for(int i = 0; i < detailCount; i++) {
+			PFRContext.logDetailsAdd("key" + i, "value" + i);
+		}
+	}
+	
+	/*****************************************************************
+	 * 
+	 *****************************************************************/
+	@Benchmark
+	public String logDetailsString() {
+		return PFRContext.logDetailsString();
+	}
+}
@@ -0,0 +1,117 @@
+package com.performetriks.performator.benchmark;
+
+import java.lang.reflect.Proxy;
+import java.math.BigDecimal;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.performetriks.performator.database.PFRDB;
+import com.performetriks.performator.database.PFRDBRecorder;
+
+/*************************************************************************************************
+ * Measures the parts of the path of a statement through PFRDB that do not need a database:
+ * - Setting the values of a statement with PFRDB.prepareStatement(). The statement is a local
+ *   stand-in that passes the values to a blackhole, so the measurement contains the dispatch on
+ *   the value types and the call of the stand-in, but no work of a driver.
+ * - Recording a measurement with PFRDBRecorder.
+ *
+ * See PFRDBPostgresBenchmark for the calls against a real database.
+ *
+ * Copyright Owner: Performetriks GmbH, Switzerland
+ * License: Eclipse Public License v2.0
+ *
+ * @author Reto Scheiwiller
+ *
+ *************************************************************************************************/
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class PFRDBBenchmark {
+
+	private PreparedStatement prepared;
+	private Object[] fewValues;
+	private Object[] manyValues;
+	private int recordCounter = 0;
+
+	/*****************************************************************
+	 *
+	 *****************************************************************/
+	@Setup(Level.Trial)
+	public void setup(Blackhole blackhole) {
+
+		prepared = createStandInStatement(blackhole);
+
+		fewValues = new Object[] { "user1", 42 };
+
+		manyValues = new Object[] {
+				  "user1", 42, true, 123L, 1.5f
+				, new BigDecimal("12.34"), new Timestamp(0), null
+				, new StringBuilder("builder"), Mode.AverageTime
+			};
+	}
+
+	/*****************************************************************
+	 * Creates a statement that only consumes the values it is given.
+	 *****************************************************************/
+	private static PreparedStatement createStandInStatement(Blackhole blackhole) {
+
+		return (PreparedStatement) Proxy.newProxyInstance(
+				  PFRDBBenchmark.class.getClassLoader()
+				, new Class<?>[] { PreparedStatement.class }
+				, (proxy, method, args) -> {
+					switch(method.getName()) {
+						case "hashCode":	return System.identityHashCode(proxy);
+						case "equals":		return proxy == args[0];
+						case "toString":	return "stand-in";
+						default:
+							if(args != null) {
+								for(Object arg : args) { blackhole.consume(arg); }
+							}
+							return null;
+					}
+				});
+	}
+
+	/*****************************************************************
+	 *
+	 *****************************************************************/
+	@Benchmark
+	public void prepareStatement_2values() throws SQLException {
+		PFRDB.prepareStatement(prepared, fewValues);
+	}
+
+	/*****************************************************************
+	 *
+	 *****************************************************************/
+	@Benchmark
+	public void prepareStatement_10values() throws SQLException {
+		PFRDB.prepareStatement(prepared, manyValues);
+	}
+
+	/*****************************************************************
+	 * Records a measurement asynchronously, flushes every 64 records
+	 * like an iteration with 64 statements would.
+	 *****************************************************************/
+	@Benchmark
+	public void recordAsync() {
+
+		long start = System.nanoTime();
+		PFRDBRecorder.record(PFRDBRecorder.handle("benchmark"), System.nanoTime() - start, true, null, 0, 0);
+
+		if(++recordCounter % 64 == 0) {
+			PFRDBRecorder.flush();
+		}
+	}
+}
@@ -0,0 +1,156 @@
+package com.performetriks.performator.benchmark;
+
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import com.performetriks.performator.database.PFRDB;
+
+/*************************************************************************************************
+ * Measures the path of a statement through PFRDB against a real PostgreSQL database:
+ * - Setting the values of a statement of the driver with PFRDB.prepareStatement().
+ * - Executing an insert, a batch of inserts and a query with PFRDBSQLBuilder, including the
+ *   connection pool, the statement cache and the recording of the measurements.
+ *
+ * Needs a database and is therefore excluded from the default run of the jmh profile, run it
+ * with JMH parameters for the database, e.g.
+ * -Djmh.args="PFRDBPostgresBenchmark -p dbHost=myhost -p dbPassword=secret".
+ * The benchmark creates and drops the table pfr_benchmark.
+ * See PFRDBBenchmark for the parts that do not need a database.
+ *
+ * Copyright Owner: Performetriks GmbH, Switzerland
+ * License: Eclipse Public License v2.0
+ *
+ * @author Reto Scheiwiller
+ *
+ *************************************************************************************************/
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class PFRDBPostgresBenchmark {
+
+	private static final String TABLE = "pfr_benchmark";
+	private static final String INSERT = "INSERT INTO "+TABLE+" (name, amount) VALUES (?, ?)";
+	private static final String SELECT = "SELECT name, amount FROM "+TABLE+" WHERE id = ?";
+
+	@Param({"localhost"})
+	public String dbHost;
+
+	@Param({"5432"})
+	public int dbPort;
+
+	@Param({"postgres"})
+	public String dbName;
+
+	@Param({"postgres"})
+	public String dbUser;
+
+	@Param({"postgres"})
+	public String dbPassword;
+
+	private PFRDB db;
+	private Connection conn;
+	private PreparedStatement prepared;
+	private Object[] fewValues;
+	private Object[] manyValues;
+	private ArrayList<Object[]> batchRows;
+
+	/*****************************************************************
+	 *
+	 *****************************************************************/
+	@Setup(Level.Trial)
+	public void setup() throws SQLException {
+
+		db = PFRDB.initDBInterfacePostgres(dbHost, dbPort, dbName, dbUser, dbPassword);
+
+		db.create().execute("DROP TABLE IF EXISTS "+TABLE);
+		db.create().execute("CREATE TABLE "+TABLE+" (id SERIAL PRIMARY KEY, name VARCHAR(255), amount INTEGER)");
+		db.create().execute(INSERT, "user0", 0);
+
+		conn = db.getConnection();
+		prepared = conn.prepareStatement(
+				"SELECT ?::text, ?::int, ?::boolean, ?::bigint, ?::real, ?::numeric, ?::timestamp, ?::text, ?::text, ?::text"
+			);
+
+		fewValues = new Object[] { "user1", 42 };
+
+		manyValues = new Object[] {
+				  "user1", 42, true, 123L, 1.5f
+				, new BigDecimal("12.34"), new Timestamp(0), null
+				, new StringBuilder("builder"), Mode.AverageTime
+			};
+
+		batchRows = new ArrayList<>();
+		for(int i = 0; i < 100; i++) {
+			batchRows.add(new Object[] { "user"+i, i });
+		}
+	}
+
+	/*****************************************************************
+	 *
+	 *****************************************************************/
+	@TearDown(Level.Trial)
+	public void tearDown() throws SQLException {
+
+		prepared.close();
+		conn.close();
+
+		db.create().execute("DROP TABLE IF EXISTS "+TABLE);
+		db.getPool().close();
+	}
+
+	/*****************************************************************
+	 *
+	 *****************************************************************/
+	@Benchmark
+	public void prepareStatement_2values() throws SQLException {
+		PFRDB.prepareStatement(prepared, fewValues);
+	}
+
+	/*****************************************************************
+	 *
+	 *****************************************************************/
+	@Benchmark
+	public void prepareStatement_10values() throws SQLException {
+		PFRDB.prepareStatement(prepared, manyValues);
+	}
+
+	/*****************************************************************
+	 *
+	 *****************************************************************/
+	@Benchmark
+	public boolean insert() {
+		return db.create("insert").update(INSERT, "user1", 42);
+	}
+
+	/*****************************************************************
+	 * Inserts 100 rows with one executeBatch().
+	 *****************************************************************/
+	@Benchmark
+	public int insertBatch() {
+		return db.create("insertBatch").batch(INSERT, batchRows);
+	}
+
+	/*****************************************************************
+	 *
+	 *****************************************************************/
+	@Benchmark
+	public int query() {
+		return db.create("query").queryStream(SELECT, row -> {}, 1);
+	}
+}
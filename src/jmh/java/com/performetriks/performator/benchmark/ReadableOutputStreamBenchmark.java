@@ -0,0 +1,65 @@
+package com.performetriks.performator.benchmark;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import com.performetriks.performator.cli.PFRReadableOutputStream;
+
+/*************************************************************************************************
+ * Measures PFRReadableOutputStream.write() with the output of a command line process, written
+ * in chunks like a process output pump does.
+ * 
+ * Copyright Owner: Performetriks GmbH, Switzerland
+ * License: Eclipse Public License v2.0
+ * 
+ * @author Reto Scheiwiller
+ * 
+ *************************************************************************************************/
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class ReadableOutputStreamBenchmark {
+
+	@Param({"80"})
+	public int lineLength;
+	
+	@Param({"8192"})
+	public int chunkSize;
+	
+	private PFRReadableOutputStream stream;
+	private byte[] chunk;
+	
+	/*****************************************************************
+	 * 
+	 *****************************************************************/
+	@Setup(Level.Trial)
+	public void setup() {
+		
+		stream = new PFRReadableOutputStream(10000);
+		
+		StringBuilder builder = new StringBuilder();
+		while(builder.length() < chunkSize) {
+			builder.append("x".repeat(lineLength - 1)).append('\n');
+		}
+		chunk = builder.substring(0, chunkSize).getBytes(StandardCharsets.UTF_8);
+	}
+	
+	/*****************************************************************
+	 * 
+	 *****************************************************************/
+	@Benchmark
+	public void write_chunk() throws IOException {
+		stream.write(chunk);
+	}
+}
@@ -0,0 +1,81 @@
+package com.performetriks.performator.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.performetriks.performator.distribute.RemoteResponse;
+
+import ch.qos.logback.classic.Level;
+
+/*************************************************************************************************
+ * Measures the serialization and parsing of the responses sent between controller and agents.
+ * The payload is an array of records, similar to the stats sent by the agents.
+ * 
+ * Copyright Owner: Performetriks GmbH, Switzerland
+ * License: Eclipse Public License v2.0
+ * 
+ * @author Reto Scheiwiller
+ * 
+ *************************************************************************************************/
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class RemoteResponseBenchmark {
+
+	@Param({"1", "100", "1000"})
+	public int payloadRecords;
+	
+	private RemoteResponse response;
+	private String json;
+	
+	/*****************************************************************
+	 * 
+	 *****************************************************************/
+	@Setup(org.openjdk.jmh.annotations.Level.Trial)
+	public void setup() {
+		
+		JsonArray payload = new JsonArray();
+		for(int i = 0; i < payloadRecords; i++) {
+			JsonObject record = new JsonObject();
+			record.addProperty("name", "010_Login_" + i);
+			record.addProperty("type", "Step");
+			record.addProperty("count", i);
+			record.addProperty("avg", 123.45);
+			record.addProperty("p90", 234.56);
+			record.addProperty("failed", 0);
+			payload.add(record);
+		}
+		
+		response = new RemoteResponse();
+		response.setPayload(payload);
+		response.addMessage(Level.INFO, "Benchmark message");
+		
+		json = response.toJsonString();
+	}
+	
+	/*****************************************************************
+	 * 
+	 *****************************************************************/
+	@Benchmark
+	public String serialize() {
+		return response.toJsonString();
+	}
+	
+	/*****************************************************************
+	 * 
+	 *****************************************************************/
+	@Benchmark
+	public RemoteResponse parse() {
+		return new RemoteResponse(json);
+	}
+}
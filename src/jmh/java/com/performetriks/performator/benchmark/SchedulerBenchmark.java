@@ -0,0 +1,203 @@
+package com.performetriks.performator.benchmark;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.performetriks.performator.executors.PFRExec;
+import com.performetriks.performator.executors.PFRTimingWheelScheduler;
+
+/*************************************************************************************************
+ * Compares the tick jitter and CPU usage of the scheduler backends available for executors.
+ * Every user is a periodic task with a pacing of 1 second, the start of the users is spread
+ * evenly over the first second, same as a ramp up would do.
+ * The jitter is the difference between the planned and the actual start of an iteration.
+ *
+ * The jitter over a long period does not fit many short JMH iterations. The warm-up and the
+ * measurement are therefore a single invocation that lets the users run for the given seconds,
+ * the score is the duration of that invocation. The results are the following counters:
+ * <ul>
+ * <li>executions: iterations started by the scheduler during the measurement</li>
+ * <li>jitterP50Millis, jitterP99Millis, jitterMaxMillis: the jitter of these iterations</li>
+ * <li>cpuPercent: CPU used by the whole JVM, 100 per fully used core</li>
+ * </ul>
+ *
+ * The JVM needs enough heap for 500k users, the fork is started with -Xmx4g.
+ * Run only this benchmark with -Djmh.args="SchedulerBenchmark", or a single user count with
+ * -Djmh.args="SchedulerBenchmark -p users=100000". Do not override the iteration counts.
+ *
+ * Copyright Owner: Performetriks GmbH, Switzerland
+ * License: Eclipse Public License v2.0
+ *
+ * @author Reto Scheiwiller
+ *
+ *************************************************************************************************/
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class SchedulerBenchmark {
+
+	private static final long PACING_NANOS = TimeUnit.SECONDS.toNanos(1);
+	private static final int HISTOGRAM_MAX_MILLIS = 10_000;
+
+	@Param({"THREADPOOL", "TIMINGWHEEL"})
+	public PFRExec.SchedulerType scheduler;
+
+	@Param({"10000", "100000", "500000"})
+	public int users;
+
+	@Param({"30"})
+	public int seconds;
+
+	private final AtomicLongArray histogram = new AtomicLongArray(HISTOGRAM_MAX_MILLIS + 1);
+	private final LongAdder executions = new LongAdder();
+
+	private ScheduledExecutorService executor;
+
+	private final com.sun.management.OperatingSystemMXBean os =
+			(com.sun.management.OperatingSystemMXBean) ManagementFactory.getOperatingSystemMXBean();
+
+	/*************************************************************************************************
+	 * Results of the measurement, reported by JMH next to the score.
+	 *************************************************************************************************/
+	@State(Scope.Thread)
+	@AuxCounters(AuxCounters.Type.EVENTS)
+	public static class RunCounters {
+
+		public long executions;
+		public long jitterP50Millis;
+		public long jitterP99Millis;
+		public long jitterMaxMillis;
+		public double cpuPercent;
+
+		@Setup(Level.Iteration)
+		public void reset() {
+			executions = 0;
+			jitterP50Millis = 0;
+			jitterP99Millis = 0;
+			jitterMaxMillis = 0;
+			cpuPercent = 0;
+		}
+	}
+
+	/*****************************************************************
+	 * Schedules the users, they run until the trial ends.
+	 *****************************************************************/
+	@Setup(Level.Trial)
+	public void setup() {
+
+		int cores = Runtime.getRuntime().availableProcessors();
+
+		if(scheduler == PFRExec.SchedulerType.TIMINGWHEEL) {
+			executor = new PFRTimingWheelScheduler(
+					  "Bench"
+					, PFRTimingWheelScheduler.createDefaultDispatcher("Bench", cores)
+				);
+		}else {
+			executor = Executors.newScheduledThreadPool(cores);
+		}
+
+		long start = System.nanoTime() + PACING_NANOS;
+		for(int i = 0; i < users; i++) {
+			long plannedStart = start + (PACING_NANOS * i) / users;
+			long initialDelay = Math.max(0, plannedStart - System.nanoTime());
+			executor.scheduleAtFixedRate(new JitterTask(plannedStart), initialDelay, PACING_NANOS, TimeUnit.NANOSECONDS);
+		}
+	}
+
+	/*****************************************************************
+	 *
+	 *****************************************************************/
+	@TearDown(Level.Trial)
+	public void tearDown() throws InterruptedException {
+		executor.shutdownNow();
+		executor.awaitTermination(10, TimeUnit.SECONDS);
+	}
+
+	/*****************************************************************
+	 * Lets the users run for the given seconds and collects the
+	 * jitter of the iterations started in that time.
+	 *****************************************************************/
+	@Benchmark
+	public void run(RunCounters counters) throws InterruptedException {
+
+		for(int i = 0; i < histogram.length(); i++) {
+			histogram.set(i, 0);
+		}
+		executions.reset();
+
+		long cpuStart = os.getProcessCpuTime();
+		long wallStart = System.nanoTime();
+
+		TimeUnit.SECONDS.sleep(seconds);
+
+		long cpuNanos = os.getProcessCpuTime() - cpuStart;
+		long wallNanos = System.nanoTime() - wallStart;
+
+		long count = executions.sum();
+		counters.executions = count;
+		counters.jitterP50Millis = percentile(count, 50);
+		counters.jitterP99Millis = percentile(count, 99);
+		counters.jitterMaxMillis = percentile(count, 100);
+		counters.cpuPercent = (cpuNanos * 100.0) / wallNanos;
+	}
+
+	/*****************************************************************
+	 * Returns the percentile of the jitter in milliseconds.
+	 *****************************************************************/
+	private long percentile(long count, int percentile) {
+
+		if(count == 0) { return 0; }
+
+		long threshold = (long)Math.ceil(count * (percentile / 100.0));
+		long sum = 0;
+		for(int i = 0; i < histogram.length(); i++) {
+			sum += histogram.get(i);
+			if(sum >= threshold) { return i; }
+		}
+		return HISTOGRAM_MAX_MILLIS;
+	}
+
+	/*************************************************************************************************
+	 * Task that records how late it was started compared to its planned start.
+	 *************************************************************************************************/
+	private class JitterTask implements Runnable {
+
+		private long plannedNanos;
+
+		private JitterTask(long firstPlannedNanos) {
+			this.plannedNanos = firstPlannedNanos;
+		}
+
+		@Override
+		public void run() {
+
+			long lateMillis = Math.max(0, (System.nanoTime() - plannedNanos) / 1_000_000);
+			plannedNanos += PACING_NANOS;
+
+			histogram.incrementAndGet((int)Math.min(lateMillis, HISTOGRAM_MAX_MILLIS));
+			executions.increment();
+		}
+	}
+}
@@ -0,0 +1,103 @@
+package com.performetriks.performator.benchmark;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import com.google.gson.JsonObject;
+import com.performetriks.performator.base.PFRUsecase;
+import com.performetriks.performator.executors.PFRExec;
+
+/*************************************************************************************************
+ * Measures the overhead the executors add to every user and every iteration:
+ * - Creating a user with PFRExec.createDefaultUserRunnable().
+ * - Running one iteration of an empty usecase with PFRExec.executeIteration().
+ * - Running one iteration with the user runnable, including the dispatch to a virtual thread
+ *   when these are supported. Waits until the iteration has been executed.
+ * 
+ * Copyright Owner: Performetriks GmbH, Switzerland
+ * License: Eclipse Public License v2.0
+ * 
+ * @author Reto Scheiwiller
+ * 
+ *************************************************************************************************/
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class UserRunnableBenchmark {
+
+	private BenchmarkExec executor;
+	private Runnable userRunnable;
+	private PFRUsecase usecase;
+	
+	/*****************************************************************
+	 * 
+	 *****************************************************************/
+	@Setup(Level.Trial)
+	public void setup() {
+		executor = new BenchmarkExec();
+		userRunnable = executor.createDefaultUserRunnable(EmptyUsecase.class, 0, 0);
+		usecase = PFRUsecase.getUsecaseInstance(EmptyUsecase.class);
+		usecase.initializeUser();
+	}
+	
+	/*****************************************************************
+	 * 
+	 *****************************************************************/
+	@Benchmark
+	public Runnable createDefaultUserRunnable() {
+		return executor.createDefaultUserRunnable(EmptyUsecase.class, 1, 0);
+	}
+	
+	/*****************************************************************
+	 * 
+	 *****************************************************************/
+	@Benchmark
+	public long runIteration() {
+		return executor.iterate(usecase);
+	}
+	
+	/*****************************************************************
+	 * 
+	 *****************************************************************/
+	@Benchmark
+	public void runUserRunnable() throws InterruptedException {
+		userRunnable.run();
+		EmptyUsecase.EXECUTED.acquire();
+	}
+	
+	/*************************************************************************************************
+	 * Usecase that does nothing but signal that it has been executed.
+	 *************************************************************************************************/
+	public static class EmptyUsecase extends PFRUsecase {
+		
+		// released once per execution, benchmarks run with a single thread
+		private static final Semaphore EXECUTED = new Semaphore(0);
+		
+		@Override public void initializeUser() {}
+		@Override public void execute() throws Throwable { EXECUTED.release(); }
+		@Override public void terminate() {}
+	}
+	
+	/*************************************************************************************************
+	 * Executor that only exists to access the methods of PFRExec.
+	 *************************************************************************************************/
+	public static class BenchmarkExec extends PFRExec {
+		@Override public void distributeLoad(int totalAgents, int agentIndex, int recursionIndex) {}
+		@Override public void initialize() {}
+		@Override public void executeThreads() {}
+		@Override public void terminate() {}
+		@Override public void getSettings(JsonObject object) {}
+		@Override public String getExecutedName() { return "Benchmark"; }
+		
+		public long iterate(PFRUsecase usecase) { return executeIteration(usecase); }
+	}
+}
@@ -42,6 +42,14 @@ public class Main {
 		, pfr_agentTotal(XRValueType.NUMBER, null, "INTERNAL: Total number of agents. This is set by a controller or agent, used to calculate the amount of load on an agent.")
 		, pfr_agentbornePort(XRValueType.NUMBER, "9877", "INTERNAL: The port used by an agent to start child processes with.")
 		, pfr_agentIsData(XRValueType.BOOLEAN, "false", "INTERNAL: Defines if an agentborne process handles only shared data.")
+		, pfr_statsChannel(XRValueType.BOOLEAN, "false", "If true, agentborne processes send their statistics to the agent or local controller over a memory mapped file instead of HTTPS.")
+		, pfr_statsChannelFile(XRValueType.STRING, null, "INTERNAL: The memory mapped file an agentborne process writes its statistics to.")
+		, pfr_processes(XRValueType.NUMBER, "0", "The number of processes used by the mode MULTIPROCESS, overrides PFRConfig.setLocalProcesses() if greater than 0.")
+		, pfr_logForwarding(XRValueType.BOOLEAN, "true", "If true, agents stream the log of the agentborne process to the controller.")
+		, pfr_logRateLimit(XRValueType.NUMBER, "200", "Maximum number of log lines per second an agent forwards to the controller, ERROR lines are always forwarded.")
+		, pfr_standby(XRValueType.BOOLEAN, "false", "If true, agents keep a pre-started agentborne process that loads the test jar when a test is started, removes the JVM startup from the start of the test.")
+		, pfr_standbyProcess(XRValueType.BOOLEAN, "false", "INTERNAL: Defines if an agentborne process is a pre-started standby process waiting for a test jar or for the start of a local test.")
+		, pfr_cds(XRValueType.BOOLEAN, "true", "If true, agentborne processes are started with a class data sharing archive, which is created in the folder 'cds' by the first process.")
 		;
 		
 		private static HashSet<String> names = new HashSet<>();
@@ -24,6 +24,8 @@ public class PFRConfig {
 	private static PFRAgentPool agentPool = null;
 	private static PFRAgentPool dataAgentPool = null;
 	private static int agentAmount = 0;  // 0 or smaller is use all agents
+	private static int agentAmountMax = 0;  // max agents including the ones joining during the test, 0 or smaller disables joining
+	private static int localProcesses = 0;  // processes used by mode MULTIPROCESS, 0 or smaller is auto
 	private static HashSet<String> agentTags = new HashSet<>();  // filter agents by these tags
 	private static HashSet<String> dataAgentTags = new HashSet<>();  // filter agents by these tags
 	
@@ -34,6 +36,7 @@ public class PFRConfig {
 	public enum Mode {
 		  AUTO("Executes either locally, or on agents if agents are defined.")
 		, LOCAL("Execute test locally, does not execute anything on agents. Useful for development.")
+		, MULTIPROCESS("Executes the test locally in multiple processes, useful to use all cores of a large machine. See PFRConfig.setLocalProcesses().")
 		, AGENT("Start the performator.jar as an agent.")
 		, AGENTBORNE("Mode used by agents to execute a jar file. Remote will remove all HSRReporters and reports data to the controller instead.")
 		, INFO("Mode that prints information as JSON regarding the test jar file.")
@@ -152,6 +155,60 @@ public class PFRConfig {
 	public static void setAgentAmount(int agentAmount) {
 		PFRConfig.agentAmount = agentAmount;
 	}
+	
+	/**********************************************************************************
+	 * <b>Scope:</b> Global<br>
+	 * 
+	 * Returns the maximum amount of load agents, including the agents that join 
+	 * while the test is running.
+	 **********************************************************************************/
+	public static int getAgentAmountMax() {
+		return agentAmountMax;
+	}
+
+	/**********************************************************************************
+	 * <b>Scope:</b> Global<br>
+	 * Set the maximum amount of load agents. If this is higher than the amount of 
+	 * agents the test started with, additional agents from the agent pool join the 
+	 * running test when an agent is saturated (see PFRSaturationGuard).
+	 * Default is 0, no agents join during the test.
+	 **********************************************************************************/
+	public static void setAgentAmountMax(int agentAmountMax) {
+		PFRConfig.agentAmountMax = agentAmountMax;
+	}
+
+	/**********************************************************************************
+	 * <b>Scope:</b> Global<br>
+	 * 
+	 * Returns the amount of processes used to execute the test in the mode 
+	 * MULTIPROCESS. If not set, one process is used for every 4 cores, but at 
+	 * least 2 processes.
+	 **********************************************************************************/
+	public static int getLocalProcesses() {
+		
+		if(localProcesses > 0) { return localProcesses; }
+		
+		return Math.max(2, Runtime.getRuntime().availableProcessors() / 4);
+	}
+	
+	/**********************************************************************************
+	 * <b>Scope:</b> Global<br>
+	 * Set the amount of processes used to execute the test in the mode MULTIPROCESS.
+	 * Every process gets its own share of the load, like an agent would.
+	 * In the mode AUTO, if no agents are defined and this is set to a value greater 
+	 * than 1, the test is executed in multiple local processes as well.
+	 **********************************************************************************/
+	public static void setLocalProcesses(int localProcesses) {
+		PFRConfig.localProcesses = localProcesses;
+	}
+	
+	/**********************************************************************************
+	 * <b>Scope:</b> Global<br>
+	 * Returns true if the amount of local processes has been set explicitly.
+	 **********************************************************************************/
+	public static boolean hasLocalProcesses() {
+		return localProcesses > 1;
+	}
 
 	/**********************************************************************************
 	 * <b>Scope:</b> Global<br>
@@ -3,17 +3,30 @@ package com.performetriks.performator.base;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.URISyntaxException;
+import java.nio.file.Paths;
 import java.time.Duration;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Set;
 import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.jar.Manifest;
 
 import org.slf4j.LoggerFactory;
 
 import com.google.common.base.Joiner;
+import com.google.common.base.Strings;
 import com.google.gson.JsonArray;
 import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
@@ -22,10 +35,16 @@ import com.performetriks.performator.base.PFRConfig.Mode;
 import com.performetriks.performator.data.PFRDataSource;
 import com.performetriks.performator.distribute.PFRAgent;
 import com.performetriks.performator.distribute.PFRAgentPool;
+import com.performetriks.performator.distribute.PFRAgentborneStandby;
+import com.performetriks.performator.distribute.PFRLocalProcessPool;
+import com.performetriks.performator.distribute.PFRLogForwarder;
+import com.performetriks.performator.distribute.PFRStatsChannel;
 import com.performetriks.performator.distribute.RemoteResponse;
 import com.performetriks.performator.distribute.ZePFRClient;
 import com.performetriks.performator.distribute.ZePFRServer;
 import com.performetriks.performator.executors.PFRExec;
+import com.performetriks.performator.executors.PFRExecAdaptive;
+import com.performetriks.performator.executors.PFRIterationStats;
 import com.performetriks.performator.executors.PFRExecEmpty;
 import com.xresch.hsr.base.HSR;
 import com.xresch.hsr.base.HSRConfig;
@@ -70,17 +89,65 @@ public class PFRCoordinator {
 	
 	private static ArrayList<PFRExec> executorList = null;
 	
-	private static ArrayList<ZePFRClient> connectionsAgentsAll = new ArrayList<>();
-	private static ArrayList<ZePFRClient> connectionsAgentsLoad = new ArrayList<>();
+	// copy on write as agents can join while the test is running
+	private static List<ZePFRClient> connectionsAgentsAll = new CopyOnWriteArrayList<>();
+	private static List<ZePFRClient> connectionsAgentsLoad = new CopyOnWriteArrayList<>();
 	
 	// Note: This will at most contain a single entry, done like this for less code redundancy
-	private static ArrayList<ZePFRClient> connectionsAgentsData = new ArrayList<>();
+	private static List<ZePFRClient> connectionsAgentsData = new CopyOnWriteArrayList<>();
+	
+	// hostnames of the load agents that reported to be saturated
+	private static Set<String> agentsSaturated = ConcurrentHashMap.newKeySet();
+	
+	// weights of the load agents running the test, used to rebalance the load
+	private static LinkedHashMap<ZePFRClient, Double> agentsLoadWeights = new LinkedHashMap<>();
+	private static HashMap<ZePFRClient, Integer> agentsUnreachableCount = new HashMap<>();
+	private static ConcurrentHashMap<ZePFRClient, Integer> agentsDistributedTotal = new ConcurrentHashMap<>();
+	private static long agentsLastRebalanceMillis = 0;
+	
+	// agents joining while the test is running
+	private static PFRTest agentsRunningTest = null;
+	private static volatile Thread agentsJoinThread = null;
+	private static long agentsLastJoinMillis = 0;
+	private static final Object SYNC_LOCK_JOIN = new Object();
+	
+	// false when joined agents would raise the load, e.g. during the graceful stop
+	private static volatile boolean agentsJoinAllowed = false;
+	// false if an executor can not take over the load of other agents
+	private static volatile boolean agentsRebalanceSupported = true;
+	private static final Object SYNC_LOCK_JOIN_START = new Object();
 	
 	private static ZePFRServer server = null;
 	
+	// loads the test classes in standby agentborne processes, null to use the default class loader
+	private static ClassLoader testClassLoader = null;
+	
 	private static HSRReporterPeekPoll peekPoll = null;
 	
-	private static boolean isTestRunning = true;
+	// the statistics reported to the executors, not used on agents
+	private static HSRReporterPeekPoll statsPoll = null;
+	private static PFRStatsChannel statsChannel = null; // agentborne: writes stats to the agent or local controller
+	private static Map<ZePFRClient, PFRStatsChannel> agentsStatsChannels = new ConcurrentHashMap<>();
+	
+	private static volatile boolean isTestRunning = true;
+	
+	// load factor set by rebalanceLoad(), applied together with the warm-up load factor
+	private static volatile double agentLoadFactor = 1.0;
+	
+	// true when the controller has ended the warm-up on the agents
+	private static volatile boolean agentsWarmupEnded = false;
+	
+	// completed when the test has been terminated, used to notify waiting threads
+	private static volatile CompletableFuture<Void> testEnd = new CompletableFuture<>();
+	
+	// max time a single testawait request is held open by an agent 
+	private static final long AGENT_AWAIT_MAX_MILLIS = 15_000;
+	private static final int AGENT_UNREACHABLE_MAX_COUNT = 3;
+	private static final long AGENT_REBALANCE_COOLDOWN_MILLIS = 30_000;
+	private static final double AGENT_SATURATED_WEIGHT_FACTOR = 0.8;
+	private static final long AGENT_JOIN_COOLDOWN_MILLIS = 60_000;
+	private static final long AGENT_LOGSTREAM_WAIT_MILLIS = 5_000;
+	private static final long AGENT_WARMUP_AWAIT_MILLIS = 10_000;
 	
 	/*************************************************************
 	 * Start the instance in the defined mode.
@@ -91,6 +158,7 @@ public class PFRCoordinator {
 		switch(mode) {
 			case AUTO 	-> executeAuto();
 			case LOCAL 	-> executeLocal();
+			case MULTIPROCESS -> executeMultiProcess();
 			case AGENT 	-> executeAgentInstance();
 			case AGENTBORNE -> executeAgentborne();
 			case INFO -> executeInfo();
@@ -195,6 +263,8 @@ public class PFRCoordinator {
 		if(test != null) {
 			if(PFRConfig.hasAgents()) {
 				executeOnAgents(test);
+			}else if(PFRConfig.hasLocalProcesses()) {
+				executeMultiProcess(test);
 			}else {
 				executeLocal(test);
 			}
@@ -240,6 +310,81 @@ public class PFRCoordinator {
 	}
 	
 	
+	/*************************************************************
+	 * Start the instance and run the test in multiple processes
+	 * on the local machine. Use the test class defined with the 
+	 * CLI argument -Dprf_test={testClass}
+	 * 
+	 *************************************************************/
+	public static void executeMultiProcess() {
+		
+		String testClass = CLIArgs.pfr_test.getValue().getAsString();
+		
+		PFRTest test = createTestInstance(testClass);
+		
+		if(test != null) {
+			executeMultiProcess(test);
+		}
+	}
+	
+	/*************************************************************
+	 * Start the instance and run the given test in multiple 
+	 * agentborne processes on the local machine. The load is 
+	 * distributed over the processes like over agents, the
+	 * processes report their statistics to this instance.
+	 * 
+	 *************************************************************/
+	public static void executeMultiProcess(PFRTest test) {
+		
+		if( ! checkCanExecute(test) ) { return; }
+		
+		int processCount = CLIArgs.pfr_processes.getValue().getAsInteger();
+		if(processCount <= 0) {
+			processCount = PFRConfig.getLocalProcesses();
+		}
+		
+		PFRLocalProcessPool pool = new PFRLocalProcessPool(test, processCount);
+		
+		try {
+			agentsDisconnect();
+			
+			//------------------------------
+			// Registers the Hooks before the
+			// processes start reporting
+			if( !prepareTestExecution(test) ) {
+				return;
+			}
+			
+			//------------------------------
+			// Start Processes, they start
+			// the test immediately
+			List<ZePFRClient> processes = pool.start();
+			
+			if(processes.isEmpty()) {
+				logger.error("None of the local processes could be started, test is aborted.");
+				terminateTest();
+				return;
+			}
+			
+			connectionsAgentsLoad.addAll(processes);
+			connectionsAgentsAll.addAll(processes);
+			agentsStatsChannels.putAll(pool.getStatsChannels());
+			
+			agentsStartWarmupControl(test);
+			agentsAwaitTest(test);
+			
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt(); // restore interrupt flag
+			e.printStackTrace();
+		} catch (Exception e) {
+			e.printStackTrace();
+		} finally {
+			pool.terminate();
+			agentsStatsChannels.clear();
+			agentsDisconnect();
+		}
+	}
+	
 	/*************************************************************
 	 * Start the instance and distribute the test on agents.
 	 * 
@@ -259,10 +404,6 @@ public class PFRCoordinator {
 			// Send Jar File
 			agentsTransferJar(test);
 			
-			//------------------------------
-			// Send Jar File
-			agentsRegisterStatsEngineHooks();
-			
 			//------------------------------
 			// Start Test
 			agentsStartTest(test);
@@ -302,28 +443,36 @@ public class PFRCoordinator {
 	 * Transfers the JAR file to the connected agents.
 	 *************************************************************/
 	private static void agentsTransferJar(PFRTest test) throws URISyntaxException, InterruptedException {
+		agentsTransferJar(test, connectionsAgentsAll);
+	}
+	
+	/*************************************************************
+	 * Transfers the jar file to the given agents and waits until
+	 * all transfers have finished.
+	 * 
+	 *************************************************************/
+	private static void agentsTransferJar(PFRTest test, List<ZePFRClient> agents) throws URISyntaxException, InterruptedException {
 		logger.info("################################################");
 		logger.info("# Transfer Test JAR File to Agents");
 		logger.info("################################################");
 		logger.info("Start Transfer of JAR File: " + ZePFRClient.getJarFileURIForTest(test) );
 		
-		CountDownLatch latch = new CountDownLatch(connectionsAgentsAll.size());
+		CountDownLatch latch = new CountDownLatch(agents.size());
 		
-		for(int i = 0 ; i < connectionsAgentsAll.size(); i++) {
+		for(int i = 0 ; i < agents.size(); i++) {
 			
-			connectionsAgentsAll.get(i).sendJar(latch);
+			agents.get(i).sendJar(latch);
 		}
 
 		//------------------------------
 		// Wait for Transfers to finish
 		long waitTime = 1000;
 		int iteration = 1;
-		do {
+		while( ! latch.await(waitTime, TimeUnit.MILLISECONDS) ) {
 			
 			//----------------------------
 			// Incremental Wait
-			Thread.sleep(waitTime);
-			if(iteration % 3 == 0 && waitTime < 30000) {
+			if(iteration++ % 3 == 0 && waitTime < 30000) {
 				waitTime *= 2;
 			}
 			
@@ -331,74 +480,123 @@ public class PFRCoordinator {
 			//----------------------------
 			// Ping agents and create Progress Log
 			StringBuilder builder = new StringBuilder();
-			for(int i = 0 ; i < connectionsAgentsAll.size(); i++) {
+			for(int i = 0 ; i < agents.size(); i++) {
 				
-				connectionsAgentsAll.get(i).ping(); // ping agent to not lose connection during longer upload times.
+				agents.get(i).ping(); // ping agent to not lose connection during longer upload times.
 				
-				PFRAgent current = connectionsAgentsAll.get(i).getAgent();
+				PFRAgent current = agents.get(i).getAgent();
 
 				builder.append(" ["+current.hostname()+": "+current.uploadProgressPercent()+"%] ");
 			}
 			logger.info("Upload Progress:"+builder.toString());
 			
-		}while(latch.getCount() > 0);
+		}
 		
 		logger.info("All Transfers finished");
 	}
 	
 	/*************************************************************
 	 * Adds the hooks needed to collect the statistics from the
-	 * agents before aggregating the reports.
+	 * agents before aggregating the reports, and to hand the
+	 * reported statistics to the executors.
 	 * 
 	 *************************************************************/
-	private static void agentsRegisterStatsEngineHooks() {
+	private static void registerStatsEngineHooks() {
 		
 		HSRStatsEngine.setHooks( new HSRStatsEngineHooks() {
 			
 			@Override
 			public void beforeAggregate() {
-				//-------------------------------------
-				// Fetch data from all agents
-				TreeMap<String, ArrayList<HSRRecordStats>> groupedStats = new TreeMap<>();
 				
-				for(int i = 0 ; i < connectionsAgentsLoad.size(); i++) {
-					ZePFRClient current = connectionsAgentsLoad.get(i);
-					
-					RemoteResponse response = current.statsPoll();
+				if( !connectionsAgentsLoad.isEmpty() ) {
+					agentsCollectStats();
+				}
+				
+				executorsReportStats();
+			}
+		});
+	}
 	
-					if(response != null) { 
+	/*************************************************************
+	 * Fetches the statistics from all agents and adds them to 
+	 * the engine, summarized over all agents.
+	 * 
+	 *************************************************************/
+	private static void agentsCollectStats() {
+		
+		//-------------------------------------
+		// Fetch data from all agents
+		TreeMap<String, ArrayList<HSRRecordStats>> groupedStats = new TreeMap<>();
+		
+		for(int i = 0 ; i < connectionsAgentsLoad.size(); i++) {
+			ZePFRClient current = connectionsAgentsLoad.get(i);
+			
+			JsonArray recordStatsArray = null;
+			PFRStatsChannel channel = agentsStatsChannels.get(current);
+			if(channel != null) {
+				recordStatsArray = channel.pollRecordsJson();
+			}else {
+				RemoteResponse response = current.statsPoll();
+				if(response != null) { recordStatsArray = response.payloadAsArray(); }
+			}
+
+			if(recordStatsArray != null) { 
 				
-						JsonArray recordStatsArray = response.payloadAsArray();
+				for(JsonElement e : recordStatsArray) {
+					if(e.isJsonObject()) {
+						HSRRecordStats stats = new HSRRecordStats(e.getAsJsonObject());
 						
-						for(JsonElement e : recordStatsArray) {
-							if(e.isJsonObject()) {
-								HSRRecordStats stats = new HSRRecordStats(e.getAsJsonObject());
-								
-								String statsId = stats.statsIdentifier();
-								
-								if( !groupedStats.containsKey(statsId) ) {
-									groupedStats.put(statsId,  new ArrayList<>());
-								}
-								
-								groupedStats.get(statsId).add(stats);
-							}
+						String statsId = stats.statsIdentifier();
+						
+						if( !groupedStats.containsKey(statsId) ) {
+							groupedStats.put(statsId,  new ArrayList<>());
 						}
 						
+						groupedStats.get(statsId).add(stats);
 					}
 				}
 				
-				//-------------------------------------
-				// Summarize Stats from Agents
-				SummarizedStats summary = HSRStatsEngine.summarizeGroupedStats(groupedStats, true);
-				
-				//-------------------------------------
-				// Add all to Engine
-				for(HSRRecordStats stats : summary.finalRecords()) {
-					HSRStatsEngine.addRecordStats(stats);
-				}
-				
 			}
-		});
+		}
+		
+		//-------------------------------------
+		// Summarize Stats from Agents
+		SummarizedStats summary = HSRStatsEngine.summarizeGroupedStats(groupedStats, true);
+		
+		//-------------------------------------
+		// Add all to Engine
+		for(HSRRecordStats stats : summary.finalRecords()) {
+			HSRStatsEngine.addRecordStats(stats);
+		}
+	}
+	
+	/*************************************************************
+	 * Hands the statistics reported for the last interval to the
+	 * executors. On the controller they contain the statistics 
+	 * of all agents.
+	 * 
+	 *************************************************************/
+	private static void executorsReportStats() {
+		
+		if(statsPoll == null || executorList == null) { return; }
+		
+		JsonArray recordStatsArray = statsPoll.pollRecordsJson();
+		if(recordStatsArray == null) { return; }
+		
+		ArrayList<HSRRecordStats> records = new ArrayList<>();
+		for(JsonElement e : recordStatsArray) {
+			if(e.isJsonObject()) {
+				records.add(new HSRRecordStats(e.getAsJsonObject()));
+			}
+		}
+		
+		for(PFRExec executor : executorList) {
+			try {
+				executor.onStatsReported(records);
+			}catch(Exception e) {
+				logger.error("Error while reporting statistics to executor "+executor.getExecutedName()+": "+e.getMessage(), e);
+			}
+		}
 	}
 		
 		
@@ -418,7 +616,7 @@ public class PFRCoordinator {
 		PFRAgentPool pool;
 		HashSet<String> tags;
 		int amount = 1;
-		ArrayList<ZePFRClient> targetList;
+		List<ZePFRClient> targetList;
 		
 		if( ! isDataAgent ) {
 			
@@ -470,15 +668,9 @@ public class PFRCoordinator {
 				continue amountLoop;
 			}
 			
-			for(String filterTag : tags) {
-				if( ! agent.hasTag(filterTag) 
-				&&  ! agent.hostname().equals(filterTag)  
-				&&  ! (agent.port()+"").equals(filterTag)  
-				&&  ! (agent.hostname()+":"+agent.port()).equals(filterTag)  
-				){
-					agentsSkipped.add(agent);
-					continue amountLoop;
-				}
+			if( ! agentMatchesTags(agent, tags) ) {
+				agentsSkipped.add(agent);
+				continue amountLoop;
 			}
 			
 			//---------------------------
@@ -559,32 +751,464 @@ public class PFRCoordinator {
 	 *************************************************************/
 	private static boolean agentsPingIsTestRunning(boolean logStatus) {
 		
-		boolean isAnyTestRunning = false;
+		boolean isAnyTestRunning = false;
+		
+		StringBuilder builder = new StringBuilder();
+
+		for(int i = 0 ; i < connectionsAgentsAll.size(); i++) {
+			ZePFRClient current = connectionsAgentsAll.get(i);
+			RemoteResponse response = current.ping();
+
+			boolean isAgentTestRunning = response.payloadMemberAsBoolean(RemoteResponse.FIELD_STATUS_ISTESTRUNNING);
+			
+			isAnyTestRunning |= isAgentTestRunning;
+			
+			//----------------------------
+			// Create Progress Log
+			PFRAgent agent = current.getAgent();
+			builder.append(" ["+agent.hostname()+": "+
+									((isAgentTestRunning) ? "running" : "done") 
+							 +"] ");
+			
+		}
+		
+		if(logStatus) {
+			logger.info("Agent Test State:"+builder.toString());
+		}
+		
+		return isAnyTestRunning;
+	}
+	
+	/*************************************************************
+	 * Waits until the test on all load agents has ended or the 
+	 * deadline is reached. 
+	 * The agents hold the testawait requests open and answer as 
+	 * soon as their test ends, so this method returns within 
+	 * milliseconds after the last agent has finished.
+	 * Data agents are pinged on every round to keep them connected.
+	 * 
+	 * @param deadlineMillis epoch time when to stop waiting
+	 * @param allowRebalance true to redistribute the load when agents
+	 * drop out, come back or are saturated
+	 * @return true if any load agent is still running a test
+	 *************************************************************/
+	private static boolean agentsAwaitTestEnd(long deadlineMillis, boolean allowRebalance) throws InterruptedException {
+		
+		boolean isAnyTestRunning = true;
+		
+		while(isAnyTestRunning) {
+			
+			boolean isRebalanceNeeded = false;
+			
+			long remaining = deadlineMillis - System.currentTimeMillis();
+			if(remaining <= 0) { break; }
+			
+			long waitMillis = Math.min(remaining, AGENT_AWAIT_MAX_MILLIS);
+			
+			//----------------------------
+			// Send Requests in Parallel
+			ArrayList<CompletableFuture<RemoteResponse>> futures = new ArrayList<>();
+			for(ZePFRClient current : connectionsAgentsLoad) {
+				futures.add(
+					CompletableFuture.supplyAsync(
+						  () -> current.testAwait(waitMillis)
+						, (r) -> PFRExec.startVirtualThread(r, "AwaitAgent-"+current.getHost())
+					)
+				);
+			}
+			
+			for(ZePFRClient current : connectionsAgentsData) {
+				current.ping();
+			}
+			
+			//----------------------------
+			// Collect Results
+			isAnyTestRunning = false;
+			StringBuilder builder = new StringBuilder();
+			
+			for(int i = 0 ; i < futures.size(); i++) {
+				
+				RemoteResponse response = null;
+				try {
+					response = futures.get(i).get();
+				}catch(ExecutionException e) {
+					logger.warn("Error while waiting for agent: "+e.getMessage(), e);
+				}
+				
+				String state = "unreachable";
+				ZePFRClient current = connectionsAgentsLoad.get(i);
+				PFRAgent agent = current.getAgent();
+				if(response != null) {
+					boolean isAgentTestRunning = response.payloadMemberAsBoolean(RemoteResponse.FIELD_STATUS_ISTESTRUNNING);
+					isAnyTestRunning |= isAgentTestRunning;
+					state = (isAgentTestRunning) ? "running" : "done";
+					
+					agentsUnreachableCount.remove(current);
+					
+					//----------------------------
+					// Agent is back or has joined
+					if(isAgentTestRunning && !agentsLoadWeights.containsKey(current)) {
+						logger.info("Agent "+agent.hostname()+" is running the test, redistribute load.");
+						agentsLoadWeights.put(current, 1.0);
+						isRebalanceNeeded = true;
+					}
+					
+					//----------------------------
+					// Agent has finished
+					if(!isAgentTestRunning && agentsLoadWeights.remove(current) != null) {
+						logger.info("Agent "+agent.hostname()+" has finished the test, redistribute load.");
+						isRebalanceNeeded = true;
+					}
+					
+					//----------------------------
+					// Saturation
+					if(isAgentTestRunning && agentUpdateSaturation(agent, response)) {
+						state += ", saturated";
+						isRebalanceNeeded |= agentReduceWeightIfSaturated(current);
+						
+						if(allowRebalance) { agentsJoinIfSaturated(); }
+					}
+					
+				}else {
+					//----------------------------
+					// Agent dropped out
+					int unreachableCount = agentsUnreachableCount.merge(current, 1, Integer::sum);
+					if(unreachableCount >= AGENT_UNREACHABLE_MAX_COUNT 
+					&& agentsLoadWeights.remove(current) != null) {
+						String message = "Agent "+agent.hostname()+" is unreachable, redistribute its load to the other agents.";
+						logger.warn(message);
+						HSR.addWarnMessage(message);
+						isRebalanceNeeded = true;
+					}
+				}
+				
+				builder.append(" ["+agent.hostname()+": "+state+"] ");
+			}
+			
+			logger.info("Agent Test State:"+builder.toString());
+			
+			//----------------------------
+			// Rebalance
+			if(allowRebalance && isRebalanceNeeded && isAnyTestRunning) {
+				agentsRebalance();
+			}
+		}
+		
+		return isAnyTestRunning;
+	}
+	
+	/*************************************************************
+	 * Returns true if the agent matches all the tags, tags can also
+	 * be the hostname, the port or hostname:port of the agent.
+	 *************************************************************/
+	private static boolean agentMatchesTags(PFRAgent agent, HashSet<String> tags) {
+		
+		for(String filterTag : tags) {
+			if( ! agent.hasTag(filterTag) 
+			&&  ! agent.hostname().equals(filterTag)  
+			&&  ! (agent.port()+"").equals(filterTag)  
+			&&  ! (agent.hostname()+":"+agent.port()).equals(filterTag)  
+			){
+				return false;
+			}
+		}
+		
+		return true;
+	}
+	
+	/*************************************************************
+	 * Returns true if there is already a connection to the agent.
+	 *************************************************************/
+	private static boolean agentIsConnected(PFRAgent agent) {
+		
+		for(ZePFRClient connection : connectionsAgentsAll) {
+			PFRAgent connected = connection.getAgent();
+			if(connected != null
+			&& connected.hostname().equals(agent.hostname())
+			&& connected.port() == agent.port()) {
+				return true;
+			}
+		}
+		
+		return false;
+	}
+	
+	/*************************************************************
+	 * Reserves additional load agents from the agent pool while 
+	 * the test is running, transfers the jar file and starts the
+	 * test on them.
+	 * The new agents distribute the load with the new amount of 
+	 * agents. They are added to the rebalancing as soon as they 
+	 * report the test as running, and their statistics are 
+	 * aggregated like the ones of the other agents.
+	 * Agents can only join while the load is rebalanced, else the
+	 * total load would be raised by their share.
+	 * 
+	 * @param count the amount of agents to add
+	 * @return the amount of agents the test has been started on
+	 *************************************************************/
+	public static int agentsJoin(int count) {
+		synchronized(SYNC_LOCK_JOIN) {
+			return agentsJoinInternal(count);
+		}
+	}
+	
+	/*************************************************************
+	 * See agentsJoin().
+	 *************************************************************/
+	private static int agentsJoinInternal(int count) {
+		
+		PFRTest test = agentsRunningTest;
+		
+		if(test == null || !isTestRunning || !PFRConfig.hasAgents()) {
+			logger.warn("Agents can only join while a test is running on agents.");
+			return 0;
+		}
+		
+		if( !agentsJoinAllowed ) {
+			logger.warn("Agents can only join while the load is rebalanced.");
+			return 0;
+		}
+		
+		logger.info("################################################");
+		logger.info("# Join Additional Load Agents");
+		logger.info("################################################");
+		
+		//------------------------------
+		// Reserve available agents
+		PFRAgentPool pool = PFRConfig.getAgentPool();
+		HashSet<String> tags = PFRConfig.getAgentTags();
+		ArrayList<ZePFRClient> joined = new ArrayList<>();
+		
+		for(int i = 0 ; i < pool.size() && joined.size() < count ; i++) {
+			
+			PFRAgent agent = pool.get(i);
+			
+			if( ! agent.active() 
+			||  ! agentMatchesTags(agent, tags)
+			||  agentIsConnected(agent) ) {
+				continue;
+			}
+			
+			ZePFRClient connection = new ZePFRClient(agent, test);
+			RemoteResponse status = connection.getStatus();
+			
+			if(status == null || !status.success()) { continue; }
+			
+			JsonObject payload = status.payloadAsObject();
+			if( !payload.has(RemoteResponse.FIELD_STATUS_AVAILABLE)
+			||  !payload.get(RemoteResponse.FIELD_STATUS_AVAILABLE).getAsBoolean()) {
+				continue;
+			}
+			
+			int agentTotal = connectionsAgentsLoad.size() + joined.size() + 1;
+			RemoteResponse reserve = connection.reserveAgent(agentTotal, agentTotal - 1, false);
+			
+			if(reserve != null && reserve.success()) {
+				joined.add(connection);
+				agentsDistributedTotal.put(connection, agentTotal);
+			}
+		}
+		
+		if(joined.isEmpty()) {
+			logger.warn("No additional agents available to join the test.");
+			return 0;
+		}
+		
+		//------------------------------
+		// Transfer
+		try {
+			agentsTransferJar(test, joined);
+		}catch(InterruptedException e) {
+			Thread.currentThread().interrupt(); // restore interrupt flag
+		}catch(Exception e) {
+			logger.error("Error while transferring jar to joining agents: "+e.getMessage(), e);
+		}
+		
+		for(ZePFRClient connection : new ArrayList<>(joined)) {
+			if( !connection.getAgent().isUploadSuccessful() ) {
+				logger.warn("Transfer of jar failed, agent does not join the test: "+connection.getAgent().hostname());
+				joined.remove(connection);
+				agentsDistributedTotal.remove(connection);
+				connection.disconnect();
+			}
+		}
+		
+		if(joined.isEmpty()) { return 0; }
+		
+		//------------------------------
+		// Start
+		// locked to not start agents after the graceful stop has been sent
+		StringBuilder builder = new StringBuilder();
+		synchronized(SYNC_LOCK_JOIN_START) {
+			
+			if( !isTestRunning || !agentsJoinAllowed || Thread.currentThread().isInterrupted() ) {
+				logger.info("Test has ended while agents were joining.");
+				for(ZePFRClient connection : joined) {
+					agentsDistributedTotal.remove(connection);
+					connection.disconnect();
+				}
+				return 0;
+			}
+			
+			connectionsAgentsLoad.addAll(joined);
+			connectionsAgentsAll.addAll(joined);
+			
+			for(ZePFRClient connection : joined) {
+				connection.testStart();
+				agentsStartLogStream(connection);
+				if(agentsWarmupEnded) { connection.warmup(true); }
+				builder.append(" ["+connection.getAgent().hostname()+"] ");
+			}
+		}
+		
+		String message = "Agents joined the test:" + builder.toString();
+		logger.info(message);
+		HSR.addInfoMessage(message);
+		
+		return joined.size();
+	}
+	
+	/*************************************************************
+	 * Lets an additional agent join in the background if an agent
+	 * is saturated and PFRConfig.setAgentAmountMax() allows more 
+	 * agents.
+	 *************************************************************/
+	private static void agentsJoinIfSaturated() {
+		
+		if(connectionsAgentsLoad.size() >= PFRConfig.getAgentAmountMax()
+		|| (agentsJoinThread != null && agentsJoinThread.isAlive())
+		|| System.currentTimeMillis() - agentsLastJoinMillis < AGENT_JOIN_COOLDOWN_MILLIS ) {
+			return;
+		}
+		
+		agentsLastJoinMillis = System.currentTimeMillis();
+		
+		agentsJoinThread = new Thread(() -> agentsJoin(1));
+		agentsJoinThread.setName("AgentsJoin");
+		agentsJoinThread.setDaemon(true);
+		agentsJoinThread.start();
+	}
+	
+	/*************************************************************
+	 * Reduces the weight of a saturated agent if configured with
+	 * PFRSaturationGuard.rebalance(true) and if there is another 
+	 * agent that is not saturated which can take over the load.
+	 * 
+	 * @return true if the weight has been reduced
+	 *************************************************************/
+	private static boolean agentReduceWeightIfSaturated(ZePFRClient client) {
+		
+		if( !PFRSaturationGuard.rebalance() 
+		||  !agentsLoadWeights.containsKey(client)
+		||  System.currentTimeMillis() - agentsLastRebalanceMillis < AGENT_REBALANCE_COOLDOWN_MILLIS) {
+			return false;
+		}
+		
+		boolean hasUnsaturatedAgent = false;
+		for(ZePFRClient other : agentsLoadWeights.keySet()) {
+			hasUnsaturatedAgent |= !agentsSaturated.contains(agentKey(other.getAgent()));
+		}
+		
+		if(!hasUnsaturatedAgent) { return false; }
+		
+		agentsLoadWeights.computeIfPresent(client, (k, weight) -> weight * AGENT_SATURATED_WEIGHT_FACTOR);
+		return true;
+	}
+	
+	/*************************************************************
+	 * Sends the new load factors to all the load agents that are
+	 * still running the test. The factors are calculated from the 
+	 * agent weights so that the total load stays the same as the 
+	 * load distributed at the start of the test.
+	 *************************************************************/
+	private static void agentsRebalance() {
+		
+		agentsLastRebalanceMillis = System.currentTimeMillis();
+		
+		// the share of agents that drop out would be lost
+		if( !agentsRebalanceSupported ) { return; }
+		
+		double totalWeight = 0;
+		for(double weight : agentsLoadWeights.values()) {
+			totalWeight += weight;
+		}
+		
+		if(totalWeight <= 0) { return; }
 		
 		StringBuilder builder = new StringBuilder();
-
-		for(int i = 0 ; i < connectionsAgentsAll.size(); i++) {
-			ZePFRClient current = connectionsAgentsAll.get(i);
-			RemoteResponse response = current.ping();
-
-			boolean isAgentTestRunning = response.payloadMemberAsBoolean(RemoteResponse.FIELD_STATUS_ISTESTRUNNING);
+		for(Entry<ZePFRClient, Double> entry : agentsLoadWeights.entrySet()) {
 			
-			isAnyTestRunning |= isAgentTestRunning;
+			// the factor is relative to the share the agent got by distributeLoad()
+			int distributedTotal = agentsDistributedTotal.getOrDefault(entry.getKey(), 1);
+			double loadFactor = entry.getValue() * distributedTotal / totalWeight;
+			RemoteResponse response = entry.getKey().rebalance(loadFactor);
 			
-			//----------------------------
-			// Create Progress Log
-			PFRAgent agent = current.getAgent();
-			builder.append(" ["+agent.hostname()+": "+
-									((isAgentTestRunning) ? "running" : "done") 
-							 +"] ");
+			String hostname = entry.getKey().getAgent().hostname();
+			if(response == null || !response.success()) {
+				logger.warn("Could not rebalance agent "+hostname+".");
+			}
 			
+			builder.append(" ["+hostname+": "+String.format("%.2f", loadFactor)+"] ");
 		}
 		
-		if(logStatus) {
-			logger.info("Agent Test State:"+builder.toString());
+		String message = "Rebalanced load factors:" + builder.toString();
+		logger.info(message);
+		HSR.addInfoMessage(message);
+	}
+	
+	/*************************************************************
+	 * Returns true if all executors of the test can take over the 
+	 * load of agents that drop out, else the load is not rebalanced
+	 * and no agents can join.
+	 *************************************************************/
+	private static boolean isRebalanceSupported(PFRTest test) {
+		
+		for(PFRExec executor : test.getExecutors()) {
+			if( !executor.isRebalanceSupported() ) {
+				String message = "Executor "+executor.getExecutedName()+" does not support rebalancing, load will not be redistributed between agents.";
+				logger.warn(message);
+				HSR.addWarnMessage(message);
+				return false;
+			}
 		}
 		
-		return isAnyTestRunning;
+		return true;
+	}
+	
+	/*************************************************************
+	 * Returns "hostname:port" of the agent, used to identify 
+	 * agents as multiple of them can run on the same host.
+	 *************************************************************/
+	private static String agentKey(PFRAgent agent) {
+		return agent.hostname()+":"+agent.port();
+	}
+	
+	/*************************************************************
+	 * Reads the saturation state of an agent from a testawait 
+	 * response and warns when the agent becomes saturated.
+	 * 
+	 * @return true if the agent is saturated
+	 *************************************************************/
+	private static boolean agentUpdateSaturation(PFRAgent agent, RemoteResponse response) {
+		
+		JsonObject payload = response.payloadAsObject();
+		if( !payload.has(PFRSaturationGuard.FIELD_SATURATED) ) { return false; }
+		
+		boolean isSaturated = payload.get(PFRSaturationGuard.FIELD_SATURATED).getAsBoolean();
+		boolean wasSaturated = agentsSaturated.contains(agentKey(agent));
+		
+		if(isSaturated && !wasSaturated) {
+			agentsSaturated.add(agentKey(agent));
+			String message = "Agent "+agentKey(agent)+" is saturated, results might not be reliable: "
+							+ payload.get(PFRSaturationGuard.FIELD_SATURATION_REASON).getAsString();
+			logger.warn(message);
+			HSR.addWarnMessage(message);
+		}else if(!isSaturated && wasSaturated) {
+			agentsSaturated.remove(agentKey(agent));
+		}
+		
+		return isSaturated;
 	}
 	
 	/*************************************************************
@@ -635,12 +1259,11 @@ public class PFRCoordinator {
 		try {
 			long waitTime = 1000;
 			int iteration = 1;
-			do {
+			while( ! latch.await(waitTime, TimeUnit.MILLISECONDS) ) {
 				
 				//----------------------------
 				// Incremental Wait
-				Thread.sleep(waitTime);
-				if(iteration % 3 == 0 && waitTime < 30000) {
+				if(iteration++ % 3 == 0 && waitTime < 30000) {
 					waitTime *= 2;
 				}
 				
@@ -660,7 +1283,7 @@ public class PFRCoordinator {
 				
 				logger.info("Stopping Progress:" + builder.toString());
 				
-			}while(latch.getCount() > 0);
+			}
 			
 			logger.info("All Agents finished");
 		}catch(InterruptedException e) {
@@ -685,6 +1308,203 @@ public class PFRCoordinator {
 		// Start all the Tests
 		for(int i = 0 ; i < connectionsAgentsAll.size(); i++) {
 			connectionsAgentsAll.get(i).testStart();
+			agentsStartLogStream(connectionsAgentsAll.get(i));
+		}
+		
+		agentsStartWarmupControl(test);
+		agentsAwaitTest(test);
+		
+	}
+	
+	/*************************************************************
+	 * Starts a thread that ends the warm-up on all load agents at 
+	 * the same time, when the warm-up duration has passed or the 
+	 * agents together have executed the warm-up iterations.
+	 * Does nothing if the test has no warm-up.
+	 * 
+	 *************************************************************/
+	private static void agentsStartWarmupControl(PFRTest test) {
+		
+		agentsWarmupEnded = false;
+		if( !test.hasWarmup() ) { return; }
+		
+		long startMillis = System.currentTimeMillis();
+		long durationMillis = test.warmup().toMillis();
+		long maxIterations = test.warmupIterations();
+		
+		PFRExec.startVirtualThread(new Runnable() {
+			@Override
+			public void run() {
+				
+				try {
+					String reason = agentsAwaitWarmup(startMillis, durationMillis, maxIterations);
+					if(reason == null) { return; } // test has ended
+					
+					//-------------------------------
+					// End Warm-up
+					agentsWarmupEnded = true;
+					for(ZePFRClient current : connectionsAgentsLoad) {
+						current.warmup(true);
+					}
+					
+					String message = "Warm-up ended on all agents after "
+							+ ((System.currentTimeMillis() - startMillis) / 1000)+"s ("+reason+"), measurement started.";
+					logger.info(message);
+					HSR.addInfoMessage(message);
+					
+				}catch(InterruptedException e) {
+					Thread.currentThread().interrupt(); // restore interrupt flag
+				}
+			}
+		}, "AgentWarmup");
+	}
+	
+	/*************************************************************
+	 * Waits until the warm-up duration has passed or the agents 
+	 * together have executed the warm-up iterations. The agents 
+	 * answer when they have executed their share of the iterations,
+	 * so their state is not polled.
+	 * 
+	 * @return the reason to end the warm-up, null if the test has
+	 * ended before
+	 *************************************************************/
+	private static String agentsAwaitWarmup(long startMillis, long durationMillis, long maxIterations) throws InterruptedException {
+		
+		HashMap<ZePFRClient, Long> agentsIterations = new HashMap<>();
+		
+		while(isTestRunning) {
+			
+			long waitMillis = AGENT_WARMUP_AWAIT_MILLIS;
+			if(durationMillis > 0) {
+				long remainingMillis = startMillis + durationMillis - System.currentTimeMillis();
+				if(remainingMillis <= 0) { return "duration reached"; }
+				waitMillis = Math.min(waitMillis, remainingMillis);
+			}
+			
+			//-------------------------------
+			// Duration only
+			if(maxIterations <= 0) {
+				try {
+					testEnd.get(waitMillis, TimeUnit.MILLISECONDS);
+				}catch(TimeoutException e) {
+					// duration is checked in the next loop
+				}catch(ExecutionException e) {
+					return null;
+				}
+				continue;
+			}
+			
+			//-------------------------------
+			// Await Iterations
+			// blocks until the agent has executed its share
+			ArrayList<ZePFRClient> agents = new ArrayList<>(connectionsAgentsLoad);
+			if(agents.isEmpty()) { 
+				Thread.sleep(waitMillis);
+				continue;
+			}
+			
+			long share = (long)Math.ceil((1.0 * maxIterations) / agents.size());
+			boolean isAnyWarmup = false;
+			
+			for(ZePFRClient current : agents) {
+				
+				RemoteResponse response = current.warmupAwait(share, waitMillis);
+				if(response != null && response.success() 
+				&& response.payload() != null && response.payload().isJsonObject()) {
+					
+					JsonObject payload = response.payload().getAsJsonObject();
+					if(payload.has(PFRWarmup.FIELD_ITERATIONS)) {
+						agentsIterations.put(current, payload.get(PFRWarmup.FIELD_ITERATIONS).getAsLong());
+					}
+					if(payload.has(PFRWarmup.FIELD_IS_WARMUP)) {
+						isAnyWarmup |= payload.get(PFRWarmup.FIELD_IS_WARMUP).getAsBoolean();
+					}
+				}
+				
+				long iterations = 0;
+				for(ZePFRClient agent : agents) {
+					iterations += agentsIterations.getOrDefault(agent, 0L);
+				}
+				
+				if(iterations >= maxIterations) { return "iterations reached"; }
+				if(!isTestRunning) { return null; }
+				
+				if(durationMillis > 0 && System.currentTimeMillis() - startMillis >= durationMillis) {
+					return "duration reached";
+				}
+			}
+			
+			// agents do not wait anymore, e.g. ended by their fallback
+			if(!isAnyWarmup) { return "ended on agents"; }
+		}
+		
+		return null;
+	}
+	
+	/*************************************************************
+	 * Starts a thread that streams the log of the agentborne 
+	 * process of the agent and writes it to the log of the 
+	 * controller. Ends when the agent is disconnected or the 
+	 * agent has no more log to send.
+	 * 
+	 *************************************************************/
+	private static void agentsStartLogStream(ZePFRClient connection) {
+		
+		String hostname = connection.getAgent().hostname();
+		
+		PFRExec.startVirtualThread(new Runnable() {
+			@Override
+			public void run() {
+				
+				int failedCount = 0;
+				while( connectionsAgentsAll.contains(connection) 
+					&& failedCount < AGENT_UNREACHABLE_MAX_COUNT ) {
+					
+					RemoteResponse response = connection.logStream(AGENT_LOGSTREAM_WAIT_MILLIS);
+					if(response == null || !response.success()) {
+						failedCount++;
+						continue;
+					}
+					failedCount = 0;
+					
+					JsonElement payloadElement = response.payload();
+					if(payloadElement == null || !payloadElement.isJsonObject()) { break; }
+					JsonObject payload = payloadElement.getAsJsonObject();
+					
+					for(String line : PFRLogForwarder.decodeLines(payload)) {
+						logger.info("["+hostname+"] "+line);
+					}
+					
+					long dropped = payload.has(PFRLogForwarder.FIELD_DROPPED) ? payload.get(PFRLogForwarder.FIELD_DROPPED).getAsLong() : 0;
+					long suppressed = payload.has(PFRLogForwarder.FIELD_SUPPRESSED) ? payload.get(PFRLogForwarder.FIELD_SUPPRESSED).getAsLong() : 0;
+					if(dropped > 0 || suppressed > 0) {
+						logger.warn("["+hostname+"] Log lines not forwarded: "+suppressed+" suppressed by the rate limit, "+dropped+" dropped.");
+					}
+					
+					if(payload.has(PFRLogForwarder.FIELD_DONE) 
+					&& payload.get(PFRLogForwarder.FIELD_DONE).getAsBoolean()) {
+						break;
+					}
+				}
+			}
+		}, "AgentLog-"+hostname);
+	}
+	
+	/*************************************************************
+	 * Waits until the test on the connected agents has ended or
+	 * the max duration is reached, stops the test on the agents
+	 * and terminates the test.
+	 * 
+	 *************************************************************/
+	private static void agentsAwaitTest(PFRTest test) {
+		
+		//-------------------------
+		// Initial Load Weights
+		agentsRunningTest = test;
+		agentsRebalanceSupported = isRebalanceSupported(test);
+		for(ZePFRClient current : connectionsAgentsLoad) {
+			agentsDistributedTotal.put(current, connectionsAgentsLoad.size());
+			agentsLoadWeights.put(current, 1.0);
 		}
 		
 		//-------------------------
@@ -694,44 +1514,24 @@ public class PFRCoordinator {
 			//-------------------------------
 			// Wait for tests to complete
 			// or max duration being reached
-			long startMillis = System.currentTimeMillis();
-			long endMillis = startMillis;
 			long maxMillis = test.maxDuration().toMillis();
 			
-			while(
-					agentsPingIsTestRunning(true)
-				&& (endMillis - startMillis) <= maxMillis
-			) {
-				
-				Thread.sleep(15000);
-				endMillis = System.currentTimeMillis();
-			}
+			agentsJoinAllowed = agentsRebalanceSupported;
+			boolean isAnyRunning = agentsAwaitTestEnd(System.currentTimeMillis() + maxMillis, true);
 			
-			//-------------------------------
-			// Terminate test
-			if(agentsPingIsTestRunning(false)) {
-				terminateTest();
-				return;
+			synchronized(SYNC_LOCK_JOIN_START) {
+				agentsJoinAllowed = false;
 			}
 			
 			//-------------------------------
 			// Gracefully Stop Test
-			long graceStart = System.currentTimeMillis();
-			long graceEnd = graceStart;
 			long graceDuration = test.gracefulStop().toMillis();
 			
-			if(graceDuration > 0 && agentsPingIsTestRunning(false) ){
+			if(graceDuration > 0 && isAnyRunning ){
 				logger.info("Max Duration reached, initialize graceful stop of "+(graceDuration/1000)+" seconds.");
 				
 				agentsStopGracefully();
-				
-				while(
-					    agentsPingIsTestRunning(true) 
-					&& (graceEnd - graceStart) <= graceDuration
-				) {
-					Thread.sleep(15000);
-					graceEnd = System.currentTimeMillis();
-				}
+				agentsAwaitTestEnd(System.currentTimeMillis() + graceDuration, false);
 			}
 			
 		}catch(InterruptedException e) {
@@ -739,6 +1539,8 @@ public class PFRCoordinator {
 		}catch(Exception e) {
 			logger.info("Error during Executor Thread execution.");
 		}finally {
+			agentsJoinAllowed = false;
+			
 			//-------------------------------
 			// Kill remaining Threads
 			if( agentsPingIsTestRunning(false) ) {
@@ -749,7 +1551,6 @@ public class PFRCoordinator {
 			// Terminate Test
 			terminateTest();
 		}	
-		
 	}
 	
 	
@@ -761,6 +1562,21 @@ public class PFRCoordinator {
 	 *************************************************************/
 	public static void executeAgentborne() {
 		
+		//-------------------------------
+		// Wait for Activation
+		// standby processes start the server first and
+		// get their arguments and the jar when activated
+		if(PFRAgentborneStandby.isStandbyProcess()) {
+			server = new ZePFRServer();
+			
+			ClassLoader loader = PFRAgentborneStandby.awaitActivation();
+			if(loader == null) { return; }
+			
+			testClassLoader = loader;
+			Thread.currentThread().setContextClassLoader(loader);
+			HSRConfig.setLogFilePath(CLIArgs.pfr_logfile.getValue().getAsString());
+		}
+		
 		//-------------------------------
 		// Variables
 		String testClass = CLIArgs.pfr_test.getValue().getAsString();
@@ -795,6 +1611,20 @@ public class PFRCoordinator {
 			
 			peekPoll = new HSRReporterPeekPoll();
 			HSRConfig.addReporter(peekPoll);
+			
+			//-------------------------------
+			// Shared Memory Stats Channel
+			String channelFile = CLIArgs.pfr_statsChannelFile.getValue().getAsString();
+			if( !Strings.isNullOrEmpty(channelFile) ) {
+				try {
+					final HSRReporterPeekPoll source = peekPoll;
+					statsChannel = PFRStatsChannel.open(Paths.get(channelFile));
+					statsChannel.startWriter(() -> source.pollRecordsJson(), 1000);
+				}catch(Exception e) {
+					logger.error("Could not open stats channel, statistics are sent over HTTPS: "+e.getMessage(), e);
+					statsChannel = null;
+				}
+			}
 		}
 		
 		//-------------------------------
@@ -805,7 +1635,9 @@ public class PFRCoordinator {
 		
 		//-------------------------------
 		// Start Server
-		server = new ZePFRServer();
+		if(server == null) {
+			server = new ZePFRServer();
+		}
 		
 		//-------------------------
 		// Prepare and Execute
@@ -848,7 +1680,9 @@ public class PFRCoordinator {
 
 			//----------------------------------
 			// Get Class
-			Class<?> clazz = Class.forName(className);
+			Class<?> clazz = (testClassLoader == null) 
+								? Class.forName(className) 
+								: Class.forName(className, true, testClassLoader);
 		    
 			if(! PFRTest.class.isAssignableFrom(clazz) ){
 		    	logger.info("The specified test class "+className+" must be a subclass of "+PFRTest.class.getName()+".");
@@ -937,7 +1771,16 @@ public class PFRCoordinator {
 		HSRConfig.reset();
 		
 		peekPoll = null;
-		
+		statsPoll = null;
+		agentsSaturated.clear();
+		agentsLoadWeights.clear();
+		agentsUnreachableCount.clear();
+		agentsDistributedTotal.clear();
+		agentsRunningTest = null;
+		agentsJoinAllowed = false;
+		agentsRebalanceSupported = true;
+		agentsWarmupEnded = false;
+		agentLoadFactor = 1.0;
 		
 	}
 		
@@ -955,6 +1798,11 @@ public class PFRCoordinator {
 		
 		if( !checkCanExecute(test) ) { return false; }
 		
+		//-------------------------
+		// Reset Test End
+		if(testEnd.isDone()) { testEnd = new CompletableFuture<>(); }
+		isTestRunning = true;
+		
 		//-------------------------
 		// Set Test Name
 		HSR.setTest(test.getName());
@@ -963,9 +1811,20 @@ public class PFRCoordinator {
 		// Register Settings
 		registerExecutorSettings();
 		
+		//-------------------------
+		// Register Stats Hooks
+		// agents report to the controller
+		if(PFRConfig.executionMode() != Mode.AGENTBORNE) {
+			statsPoll = new HSRReporterPeekPoll();
+			HSRConfig.addReporter(statsPoll);
+		}
+		registerStatsEngineHooks();
+		
 		//-------------------------
 		// Execute
 		HSRConfig.enable();
+		PFRInternalMetrics.start();
+		PFRSaturationGuard.start();
 		
 		return true;
 		
@@ -1008,6 +1867,14 @@ public class PFRCoordinator {
 		try {
 
 			isTestRunning = true;
+			
+			//-------------------------
+			// Start Warm-up
+			// agentborne processes wait for the controller to end it
+			PFRWarmup.start(test, PFRConfig.executionMode() == Mode.AGENTBORNE);
+			if(PFRWarmup.isActive()) {
+				applyLoadFactor();
+			}
 						
 			//-------------------------
 			// Start Executor Threads
@@ -1031,42 +1898,21 @@ public class PFRCoordinator {
 			//-------------------------------
 			// Wait for threads to complete
 			// or max duration being reached
-			long startMillis = System.currentTimeMillis();
-			long endMillis = startMillis;
 			long maxMillis = test.maxDuration().toMillis();
 			
-			while(
-				latch.getCount() > 0 
-				&& (endMillis - startMillis) <= maxMillis
-			) {
-				Thread.sleep(1000);
-				endMillis = System.currentTimeMillis();
-			}
-			
-			//-------------------------------
-			// Terminate test
-			if(latch.getCount() == 0) {
-				terminateTest();
-				return;
+			if( latch.await(maxMillis, TimeUnit.MILLISECONDS) ) {
+				return; // terminated in finally
 			}
 			
 			//-------------------------------
 			// Gracefully Stop Test
-			long graceStart = System.currentTimeMillis();
-			long graceEnd = graceStart;
 			long graceDuration = test.gracefulStop().toMillis();
 			
 			if(graceDuration > 0 && latch.getCount() > 0 ){
 				logger.info("Max Duration reached, initialize graceful stop of "+(graceDuration/1000)+" seconds.");
 				stopTestGracefully();
 				
-				while(
-					latch.getCount() > 0 
-					&& (graceEnd - graceStart) <= graceDuration
-				) {
-					Thread.sleep(1000);
-					graceEnd = System.currentTimeMillis();
-				}
+				latch.await(graceDuration, TimeUnit.MILLISECONDS);
 			}
 			
 		}catch(InterruptedException e){
@@ -1098,6 +1944,7 @@ public class PFRCoordinator {
 			
 			JsonObject settings = new JsonObject();
 			settings.addProperty("executor", executor.getClass().getSimpleName());
+			settings.addProperty("scheduler", executor.scheduler().toString());
 			
 			executor.getSettings(settings);
 			
@@ -1183,6 +2030,168 @@ public class PFRCoordinator {
 	
 	
 	
+	/*****************************************************************
+	 * Changes the load of all executors by the given factor, relative 
+	 * to the load distributed to this instance at the start of the test.
+	 * 
+	 * @param loadFactor e.g. 1.5 to execute 50% more load
+	 * @return true if at least one executor has adjusted its load
+	 *****************************************************************/
+	public static boolean rebalanceLoad(double loadFactor) {
+		
+		agentLoadFactor = loadFactor;
+		boolean isRebalanced = applyLoadFactor();
+		
+		logger.info("Rebalanced load with factor "+loadFactor+", supported by executors: "+isRebalanced);
+		return isRebalanced;
+	}
+	
+	/*****************************************************************
+	 * Applies the load factor set by rebalanceLoad() and the load 
+	 * factor of an active warm-up to all executors.
+	 * 
+	 * @return true if at least one executor has adjusted its load
+	 *****************************************************************/
+	static boolean applyLoadFactor() {
+		
+		if(executorList == null) { return false; }
+		
+		double factor = agentLoadFactor * PFRWarmup.loadFactor();
+		
+		boolean isRebalanced = false;
+		for(PFRExec executor : executorList) {
+			isRebalanced |= executor.rebalance(factor);
+		}
+		
+		return isRebalanced;
+	}
+	
+	/*****************************************************************
+	 * Returns true if this instance is the controller of a test that 
+	 * runs on agents or local processes.
+	 *****************************************************************/
+	public static boolean isControllingAgents() {
+		return PFRConfig.executionMode() != Mode.AGENTBORNE
+			&& !connectionsAgentsLoad.isEmpty();
+	}
+	
+	/*****************************************************************
+	 * Returns true while the warm-up of the test is running, on this
+	 * instance or on the agents controlled by this instance.
+	 *****************************************************************/
+	public static boolean isWarmupActive() {
+		
+		if(PFRWarmup.isActive()) { return true; }
+		
+		PFRTest test = agentsRunningTest;
+		return isControllingAgents()
+			&& test != null 
+			&& test.hasWarmup() 
+			&& !agentsWarmupEnded;
+	}
+	
+	/*****************************************************************
+	 * Sends every load agent its share of the users of the given 
+	 * adaptive executor. Sent asynchronously to not block the caller.
+	 * The share is the same as the one of distributeLoad(), the agents 
+	 * apply their load factor of agentsRebalance() and the warm-up.
+	 * 
+	 * @param executor the executor of the controller
+	 * @param totalUsers the users to run on all agents together
+	 *****************************************************************/
+	public static void agentsFollowUsers(PFRExecAdaptive executor, int totalUsers) {
+		
+		int executorIndex = executorList.indexOf(executor);
+		if(executorIndex < 0) { return; }
+		
+		ArrayList<ZePFRClient> agents = new ArrayList<>(connectionsAgentsLoad);
+		if(agents.isEmpty()) { return; }
+		
+		PFRExec.startVirtualThread(new Runnable() {
+			@Override
+			public void run() {
+				for(ZePFRClient agent : agents) {
+					double share = (1.0 * totalUsers) / agentsDistributedTotal.getOrDefault(agent, agents.size());
+					
+					RemoteResponse response = agent.followUsers(executorIndex, share);
+					if(response == null || !response.success()) {
+						logger.warn("Agent did not accept the users of "+executor.getExecutedName()+": "+agent.getAgent().hostname());
+					}
+				}
+			}
+		}, "AgentFollowUsers");
+	}
+	
+	/*****************************************************************
+	 * Returns the iterations the given adaptive executor has executed
+	 * on all load agents since the last call. Agents that do not 
+	 * answer are missing in the result.
+	 * 
+	 * @param executor the executor of the controller
+	 *****************************************************************/
+	public static PFRIterationStats agentsPollIterationStats(PFRExecAdaptive executor) {
+		
+		PFRIterationStats total = new PFRIterationStats();
+		
+		int executorIndex = executorList.indexOf(executor);
+		if(executorIndex < 0) { return total; }
+		
+		for(ZePFRClient agent : new ArrayList<>(connectionsAgentsLoad)) {
+			
+			RemoteResponse response = agent.iterationStats(executorIndex);
+			if(response == null || !response.success() || !response.payload().isJsonObject()) {
+				logger.warn("Could not get the iterations of "+executor.getExecutedName()+" from agent: "+agent.getAgent().hostname());
+				continue;
+			}
+			
+			total.add(PFRIterationStats.fromJson(response.payloadAsObject()));
+		}
+		
+		return total;
+	}
+	
+	/*****************************************************************
+	 * Returns the iterations the adaptive executor with the given 
+	 * index has executed since the last call, called on agents.
+	 * 
+	 * @return the statistics as JSON, null if the executor does not
+	 * exist or is not adaptive
+	 *****************************************************************/
+	public static JsonObject pollIterationStats(int executorIndex) {
+		
+		List<PFRExec> executors = executorList;
+		if(executors == null 
+		|| executorIndex < 0 
+		|| executorIndex >= executors.size()
+		|| !(executors.get(executorIndex) instanceof PFRExecAdaptive)
+		) {
+			return null;
+		}
+		
+		return ((PFRExecAdaptive)executors.get(executorIndex)).pollIterationStats().toJson();
+	}
+	
+	/*****************************************************************
+	 * Sets the users of the adaptive executor with the given index,
+	 * called on agents with the share sent by the controller.
+	 * 
+	 * @return true if the executor exists and is adaptive
+	 *****************************************************************/
+	public static boolean followUsers(int executorIndex, double users) {
+		
+		List<PFRExec> executors = executorList;
+		if(executors == null 
+		|| executorIndex < 0 
+		|| executorIndex >= executors.size()
+		|| !(executors.get(executorIndex) instanceof PFRExecAdaptive)
+		) {
+			return false;
+		}
+		
+		((PFRExecAdaptive)executors.get(executorIndex)).followUsers(users);
+		return true;
+	}
+	
 	/*****************************************************************
 	 * Requests the executors to stop gracefully.
 	 *****************************************************************/
@@ -1253,14 +2262,55 @@ public class PFRCoordinator {
 		return isTestRunning;
 	}
 	
+	/*****************************************************************
+	 * Waits until the test has ended or the timeout is reached.
+	 * Returns immediately if no test is running.
+	 * 
+	 * @param timeoutMillis max time to wait
+	 * @return true if the test is still running, false otherwise
+	 *****************************************************************/
+	public static boolean awaitTestEnd(long timeoutMillis) {
+		
+		try {
+			testEnd.get(timeoutMillis, TimeUnit.MILLISECONDS);
+		}catch(TimeoutException | ExecutionException e) {
+			// still running
+		}catch(InterruptedException e) {
+			Thread.currentThread().interrupt(); // restore interrupt flag
+		}
+		
+		return isTestRunning;
+	}
+	
 	/*****************************************************************
 	 * Terminates the HSR engine and sets isTestRunning to false.
 	 * 
 	 *****************************************************************/
-	private static void terminateTest() {
+	private static synchronized void terminateTest() {
+		
+		if(testEnd.isDone()) { return; }
+		
 		logger.info("Terminate Test Execution");
+		
+		// the controller searches the knee for all agents
+		if(isControllingAgents()) {
+			for(PFRExec executor : executorList) {
+				if(executor instanceof PFRExecAdaptive) { executor.terminate(); }
+			}
+		}
+		
+		PFRWarmup.reset();
+		PFRSaturationGuard.stop();
+		PFRInternalMetrics.stop();
 		HSRConfig.terminate();
+		
+		// write final records before the test is reported as ended
+		if(statsChannel != null) {
+			statsChannel.flush();
+		}
+		
 		isTestRunning = false;
+		testEnd.complete(null);
 	}
 	
 	/*****************************************************************
@@ -1272,8 +2322,11 @@ public class PFRCoordinator {
 		return new Thread(new Runnable() {
 			@Override
 			public void run() {
-				executor.execute();
-				latch.countDown();
+				try {
+					executor.execute();
+				}finally {
+					latch.countDown();
+				}
 			}
 		});
 	}
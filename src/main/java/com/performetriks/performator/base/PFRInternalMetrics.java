@@ -0,0 +1,451 @@
+package com.performetriks.performator.base;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.management.ThreadMXBean;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+import javax.management.Notification;
+import javax.management.NotificationEmitter;
+import javax.management.NotificationListener;
+import javax.management.openmbean.CompositeData;
+
+import org.slf4j.LoggerFactory;
+
+import com.performetriks.performator.base.PFRConfig.Mode;
+import com.performetriks.performator.distribute.ZePFRServer;
+import com.sun.management.GarbageCollectionNotificationInfo;
+import com.sun.management.OperatingSystemMXBean;
+import com.xresch.hsr.base.HSR;
+
+import ch.qos.logback.classic.Logger;
+
+/***************************************************************************
+ * Collects metrics about the overhead of Performator itself and reports them
+ * to HSR in a separate usecase "Performator Internals", so you can see if the
+ * load generator was saturated instead of the system under test.
+ *
+ * <ul>
+ * <li>Scheduler lag per executor: difference between planned and actual start
+ * of an iteration.</li>
+ * <li>Iteration overhead per executor: time spent by the framework for an
+ * iteration outside of usecase.execute().</li>
+ * <li>Data source wait time per data source.</li>
+ * <li>Remote call latency per command.</li>
+ * <li>GC pauses, live platform and virtual threads, process CPU and heap.</li>
+ * <li>Database connection borrow wait time per connection pool.</li>
+ * <li>Counters added by other components, e.g. statement cache hits of PFRDB.</li>
+ * <li>Gauges registered by other components, e.g. the saturation of a connection pool.</li>
+ * </ul>
+ *
+ * The values are collected in memory and reported every few seconds by a
+ * single reporter thread. On agents, the host name is added to the usecase
+ * name to show the values for every agent.
+ *
+ * Copyright Owner: Performetriks GmbH, Switzerland
+ * License: Eclipse Public License v2.0
+ *
+ * @author Reto Scheiwiller
+ *
+ ***************************************************************************/
+public class PFRInternalMetrics {
+
+	private static Logger logger = (Logger) LoggerFactory.getLogger(PFRInternalMetrics.class.getName());
+
+	public static final String USECASE_NAME = "Performator Internals";
+
+	private static final String PREFIX_SCHEDULER_LAG = "Scheduler Lag ms: ";
+	private static final String PREFIX_ITERATION_OVERHEAD = "Iteration Overhead ms: ";
+	private static final String PREFIX_DATASOURCE_WAIT = "DataSource Wait ms: ";
+	private static final String PREFIX_REMOTE_CALL = "Remote Call ms: ";
+	private static final String PREFIX_GC_PAUSE = "GC Pause ms: ";
+	private static final String PREFIX_DB_CONNECTION_WAIT = "DB Connection Wait ms: ";
+
+	private static boolean isEnabled = true;
+	private static volatile boolean isRunning = false;
+	private static long reportIntervalMillis = 5000;
+
+	private static Thread reporterThread = null;
+	private static NotificationListener gcListener = null;
+
+	private static final ConcurrentHashMap<String, Stats> statsMap = new ConcurrentHashMap<>();
+	private static final ConcurrentHashMap<String, LongAdder> counterMap = new ConcurrentHashMap<>();
+	private static final ConcurrentHashMap<String, LongSupplier> gaugeMap = new ConcurrentHashMap<>();
+	private static final AtomicInteger liveVirtualThreads = new AtomicInteger();
+	private static final LongAccumulator maxSchedulerLagNanos = new LongAccumulator(Long::max, 0);
+
+	/***************************************************************************
+	 * Aggregated values of one metric since the last report.
+	 ***************************************************************************/
+	private static class Stats {
+		private final LongAdder count = new LongAdder();
+		private final LongAdder sumNanos = new LongAdder();
+		private final LongAccumulator maxNanos = new LongAccumulator(Long::max, 0);
+
+		private void add(long nanos) {
+			count.increment();
+			sumNanos.add(nanos);
+			maxNanos.accumulate(nanos);
+		}
+	}
+
+	/***************************************************************************
+	 * <b>Scope:</b> Global<br>
+	 * Enable or disable the internal metrics, enabled by default.
+	 * Must be set before the test is started.
+	 ***************************************************************************/
+	public static void enabled(boolean enabled) {
+		isEnabled = enabled;
+	}
+
+	/***************************************************************************
+	 * <b>Scope:</b> Global<br>
+	 * Returns true if the internal metrics are enabled.
+	 ***************************************************************************/
+	public static boolean enabled() {
+		return isEnabled;
+	}
+
+	/***************************************************************************
+	 * <b>Scope:</b> Global<br>
+	 * Set the interval in which the metrics are reported to HSR, default
+	 * is 5 seconds.
+	 ***************************************************************************/
+	public static void reportInterval(long millis) {
+		reportIntervalMillis = Math.max(100, millis);
+	}
+
+	/***************************************************************************
+	 * Returns true if the metrics are collected.
+	 ***************************************************************************/
+	public static boolean isRunning() {
+		return isRunning;
+	}
+
+	/***************************************************************************
+	 * Adds the time between the planned and the actual start of an iteration.
+	 *
+	 * @param executorName the name of the executor or executed usecase
+	 * @param lagNanos the lag in nanoseconds
+	 ***************************************************************************/
+	public static void addSchedulerLag(String executorName, long lagNanos) {
+		maxSchedulerLagNanos.accumulate(lagNanos);
+		add(PREFIX_SCHEDULER_LAG, executorName, Math.max(0, lagNanos));
+	}
+	
+	/***************************************************************************
+	 * Returns the highest scheduler lag of all executors since the last call
+	 * of this method. Collected even if the metrics are disabled.
+	 ***************************************************************************/
+	public static long getThenResetMaxSchedulerLagNanos() {
+		return maxSchedulerLagNanos.getThenReset();
+	}
+
+	/***************************************************************************
+	 * Adds the time the framework spent on an iteration, excluding the time
+	 * spent in usecase.execute().
+	 *
+	 * @param executorName the name of the executor or executed usecase
+	 * @param overheadNanos the overhead in nanoseconds
+	 ***************************************************************************/
+	public static void addIterationOverhead(String executorName, long overheadNanos) {
+		add(PREFIX_ITERATION_OVERHEAD, executorName, Math.max(0, overheadNanos));
+	}
+
+	/***************************************************************************
+	 * Adds the time a user had to wait for a record of a data source.
+	 *
+	 * @param sourceName the name of the data source
+	 * @param waitNanos the wait time in nanoseconds
+	 ***************************************************************************/
+	public static void addDataSourceWait(String sourceName, long waitNanos) {
+		add(PREFIX_DATASOURCE_WAIT, sourceName, waitNanos);
+	}
+
+	/***************************************************************************
+	 * Adds the latency of a remote call between controller and agents. For
+	 * long-poll requests, the time the server held the request is excluded.
+	 *
+	 * @param command the name of the command
+	 * @param latencyNanos the latency in nanoseconds
+	 ***************************************************************************/
+	public static void addRemoteCall(String command, long latencyNanos) {
+		add(PREFIX_REMOTE_CALL, command, latencyNanos);
+	}
+
+	/***************************************************************************
+	 * Adds the time a user had to wait to borrow a connection from a pool.
+	 *
+	 * @param poolName the name of the connection pool
+	 * @param waitNanos the wait time in nanoseconds
+	 ***************************************************************************/
+	public static void addDBConnectionWait(String poolName, long waitNanos) {
+		add(PREFIX_DB_CONNECTION_WAIT, poolName, waitNanos);
+	}
+
+	/***************************************************************************
+	 * Increases a counter by the given value. The sum of the counter since the
+	 * last report is reported as a gauge with the given name.
+	 *
+	 * @param name the name of the counter
+	 * @param value the value to add
+	 ***************************************************************************/
+	public static void addCount(String name, long value) {
+
+		if(!isRunning) { return; }
+
+		LongAdder counter = counterMap.get(name);
+		if(counter == null) {
+			counter = counterMap.computeIfAbsent(name, k -> new LongAdder());
+		}
+		counter.add(value);
+	}
+
+	/***************************************************************************
+	 * <b>Scope:</b> Global<br>
+	 * Registers a gauge whose current value is reported on every report
+	 * interval. Replaces a gauge with the same name. Gauges stay registered
+	 * over multiple tests until they are removed.
+	 *
+	 * @param name the name of the gauge
+	 * @param supplier returns the current value, must not block
+	 ***************************************************************************/
+	public static void registerGauge(String name, LongSupplier supplier) {
+		gaugeMap.put(name, supplier);
+	}
+
+	/***************************************************************************
+	 * <b>Scope:</b> Global<br>
+	 * Removes a gauge registered with registerGauge().
+	 ***************************************************************************/
+	public static void removeGauge(String name) {
+		gaugeMap.remove(name);
+	}
+
+	/***************************************************************************
+	 * Wraps the runnable so that it is counted as a live virtual thread while
+	 * it is running.
+	 ***************************************************************************/
+	public static Runnable countVirtualThread(Runnable runnable) {
+		return () -> {
+			liveVirtualThreads.incrementAndGet();
+			try {
+				runnable.run();
+			}finally {
+				liveVirtualThreads.decrementAndGet();
+			}
+		};
+	}
+
+	/***************************************************************************
+	 *
+	 ***************************************************************************/
+	private static void add(String prefix, String name, long nanos) {
+
+		if(!isRunning) { return; }
+
+		String key = prefix + name;
+		Stats stats = statsMap.get(key);
+		if(stats == null) {
+			stats = statsMap.computeIfAbsent(key, k -> new Stats());
+		}
+		stats.add(nanos);
+	}
+
+	/***************************************************************************
+	 * <b>Scope:</b> Global<br>
+	 * Starts collecting and reporting the metrics. Called when the test
+	 * is started, does nothing if disabled or already running.
+	 ***************************************************************************/
+	public static synchronized void start() {
+
+		if(!isEnabled || isRunning) { return; }
+
+		statsMap.clear();
+		counterMap.clear();
+		isRunning = true;
+
+		registerGCListener();
+
+		reporterThread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+
+				HSR.setUsecase(getUsecaseName());
+
+				while(isRunning) {
+					try {
+						Thread.sleep(reportIntervalMillis);
+					}catch(InterruptedException e) {
+						// report a last time before stopping
+					}
+					report();
+				}
+			}
+		});
+
+		reporterThread.setName("PFRInternalMetrics-Reporter");
+		reporterThread.setDaemon(true);
+		reporterThread.start();
+	}
+
+	/***************************************************************************
+	 * <b>Scope:</b> Global<br>
+	 * Reports the last values and stops collecting metrics.
+	 * Called before HSR is terminated.
+	 ***************************************************************************/
+	public static synchronized void stop() {
+
+		if(!isRunning) { return; }
+
+		isRunning = false;
+		unregisterGCListener();
+
+		if(reporterThread != null) {
+			reporterThread.interrupt();
+			try {
+				reporterThread.join(reportIntervalMillis);
+			}catch(InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			reporterThread = null;
+		}
+	}
+
+	/***************************************************************************
+	 *
+	 ***************************************************************************/
+	static String getUsecaseName() {
+		if(PFRConfig.executionMode() == Mode.AGENTBORNE) {
+			return USECASE_NAME + " " + ZePFRServer.getLocalhost();
+		}
+		return USECASE_NAME;
+	}
+
+	/***************************************************************************
+	 * Reports the collected values to HSR and resets them.
+	 ***************************************************************************/
+	private static void report() {
+
+		try {
+			//------------------------------
+			// Collected Stats
+			for(Entry<String, Stats> entry : statsMap.entrySet()) {
+
+				Stats stats = entry.getValue();
+				long count = stats.count.sumThenReset();
+				long sum = stats.sumNanos.sumThenReset();
+				long max = stats.maxNanos.getThenReset();
+
+				if(count == 0) { continue; }
+
+				HSR.addGauge(entry.getKey() + " avg", nanosToMillis(sum / count));
+				HSR.addGauge(entry.getKey() + " max", nanosToMillis(max));
+			}
+
+			//------------------------------
+			// Counters
+			for(Entry<String, LongAdder> entry : counterMap.entrySet()) {
+				HSR.addGauge(entry.getKey(), new BigDecimal(entry.getValue().sumThenReset()));
+			}
+
+			//------------------------------
+			// Registered Gauges
+			for(Entry<String, LongSupplier> entry : gaugeMap.entrySet()) {
+				HSR.addGauge(entry.getKey(), new BigDecimal(entry.getValue().getAsLong()));
+			}
+
+			//------------------------------
+			// Threads
+			ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+			HSR.addGauge("Threads: Platform", new BigDecimal(threads.getThreadCount()));
+			HSR.addGauge("Threads: Virtual", new BigDecimal(liveVirtualThreads.get()));
+
+			//------------------------------
+			// CPU and Memory
+			java.lang.management.OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+			if(os instanceof OperatingSystemMXBean) {
+				double cpuLoad = ((OperatingSystemMXBean)os).getProcessCpuLoad();
+				if(cpuLoad >= 0) {
+					HSR.addGauge("CPU: Process %", BigDecimal.valueOf(cpuLoad * 100).setScale(1, RoundingMode.HALF_UP));
+				}
+			}
+
+			MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+			HSR.addGauge("Memory: Heap Used MB", new BigDecimal(memory.getHeapMemoryUsage().getUsed() / (1024 * 1024)));
+
+		}catch(Throwable e) {
+			logger.warn("Error while reporting internal metrics: " + e.getMessage(), e);
+		}
+	}
+
+	/***************************************************************************
+	 *
+	 ***************************************************************************/
+	private static BigDecimal nanosToMillis(long nanos) {
+		return BigDecimal.valueOf(nanos).divide(BigDecimal.valueOf(1_000_000), 3, RoundingMode.HALF_UP);
+	}
+
+	/***************************************************************************
+	 * Registers a listener that records the duration of every GC pause.
+	 ***************************************************************************/
+	private static void registerGCListener() {
+
+		gcListener = new NotificationListener() {
+			@Override
+			public void handleNotification(Notification notification, Object handback) {
+
+				if(!GarbageCollectionNotificationInfo.GARBAGE_COLLECTION_NOTIFICATION.equals(notification.getType())) {
+					return;
+				}
+
+				GarbageCollectionNotificationInfo info =
+						GarbageCollectionNotificationInfo.from((CompositeData)notification.getUserData());
+
+				// concurrent collectors like ZGC and Shenandoah report their cycles, which run
+				// next to the application, separately from their pauses
+				if(info.getGcAction().contains("cycle") || info.getGcName().endsWith("Cycles")) {
+					return;
+				}
+
+				add(PREFIX_GC_PAUSE, info.getGcName(), TimeUnit.MILLISECONDS.toNanos(info.getGcInfo().getDuration()));
+			}
+		};
+
+		for(GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+			if(gc instanceof NotificationEmitter) {
+				((NotificationEmitter)gc).addNotificationListener(gcListener, null, null);
+			}
+		}
+	}
+
+	/***************************************************************************
+	 *
+	 ***************************************************************************/
+	private static void unregisterGCListener() {
+
+		if(gcListener == null) { return; }
+
+		for(GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+			if(gc instanceof NotificationEmitter) {
+				try {
+					((NotificationEmitter)gc).removeNotificationListener(gcListener);
+				}catch(Exception e) {
+					// not registered on this bean
+				}
+			}
+		}
+
+		gcListener = null;
+	}
+
+}
@@ -0,0 +1,332 @@
+package com.performetriks.performator.base;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.ArrayList;
+
+import org.slf4j.LoggerFactory;
+
+import com.google.gson.JsonObject;
+import com.performetriks.performator.distribute.ZePFRServer;
+import com.sun.management.OperatingSystemMXBean;
+import com.xresch.hsr.base.HSR;
+
+import ch.qos.logback.classic.Logger;
+
+/***************************************************************************
+ * Watches the load generator itself while a test is running and marks the
+ * intervals in which it was saturated, as results measured by an overloaded
+ * generator are not trustworthy.
+ *
+ * The following values are checked every second against configurable limits:
+ * <ul>
+ * <li>Process CPU load in percent.</li>
+ * <li>Free heap after the last GC in percent of the maximum heap.</li>
+ * <li>Time spent in GC in percent of the check interval.</li>
+ * <li>Maximum scheduler lag since the last check.</li>
+ * </ul>
+ *
+ * The state is reported to HSR as the gauge "Generator Saturated" (1 if
+ * saturated, else 0) in the usecase of PFRInternalMetrics, and a warning is
+ * added whenever the generator becomes saturated.
+ * On agents the state is returned to the controller with the testawait
+ * command, so the controller can move load away from saturated agents when
+ * rebalance(true) is set.
+ *
+ * Copyright Owner: Performetriks GmbH, Switzerland
+ * License: Eclipse Public License v2.0
+ *
+ * @author Reto Scheiwiller
+ *
+ ***************************************************************************/
+public class PFRSaturationGuard {
+
+	private static Logger logger = (Logger) LoggerFactory.getLogger(PFRSaturationGuard.class.getName());
+
+	public static final String FIELD_SATURATED = "isSaturated";
+	public static final String FIELD_SATURATION_REASON = "saturationReason";
+	public static final String FIELD_LOAD_SCORE = "loadScore";
+
+	private static boolean isEnabled = true;
+	private static boolean isRebalance = false;
+
+	private static double maxCpuPercent = 90;
+	private static double minHeapFreePercent = 10;
+	private static double maxGcPercent = 10;
+	private static long maxSchedulerLagMillis = 1000;
+	private static long checkIntervalMillis = 1000;
+
+	private static volatile boolean isRunning = false;
+	private static volatile boolean isSaturated = false;
+	private static volatile String saturationReason = "";
+	private static volatile double loadScore = 0;
+
+	private static Thread guardThread = null;
+	private static long lastGcTimeMillis = 0;
+	private static long lastCheckMillis = 0;
+
+	/***************************************************************************
+	 * <b>Scope:</b> Global<br>
+	 * Enable or disable the saturation guard, enabled by default.
+	 ***************************************************************************/
+	public static void enabled(boolean enabled) {
+		isEnabled = enabled;
+	}
+
+	/***************************************************************************
+	 * <b>Scope:</b> Global<br>
+	 * If true, the controller moves load from saturated agents to the other
+	 * agents. Default is false, saturation is only reported.
+	 ***************************************************************************/
+	public static void rebalance(boolean rebalance) {
+		isRebalance = rebalance;
+	}
+
+	/***************************************************************************
+	 * Returns true if load should be moved away from saturated agents.
+	 ***************************************************************************/
+	public static boolean rebalance() {
+		return isRebalance;
+	}
+
+	/***************************************************************************
+	 * <b>Scope:</b> Global<br>
+	 * Set the maximum process CPU load in percent, default 90.
+	 ***************************************************************************/
+	public static void maxCpuPercent(double percent) {
+		maxCpuPercent = percent;
+	}
+
+	/***************************************************************************
+	 * <b>Scope:</b> Global<br>
+	 * Set the minimum free heap in percent of the max heap, default 10.
+	 ***************************************************************************/
+	public static void minHeapFreePercent(double percent) {
+		minHeapFreePercent = percent;
+	}
+
+	/***************************************************************************
+	 * <b>Scope:</b> Global<br>
+	 * Set the maximum time spent in GC in percent, default 10.
+	 ***************************************************************************/
+	public static void maxGcPercent(double percent) {
+		maxGcPercent = percent;
+	}
+
+	/***************************************************************************
+	 * <b>Scope:</b> Global<br>
+	 * Set the maximum scheduler lag in milliseconds, default 1000.
+	 ***************************************************************************/
+	public static void maxSchedulerLagMillis(long millis) {
+		maxSchedulerLagMillis = millis;
+	}
+
+	/***************************************************************************
+	 * Returns true if the generator was saturated on the last check.
+	 ***************************************************************************/
+	public static boolean isSaturated() {
+		return isSaturated;
+	}
+
+	/***************************************************************************
+	 * Returns the highest usage of all checked values in relation to its
+	 * limit of the last check, where 1.0 means a limit is reached.
+	 ***************************************************************************/
+	public static double loadScore() {
+		return loadScore;
+	}
+
+	/***************************************************************************
+	 * Adds the saturation state to the given object, used to send it to the
+	 * controller.
+	 ***************************************************************************/
+	public static void addStateTo(JsonObject object) {
+		object.addProperty(FIELD_SATURATED, isSaturated);
+		object.addProperty(FIELD_SATURATION_REASON, saturationReason);
+		object.addProperty(FIELD_LOAD_SCORE, loadScore);
+	}
+
+	/***************************************************************************
+	 * <b>Scope:</b> Global<br>
+	 * Starts the guard, called when the test is started.
+	 ***************************************************************************/
+	public static synchronized void start() {
+
+		if(!isEnabled || isRunning) { return; }
+
+		isRunning = true;
+		isSaturated = false;
+		saturationReason = "";
+		loadScore = 0;
+		lastGcTimeMillis = totalGcTimeMillis();
+		lastCheckMillis = System.currentTimeMillis();
+		PFRInternalMetrics.getThenResetMaxSchedulerLagNanos();
+
+		guardThread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+
+				HSR.setUsecase(PFRInternalMetrics.getUsecaseName());
+
+				while(isRunning) {
+					try {
+						Thread.sleep(checkIntervalMillis);
+						check();
+					}catch(InterruptedException e) {
+						break;
+					}catch(Throwable e) {
+						logger.warn("Error while checking saturation: " + e.getMessage(), e);
+					}
+				}
+			}
+		});
+
+		guardThread.setName("PFRSaturationGuard");
+		guardThread.setDaemon(true);
+		guardThread.start();
+	}
+
+	/***************************************************************************
+	 * <b>Scope:</b> Global<br>
+	 * Stops the guard, called before HSR is terminated.
+	 ***************************************************************************/
+	public static synchronized void stop() {
+
+		if(!isRunning) { return; }
+
+		isRunning = false;
+		if(guardThread != null) {
+			guardThread.interrupt();
+			guardThread = null;
+		}
+	}
+
+	/***************************************************************************
+	 * Checks all the values against their limits and reports the result.
+	 ***************************************************************************/
+	private static void check() {
+
+		ArrayList<String> reasons = new ArrayList<>();
+		double score = 0;
+
+		//------------------------------
+		// CPU
+		java.lang.management.OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+		if(os instanceof OperatingSystemMXBean) {
+			double cpuPercent = ((OperatingSystemMXBean)os).getProcessCpuLoad() * 100;
+			if(cpuPercent >= 0) {
+				score = Math.max(score, cpuPercent / maxCpuPercent);
+				if(cpuPercent > maxCpuPercent) {
+					reasons.add("CPU " + round(cpuPercent) + "% > " + maxCpuPercent + "%");
+				}
+			}
+		}
+
+		//------------------------------
+		// Heap
+		// garbage is not counted, the heap is always full right before a GC
+		MemoryUsage heap = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage();
+		long maxHeap = (heap.getMax() > 0) ? heap.getMax() : heap.getCommitted();
+		long usedHeap = heapUsedAfterGc();
+		if(usedHeap < 0) { usedHeap = heap.getUsed(); }
+		
+		if(maxHeap > 0) {
+			double freePercent = 100.0 * (maxHeap - usedHeap) / maxHeap;
+			score = Math.max(score, (100 - freePercent) / Math.max(1, 100 - minHeapFreePercent));
+			if(freePercent < minHeapFreePercent) {
+				reasons.add("Heap free " + round(freePercent) + "% < " + minHeapFreePercent + "%");
+			}
+		}
+
+		//------------------------------
+		// GC Time
+		long now = System.currentTimeMillis();
+		long gcTime = totalGcTimeMillis();
+		long elapsed = Math.max(1, now - lastCheckMillis);
+		double gcPercent = 100.0 * (gcTime - lastGcTimeMillis) / elapsed;
+		lastGcTimeMillis = gcTime;
+		lastCheckMillis = now;
+
+		score = Math.max(score, gcPercent / maxGcPercent);
+		if(gcPercent > maxGcPercent) {
+			reasons.add("GC " + round(gcPercent) + "% > " + maxGcPercent + "%");
+		}
+
+		//------------------------------
+		// Scheduler Lag
+		long lagMillis = PFRInternalMetrics.getThenResetMaxSchedulerLagNanos() / 1_000_000;
+		score = Math.max(score, (double)lagMillis / maxSchedulerLagMillis);
+		if(lagMillis > maxSchedulerLagMillis) {
+			reasons.add("Scheduler Lag " + lagMillis + "ms > " + maxSchedulerLagMillis + "ms");
+		}
+
+		//------------------------------
+		// Report
+		boolean wasSaturated = isSaturated;
+		saturationReason = String.join(", ", reasons);
+		loadScore = score;
+		isSaturated = !reasons.isEmpty();
+
+		HSR.addGauge("Generator Saturated", isSaturated ? BigDecimal.ONE : BigDecimal.ZERO);
+		HSR.addGauge("GC Time %", BigDecimal.valueOf(gcPercent).setScale(1, RoundingMode.HALF_UP));
+
+		if(isSaturated && !wasSaturated) {
+			String message = "Load generator " + ZePFRServer.getLocalhost()
+							+ " is saturated, results might not be reliable: " + saturationReason;
+			logger.warn(message);
+			HSR.addWarnMessage(message);
+		}else if(!isSaturated && wasSaturated) {
+			logger.info("Load generator is not saturated anymore.");
+		}
+	}
+
+	/***************************************************************************
+	 * Returns the heap used after the last GC of every heap pool, or -1 if the
+	 * pools do not provide it.
+	 ***************************************************************************/
+	private static long heapUsedAfterGc() {
+		
+		long used = 0;
+		boolean isAvailable = false;
+		
+		for(MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+			
+			if(pool.getType() != MemoryType.HEAP) { continue; }
+			
+			MemoryUsage usage = pool.getCollectionUsage();
+			if(usage == null) { continue; }
+			
+			used += usage.getUsed();
+			isAvailable = true;
+		}
+		
+		return isAvailable ? used : -1;
+	}
+	
+	/***************************************************************************
+	 * Returns the time the application was paused by the GC. Concurrent 
+	 * collectors like ZGC and Shenandoah have separate beans for their cycles,
+	 * which run next to the application and are not counted.
+	 ***************************************************************************/
+	private static long totalGcTimeMillis() {
+		long total = 0;
+		for(GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+			if(gc.getName().endsWith("Cycles")) { continue; }
+			total += Math.max(0, gc.getCollectionTime());
+		}
+		return total;
+	}
+
+	/***************************************************************************
+	 *
+	 ***************************************************************************/
+	private static String round(double value) {
+		return BigDecimal.valueOf(value).setScale(1, RoundingMode.HALF_UP).toPlainString();
+	}
+
+}
@@ -24,6 +24,10 @@ public abstract class PFRTest {
 	private Duration maxDuration = Duration.ofHours(1);
 	private Duration gracefulStop = Duration.ofMinutes(1);
 	
+	private Duration warmup = Duration.ZERO;
+	private long warmupIterations = 0;
+	private double warmupLoadFactor = 0.5;
+	
 	/***************************************************************************
 	 * Constructor
 	 ***************************************************************************/
@@ -113,5 +117,75 @@ public abstract class PFRTest {
 		return gracefulStop;
 	}
 	
+	/***************************************************************************
+	 * Sets a warm-up phase at the start of the test, used to warm up the JIT,
+	 * connection pools and caches before the measurement starts. 
+	 * During the warm-up the executors run with a fraction of the load and the
+	 * statistics are recorded in the usecase "[Warmup] {usecase}".
+	 * See PFRWarmup for details.
+	 * 
+	 * @param duration the duration of the warm-up, zero for none
+	 * @param loadFactor the fraction of the load executed during the warm-up,
+	 * e.g. 0.5 for half the load
+	 * @return instance for chaining
+	 ***************************************************************************/
+	public PFRTest warmup(Duration duration, double loadFactor){
+		this.warmup = (duration == null) ? Duration.ZERO : duration;
+		this.warmupLoadFactor = Math.max(0, loadFactor);
+		return this;
+	}
+	
+	/***************************************************************************
+	 * Sets a warm-up phase at the start of the test with half of the load.
+	 * 
+	 * @param duration the duration of the warm-up, zero for none
+	 * @return instance for chaining
+	 ***************************************************************************/
+	public PFRTest warmup(Duration duration){
+		return warmup(duration, warmupLoadFactor);
+	}
+	
+	/***************************************************************************
+	 * Ends the warm-up after the given number of iterations, counted over all
+	 * agents. If a warm-up duration is set as well, the warm-up ends with 
+	 * whatever is reached first.
+	 * 
+	 * @param iterations number of iterations, zero for none
+	 * @return instance for chaining
+	 ***************************************************************************/
+	public PFRTest warmupIterations(long iterations){
+		this.warmupIterations = Math.max(0, iterations);
+		return this;
+	}
+	
+	/***************************************************************************
+	 * Returns the duration of the warm-up.
+	 * @return duration
+	 ***************************************************************************/
+	public Duration warmup(){
+		return warmup;
+	}
+	
+	/***************************************************************************
+	 * Returns the number of iterations of the warm-up.
+	 ***************************************************************************/
+	public long warmupIterations(){
+		return warmupIterations;
+	}
+	
+	/***************************************************************************
+	 * Returns the fraction of the load executed during the warm-up.
+	 ***************************************************************************/
+	public double warmupLoadFactor(){
+		return warmupLoadFactor;
+	}
+	
+	/***************************************************************************
+	 * Returns true if a warm-up has been defined.
+	 ***************************************************************************/
+	public boolean hasWarmup(){
+		return !warmup.isZero() || warmupIterations > 0;
+	}
+	
 	
 }
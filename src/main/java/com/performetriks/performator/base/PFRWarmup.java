@@ -0,0 +1,239 @@
+package com.performetriks.performator.base;
+
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.LoggerFactory;
+
+import com.google.gson.JsonObject;
+import com.xresch.hsr.base.HSR;
+
+import ch.qos.logback.classic.Logger;
+
+/***************************************************************************
+ * Runs the warm-up phase of a test defined with PFRTest.warmup() and
+ * PFRTest.warmupIterations().
+ *
+ * While the warm-up is active, the load of the executors is reduced by the
+ * warm-up load factor and the iterations are recorded in the usecase
+ * "[Warmup] {usecase}", so they do not mix with the measured statistics.
+ * This applies to executors that run their iterations with
+ * PFRExec.executeIteration().
+ *
+ * When executed on agents, the controller ends the warm-up on all agents
+ * at the same time, also when the iterations have been reached. The agents
+ * only end it by themselves after the duration as a fallback if the
+ * controller does not. The controller waits for state changes with
+ * awaitIterations() instead of polling the state.
+ *
+ * Copyright Owner: Performetriks GmbH, Switzerland
+ * License: Eclipse Public License v2.0
+ *
+ * @author Reto Scheiwiller
+ *
+ ***************************************************************************/
+public class PFRWarmup {
+
+	private static Logger logger = (Logger) LoggerFactory.getLogger(PFRWarmup.class.getName());
+
+	public static final String USECASE_PREFIX = "[Warmup] ";
+	public static final String FIELD_IS_WARMUP = "isWarmup";
+	public static final String FIELD_ITERATIONS = "warmupIterations";
+
+	// time agents wait for the controller before ending the warm-up themselves
+	private static final long COORDINATED_GRACE_MILLIS = 30_000;
+
+	private static volatile boolean isActive = false;
+	private static volatile boolean isCoordinated = false;
+	private static final AtomicLong iterations = new AtomicLong(0);
+	private static long maxIterations = 0;
+	private static double loadFactor = 1.0;
+	private static long startMillis = 0;
+	private static Timer timer = null;
+
+	// waiters of awaitIterations() are woken up when this count is reached
+	private static final Object STATE_LOCK = new Object();
+	private static volatile long notifyAtIterations = Long.MAX_VALUE;
+
+	/***************************************************************************
+	 * Starts the warm-up if the test has one, called before the executors are
+	 * started.
+	 *
+	 * @param test the test
+	 * @param isCoordinated true if the warm-up is ended by the controller
+	 ***************************************************************************/
+	static synchronized void start(PFRTest test, boolean isCoordinated) {
+
+		reset();
+
+		if(test == null || !test.hasWarmup()) { return; }
+
+		maxIterations = test.warmupIterations();
+		loadFactor = test.warmupLoadFactor();
+		startMillis = System.currentTimeMillis();
+		PFRWarmup.isCoordinated = isCoordinated;
+		isActive = true;
+
+		//-------------------------------
+		// End after Duration
+		long durationMillis = test.warmup().toMillis();
+		if(durationMillis > 0) {
+
+			long delay = durationMillis + (isCoordinated ? COORDINATED_GRACE_MILLIS : 0);
+
+			timer = new Timer("PFRWarmup", true);
+			timer.schedule(new TimerTask() {
+				@Override
+				public void run() {
+					end("duration reached");
+				}
+			}, delay);
+		}
+
+		String message = "Warm-up started with "+Math.round(loadFactor * 100)+"% of the load"
+						+ (durationMillis > 0 ? ", duration: "+(durationMillis / 1000)+"s" : "")
+						+ (maxIterations > 0 ? ", iterations: "+maxIterations : "")
+						;
+		logger.info(message);
+		HSR.addInfoMessage(message);
+	}
+
+	/***************************************************************************
+	 * Ends the warm-up and restores the full load, does nothing if the
+	 * warm-up is not active.
+	 *
+	 * @param reason added to the log message
+	 ***************************************************************************/
+	public static void end(String reason) {
+
+		synchronized(PFRWarmup.class) {
+			if(!isActive) { return; }
+
+			isActive = false;
+
+			if(timer != null) {
+				timer.cancel();
+				timer = null;
+			}
+		}
+
+		// executors might wait for the lock while they adjust their load
+		PFRCoordinator.applyLoadFactor();
+		signalStateChange();
+
+		String message = "Warm-up ended after "+((System.currentTimeMillis() - startMillis) / 1000)+"s and "
+						+ iterations.get()+" iterations ("+reason+"), measurement started.";
+		logger.info(message);
+		HSR.addInfoMessage(message);
+	}
+
+	/***************************************************************************
+	 * Stops the warm-up without changing the load, used when the test ends.
+	 ***************************************************************************/
+	static synchronized void reset() {
+
+		isActive = false;
+		isCoordinated = false;
+		iterations.set(0);
+
+		if(timer != null) {
+			timer.cancel();
+			timer = null;
+		}
+
+		signalStateChange();
+	}
+
+	/***************************************************************************
+	 * Returns true while the warm-up is active.
+	 ***************************************************************************/
+	public static boolean isActive() {
+		return isActive;
+	}
+
+	/***************************************************************************
+	 * Returns the factor the load is reduced by, 1.0 if the warm-up is not
+	 * active.
+	 ***************************************************************************/
+	public static double loadFactor() {
+		return isActive ? loadFactor : 1.0;
+	}
+
+	/***************************************************************************
+	 * Returns the name of the usecase used for the statistics of the warm-up.
+	 ***************************************************************************/
+	public static String usecaseName(String usecaseName) {
+		return USECASE_PREFIX + usecaseName;
+	}
+
+	/***************************************************************************
+	 * Counts an iteration executed during the warm-up, ends the warm-up when
+	 * the iterations defined by the test have been executed. If coordinated,
+	 * the controller ends the warm-up when all agents together have executed
+	 * the iterations.
+	 ***************************************************************************/
+	public static void countIteration() {
+
+		if(!isActive) { return; }
+
+		long count = iterations.incrementAndGet();
+
+		if(count >= notifyAtIterations) {
+			signalStateChange();
+		}
+
+		if(!isCoordinated && maxIterations > 0 && count >= maxIterations) {
+			end("iterations reached");
+		}
+	}
+
+	/***************************************************************************
+	 * Waits until the given amount of warm-up iterations has been executed,
+	 * the warm-up has ended or the timeout is reached.
+	 *
+	 * @param minIterations the iterations to wait for
+	 * @param timeoutMillis max time to wait
+	 ***************************************************************************/
+	public static void awaitIterations(long minIterations, long timeoutMillis) throws InterruptedException {
+
+		long endMillis = System.currentTimeMillis() + timeoutMillis;
+
+		synchronized(STATE_LOCK) {
+			while(isActive && iterations.get() < minIterations) {
+
+				long remaining = endMillis - System.currentTimeMillis();
+				if(remaining <= 0) { return; }
+
+				notifyAtIterations = Math.min(notifyAtIterations, minIterations);
+				STATE_LOCK.wait(remaining);
+			}
+		}
+	}
+
+	/***************************************************************************
+	 * Wakes up all threads waiting in awaitIterations().
+	 ***************************************************************************/
+	private static void signalStateChange() {
+		synchronized(STATE_LOCK) {
+			notifyAtIterations = Long.MAX_VALUE;
+			STATE_LOCK.notifyAll();
+		}
+	}
+
+	/***************************************************************************
+	 * Returns the number of iterations executed during the warm-up.
+	 ***************************************************************************/
+	public static long iterations() {
+		return iterations.get();
+	}
+
+	/***************************************************************************
+	 * Adds the state of the warm-up to the given object.
+	 ***************************************************************************/
+	public static void addStateTo(JsonObject object) {
+		object.addProperty(FIELD_IS_WARMUP, isActive);
+		object.addProperty(FIELD_ITERATIONS, iterations.get());
+	}
+
+}
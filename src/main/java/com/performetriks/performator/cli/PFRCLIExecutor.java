@@ -1,12 +1,14 @@
 package com.performetriks.performator.cli;
 
-import java.io.BufferedReader;
 import java.io.File;
 import java.io.IOException;
-import java.io.InputStreamReader;
+import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -28,6 +30,9 @@ import com.performetriks.performator.base.PFR;
  * 		<li><b>Working Directory:&nbsp;</b> Can only be specified globally. Depending on your OS. </li>
  * </ul>
  * 
+ * To execute a single command with arguments that contain spaces, e.g. paths, pass the command and its
+ * arguments as a list, the list is not parsed.
+ * 
  * <pre><code>
    
    CFWCLIExecutor executor = new CFWCLIExecutor(dir, commands, envMap); 
@@ -52,13 +57,19 @@ public class PFRCLIExecutor extends Thread {
 	
 	private PFRReadableOutputStream outStream = new PFRReadableOutputStream(10000);
 	
-	private boolean isInterrupted = false;
-	private boolean isCompleted = false;
+	private volatile boolean isInterrupted = false;
+	private volatile boolean isCompleted = false;
+	
+	// completed when run() has ended, lets callers wait without polling
+	private final CompletableFuture<Void> completion = new CompletableFuture<>();
+	
+	private volatile Exception exceptionDuringRun = null;
 	
-	private Exception exceptionDuringRun = null;
+	private volatile List<Process> processes = null;
+	private volatile Process lastProcess = null;
 	
-	private List<Process> processes = null;
-	private Process lastProcess = null;
+	// max time to wait for a process to exit after its output has ended
+	private static final long EXIT_WAIT_SECONDS = 10;
 	
 	
 	/***************************************************************************
@@ -83,35 +94,82 @@ public class PFRCLIExecutor extends Thread {
 
 		this.envVariables = envVariables;
 		
-		//--------------------------------
-		// Directory
+		File directory = prepareDirectory(workingDir);
+		if(directory == null) { return; }
+			
+		parseCommandsCreatePipelines(cliCommands, directory);
+			
+	}
+	
+	/***************************************************************************
+	 * Constructor for a single command, the arguments are passed to the
+	 * process as they are.
+	 * 
+	 * @param workingDir the working directory, if null or empty will use the working directory of the current process.
+	 * @param commandAndParams the command followed by its arguments
+	 * @param envVariables the variables that should be added to the environment
+	 ***************************************************************************/
+	public PFRCLIExecutor(String workingDir, List<String> commandAndParams, Map<String,String> envVariables) {
+
+		this.envVariables = envVariables;
+		
+		File directory = prepareDirectory(workingDir);
+		if(directory == null) { return; }
+		
+		ArrayList<ProcessBuilder> pipeline = new ArrayList<>();
+		pipeline.add(createProcessBuilder(new ArrayList<>(commandAndParams), directory));
+		pipelines.add(pipeline);
+	}
+	
+	/***************************************************************************
+	 * Creates the working directory if it does not exist.
+	 * 
+	 * @return the directory, null if not specified
+	 ***************************************************************************/
+	private File prepareDirectory(String workingDir) {
+		
 		if(Strings.isNullOrEmpty(workingDir)) {
 			logger.error("Working directory not specified, cannot execute commands.");
-			return;
+			return null;
 		}
 		
-		File directory = null;
-		if( workingDir != null && ! workingDir.isBlank() ) {
-			directory = new File(workingDir);
-			
-			if(!directory.exists()) {
-				directory.mkdirs();
-			}
+		File directory = new File(workingDir);
+		if(!directory.exists()) {
+			directory.mkdirs();
 		}
-			
-		parseCommandsCreatePipelines(cliCommands, directory);
-			
+		
+		return directory;
 	}
 	
 	/***************************************************************************
 	 * Set a monitor to that checks if the execution should still continue.
+	 * The execution is stopped as soon as PFRMonitor.trigger() is called and
+	 * the monitor returns false.
 	 * 
 	 ***************************************************************************/
 	public PFRCLIExecutor setMonitor(PFRMonitor monitor) {
+		
+		if(this.monitor != null) {
+			this.monitor.removeOnStop(stopListener);
+		}
+		
 		this.monitor = monitor;
+		
+		if(monitor != null) {
+			monitor.onStop(stopListener);
+		}
+		
 		return this;
 	}
 	
+	// stops the execution when the monitor is triggered
+	private final Runnable stopListener = new Runnable() {
+		@Override
+		public void run() {
+			interrupt();
+		}
+	};
+	
 	/***************************************************************************
 	 * Returns true if the process has not finished and is not interrupted
 	 * and the monitor, if defined, is returning true.
@@ -120,11 +178,22 @@ public class PFRCLIExecutor extends Thread {
 	public boolean checkKeepExecuting() {
 		
 		return !isCompleted 
+			&& !isInterrupted
 			&& !Thread.interrupted()
 			&& ( monitor == null || monitor.check() ) 
 			;
 	}
 	
+	/***************************************************************************
+	 * Returns a future that is completed when the execution has ended, 
+	 * either because all processes have exited, the execution got interrupted 
+	 * or an error occurred.
+	 * 
+	 ***************************************************************************/
+	public CompletableFuture<Void> onCompletion() {
+		return completion;
+	}
+	
 	
 	
 	/***************************************************************************
@@ -164,13 +233,7 @@ public class PFRCLIExecutor extends Thread {
 				
 				commandAndParams.removeIf(s -> s.isEmpty());
 				
-				ProcessBuilder builder = new ProcessBuilder(commandAndParams);
-				builder.redirectErrorStream(true);
-				
-				if(directory != null) {		builder.directory(directory); }
-				if(envVariables != null) { 	builder.environment().putAll(envVariables);}
-								
-				pipeline.add(builder);   
+				pipeline.add(createProcessBuilder(commandAndParams, directory));   
 			}
 			if(!pipeline.isEmpty()) {
 				pipelines.add(pipeline);
@@ -179,6 +242,21 @@ public class PFRCLIExecutor extends Thread {
 		}
 	}
 		
+	/***************************************************************************
+	 * Creates the process builder for a single command.
+	 * 
+	 ***************************************************************************/
+	private ProcessBuilder createProcessBuilder(ArrayList<String> commandAndParams, File directory) {
+		
+		ProcessBuilder builder = new ProcessBuilder(commandAndParams);
+		builder.redirectErrorStream(true);
+		
+		if(directory != null) {		builder.directory(directory); }
+		if(envVariables != null) { 	builder.environment().putAll(envVariables);}
+		
+		return builder;
+	}
+	
 	/***************************************************************************
 	 * Will start this thread and returns.
 	 * Use the other methods of this class to wait for completion and/or read 
@@ -197,28 +275,19 @@ public class PFRCLIExecutor extends Thread {
 	 ***************************************************************************/
 	public void waitForCompletionOrTimeout(long timeoutSeconds) throws Exception {
 		
-		long timeoutMillis = timeoutSeconds * 1000;
 		try {
-			long starttime = System.currentTimeMillis();
-			
-			while(checkKeepExecuting()) {
-				Thread.sleep(20);
-				
-				if( (System.currentTimeMillis() - starttime) >= timeoutMillis ) {
-					this.interrupt();
-					break;
-					//throw new Exception("Timeout of "+timeoutSeconds+" seconds reached while executing command line.");
-				}
-			}
-			
-			if(exceptionDuringRun != null) {
-				throw exceptionDuringRun;
-			}
-			
+			completion.get(timeoutSeconds, TimeUnit.SECONDS);
+		} catch (TimeoutException e) {
+			this.interrupt();
+			//throw new Exception("Timeout of "+timeoutSeconds+" seconds reached while executing command line.");
 		} catch (InterruptedException e) {
 			logger.error("Thread got interrupted while executing CLI commands.", e);
 			Thread.currentThread().interrupt(); // restore interrupt flag
 		}
+		
+		if(exceptionDuringRun != null) {
+			throw exceptionDuringRun;
+		}
 
 	}
 	
@@ -244,17 +313,10 @@ public class PFRCLIExecutor extends Thread {
 			
 			int linesReadHead = 0;
 			int skippedCount = 0;
-			EvictingQueue<String> tailedLines = EvictingQueue.create(tail);
+			EvictingQueue<String> tailedLines = EvictingQueue.create(Math.max(0, tail));
 
-			while(checkKeepExecuting()) {
-				Thread.sleep(20);
-				
-				//-----------------------------
-				// Check Timeout
-				if( (System.currentTimeMillis() - starttime) >= timeoutMillis ) {
-					this.interrupt();
-					break;
-				}
+			long deadline = starttime + timeoutMillis;
+			while(true) {
 				
 				//----------------------------------
 				// Read Head
@@ -277,7 +339,24 @@ public class PFRCLIExecutor extends Thread {
 				
 				if(exceptionDuringRun != null) { throw exceptionDuringRun; }
 				
-				if(Thread.interrupted()) { this.interrupt(); }
+				//-----------------------------
+				// Check Done
+				// the stream is closed when run() has ended
+				if(outStream.isClosed() && !outStream.hasLine()) {
+					break;
+				}
+				
+				//-----------------------------
+				// Check Timeout
+				long remaining = deadline - System.currentTimeMillis();
+				if( remaining <= 0 ) {
+					this.interrupt();
+					break;
+				}
+				
+				//-----------------------------
+				// Wait for Output
+				outStream.awaitLine(remaining);
 
 			}
 			
@@ -345,6 +424,9 @@ public class PFRCLIExecutor extends Thread {
 	public void interrupt() {
 		isInterrupted = true;
 		super.interrupt();
+		
+		// reading the output blocks, killing the processes ends the read
+		kill();
 	}
 	
 	/***************************************************************************
@@ -381,13 +463,27 @@ public class PFRCLIExecutor extends Thread {
 					//------------------------------------
 					// Read output of last Process in pipeline
 					lastProcess = processes.get(processes.size() - 1);				    
-				    BufferedReader reader = new BufferedReader( new InputStreamReader(lastProcess.getInputStream()) );
+				    InputStream input = lastProcess.getInputStream();
 
 				    //---------------------
 				    // Read the Output
-				    String line;
-				    while((line = reader.readLine()) != null && checkKeepExecuting()) {
-				    	outStream.write((line+"\n").getBytes());
+				    // bytes are passed as they are, the stream splits and decodes the lines
+				    byte[] buffer = new byte[8192];
+				    int read;
+				    while((read = input.read(buffer)) != -1 && !isInterrupted) {
+				    	outStream.write(buffer, 0, read);
+				    }
+				    outStream.endLine();
+				    
+				    //---------------------
+				    // Wait for Exit
+				    // the output might end before the process does
+				    if(!isInterrupted) {
+				    	try {
+				    		lastProcess.onExit().get(EXIT_WAIT_SECONDS, TimeUnit.SECONDS);
+				    	}catch(TimeoutException e) {
+				    		logger.warn("Process did not exit "+EXIT_WAIT_SECONDS+" seconds after its output has ended, will be killed.");
+				    	}
 				    }
 				    
 				}finally {
@@ -396,9 +492,19 @@ public class PFRCLIExecutor extends Thread {
 			}
 		}catch(Exception e) {
 			
-			exceptionDuringRun = e;
+			if(!isInterrupted) {
+				exceptionDuringRun = e;
+			}
 		}finally {
 			isCompleted = true;
+			
+			try {
+				outStream.close();
+			}catch(IOException e) {
+				logger.warn("IOException while closing output: "+e.getMessage());
+			}
+			
+			completion.complete(null);
 		}
 		
 	}
@@ -1,9 +1,16 @@
 package com.performetriks.performator.cli;
 
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
 /**************************************************************************************************************
  * This class exists solely for the reason that certain things are hard to monitor without making 
  * programmatic backflips and splits.
  * 
+ * Monitors are push based: whenever the condition of a monitor might have changed, call trigger(). 
+ * The chain is evaluated once and the listeners registered with onStop() are notified if the 
+ * execution should stop. Nobody has to poll check() in a loop.
+ * 
  * Copyright Owner: Performetriks GmbH, Switzerland
  * License: Eclipse Public License v2.0
  * 
@@ -17,6 +24,9 @@ public abstract class PFRMonitor {
 	
 	private boolean chainedAsOrCondition = false;
 	
+	// only used on the first monitor in the chain
+	private List<Runnable> stopListeners = new CopyOnWriteArrayList<>();
+	
 	/******************************************************
 	 * This method will return a boolean to indicate:
 	 * - true: all is good / keep executing etc...
@@ -37,6 +47,58 @@ public abstract class PFRMonitor {
 		
 	}
 	
+	/******************************************************
+	 * Call this method when the condition of this monitor
+	 * might have changed. Evaluates the chain and notifies 
+	 * the stop listeners if the execution should stop.
+	 * 
+	 * @return true if all is good, false if not
+	 ******************************************************/
+	public boolean trigger() {
+		
+		boolean keepGoing = check();
+		
+		if(!keepGoing) {
+			for(Runnable listener : getFirst().stopListeners) {
+				listener.run();
+			}
+		}
+		
+		return keepGoing;
+	}
+	
+	/******************************************************
+	 * Registers a listener that is called when trigger() 
+	 * has been called on any monitor of the chain and the
+	 * chain evaluates to false.
+	 * 
+	 * @return CFWMonitor the instance the method was called on. 
+	 ******************************************************/
+	public PFRMonitor onStop(Runnable listener) {
+		getFirst().stopListeners.add(listener);
+		return this;
+	}
+	
+	/******************************************************
+	 * Removes a listener registered with onStop().
+	 ******************************************************/
+	public void removeOnStop(Runnable listener) {
+		getFirst().stopListeners.remove(listener);
+	}
+	
+	/******************************************************
+	 * Returns the first monitor in the chain.
+	 ******************************************************/
+	private PFRMonitor getFirst() {
+		
+		PFRMonitor first = this;
+		while(first.parent != null) {
+			first = first.parent;
+		}
+		
+		return first;
+	}
+	
 	/******************************************************
 	 * 
 	 ******************************************************/
@@ -58,6 +120,10 @@ public abstract class PFRMonitor {
 	 ******************************************************/
 	private void setParent(PFRMonitor parent) {
 		this.parent = parent;
+		
+		// listeners are kept by the first monitor in the chain
+		parent.getFirst().stopListeners.addAll(stopListeners);
+		stopListeners.clear();
 	}
 	
 	/******************************************************
@@ -2,10 +2,16 @@ package com.performetriks.performator.cli;
 
 import java.io.IOException;
 import java.io.OutputStream;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collection;
 
 /**************************************************************************************************************
  * A class that allows to read an output stream line by line or all lines at once.
+ *
+ * Lines are split on the byte level and decoded as UTF-8 once they are complete. The lines are kept in a
+ * ring buffer of maxLinesInQueue lines, if the reader does not keep up, the oldest lines are dropped.
+ * Lines longer than 64 KB are split between two characters. A trailing carriage return is removed.
  * 
  * Copyright Owner: Performetriks GmbH, Switzerland
  * License: Eclipse Public License v2.0
@@ -14,61 +20,234 @@ import java.util.concurrent.LinkedBlockingQueue;
  **************************************************************************************************************/
 public class PFRReadableOutputStream extends OutputStream{
 
-	protected boolean isClosed = false;
-	protected LinkedBlockingQueue<String> lineQueue = new LinkedBlockingQueue<>();
+	private static final int MAX_LINE_BYTES = 64 * 1024;
 	
-	//contains currentLine
-	protected LinkedBlockingQueue<Integer> byteQueue = new LinkedBlockingQueue<>();
+	protected volatile boolean isClosed = false;
 	
-	protected int newline = (int)'\n';
+	// ring buffer of complete lines
+	private final String[] lines;
+	private int head = 0;
+	private volatile int count = 0;
+	private long droppedCount = 0;
 	
-	private int maxLinesInQueue = 10000;
+	// bytes of the current line
+	private byte[] lineBuffer = new byte[256];
+	private int lineLength = 0;
+
+	protected static final byte NEWLINE = (byte)'\n';
+	protected static final byte CARRIAGE_RETURN = (byte)'\r';
 	
 	/************************************************************************
 	 * 
 	 ************************************************************************/
 	public  PFRReadableOutputStream(int maxLinesInQueue) {
-		this.maxLinesInQueue = maxLinesInQueue;
+		this.lines = new String[Math.max(1, maxLinesInQueue)];
 	}
 	
 	/************************************************************************
 	 * 
 	 ************************************************************************/
 	@Override
-	public void write(int b) throws IOException {
+	public synchronized void write(int b) throws IOException {
 		
-		if(b != newline) {
-			byteQueue.add(b);
+		if(b == NEWLINE) {
+			addLine();
 		}else {
-			StringBuilder line = new StringBuilder();
-			while( !byteQueue.isEmpty() ) {
-				line.append( (char)((int)byteQueue.poll()) );
+			appendToLine((byte)b);
+		}
+	}
+
+	/************************************************************************
+	 * Writes the bytes, complete lines are added to the buffer.
+	 ************************************************************************/
+	@Override
+	public synchronized void write(byte[] bytes, int offset, int length) throws IOException {
+
+		int end = offset + length;
+		int start = offset;
+
+		for(int i = offset; i < end; i++) {
+			if(bytes[i] == NEWLINE) {
+				appendToLine(bytes, start, i - start);
+				addLine();
+				start = i + 1;
 			}
-			lineQueue.add(line.toString());
+		}
 			
-			//-------------------------
-			// Limit Queue Size
-			if( lineQueue.size() > maxLinesInQueue) {
-				lineQueue.poll();
-			}
+		if(start < end) {
+			appendToLine(bytes, start, end - start);
+		}
+	}
 			
+	/************************************************************************
+	 * Adds the current line if it is not empty, used when the output ended
+	 * without a newline.
+	 ************************************************************************/
+	public synchronized void endLine() {
+		if(lineLength > 0) {
+			addLine();
 		}
 	}
 		
 	/************************************************************************
 	 * 
 	 ************************************************************************/
+	private void appendToLine(byte b) {
+
+		if(lineLength == MAX_LINE_BYTES) { splitLine(); }
+
+		if(lineLength == lineBuffer.length) {
+			lineBuffer = Arrays.copyOf(lineBuffer, Math.min(MAX_LINE_BYTES, lineBuffer.length * 2));
+		}
+
+		lineBuffer[lineLength++] = b;
+	}
+
+	/************************************************************************
+	 *
+	 ************************************************************************/
+	private void appendToLine(byte[] bytes, int offset, int length) {
+
+		while(length > 0) {
+
+			if(lineLength == MAX_LINE_BYTES) { splitLine(); }
+
+			int needed = Math.min(MAX_LINE_BYTES, lineLength + length);
+			if(needed > lineBuffer.length) {
+				lineBuffer = Arrays.copyOf(lineBuffer, Math.max(needed, Math.min(MAX_LINE_BYTES, lineBuffer.length * 2)));
+			}
+
+			int copied = Math.min(length, MAX_LINE_BYTES - lineLength);
+			System.arraycopy(bytes, offset, lineBuffer, lineLength, copied);
+			lineLength += copied;
+			offset += copied;
+			length -= copied;
+		}
+	}
+
+	/************************************************************************
+	 * Adds the full line buffer as a line. Bytes of an incomplete UTF-8
+	 * character at the end are kept for the next line.
+	 ************************************************************************/
+	private void splitLine() {
+
+		//-------------------------
+		// Find start of last Character
+		int start = lineLength - 1;
+		while(start > 0 && lineLength - start < 4 && (lineBuffer[start] & 0xC0) == 0x80) {
+			start--;
+		}
+
+		int lead = lineBuffer[start] & 0xFF;
+		int charLength = (lead >= 0xF0) ? 4 
+					   : (lead >= 0xE0) ? 3 
+					   : (lead >= 0xC0) ? 2 
+					   : 1;
+
+		int end = (start + charLength <= lineLength) ? lineLength : start;
+		int carry = lineLength - end;
+
+		//-------------------------
+		// Add Line and keep Rest
+		lineLength = end;
+		addLine();
+
+		System.arraycopy(lineBuffer, end, lineBuffer, 0, carry);
+		lineLength = carry;
+	}
+
+	/************************************************************************
+	 * Decodes the current line and adds it to the ring buffer, drops the
+	 * oldest line if the buffer is full.
+	 ************************************************************************/
+	private void addLine() {
+
+		// line ended with \r\n
+		if(lineLength > 0 && lineBuffer[lineLength - 1] == CARRIAGE_RETURN) {
+			lineLength--;
+		}
+
+		String line = new String(lineBuffer, 0, lineLength, StandardCharsets.UTF_8);
+		lineLength = 0;
+
+		//-------------------------
+		// Limit Queue Size
+		if(count == lines.length) {
+			lines[head] = null;
+			head = (head + 1) % lines.length;
+			count--;
+			droppedCount++;
+		}
+
+		lines[(head + count) % lines.length] = line;
+		count++;
+
+		this.notifyAll();
+	}
+
+	/************************************************************************
+	 *
+	 ************************************************************************/
 	public boolean hasLine() {
-		return ! lineQueue.isEmpty();
+		return count > 0;
+	}
+
+	/************************************************************************
+	 * Waits until a line is available, the stream is closed or the timeout
+	 * is reached.
+	 *
+	 * @return true if a line is available
+	 ************************************************************************/
+	public synchronized boolean awaitLine(long timeoutMillis) throws InterruptedException {
+
+		long deadline = System.currentTimeMillis() + timeoutMillis;
+		while(count == 0 && !isClosed) {
+			long remaining = deadline - System.currentTimeMillis();
+			if(remaining <= 0) { break; }
+			this.wait(remaining);
+		}
+
+		return count > 0;
 	}
 	
 	/************************************************************************
 	 * Reads a line.
 	 ************************************************************************/
-	public String readLine() {
-		return lineQueue.poll();
+	public synchronized String readLine() {
+
+		if(count == 0) { return null; }
+
+		String line = lines[head];
+		lines[head] = null;
+		head = (head + 1) % lines.length;
+		count--;
+
+		return line;
 	}
 	
+	/************************************************************************
+	 * Moves up to maxLines lines into the target collection.
+	 *
+	 * @return number of lines moved
+	 ************************************************************************/
+	public synchronized int drainLines(Collection<String> target, int maxLines) {
+
+		int moved = 0;
+		while(count > 0 && moved < maxLines) {
+			target.add(readLine());
+			moved++;
+		}
+
+		return moved;
+	}
+
+	/************************************************************************
+	 * Returns the number of lines that have been dropped because the
+	 * buffer was full.
+	 ************************************************************************/
+	public synchronized long getDroppedLineCount() {
+		return droppedCount;
+	}
 	
 	/************************************************************************
 	 * Reads a specific amount of head and tail.
@@ -80,17 +259,17 @@ public class PFRReadableOutputStream extends OutputStream{
 	 * @param addSkippedCount add number of lines to the output.
 	 * 
 	 ************************************************************************/
-	public String readHeadAndTail(int head, int tail, boolean addSkippedCount) {
+	public synchronized String readHeadAndTail(int head, int tail, boolean addSkippedCount) {
 		
 		if(head <= 0 && tail <= 0) { return readAll(); }
 		
 		StringBuilder builder = new StringBuilder();
-		int lineCount = lineQueue.size();
+		int lineCount = count;
 		//----------------------------------
 		// Read Head
 		int i = 0;
-		while(! lineQueue.isEmpty() && i < head) {
-			builder.append(lineQueue.poll()).append("\n");
+		while(count > 0 && i < head) {
+			builder.append(readLine()).append("\n");
 			i++;
 		}
 		
@@ -99,8 +278,8 @@ public class PFRReadableOutputStream extends OutputStream{
 		int skippedCount = lineCount - head - tail;
 		
 		int s = 0;
-		while( ! lineQueue.isEmpty() && s < skippedCount ) {
-			lineQueue.poll();
+		while( count > 0 && s < skippedCount ) {
+			readLine();
 			s++;
 		}
 		
@@ -116,8 +295,8 @@ public class PFRReadableOutputStream extends OutputStream{
 		//----------------------------------
 		// Read Tail
 		i = 0;
-		while(! lineQueue.isEmpty() && i < tail) {
-			builder.append(lineQueue.poll()).append("\n");
+		while(count > 0 && i < tail) {
+			builder.append(readLine()).append("\n");
 			i++;
 		}
 		
@@ -127,11 +306,11 @@ public class PFRReadableOutputStream extends OutputStream{
 	 * Reads all lines.
 	 * Method should be called after the OutputStream has received all data.
 	 ************************************************************************/
-	public String readAll() {
+	public synchronized String readAll() {
 		
 		StringBuilder builder = new StringBuilder();
-		while(! lineQueue.isEmpty()) {
-			builder.append(lineQueue.poll()).append("\n");
+		while(count > 0) {
+			builder.append(readLine()).append("\n");
 		}
 		
 		return builder.toString();
@@ -145,12 +324,15 @@ public class PFRReadableOutputStream extends OutputStream{
 	}
 	
 	/************************************************************************
-	 * 
+	 * Closes the stream, an incomplete last line is added as a line.
 	 ************************************************************************/
 	@Override
-    public void close() throws IOException {
+    public synchronized void close() throws IOException {
 		super.close();
+		endLine();
+
 		this.isClosed = true;
+		this.notifyAll();
     }
 
 }
@@ -10,6 +10,7 @@ import com.google.gson.JsonArray;
 import com.google.gson.JsonObject;
 import com.performetriks.performator.base.PFRConfig;
 import com.performetriks.performator.base.PFRCoordinator;
+import com.performetriks.performator.base.PFRInternalMetrics;
 import com.xresch.xrutils.data.XRRecord;
 
 
@@ -219,12 +220,14 @@ public abstract class PFRDataSource {
 		
 		if( ! isBuilt ) { logger.warn("The data source's .build() method was not called and it might not work correctly: "+this.getUniqueName() ); }
 		
+		long startNanos = System.nanoTime();
 		XRRecord record;
 		if( ! loadFromAgent() ){
 			record = nextInternal();
 		}else {
 			record = PFRCoordinator.agentDatasourceNext(this);
 		}
+		PFRInternalMetrics.addDataSourceWait(name(), System.nanoTime() - startNanos);
 		
 		return record != null ? record.clone() : null;
 	}
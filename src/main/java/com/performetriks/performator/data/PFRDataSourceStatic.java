@@ -91,6 +91,24 @@ public abstract class PFRDataSourceStatic extends PFRDataSource {
 		return data.size();
 	}
 	
+	/*****************************************************************
+	 * Returns clones of all the records that are currently in this
+	 * source, in the order they would be read sequentially.
+	 * The records are not taken from the source, the access and 
+	 * retain modes are not affected. Always reads the local records,
+	 * also if the source is shared.
+	 *****************************************************************/
+	public ArrayList<XRRecord> records() {
+		
+		synchronized (SYNC_LOCK) {
+			ArrayList<XRRecord> records = new ArrayList<>(data.size());
+			for(XRRecord record : data) {
+				records.add(record.clone());
+			}
+			return records;
+		}
+	}
+	
 	/*****************************************************************
 	 * 
 	 *****************************************************************/
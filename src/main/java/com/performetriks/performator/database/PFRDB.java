@@ -11,6 +11,9 @@ import java.sql.SQLException;
 import java.sql.Timestamp;
 import java.sql.Types;
 import java.util.ArrayList;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.sql.DataSource;
 
@@ -18,6 +21,8 @@ import org.apache.commons.dbcp2.BasicDataSource;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.performetriks.performator.base.PFRInternalMetrics;
+
 /**************************************************************************************************************
  * Performator Interface to test database queries.
  * 
@@ -31,16 +36,100 @@ public class PFRDB {
 
 	static Logger logger = LoggerFactory.getLogger(PFRDB.class.getName());
 	
-	protected ThreadLocal<ArrayList<Connection>> myOpenConnections = new ThreadLocal<>();
+	// open connections and the thread that borrowed them
+	protected ConcurrentHashMap<Connection, Thread> openConnections = new ConcurrentHashMap<>();
+	private volatile int openConnectionsSweepSize = 256;
 	protected ThreadLocal<Connection> transactionConnection = new ThreadLocal<>();
 
-	private BasicDataSource pooledSource;
+	/***************************************************************************
+	 * The connection pools that can be created by initDBInterface().
+	 ***************************************************************************/
+	public enum PoolType {
+		/** Apache DBCP2, validates connections on every borrow. */
+		DBCP,
+		/** PFRDBPoolLean, validates connections only after they have been idle. */
+		LEAN
+	}
+	
+	private static PoolType defaultPoolType = PoolType.DBCP;
+	private static int defaultPoolMaxSize = 0;
+	
+	private PFRDBPool pool;
+	
+	// pool metrics, see registerPoolMetrics()
+	private String poolName;
+	private AtomicInteger borrowing = new AtomicInteger();
+	
+	// statement caches by physical connection, disabled if size is 0
+	private int statementCacheSize = 0;
+	private ConcurrentHashMap<Connection, PFRDBStatementCache> statementCaches = new ConcurrentHashMap<>();
+	private int statementCachesSweepSize = 16;
 	
 	// used to prevent JIT optimization
 	protected static volatile Object SINK;
 	
 	public PFRDB(BasicDataSource pooledSource) {
-		this.pooledSource = pooledSource;
+		this(new PFRDBPoolDBCP(pooledSource));
+	}
+	
+	public PFRDB(PFRDBPool pool) {
+		this.pool = pool;
+		this.poolName = pool.getName();
+		registerPoolMetrics();
+	}
+	
+	/********************************************************************************************
+	 * <b>Scope:</b> Global<br>
+	 * Set the type of the connection pool created by the initDBInterface methods, default is
+	 * DBCP. To use another pool, create it yourself and use initDBInterface(PFRDBPool).
+	 ********************************************************************************************/
+	public static void poolType(PoolType poolType) {
+		defaultPoolType = poolType;
+	}
+	
+	/********************************************************************************************
+	 * <b>Scope:</b> Global<br>
+	 * Set the maximum size of the connection pools created by the initDBInterface methods.
+	 * Default is 0, which uses the default of the pool. Use PFRDBPoolLean.maxSizeFromUsers()
+	 * to calculate the size from the users of a test.
+	 ********************************************************************************************/
+	public static void poolMaxSize(int maxSize) {
+		defaultPoolMaxSize = maxSize;
+	}
+	
+	/********************************************************************************************
+	 * Returns the connection pool of this DBInterface.
+	 ********************************************************************************************/
+	public PFRDBPool getPool() {
+		return pool;
+	}
+	
+	/********************************************************************************************
+	 * Registers the gauges of the connection pool with PFRInternalMetrics:
+	 * <ul>
+	 * <li>Active: connections borrowed by users.</li>
+	 * <li>Waiting: users that are currently waiting for a connection.</li>
+	 * <li>Saturation %: active connections in percent of the maximum pool size.
+	 *     If this is 100% and users are waiting, the pool is the limit, not the database.</li>
+	 * </ul>
+	 ********************************************************************************************/
+	private void registerPoolMetrics() {
+		
+		PFRInternalMetrics.registerGauge("DB Pool Active: "+poolName, () -> pool.getNumActive());
+		PFRInternalMetrics.registerGauge("DB Pool Waiting: "+poolName, () -> borrowing.get());
+		PFRInternalMetrics.registerGauge("DB Pool Saturation %: "+poolName, () -> {
+			int maxSize = pool.getMaxSize();
+			return (maxSize > 0) ? (pool.getNumActive() * 100L / maxSize) : 0;
+		});
+	}
+	
+	/********************************************************************************************
+	 * Removes the gauges registered by registerPoolMetrics().
+	 ********************************************************************************************/
+	private void removePoolMetrics() {
+		PFRInternalMetrics.removeGauge("DB Pool Active: "+poolName);
+		PFRInternalMetrics.removeGauge("DB Pool Waiting: "+poolName);
+		PFRInternalMetrics.removeGauge("DB Pool Saturation %: "+poolName);
 	}
 	
 	/********************************************************************************************
@@ -49,12 +138,15 @@ public class PFRDB {
 	 * @throws SQLException 
 	 ********************************************************************************************/
 	public DataSource getDatasource() {
-		return pooledSource;
+		return pool.getDataSource();
 	}
 	
 	/********************************************************************************************
 	 * Get a connection from the connection pool or returns the current connection used for the 
 	 * transaction.
+	 * The pool is thread safe, borrowing is not synchronized so users do not have to wait for 
+	 * each other while a connection is created or validated. The wait time is reported with 
+	 * PFRInternalMetrics.
 	 * 
 	 * @throws SQLException 
 	 ********************************************************************************************/
@@ -63,56 +155,176 @@ public class PFRDB {
 		//Improve performance, reduce memory overhead
 		if(logger.isTraceEnabled()) {
 			logger
-				.trace("DB Connections Active: "+pooledSource.getNumActive());
+				.trace("DB Connections Active: "+pool.getNumActive());
 		}
 		
-		if(transactionConnection.get() != null) {
-			return transactionConnection.get();
-		}else {
-			synchronized (pooledSource) {
-				Connection connection = pooledSource.getConnection();
-				addOpenConnection(connection);
-				return connection;
+		Connection transaction = transactionConnection.get();
+		if(transaction != null) {
+			return transaction;
+		}
+		
+		long startNanos = System.nanoTime();
+		borrowing.incrementAndGet();
+		try {
+			Connection connection = pool.getConnection();
+			addOpenConnection(connection);
+			return connection;
+		}finally {
+			borrowing.decrementAndGet();
+			PFRInternalMetrics.addDBConnectionWait(poolName, System.nanoTime() - startNanos);
+		}
+	}
+	
+	
+	/********************************************************************************************
+	 * Set the maximum number of prepared statements that are kept open per connection, so 
+	 * repeated statements do not have to be parsed and planned again by the driver and the
+	 * database. Default is 0, statements are closed after every execution.
+	 * For PFRDBPoolDBCP the statements are pooled by DBCP, this restarts the pool, call it 
+	 * before the test is started.
+	 * 
+	 * @param maxStatementsPerConnection maximum number of cached statements per connection
+	 ********************************************************************************************/
+	public void setStatementCacheSize(int maxStatementsPerConnection) {
+		
+		this.statementCacheSize = maxStatementsPerConnection;
+		
+		if(pool instanceof PFRDBPoolDBCP dbcp) {
+			try {
+				dbcp.setStatementPoolSize(maxStatementsPerConnection);
+			} catch (SQLException e) {
+				logger
+					.error("Exception occured while restarting pool with statement pooling. ", e);
+			}
+		}
+		
+		if(maxStatementsPerConnection <= 0) {
+			for(PFRDBStatementCache cache : statementCaches.values()) {
+				cache.clear();
 			}
-		}				
+			statementCaches.clear();
+		}
 	}
 	
+	/********************************************************************************************
+	 * Returns the maximum number of prepared statements that are kept open per connection.
+	 ********************************************************************************************/
+	public int getStatementCacheSize() {
+		return statementCacheSize;
+	}
 	
 	/********************************************************************************************
-	 * Add a connection that was openend to the list of open connections.
-	 * When connections remain after the Servlet returns, they will be closed 
-	 * by the RequestHandler using hardCloseRemainingConnections().
+	 * Returns a prepared statement for the connection, either from the statement cache or a 
+	 * new one. Use releaseStatement() instead of closing the statement.
+	 * 
+	 * @param conn the connection returned by getConnection()
+	 * @param sql the SQL
+	 * @param resultSetType e.g. ResultSet.TYPE_FORWARD_ONLY
+	 * @param resultSetConcurrency e.g. ResultSet.CONCUR_READ_ONLY
+	 * @param generatedKeyColumn column of the generated key to return, or null
 	 * 
 	 * @throws SQLException 
 	 ********************************************************************************************/
-	public void forceCloseRemainingConnections() {	
+	public PreparedStatement getStatement(Connection conn, String sql, int resultSetType, int resultSetConcurrency, String generatedKeyColumn) throws SQLException {
 		
 		//--------------------------------------
-		// Add transaction connection to handling
-		if(transactionConnection.get() != null) {
-			
-			if(myOpenConnections.get() == null) {
-				myOpenConnections.set( new ArrayList<Connection>() );
+		// Not Cached, or pooled by the connection pool
+		Connection physical = (statementCacheSize > 0) ? getPhysicalConnection(conn) : null;
+		
+		if(physical == null) {
+			if(generatedKeyColumn != null) {
+				return conn.prepareStatement(sql, new String[] {generatedKeyColumn});
 			}
-			
-			myOpenConnections.get().add( transactionConnection.get() );
+			return conn.prepareStatement(sql, resultSetType, resultSetConcurrency);
+		}
+		
+		//--------------------------------------
+		// Cached
+		PFRDBStatementCache cache = statementCaches.get(physical);
+		if(cache == null) {
+			sweepStatementCaches();
+			cache = statementCaches.computeIfAbsent(physical, k -> new PFRDBStatementCache(k, statementCacheSize));
+		}
+		
+		return cache.prepare(sql, resultSetType, resultSetConcurrency, generatedKeyColumn);
+	}
+	
+	/********************************************************************************************
+	 * Returns a forward only, read only prepared statement.
+	 * See getStatement(Connection, String, int, int, String).
+	 ********************************************************************************************/
+	public PreparedStatement getStatement(Connection conn, String sql) throws SQLException {
+		return getStatement(conn, sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY, null);
+	}
+	
+	/********************************************************************************************
+	 * Closes a statement returned by getStatement(), or keeps it open if it is cached.
+	 * Must be called before the connection is closed, as the connection might be used by
+	 * another thread afterwards.
+	 * 
+	 * @throws SQLException 
+	 ********************************************************************************************/
+	public void releaseStatement(PreparedStatement prepared) throws SQLException {
+		PFRDBStatementCache.release(prepared);
+	}
+	
+	/********************************************************************************************
+	 * Returns the connection of the driver that is wrapped by the pool, or null if it cannot
+	 * be accessed.
+	 ********************************************************************************************/
+	protected Connection getPhysicalConnection(Connection conn) {
+		return pool.getPhysicalConnection(conn);
+	}
+	
+	/********************************************************************************************
+	 * Removes the caches of connections that have been closed by the pool.
+	 ********************************************************************************************/
+	private void sweepStatementCaches() {
+		
+		if(statementCaches.size() < statementCachesSweepSize) { return; }
+		
+		statementCaches.entrySet().removeIf(entry -> {
+			PFRDBStatementCache cache = entry.getValue();
+			if( !cache.isClosed() ) { return false; }
+			cache.clear();
+			return true;
+		});
+		statementCachesSweepSize = Math.max(16, statementCaches.size() * 2);
+	}
+	
+	/********************************************************************************************
+	 * Closes the connections that have been opened by the current thread and have not been 
+	 * closed, including the connection of a running transaction. Also closes connections of
+	 * threads that have ended without closing them, e.g. the thread of a finished iteration.
+	 ********************************************************************************************/
+	public void forceCloseRemainingConnections() {	
+		
+		//--------------------------------------
+		// Remove transaction connection
+		Connection transaction = transactionConnection.get();
+		if(transaction != null) {
 			transactionConnection.remove();
+			openConnections.put(transaction, Thread.currentThread());
 		}
 		
 		//--------------------------------------
-		// Return if null
-		if(myOpenConnections.get() == null) {
+		// Return if none
+		if(openConnections.isEmpty()) {
 			//all good, return
 			return;
 		}
 		
-		ArrayList<Connection> connArray = myOpenConnections.get();
-		
 		int counter = 0;
+		Thread current = Thread.currentThread();
 		
-		//Create new array to avoid ConcurrentModificationException
-		for(Connection con : connArray.toArray(new Connection[] {})) {
+		for(Map.Entry<Connection, Thread> entry : openConnections.entrySet()) {
 			
+			Thread owner = entry.getValue();
+			if(owner != current && owner.isAlive()) {
+				continue;
+			}
+			
+			Connection con = entry.getKey();
 			try {
 				if(!con.isClosed()) {
 					counter++;
@@ -120,7 +332,7 @@ public class PFRDB {
 						.warn("DBInterface.forceCloseRemainingConnections: "+con.getClass());
 					con.close();
 				}
-				connArray.remove(con);
+				openConnections.remove(con);
 			} catch (SQLException e) {
 				logger
 					.error("Error on forced closing of DB connection.", e);
@@ -134,33 +346,48 @@ public class PFRDB {
 	}
 	
 	/********************************************************************************************
-	 * Add a connection that was openend to the list of open connections.
-	 * When connections remain after the Servlet returns, they will be closed 
-	 * by the RequestHandler using forceCloseRemainingConnections().
-	 * 
-	 * @throws SQLException 
+	 * Add a connection that was openend to the set of open connections.
+	 * Connections that remain open are closed with forceCloseRemainingConnections().
 	 ********************************************************************************************/
 	protected void addOpenConnection(Connection connection) {	
-		if(myOpenConnections.get() == null) {
-			myOpenConnections.set(new ArrayList<Connection>());
+		
+		if(openConnections.size() >= openConnectionsSweepSize) {
+			sweepOpenConnections();
 		}
 		
-		myOpenConnections.get().add(connection);
+		openConnections.put(connection, Thread.currentThread());
 	}
 	
 	/********************************************************************************************
-	 * Removes a connection that was openend from the list of open connections.
-	 * When connections remain after the Servlet returns, they will be closed 
-	 * by the RequestHandler using hardCloseRemainingConnections().
-	 * 
-	 * @throws SQLException 
+	 * Removes connections that have been closed without removeOpenConnection(), e.g. closed 
+	 * directly by the caller or removed as abandoned by the pool.
 	 ********************************************************************************************/
-	protected void removeOpenConnection(Connection connection) {	
+	private void sweepOpenConnections() {
 		
-		if(myOpenConnections.get() == null) {
-			return;
-		}
-		myOpenConnections.get().remove(connection);
+		openConnections.keySet().removeIf(con -> {
+			try {
+				return con.isClosed();
+			} catch (SQLException e) {
+				return true;
+			}
+		});
+		
+		openConnectionsSweepSize = Math.max(256, openConnections.size() * 2);
+	}
+	
+	/********************************************************************************************
+	 * Removes a connection that was openend from the set of open connections.
+	 ********************************************************************************************/
+	protected void removeOpenConnection(Connection connection) {	
+		openConnections.remove(connection);
+	}
+	
+	/********************************************************************************************
+	 * Returns the number of connections that have been borrowed from the pool and have not 
+	 * been closed yet.
+	 ********************************************************************************************/
+	public int getOpenConnectionCount() {	
+		return openConnections.size();
 	}
 	
 	/********************************************************************************************
@@ -338,7 +565,13 @@ public class PFRDB {
 	 ********************************************************************************************/
 	public void closeAll(){
 		try {
-			pooledSource.close();
+			for(PFRDBStatementCache cache : statementCaches.values()) {
+				cache.clear();
+			}
+			statementCaches.clear();
+			
+			removePoolMetrics();
+			pool.close();
 		} catch (SQLException e) {
 			logger
 			.error("Exception occured while closing connection in pool. ", e);
@@ -397,10 +630,19 @@ public class PFRDB {
 	 * 
 	 ************************************************************************/
 	public static PFRDB initDBInterfaceMySQL(String servername, int port, String dbName, String username, String password) {
-		
+		return initDBInterfaceMySQL(servername, port, dbName, username, password, false);
+	}
+	
+	/************************************************************************
+	 * 
+	 * @param rewriteBatchedStatements if true, the driver sends batches as 
+	 *        multi-row statements, see PFRDBSQLBuilder.batch(String, Iterator)
+	 ************************************************************************/
+	public static PFRDB initDBInterfaceMySQL(String servername, int port, String dbName, String username, String password, boolean rewriteBatchedStatements) {
 		
 		String urlPart = servername+":"+port+"/"+dbName;
 		String connectionURL = "jdbc:mysql://"+urlPart;
+		if(rewriteBatchedStatements) { connectionURL += "?rewriteBatchedStatements=true"; }
 		String driverClass = "com.mysql.cj.jdbc.Driver";
 		
 		return initDBInterface(
@@ -415,9 +657,19 @@ public class PFRDB {
 	 * 
 	 ************************************************************************/
 	public static PFRDB initDBInterfacePostgres(String servername, int port, String dbName, String username, String password) {
+		return initDBInterfacePostgres(servername, port, dbName, username, password, false);
+	}
+	
+	/************************************************************************
+	 * 
+	 * @param rewriteBatchedInserts if true, the driver sends batches of inserts
+	 *        as multi-row inserts, see PFRDBSQLBuilder.batch(String, Iterator)
+	 ************************************************************************/
+	public static PFRDB initDBInterfacePostgres(String servername, int port, String dbName, String username, String password, boolean rewriteBatchedInserts) {
 		
 		String urlPart = servername+":"+port+"/"+dbName;
 		String connectionURL = "jdbc:postgresql://"+urlPart;
+		if(rewriteBatchedInserts) { connectionURL += "?reWriteBatchedInserts=true"; }
 		String driverClass = "org.postgresql.Driver";
 
 		return initDBInterface(
@@ -489,44 +741,52 @@ public class PFRDB {
 
 	/************************************************************************
 	 * Creates a DBInterface with a pooled datasource.
-	 * Adds the connection pool to the Connection pool management.
+	 * The type of the pool can be set with PFRDB.poolType().
 	 * Sets default connection pool settings.
 	 * 
+	 * @param validationQuery the query used by DBCP to validate connections
+	 * on borrow, not used by the lean pool
+	 * 
 	 * @return DBInterface
 	 * 
 	 ************************************************************************/
-	@SuppressWarnings("deprecation")
 	public static PFRDB initDBInterface(String driverName, String url, String username, String password, String validationQuery) {
 		
-		BasicDataSource datasource;
+		PFRDBPool pool;
 		
 		try {
-			//Driver name com.microsoft.sqlserver.jdbc.SQLServerDriver
-			//Connection URL Example: "jdbc:sqlserver://localhost:1433;databaseName=AdventureWorks;user=MyUserName;password=*****;";  
-			datasource = new BasicDataSource();
-			
-			datasource.setDriverClassName(driverName);
-			datasource.setUrl(url);	
-			
-			// try to recover when DB connection was lost
-			datasource.setRemoveAbandonedOnBorrow(true);
-			datasource.setRemoveAbandonedTimeout(60);
-			datasource.setTestOnBorrow(true);
-			
-			
-			if(validationQuery != null) {
-				datasource.setValidationQuery(validationQuery);
+			if(defaultPoolType == PoolType.LEAN) {
+				PFRDBPoolLean lean = new PFRDBPoolLean(driverName, url, username, password);
+				if(defaultPoolMaxSize > 0) { lean.maxSize(defaultPoolMaxSize); }
+				pool = lean;
+			}else {
+				PFRDBPoolDBCP dbcp = new PFRDBPoolDBCP(driverName, url, username, password, validationQuery);
+				if(defaultPoolMaxSize > 0) { dbcp.getBasicDataSource().setMaxTotal(defaultPoolMaxSize); }
+				pool = dbcp;
 			}
-
-			datasource.setUsername(username);
-			datasource.setPassword(password);
-			
-			PFRDB.setDefaultConnectionPoolSettings(datasource);
-			
+		} catch (Exception e) {
+			logger
+				.error("Exception occured initializing DBInterface.", e);
+			return null;
+		}
+		
+		return initDBInterface(pool);
+	}
+	
+	/************************************************************************
+	 * Creates a DBInterface for the given connection pool.
+	 * 
+	 * @param pool the connection pool, e.g. a PFRDBPoolLean
+	 * 
+	 * @return DBInterface, or null if no connection could be created
+	 * 
+	 ************************************************************************/
+	public static PFRDB initDBInterface(PFRDBPool pool) {
+		
+		try {
 			//----------------------------------
 			// Test connection
-			//pooledSource.setLoginTimeout(5);
-			Connection connection = datasource.getConnection();
+			Connection connection = pool.getConnection();
 			connection.close();
 			
 		} catch (Exception e) {
@@ -535,9 +795,9 @@ public class PFRDB {
 			return null;
 		}
 		
-		PFRDB db = new PFRDB(datasource);
+		PFRDB db = new PFRDB(pool);
 
-		logger.info("Created DBInteface: "+ url);
+		logger.info("Created DBInteface: "+ pool.getName());
 		return db;
 	}
 	
@@ -0,0 +1,491 @@
+package com.performetriks.performator.database;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.xresch.hsr.base.HSR;
+
+/**************************************************************************************************************
+ * Executes database calls asynchronously over a small number of connections, used to create a high number
+ * of concurrent database requests without a thread and a connection for every request.
+ *
+ * <ul>
+ * <li>Requests are put in a queue and executed by one worker thread per connection.</li>
+ * <li>A worker takes up to pipelineDepth() queued requests at once. Consecutive updates with the same SQL
+ *     are sent with one executeBatch(), which drivers like Postgres send pipelined in one round trip.
+ *     A batch runs in its own transaction. If it fails, it is rolled back and its requests are executed
+ *     one by one, so only the requests that fail themselves are completed exceptionally.</li>
+ * <li>The number of requests in flight is limited by maxInFlight(), submitting blocks while the limit is
+ *     reached.</li>
+ * <li>The returned futures are completed by the worker threads, keep the code chained to them short.</li>
+ * </ul>
+ *
+ * Every request is recorded with PFRDBRecorder under the usecase set with usecase():
+ * <ul>
+ * <li>{name}: time from submit until the request was completed.</li>
+ * <li>{name} [QUEUE]: time the request waited in the queue.</li>
+ * <li>{name} - Failed: count of failed requests.</li>
+ * </ul>
+ *
+ * <pre>
+ * PFRDBAsync async = new PFRDBAsync(db, 8).usecase("DB Async").maxInFlight(20000);
+ * async.update("insertItem", "INSERT INTO items (name) VALUES (?)", "item");
+ * async.query("selectItems", "SELECT * FROM items WHERE name = ?", row -> {}, "item")
+ *      .thenAccept(rows -> ... );
+ * async.close();
+ * </pre>
+ *
+ * Copyright Owner: Performetriks GmbH, Switzerland
+ * License: Eclipse Public License v2.0
+ *
+ * @author Reto Scheiwiller
+ *
+ **************************************************************************************************************/
+public class PFRDBAsync {
+
+	private static final Logger logger = LoggerFactory.getLogger(PFRDBAsync.class.getName());
+
+	private PFRDB db;
+	private int connectionCount;
+	private int pipelineDepth = 64;
+	private String usecase = "PFRDBAsync";
+
+	private int maxInFlight = 10_000;
+	private Semaphore inFlight = new Semaphore(maxInFlight);
+	private final LinkedBlockingQueue<Request> queue = new LinkedBlockingQueue<>();
+	private final ArrayList<Thread> workers = new ArrayList<>();
+	private volatile boolean isClosed = false;
+
+	/***************************************************************************
+	 * A queued database call.
+	 ***************************************************************************/
+	private static class Request {
+
+		private final PFRDBRecorder.Handle handle;
+		private final String sql;
+		private final Object[] values;
+		private final PFRDBRow.Handler rowHandler;	// null for updates
+		private final CompletableFuture<Integer> future = new CompletableFuture<>();
+		private final long submitNanos = System.nanoTime();
+		private long startNanos;
+
+		private Request(PFRDBRecorder.Handle handle, String sql, Object[] values, PFRDBRow.Handler rowHandler) {
+			this.handle = handle;
+			this.sql = sql;
+			this.values = values;
+			this.rowHandler = rowHandler;
+		}
+
+		private boolean isQuery() {
+			return rowHandler != null;
+		}
+	}
+
+	/********************************************************************************************
+	 * Creates an asynchronous executor, the connections are borrowed from the pool of the
+	 * DBInterface when the first request is submitted and kept until close() is called.
+	 *
+	 * @param db the DBInterface
+	 * @param connectionCount the number of connections and worker threads
+	 ********************************************************************************************/
+	public PFRDBAsync(PFRDB db, int connectionCount) {
+		this.db = db;
+		this.connectionCount = Math.max(1, connectionCount);
+	}
+
+	/********************************************************************************************
+	 * Set the maximum number of requests a worker executes at once, default is 64.
+	 ********************************************************************************************/
+	public PFRDBAsync pipelineDepth(int pipelineDepth) {
+		this.pipelineDepth = Math.max(1, pipelineDepth);
+		return this;
+	}
+
+	/********************************************************************************************
+	 * Set the maximum number of submitted requests that are not completed yet, default is
+	 * 10000. Must be set before the first request is submitted.
+	 ********************************************************************************************/
+	public PFRDBAsync maxInFlight(int maxInFlight) {
+		this.maxInFlight = Math.max(1, maxInFlight);
+		this.inFlight = new Semaphore(this.maxInFlight);
+		return this;
+	}
+
+	/********************************************************************************************
+	 * Set the usecase the requests are recorded with, default is "PFRDBAsync".
+	 * Must be set before the first request is submitted.
+	 ********************************************************************************************/
+	public PFRDBAsync usecase(String usecase) {
+		this.usecase = usecase;
+		return this;
+	}
+
+	/********************************************************************************************
+	 * Submits an insert, update or delete.
+	 *
+	 * @param metricName the name of the metric, or null to use the SQL
+	 * @param sql string with placeholders
+	 * @param values the values to be placed in the prepared statement
+	 * @return future completed with the number of affected rows
+	 ********************************************************************************************/
+	public CompletableFuture<Integer> update(String metricName, String sql, Object... values) {
+		return submit(new Request(handle(metricName, sql), sql, values, null));
+	}
+
+	/********************************************************************************************
+	 * Submits a query, the rows are passed to the handler on the worker thread.
+	 *
+	 * @param metricName the name of the metric, or null to use the SQL
+	 * @param sql string with placeholders
+	 * @param rowHandler called for every row, see PFRDBSQLBuilder.queryStream()
+	 * @param values the values to be placed in the prepared statement
+	 * @return future completed with the number of rows
+	 ********************************************************************************************/
+	public CompletableFuture<Integer> query(String metricName, String sql, PFRDBRow.Handler rowHandler, Object... values) {
+		return submit(new Request(handle(metricName, sql), sql, values, rowHandler));
+	}
+
+	/********************************************************************************************
+	 * Returns the number of submitted requests that are not completed yet.
+	 ********************************************************************************************/
+	public int inFlight() {
+		return maxInFlight - inFlight.availablePermits();
+	}
+
+	/********************************************************************************************
+	 *
+	 ********************************************************************************************/
+	private static PFRDBRecorder.Handle handle(String metricName, String sql) {
+		return PFRDBRecorder.handle( (metricName != null) ? metricName : sql );
+	}
+
+	/********************************************************************************************
+	 * Queues the request, blocks while maxInFlight() requests are in flight.
+	 ********************************************************************************************/
+	private CompletableFuture<Integer> submit(Request request) {
+
+		if(isClosed) {
+			request.future.completeExceptionally(new SQLException("PFRDBAsync is closed."));
+			return request.future;
+		}
+
+		startWorkers();
+
+		try {
+			inFlight.acquire();
+		}catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+			request.future.completeExceptionally(e);
+			return request.future;
+		}
+
+		queue.add(request);
+		
+		// closed while queuing, the workers and close() might have missed the request
+		if(isClosed && queue.remove(request)) {
+			complete(request, -1, new SQLException("PFRDBAsync is closed."));
+		}
+		
+		return request.future;
+	}
+
+	/********************************************************************************************
+	 * Starts the worker threads, once. No workers are started after close().
+	 ********************************************************************************************/
+	private void startWorkers() {
+
+		if( !workers.isEmpty() ) { return; }
+
+		synchronized(workers) {
+			if( !workers.isEmpty() || isClosed ) { return; }
+
+			for(int i = 0; i < connectionCount; i++) {
+				Thread worker = new Thread(this::runWorker);
+				worker.setName("PFRDBAsync-"+i);
+				worker.setDaemon(true);
+				worker.start();
+				workers.add(worker);
+			}
+		}
+	}
+
+	/********************************************************************************************
+	 * Executes requests on one connection until the executor is closed.
+	 ********************************************************************************************/
+	private void runWorker() {
+
+		HSR.setUsecase(usecase);
+
+		Connection conn = null;
+		ArrayList<Request> pipeline = new ArrayList<>(pipelineDepth);
+
+		try {
+			while( !isClosed || !queue.isEmpty() ) {
+
+				//-----------------------------------------
+				// Take Requests
+				Request first = queue.poll(200, TimeUnit.MILLISECONDS);
+				if(first == null) {
+					PFRDBRecorder.flush();
+					continue;
+				}
+
+				pipeline.add(first);
+				queue.drainTo(pipeline, pipelineDepth - 1);
+
+				//-----------------------------------------
+				// Connect
+				try {
+					if(conn == null || conn.isClosed()) {
+						conn = db.getConnection();
+					}
+				}catch(SQLException e) {
+					logger.error("PFRDBAsync could not get a connection: "+e.getMessage(), e);
+					for(Request request : pipeline) { complete(request, -1, e); }
+					pipeline.clear();
+					continue;
+				}
+
+				//-----------------------------------------
+				// Execute
+				long startNanos = System.nanoTime();
+				for(Request request : pipeline) { request.startNanos = startNanos; }
+
+				int i = 0;
+				while(i < pipeline.size()) {
+					int end = i + 1;
+					Request request = pipeline.get(i);
+
+					if( !request.isQuery() ) {
+						while(end < pipeline.size()
+						   && !pipeline.get(end).isQuery()
+						   && pipeline.get(end).sql.equals(request.sql)) {
+							end++;
+						}
+					}
+
+					if(end - i > 1) {
+						executeBatch(conn, pipeline, i, end);
+					}else {
+						executeSingle(conn, request);
+					}
+					i = end;
+				}
+
+				pipeline.clear();
+				PFRDBRecorder.flush();
+			}
+		}catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}finally {
+
+			// fail the requests which have not been executed
+			for(Request request : pipeline) {
+				complete(request, -1, new SQLException("PFRDBAsync was closed."));
+			}
+
+			PFRDBRecorder.flush();
+
+			if(conn != null) {
+				db.close(conn);
+			}
+		}
+	}
+
+	/********************************************************************************************
+	 * Executes a single request.
+	 ********************************************************************************************/
+	private void executeSingle(Connection conn, Request request) {
+
+		PreparedStatement prepared = null;
+
+		try {
+			prepared = db.getStatement(conn, request.sql);
+			PFRDB.prepareStatement(prepared, request.values);
+
+			if(request.isQuery()) {
+				int rows = 0;
+				try(ResultSet result = prepared.executeQuery()) {
+					PFRDBRow row = new PFRDBRow(result);
+					while(row.next()) {
+						request.rowHandler.accept(row);
+					}
+					rows = row.rowNumber();
+				}
+				complete(request, rows, null);
+			}else {
+				complete(request, prepared.executeUpdate(), null);
+			}
+
+		}catch(Throwable e) {
+			complete(request, -1, e);
+		}finally {
+			release(prepared);
+		}
+	}
+
+	/********************************************************************************************
+	 * Executes updates with the same SQL with one executeBatch() in one transaction. If the
+	 * batch fails, it is rolled back and the requests are executed one by one, so only the
+	 * requests that fail themselves are completed exceptionally.
+	 ********************************************************************************************/
+	private void executeBatch(Connection conn, ArrayList<Request> pipeline, int start, int end) {
+
+		int[] counts = null;
+
+		//-----------------------------------------
+		// Execute Batch
+		PreparedStatement prepared = null;
+		boolean isAutoCommit = false;
+		try {
+			isAutoCommit = conn.getAutoCommit();
+			if(isAutoCommit) { conn.setAutoCommit(false); }
+			
+			prepared = db.getStatement(conn, pipeline.get(start).sql);
+
+			for(int i = start; i < end; i++) {
+				PFRDB.prepareStatement(prepared, pipeline.get(i).values);
+				prepared.addBatch();
+			}
+
+			counts = prepared.executeBatch();
+			if(isAutoCommit) { conn.commit(); }
+
+		}catch(Throwable e) {
+			logger.debug("PFRDBAsync batch failed, requests are executed one by one: "+e.getMessage());
+			counts = null;
+			rollback(conn, isAutoCommit);
+		}finally {
+			release(prepared);
+			resetAutoCommit(conn, isAutoCommit);
+		}
+
+		//-----------------------------------------
+		// Complete
+		for(int i = start; i < end; i++) {
+			if(counts != null) {
+				int count = (i - start < counts.length) ? counts[i - start] : Statement.SUCCESS_NO_INFO;
+				complete(pipeline.get(i), (count == Statement.SUCCESS_NO_INFO) ? 1 : count, null);
+			}else {
+				executeSingle(conn, pipeline.get(i));
+			}
+		}
+	}
+
+	/********************************************************************************************
+	 *
+	 ********************************************************************************************/
+	private void rollback(Connection conn, boolean isAutoCommit) {
+		
+		if( !isAutoCommit ) { return; }
+		
+		try {
+			conn.rollback();
+		}catch(SQLException e) {
+			logger.debug("Could not roll back batch: "+e.getMessage());
+		}
+	}
+
+	/********************************************************************************************
+	 *
+	 ********************************************************************************************/
+	private void resetAutoCommit(Connection conn, boolean isAutoCommit) {
+		
+		if( !isAutoCommit ) { return; }
+		
+		try {
+			conn.setAutoCommit(true);
+		}catch(SQLException e) {
+			logger.debug("Could not reset auto commit: "+e.getMessage());
+		}
+	}
+
+	/********************************************************************************************
+	 * Records and completes the request.
+	 ********************************************************************************************/
+	private void complete(Request request, int result, Throwable exception) {
+
+		long endNanos = System.nanoTime();
+		boolean success = (exception == null);
+
+		PFRDBRecorder.record(request.handle, endNanos - request.submitNanos, success, null, 0, 0);
+
+		if(request.startNanos > 0) {
+			PFRDBRecorder.record(request.handle.suffixed(" [QUEUE]"), request.startNanos - request.submitNanos, true, null, 0, 0);
+		}
+
+		inFlight.release();
+
+		if(success) {
+			request.future.complete(result);
+		}else {
+			logger.debug("PFRDBAsync request failed: "+exception.getMessage());
+			request.future.completeExceptionally(exception);
+		}
+	}
+
+	/********************************************************************************************
+	 *
+	 ********************************************************************************************/
+	private void release(PreparedStatement prepared) {
+		try {
+			db.releaseStatement(prepared);
+		}catch(SQLException e) {
+			logger.debug("Could not release statement: "+e.getMessage());
+		}
+	}
+
+	/********************************************************************************************
+	 * Executes the queued requests, stops the workers and returns the connections to the
+	 * pool. Requests submitted after this call fail.
+	 *
+	 * @param timeoutMillis maximum time to wait for the queued requests
+	 ********************************************************************************************/
+	public void close(long timeoutMillis) {
+
+		ArrayList<Thread> closedWorkers;
+		synchronized(workers) {
+			isClosed = true;
+			closedWorkers = new ArrayList<>(workers);
+		}
+
+		long deadline = System.currentTimeMillis() + timeoutMillis;
+		for(Thread worker : closedWorkers) {
+			try {
+				worker.join(Math.max(1, deadline - System.currentTimeMillis()));
+			}catch(InterruptedException e) {
+				Thread.currentThread().interrupt();
+				break;
+			}
+			worker.interrupt();
+		}
+
+		//-----------------------------------------
+		// Fail remaining requests
+		Request request;
+		while( (request = queue.poll()) != null ) {
+			complete(request, -1, new SQLException("PFRDBAsync was closed."));
+		}
+
+		PFRDBRecorder.flush();
+	}
+
+	/********************************************************************************************
+	 * Executes the queued requests and stops the workers, waits up to 30 seconds.
+	 ********************************************************************************************/
+	public void close() {
+		close(30_000);
+	}
+
+}
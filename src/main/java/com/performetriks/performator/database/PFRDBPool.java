@@ -0,0 +1,65 @@
+package com.performetriks.performator.database;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+
+import javax.sql.DataSource;
+
+/**************************************************************************************************************
+ * A connection pool used by PFRDB.
+ *
+ * Implementations:
+ * <ul>
+ * <li>PFRDBPoolDBCP: Apache DBCP2, the default.</li>
+ * <li>PFRDBPoolLean: a small pool made for virtual threads, validates connections only after they have
+ *     been idle.</li>
+ * </ul>
+ *
+ * Copyright Owner: Performetriks GmbH, Switzerland
+ * License: Eclipse Public License v2.0
+ *
+ * @author Reto Scheiwiller
+ *
+ **************************************************************************************************************/
+public interface PFRDBPool {
+
+	/********************************************************************************************
+	 * Returns the name of the pool, used for metrics and logs, e.g. the connection URL.
+	 ********************************************************************************************/
+	public String getName();
+
+	/********************************************************************************************
+	 * Borrows a connection from the pool. The connection is returned to the pool when it
+	 * is closed.
+	 *
+	 * @throws SQLException if no connection could be borrowed
+	 ********************************************************************************************/
+	public Connection getConnection() throws SQLException;
+
+	/********************************************************************************************
+	 * Returns the pool as a DataSource.
+	 ********************************************************************************************/
+	public DataSource getDataSource();
+
+	/********************************************************************************************
+	 * Returns the number of connections that are currently borrowed.
+	 ********************************************************************************************/
+	public int getNumActive();
+
+	/********************************************************************************************
+	 * Returns the maximum number of connections of the pool.
+	 ********************************************************************************************/
+	public int getMaxSize();
+
+	/********************************************************************************************
+	 * Returns the connection of the database driver that is wrapped by the connection
+	 * returned by getConnection(), or null if it cannot be accessed.
+	 ********************************************************************************************/
+	public Connection getPhysicalConnection(Connection conn);
+
+	/********************************************************************************************
+	 * Closes all connections of the pool.
+	 ********************************************************************************************/
+	public void close() throws SQLException;
+
+}
@@ -0,0 +1,132 @@
+package com.performetriks.performator.database;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+
+import javax.sql.DataSource;
+
+import org.apache.commons.dbcp2.BasicDataSource;
+
+/**************************************************************************************************************
+ * Connection pool based on Apache DBCP2, the default pool of PFRDB.
+ *
+ * Copyright Owner: Performetriks GmbH, Switzerland
+ * License: Eclipse Public License v2.0
+ *
+ * @author Reto Scheiwiller
+ *
+ **************************************************************************************************************/
+public class PFRDBPoolDBCP implements PFRDBPool {
+
+	private BasicDataSource pooledSource;
+
+	/********************************************************************************************
+	 * Creates a pool for an existing DBCP data source.
+	 ********************************************************************************************/
+	public PFRDBPoolDBCP(BasicDataSource pooledSource) {
+		this.pooledSource = pooledSource;
+	}
+
+	/********************************************************************************************
+	 * Creates a DBCP data source with the default settings of PFRDB, see
+	 * PFRDB.setDefaultConnectionPoolSettings().
+	 *
+	 * @param validationQuery query executed on every borrow, or null
+	 ********************************************************************************************/
+	@SuppressWarnings("deprecation")
+	public PFRDBPoolDBCP(String driverName, String url, String username, String password, String validationQuery) {
+
+		//Driver name com.microsoft.sqlserver.jdbc.SQLServerDriver
+		//Connection URL Example: "jdbc:sqlserver://localhost:1433;databaseName=AdventureWorks;user=MyUserName;password=*****;";
+		pooledSource = new BasicDataSource();
+
+		pooledSource.setDriverClassName(driverName);
+		pooledSource.setUrl(url);
+
+		// try to recover when DB connection was lost
+		pooledSource.setRemoveAbandonedOnBorrow(true);
+		pooledSource.setRemoveAbandonedTimeout(60);
+		pooledSource.setTestOnBorrow(true);
+
+		if(validationQuery != null) {
+			pooledSource.setValidationQuery(validationQuery);
+		}
+
+		pooledSource.setUsername(username);
+		pooledSource.setPassword(password);
+
+		PFRDB.setDefaultConnectionPoolSettings(pooledSource);
+	}
+
+	/********************************************************************************************
+	 * Returns the DBCP data source, e.g. to change its settings.
+	 ********************************************************************************************/
+	public BasicDataSource getBasicDataSource() {
+		return pooledSource;
+	}
+
+	@Override
+	public String getName() {
+		return pooledSource.getUrl();
+	}
+
+	@Override
+	public Connection getConnection() throws SQLException {
+		return pooledSource.getConnection();
+	}
+
+	@Override
+	public DataSource getDataSource() {
+		return pooledSource;
+	}
+
+	@Override
+	public int getNumActive() {
+		return pooledSource.getNumActive();
+	}
+
+	@Override
+	public int getMaxSize() {
+		return pooledSource.getMaxTotal();
+	}
+
+	/********************************************************************************************
+	 * Enables the prepared statement pool of DBCP, used by PFRDB.setStatementCacheSize().
+	 * DBCP only applies this when the pool is created, the pool is restarted and its idle
+	 * connections are closed.
+	 *
+	 * @param maxStatementsPerConnection maximum number of pooled statements per connection,
+	 * 0 to disable
+	 ********************************************************************************************/
+	public void setStatementPoolSize(int maxStatementsPerConnection) throws SQLException {
+
+		boolean isPooling = maxStatementsPerConnection > 0;
+
+		if(isPooling == pooledSource.isPoolPreparedStatements()
+		&& (!isPooling || maxStatementsPerConnection == pooledSource.getMaxOpenPreparedStatements()) ) {
+			return;
+		}
+
+		pooledSource.setPoolPreparedStatements(isPooling);
+		if(isPooling) {
+			pooledSource.setMaxOpenPreparedStatements(maxStatementsPerConnection);
+		}
+
+		pooledSource.restart();
+	}
+
+	/********************************************************************************************
+	 * Returns null, statements are pooled by DBCP so they are closed and reused through the
+	 * pool, see setStatementPoolSize().
+	 ********************************************************************************************/
+	@Override
+	public Connection getPhysicalConnection(Connection conn) {
+		return null;
+	}
+
+	@Override
+	public void close() throws SQLException {
+		pooledSource.close();
+	}
+
+}
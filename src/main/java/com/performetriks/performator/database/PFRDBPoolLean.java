@@ -0,0 +1,524 @@
+package com.performetriks.performator.database;
+
+import java.io.PrintWriter;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import javax.sql.DataSource;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.performetriks.performator.base.PFRTest;
+import com.performetriks.performator.executors.PFRExec;
+
+/**************************************************************************************************************
+ * A lean connection pool made for tests with many virtual threads.
+ *
+ * <ul>
+ * <li>Borrowing takes a permit of a non-fair semaphore and an idle connection from a lock-free deque, no
+ *     monitor is held, so virtual threads are not pinned.</li>
+ * <li>Connections are only validated if they have been idle for longer than validateAfterIdle(), so no
+ *     validation round trip is added to the measured database calls of a busy pool.</li>
+ * <li>The most recently used connection is borrowed first, unused connections stay idle.</li>
+ * <li>Connections that are returned with auto commit disabled are rolled back and reset. Statements and
+ *     result sets that are still open are closed, changed read-only, isolation, catalog and schema settings
+ *     are restored.</li>
+ * </ul>
+ *
+ * The connections returned by the pool are PFRDBPoolLeanConnection wrappers that return the connection to
+ * the pool when closed. Statements and result sets are wrapped as well, so getConnection() and getStatement()
+ * return the wrappers instead of the objects of the driver.
+ * The maximum size can be changed while the pool is used, borrowed connections above a reduced size are
+ * not replaced when they are returned.
+ *
+ * <pre>
+ * PFRDB db = PFRDB.initDBInterface(
+ * 		new PFRDBPoolLean("org.postgresql.Driver", url, user, password)
+ * 			.maxSizeFromUsers(test, 1.0)
+ * 		);
+ * </pre>
+ *
+ * Copyright Owner: Performetriks GmbH, Switzerland
+ * License: Eclipse Public License v2.0
+ *
+ * @author Reto Scheiwiller
+ *
+ **************************************************************************************************************/
+public class PFRDBPoolLean implements PFRDBPool {
+
+	private static final Logger logger = LoggerFactory.getLogger(PFRDBPoolLean.class.getName());
+
+	private String url;
+	private Properties properties = new Properties();
+
+	private int maxSize = 90;
+	private long validateAfterIdleNanos = TimeUnit.SECONDS.toNanos(5);
+	private long maxLifetimeMillis = 60 * 60 * 1000;
+	private long borrowTimeoutMillis = 30_000;
+	private int validationTimeoutSeconds = 5;
+
+	private final ResizableSemaphore permits = new ResizableSemaphore(maxSize);
+	private final ConcurrentLinkedDeque<Entry> idle = new ConcurrentLinkedDeque<>();
+	private final Set<Entry> borrowed = ConcurrentHashMap.newKeySet();
+	private volatile boolean isClosed = false;
+
+	private DataSource dataSource = new PoolDataSource();
+
+	/***************************************************************************
+	 * A connection of the driver managed by the pool.
+	 ***************************************************************************/
+	static class Entry {
+
+		final Connection physical;
+		private final long createdMillis = System.currentTimeMillis();
+		private volatile long lastUsedNanos = System.nanoTime();
+
+		// settings before they were changed by the borrower, restored by giveBack()
+		private boolean isReadOnlyChanged = false;
+		private boolean originalReadOnly;
+		private boolean isIsolationChanged = false;
+		private int originalIsolation;
+		private boolean isCatalogChanged = false;
+		private String originalCatalog;
+		private boolean isSchemaChanged = false;
+		private String originalSchema;
+
+		private Entry(Connection physical) {
+			this.physical = physical;
+		}
+
+		/***************************************************************************
+		 * Remembers the read-only setting before it is changed the first time.
+		 ***************************************************************************/
+		void beforeReadOnlyChange() throws SQLException {
+			if( !isReadOnlyChanged ) {
+				originalReadOnly = physical.isReadOnly();
+				isReadOnlyChanged = true;
+			}
+		}
+
+		/***************************************************************************
+		 * Remembers the isolation level before it is changed the first time.
+		 ***************************************************************************/
+		void beforeIsolationChange() throws SQLException {
+			if( !isIsolationChanged ) {
+				originalIsolation = physical.getTransactionIsolation();
+				isIsolationChanged = true;
+			}
+		}
+
+		/***************************************************************************
+		 * Remembers the catalog before it is changed the first time.
+		 ***************************************************************************/
+		void beforeCatalogChange() throws SQLException {
+			if( !isCatalogChanged ) {
+				originalCatalog = physical.getCatalog();
+				isCatalogChanged = true;
+			}
+		}
+
+		/***************************************************************************
+		 * Remembers the schema before it is changed the first time.
+		 ***************************************************************************/
+		void beforeSchemaChange() throws SQLException {
+			if( !isSchemaChanged ) {
+				originalSchema = physical.getSchema();
+				isSchemaChanged = true;
+			}
+		}
+
+		/***************************************************************************
+		 * Restores the settings changed by the borrower, only changed settings
+		 * cause calls to the driver.
+		 ***************************************************************************/
+		private void restoreSettings() throws SQLException {
+
+			if(isReadOnlyChanged) {
+				physical.setReadOnly(originalReadOnly);
+				isReadOnlyChanged = false;
+			}
+
+			if(isIsolationChanged) {
+				physical.setTransactionIsolation(originalIsolation);
+				isIsolationChanged = false;
+			}
+
+			if(isCatalogChanged) {
+				physical.setCatalog(originalCatalog);
+				isCatalogChanged = false;
+			}
+
+			if(isSchemaChanged) {
+				physical.setSchema(originalSchema);
+				isSchemaChanged = false;
+			}
+		}
+	}
+
+	/********************************************************************************************
+	 * Creates a new pool, connections are created when they are needed.
+	 *
+	 * @param driverName class name of the JDBC driver, loaded if not null
+	 * @param url the connection URL
+	 * @param username the user
+	 * @param password the password
+	 ********************************************************************************************/
+	public PFRDBPoolLean(String driverName, String url, String username, String password) {
+
+		this.url = url;
+
+		if(username != null) { properties.setProperty("user", username); }
+		if(password != null) { properties.setProperty("password", password); }
+
+		if(driverName != null) {
+			try {
+				Class.forName(driverName);
+			}catch(ClassNotFoundException e) {
+				logger.error("JDBC driver not found: "+driverName, e);
+			}
+		}
+	}
+
+	/***************************************************************************
+	 * Semaphore whose number of permits can be reduced while permits are
+	 * acquired.
+	 ***************************************************************************/
+	private static class ResizableSemaphore extends Semaphore {
+
+		private static final long serialVersionUID = 1L;
+
+		private ResizableSemaphore(int permits) {
+			super(permits);
+		}
+
+		private void reduce(int reduction) {
+			reducePermits(reduction);
+		}
+	}
+
+	/********************************************************************************************
+	 * Set the maximum number of connections, default is 90.
+	 * Can be changed while the pool is used, waiting users get the added permits. If the size
+	 * is reduced, the permits of borrowed connections are removed when they are returned.
+	 ********************************************************************************************/
+	public synchronized PFRDBPoolLean maxSize(int maxSize) {
+
+		int newSize = Math.max(1, maxSize);
+		int delta = newSize - this.maxSize;
+
+		if(delta > 0) {
+			permits.release(delta);
+		}else if(delta < 0) {
+			permits.reduce(-delta);
+		}
+
+		this.maxSize = newSize;
+		return this;
+	}
+
+	/********************************************************************************************
+	 * Set the maximum number of connections based on the users of the executors of the test.
+	 * The users are taken from the settings "users" or "maxUsers" of every executor.
+	 *
+	 * @param test the test
+	 * @param connectionsPerUser number of connections per user, e.g. 1.0 if every user
+	 *        executes database calls, 0.5 if only every second user does
+	 ********************************************************************************************/
+	public PFRDBPoolLean maxSizeFromUsers(PFRTest test, double connectionsPerUser) {
+
+		int users = 0;
+		for(PFRExec executor : test.getExecutors()) {
+
+			JsonObject settings = new JsonObject();
+			executor.getSettings(settings);
+
+			JsonElement count = settings.has("users") ? settings.get("users") : settings.get("maxUsers");
+			if(count != null && count.isJsonPrimitive()) {
+				users += count.getAsInt();
+			}
+		}
+
+		return maxSize((int) Math.ceil(users * connectionsPerUser));
+	}
+
+	/********************************************************************************************
+	 * Set the time a connection has to be idle before it is validated on borrow,
+	 * default is 5000 ms. Set to 0 to validate on every borrow.
+	 ********************************************************************************************/
+	public PFRDBPoolLean validateAfterIdle(long millis) {
+		this.validateAfterIdleNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, millis));
+		return this;
+	}
+
+	/********************************************************************************************
+	 * Set the maximum lifetime of a connection, default is 60 minutes.
+	 ********************************************************************************************/
+	public PFRDBPoolLean maxLifetime(long millis) {
+		this.maxLifetimeMillis = millis;
+		return this;
+	}
+
+	/********************************************************************************************
+	 * Set the maximum time to wait for a connection if all connections are borrowed,
+	 * default is 30000 ms.
+	 ********************************************************************************************/
+	public PFRDBPoolLean borrowTimeout(long millis) {
+		this.borrowTimeoutMillis = millis;
+		return this;
+	}
+
+	/********************************************************************************************
+	 * Set an additional property of the driver, e.g. "reWriteBatchedInserts".
+	 ********************************************************************************************/
+	public PFRDBPoolLean property(String key, String value) {
+		properties.setProperty(key, value);
+		return this;
+	}
+
+	@Override
+	public String getName() {
+		return url;
+	}
+
+	@Override
+	public DataSource getDataSource() {
+		return dataSource;
+	}
+
+	@Override
+	public int getNumActive() {
+		return maxSize - permits.availablePermits();
+	}
+
+	@Override
+	public int getMaxSize() {
+		return maxSize;
+	}
+
+	/********************************************************************************************
+	 * Borrows a connection. Waits up to borrowTimeout() if all connections are borrowed.
+	 ********************************************************************************************/
+	@Override
+	public Connection getConnection() throws SQLException {
+
+		if(isClosed) { throw new SQLException("Connection pool is closed: "+url); }
+
+		//--------------------------------------
+		// Acquire Permit
+		if( !permits.tryAcquire() ) {
+
+			reclaimLost();
+
+			try {
+				if( !permits.tryAcquire(borrowTimeoutMillis, TimeUnit.MILLISECONDS) ) {
+					throw new SQLException("Timeout while waiting for a connection, all "+maxSize+" connections are in use: "+url);
+				}
+			}catch(InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new SQLException("Interrupted while waiting for a connection.", e);
+			}
+		}
+
+		//--------------------------------------
+		// Borrow Idle or Create
+		try {
+			Entry entry;
+			while( (entry = idle.pollFirst()) != null ) {
+				if(isUsable(entry)) { break; }
+				closeQuietly(entry);
+			}
+
+			if(entry == null) {
+				entry = new Entry(DriverManager.getConnection(url, properties));
+			}
+
+			borrowed.add(entry);
+			
+			// closed while the connection was created
+			if(isClosed) {
+				borrowed.remove(entry);
+				closeQuietly(entry);
+				throw new SQLException("Connection pool is closed: "+url);
+			}
+			
+			return new PFRDBPoolLeanConnection(this, entry);
+
+		}catch(SQLException | RuntimeException e) {
+			permits.release();
+			throw e;
+		}
+	}
+
+	/********************************************************************************************
+	 * Returns false if the connection is too old or has been idle and is not valid anymore.
+	 ********************************************************************************************/
+	private boolean isUsable(Entry entry) {
+
+		if(System.currentTimeMillis() - entry.createdMillis > maxLifetimeMillis) {
+			return false;
+		}
+
+		if(System.nanoTime() - entry.lastUsedNanos < validateAfterIdleNanos) {
+			return true;
+		}
+
+		try {
+			return entry.physical.isValid(validationTimeoutSeconds);
+		}catch(SQLException e) {
+			return false;
+		}
+	}
+
+	/********************************************************************************************
+	 * Returns a borrowed connection to the pool.
+	 ********************************************************************************************/
+	void giveBack(Entry entry) {
+
+		// already reclaimed by reclaimLost()
+		if( !borrowed.remove(entry) ) { return; }
+
+		try {
+			Connection physical = entry.physical;
+
+			if(isClosed || physical.isClosed()) {
+				closeQuietly(entry);
+				return;
+			}
+
+			//--------------------------------------
+			// Reset State
+			if( !physical.getAutoCommit() ) {
+				physical.rollback();
+				physical.setAutoCommit(true);
+			}
+			entry.restoreSettings();
+			physical.clearWarnings();
+
+			entry.lastUsedNanos = System.nanoTime();
+			idle.offerFirst(entry);
+
+		}catch(SQLException e) {
+			logger.debug("Connection could not be reset and is closed: "+e.getMessage());
+			closeQuietly(entry);
+		}finally {
+			permits.release();
+		}
+	}
+
+	/********************************************************************************************
+	 * Releases the permits of borrowed connections that have been closed without returning
+	 * them to the pool, e.g. by closing the connection of the driver directly.
+	 ********************************************************************************************/
+	private void reclaimLost() {
+
+		for(Entry entry : borrowed) {
+			try {
+				if(entry.physical.isClosed() && borrowed.remove(entry)) {
+					permits.release();
+				}
+			}catch(SQLException e) {
+				// check again on the next call
+			}
+		}
+	}
+
+	@Override
+	public Connection getPhysicalConnection(Connection conn) {
+
+		if(conn instanceof PFRDBPoolLeanConnection wrapper) {
+			return wrapper.getPhysical();
+		}
+
+		return null;
+	}
+
+	/********************************************************************************************
+	 * Closes all connections, including the ones that are still borrowed. Users of borrowed
+	 * connections get an SQLException on their next call.
+	 ********************************************************************************************/
+	@Override
+	public void close() throws SQLException {
+
+		isClosed = true;
+
+		Entry entry;
+		while( (entry = idle.pollFirst()) != null ) {
+			closeQuietly(entry);
+		}
+
+		// the permits are released when the connections are returned
+		for(Entry borrowedEntry : borrowed) {
+			closeQuietly(borrowedEntry);
+		}
+	}
+
+	/********************************************************************************************
+	 *
+	 ********************************************************************************************/
+	private static void closeQuietly(Entry entry) {
+		try {
+			entry.physical.close();
+		}catch(SQLException e) {
+			logger.debug("Error while closing connection: "+e.getMessage());
+		}
+	}
+
+	/***************************************************************************
+	 * The pool as a DataSource.
+	 ***************************************************************************/
+	private class PoolDataSource implements DataSource {
+
+		private PrintWriter logWriter = null;
+		private int loginTimeout = 0;
+
+		@Override
+		public Connection getConnection() throws SQLException {
+			return PFRDBPoolLean.this.getConnection();
+		}
+
+		@Override
+		public Connection getConnection(String username, String password) throws SQLException {
+			throw new SQLFeatureNotSupportedException("The pool only provides connections for the configured user.");
+		}
+
+		@Override
+		public PrintWriter getLogWriter() { return logWriter; }
+
+		@Override
+		public void setLogWriter(PrintWriter out) { this.logWriter = out; }
+
+		@Override
+		public void setLoginTimeout(int seconds) { this.loginTimeout = seconds; }
+
+		@Override
+		public int getLoginTimeout() { return loginTimeout; }
+
+		@Override
+		public java.util.logging.Logger getParentLogger() throws SQLFeatureNotSupportedException {
+			throw new SQLFeatureNotSupportedException();
+		}
+
+		@Override
+		public <T> T unwrap(Class<T> iface) throws SQLException {
+			if(iface.isInstance(PFRDBPoolLean.this)) { return iface.cast(PFRDBPoolLean.this); }
+			throw new SQLException("Not a wrapper for "+iface.getName());
+		}
+
+		@Override
+		public boolean isWrapperFor(Class<?> iface) {
+			return iface.isInstance(PFRDBPoolLean.this);
+		}
+	}
+
+}
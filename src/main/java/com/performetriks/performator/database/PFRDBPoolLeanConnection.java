@@ -0,0 +1,414 @@
+package com.performetriks.performator.database;
+
+import java.sql.Array;
+import java.sql.Blob;
+import java.sql.CallableStatement;
+import java.sql.Clob;
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.NClob;
+import java.sql.PreparedStatement;
+import java.sql.SQLClientInfoException;
+import java.sql.SQLException;
+import java.sql.SQLWarning;
+import java.sql.SQLXML;
+import java.sql.Savepoint;
+import java.sql.ShardingKey;
+import java.sql.Statement;
+import java.sql.Struct;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+
+/**************************************************************************************************************
+ * Connection returned by PFRDBPoolLean, returns the connection of the driver to the pool when it is closed.
+ * Statements and result sets that are still open are closed before the connection is returned, settings
+ * that are changed are remembered so the pool can restore them.
+ * Statements and result sets are wrapped as well, so their getConnection() and getStatement() return the
+ * wrappers instead of the objects of the driver.
+ *
+ * Copyright Owner: Performetriks GmbH, Switzerland
+ * License: Eclipse Public License v2.0
+ *
+ * @author Reto Scheiwiller
+ *
+ **************************************************************************************************************/
+class PFRDBPoolLeanConnection implements Connection {
+
+	private final PFRDBPoolLean pool;
+	private final PFRDBPoolLean.Entry entry;
+	private volatile boolean isReturned = false;
+	private final Set<PFRDBPoolLeanStatement<?>> openStatements = ConcurrentHashMap.newKeySet();
+
+	/***************************************************************************
+	 * Wraps a connection borrowed from the pool.
+	 ***************************************************************************/
+	PFRDBPoolLeanConnection(PFRDBPoolLean pool, PFRDBPoolLean.Entry entry) {
+		this.pool = pool;
+		this.entry = entry;
+	}
+
+	/***************************************************************************
+	 * Returns the connection of the driver.
+	 ***************************************************************************/
+	Connection getPhysical() {
+		return entry.physical;
+	}
+
+	/***************************************************************************
+	 * Tracks a statement until it is closed.
+	 ***************************************************************************/
+	private <S extends PFRDBPoolLeanStatement<?>> S track(S statement) {
+		openStatements.add(statement);
+		return statement;
+	}
+
+	/***************************************************************************
+	 * Called by the statements when they are closed.
+	 ***************************************************************************/
+	void statementClosed(PFRDBPoolLeanStatement<?> statement) {
+		openStatements.remove(statement);
+	}
+
+	/***************************************************************************
+	 * Returns the connection of the driver, throws if this connection has
+	 * been returned to the pool.
+	 ***************************************************************************/
+	private Connection delegate() throws SQLException {
+
+		if(isReturned) { throw new SQLException("Connection is closed."); }
+
+		return entry.physical;
+	}
+
+	@Override
+	public Statement createStatement() throws SQLException {
+		return track(new PFRDBPoolLeanStatement<>(this, delegate().createStatement()));
+	}
+
+	@Override
+	public PreparedStatement prepareStatement(String sql) throws SQLException {
+		return track(new PFRDBPoolLeanPreparedStatement<>(this, delegate().prepareStatement(sql)));
+	}
+
+	@Override
+	public CallableStatement prepareCall(String sql) throws SQLException {
+		return track(new PFRDBPoolLeanCallableStatement(this, delegate().prepareCall(sql)));
+	}
+
+	@Override
+	public String nativeSQL(String sql) throws SQLException {
+		return delegate().nativeSQL(sql);
+	}
+
+	@Override
+	public void setAutoCommit(boolean autoCommit) throws SQLException {
+		delegate().setAutoCommit(autoCommit);
+	}
+
+	@Override
+	public boolean getAutoCommit() throws SQLException {
+		return delegate().getAutoCommit();
+	}
+
+	@Override
+	public void commit() throws SQLException {
+		delegate().commit();
+	}
+
+	@Override
+	public void rollback() throws SQLException {
+		delegate().rollback();
+	}
+
+	@Override
+	public void close() throws SQLException {
+		if( !isReturned ) {
+			isReturned = true;
+
+			// closes their result sets as well
+			for(PFRDBPoolLeanStatement<?> statement : openStatements) {
+				try {
+					statement.close();
+				}catch(SQLException e) {
+					// the connection is returned anyway
+				}
+			}
+
+			pool.giveBack(entry);
+		}
+	}
+
+	@Override
+	public boolean isClosed() throws SQLException {
+		return isReturned || entry.physical.isClosed();
+	}
+
+	@Override
+	public DatabaseMetaData getMetaData() throws SQLException {
+		return delegate().getMetaData();
+	}
+
+	@Override
+	public void setReadOnly(boolean readOnly) throws SQLException {
+		Connection physical = delegate();
+		entry.beforeReadOnlyChange();
+		physical.setReadOnly(readOnly);
+	}
+
+	@Override
+	public boolean isReadOnly() throws SQLException {
+		return delegate().isReadOnly();
+	}
+
+	@Override
+	public void setCatalog(String catalog) throws SQLException {
+		Connection physical = delegate();
+		entry.beforeCatalogChange();
+		physical.setCatalog(catalog);
+	}
+
+	@Override
+	public String getCatalog() throws SQLException {
+		return delegate().getCatalog();
+	}
+
+	@Override
+	public void setTransactionIsolation(int level) throws SQLException {
+		Connection physical = delegate();
+		entry.beforeIsolationChange();
+		physical.setTransactionIsolation(level);
+	}
+
+	@Override
+	public int getTransactionIsolation() throws SQLException {
+		return delegate().getTransactionIsolation();
+	}
+
+	@Override
+	public SQLWarning getWarnings() throws SQLException {
+		return delegate().getWarnings();
+	}
+
+	@Override
+	public void clearWarnings() throws SQLException {
+		delegate().clearWarnings();
+	}
+
+	@Override
+	public Statement createStatement(int resultSetType, int resultSetConcurrency) throws SQLException {
+		return track(new PFRDBPoolLeanStatement<>(this, delegate().createStatement(resultSetType, resultSetConcurrency)));
+	}
+
+	@Override
+	public PreparedStatement prepareStatement(String sql, int resultSetType, int resultSetConcurrency) throws SQLException {
+		return track(new PFRDBPoolLeanPreparedStatement<>(this, delegate().prepareStatement(sql, resultSetType, resultSetConcurrency)));
+	}
+
+	@Override
+	public CallableStatement prepareCall(String sql, int resultSetType, int resultSetConcurrency) throws SQLException {
+		return track(new PFRDBPoolLeanCallableStatement(this, delegate().prepareCall(sql, resultSetType, resultSetConcurrency)));
+	}
+
+	@Override
+	public Map<String,Class<?>> getTypeMap() throws SQLException {
+		return delegate().getTypeMap();
+	}
+
+	@Override
+	public void setTypeMap(Map<String,Class<?>> map) throws SQLException {
+		delegate().setTypeMap(map);
+	}
+
+	@Override
+	public void setHoldability(int holdability) throws SQLException {
+		delegate().setHoldability(holdability);
+	}
+
+	@Override
+	public int getHoldability() throws SQLException {
+		return delegate().getHoldability();
+	}
+
+	@Override
+	public Savepoint setSavepoint() throws SQLException {
+		return delegate().setSavepoint();
+	}
+
+	@Override
+	public Savepoint setSavepoint(String name) throws SQLException {
+		return delegate().setSavepoint(name);
+	}
+
+	@Override
+	public void rollback(Savepoint savepoint) throws SQLException {
+		delegate().rollback(savepoint);
+	}
+
+	@Override
+	public void releaseSavepoint(Savepoint savepoint) throws SQLException {
+		delegate().releaseSavepoint(savepoint);
+	}
+
+	@Override
+	public Statement createStatement(int resultSetType, int resultSetConcurrency, int resultSetHoldability) throws SQLException {
+		return track(new PFRDBPoolLeanStatement<>(this, delegate().createStatement(resultSetType, resultSetConcurrency, resultSetHoldability)));
+	}
+
+	@Override
+	public PreparedStatement prepareStatement(String sql, int resultSetType, int resultSetConcurrency, int resultSetHoldability) throws SQLException {
+		return track(new PFRDBPoolLeanPreparedStatement<>(this, delegate().prepareStatement(sql, resultSetType, resultSetConcurrency, resultSetHoldability)));
+	}
+
+	@Override
+	public CallableStatement prepareCall(String sql, int resultSetType, int resultSetConcurrency, int resultSetHoldability) throws SQLException {
+		return track(new PFRDBPoolLeanCallableStatement(this, delegate().prepareCall(sql, resultSetType, resultSetConcurrency, resultSetHoldability)));
+	}
+
+	@Override
+	public PreparedStatement prepareStatement(String sql, int autoGeneratedKeys) throws SQLException {
+		return track(new PFRDBPoolLeanPreparedStatement<>(this, delegate().prepareStatement(sql, autoGeneratedKeys)));
+	}
+
+	@Override
+	public PreparedStatement prepareStatement(String sql, int[] columnIndexes) throws SQLException {
+		return track(new PFRDBPoolLeanPreparedStatement<>(this, delegate().prepareStatement(sql, columnIndexes)));
+	}
+
+	@Override
+	public PreparedStatement prepareStatement(String sql, String[] columnNames) throws SQLException {
+		return track(new PFRDBPoolLeanPreparedStatement<>(this, delegate().prepareStatement(sql, columnNames)));
+	}
+
+	@Override
+	public Clob createClob() throws SQLException {
+		return delegate().createClob();
+	}
+
+	@Override
+	public Blob createBlob() throws SQLException {
+		return delegate().createBlob();
+	}
+
+	@Override
+	public NClob createNClob() throws SQLException {
+		return delegate().createNClob();
+	}
+
+	@Override
+	public SQLXML createSQLXML() throws SQLException {
+		return delegate().createSQLXML();
+	}
+
+	@Override
+	public boolean isValid(int timeout) throws SQLException {
+		return delegate().isValid(timeout);
+	}
+
+	@Override
+	public void setClientInfo(String name, String value) throws SQLClientInfoException {
+		if(isReturned) { throw new SQLClientInfoException("Connection is closed.", null); }
+		entry.physical.setClientInfo(name, value);
+	}
+
+	@Override
+	public void setClientInfo(Properties properties) throws SQLClientInfoException {
+		if(isReturned) { throw new SQLClientInfoException("Connection is closed.", null); }
+		entry.physical.setClientInfo(properties);
+	}
+
+	@Override
+	public String getClientInfo(String name) throws SQLException {
+		return delegate().getClientInfo(name);
+	}
+
+	@Override
+	public Properties getClientInfo() throws SQLException {
+		return delegate().getClientInfo();
+	}
+
+	@Override
+	public Array createArrayOf(String typeName, Object[] elements) throws SQLException {
+		return delegate().createArrayOf(typeName, elements);
+	}
+
+	@Override
+	public Struct createStruct(String typeName, Object[] attributes) throws SQLException {
+		return delegate().createStruct(typeName, attributes);
+	}
+
+	@Override
+	public void setSchema(String schema) throws SQLException {
+		Connection physical = delegate();
+		entry.beforeSchemaChange();
+		physical.setSchema(schema);
+	}
+
+	@Override
+	public String getSchema() throws SQLException {
+		return delegate().getSchema();
+	}
+
+	@Override
+	public void abort(Executor executor) throws SQLException {
+		delegate().abort(executor);
+	}
+
+	@Override
+	public void setNetworkTimeout(Executor executor, int milliseconds) throws SQLException {
+		delegate().setNetworkTimeout(executor, milliseconds);
+	}
+
+	@Override
+	public int getNetworkTimeout() throws SQLException {
+		return delegate().getNetworkTimeout();
+	}
+
+	@Override
+	public void beginRequest() throws SQLException {
+		delegate().beginRequest();
+	}
+
+	@Override
+	public void endRequest() throws SQLException {
+		delegate().endRequest();
+	}
+
+	@Override
+	public boolean setShardingKeyIfValid(ShardingKey shardingKey, ShardingKey superShardingKey, int timeout) throws SQLException {
+		return delegate().setShardingKeyIfValid(shardingKey, superShardingKey, timeout);
+	}
+
+	@Override
+	public boolean setShardingKeyIfValid(ShardingKey shardingKey, int timeout) throws SQLException {
+		return delegate().setShardingKeyIfValid(shardingKey, timeout);
+	}
+
+	@Override
+	public void setShardingKey(ShardingKey shardingKey, ShardingKey superShardingKey) throws SQLException {
+		delegate().setShardingKey(shardingKey, superShardingKey);
+	}
+
+	@Override
+	public void setShardingKey(ShardingKey shardingKey) throws SQLException {
+		delegate().setShardingKey(shardingKey);
+	}
+
+	@Override
+	public <T> T unwrap(Class<T> iface) throws SQLException {
+		if(iface.isInstance(this)) { return iface.cast(this); }
+		return delegate().unwrap(iface);
+	}
+
+	@Override
+	public boolean isWrapperFor(Class<?> iface) throws SQLException {
+		return iface.isInstance(this) || delegate().isWrapperFor(iface);
+	}
+
+	@Override
+	public String toString() {
+		return "PFRDBPoolLean connection: "+entry.physical;
+	}
+}
@@ -0,0 +1,351 @@
+package com.performetriks.performator.database;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.SQLWarning;
+import java.sql.Statement;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**************************************************************************************************************
+ * Statement returned by the connections of PFRDBPoolLean, returns the wrapped connection and wraps its
+ * result sets. Open result sets are closed with the statement. Base class of the wrappers of prepared and
+ * callable statements.
+ *
+ * Copyright Owner: Performetriks GmbH, Switzerland
+ * License: Eclipse Public License v2.0
+ *
+ * @author Reto Scheiwiller
+ *
+ **************************************************************************************************************/
+class PFRDBPoolLeanStatement<T extends Statement> implements Statement {
+
+	protected final PFRDBPoolLeanConnection connection;
+	protected final T delegate;
+	private final Set<PFRDBPoolLeanResultSet> openResultSets = ConcurrentHashMap.newKeySet();
+
+	/***************************************************************************
+	 * Wraps a statement created by the connection.
+	 ***************************************************************************/
+	PFRDBPoolLeanStatement(PFRDBPoolLeanConnection connection, T delegate) {
+		this.connection = connection;
+		this.delegate = delegate;
+	}
+
+	/***************************************************************************
+	 * Wraps a result set of this statement, returns null for null.
+	 ***************************************************************************/
+	protected ResultSet wrap(ResultSet resultSet) {
+
+		if(resultSet == null) { return null; }
+
+		PFRDBPoolLeanResultSet wrapper = new PFRDBPoolLeanResultSet(this, resultSet);
+		openResultSets.add(wrapper);
+		return wrapper;
+	}
+
+	/***************************************************************************
+	 * Called by the result sets when they are closed.
+	 ***************************************************************************/
+	void resultSetClosed(PFRDBPoolLeanResultSet resultSet) {
+		openResultSets.remove(resultSet);
+	}
+
+	@Override
+	public ResultSet executeQuery(String sql) throws SQLException {
+		return wrap(delegate.executeQuery(sql));
+	}
+
+	@Override
+	public int executeUpdate(String sql) throws SQLException {
+		return delegate.executeUpdate(sql);
+	}
+
+	@Override
+	public void close() throws SQLException {
+		try {
+			for(PFRDBPoolLeanResultSet resultSet : openResultSets) {
+				try {
+					resultSet.close();
+				}catch(SQLException e) {
+					// closed by the driver with the statement anyway
+				}
+			}
+			delegate.close();
+		}finally {
+			connection.statementClosed(this);
+		}
+	}
+
+	@Override
+	public int getMaxFieldSize() throws SQLException {
+		return delegate.getMaxFieldSize();
+	}
+
+	@Override
+	public void setMaxFieldSize(int max) throws SQLException {
+		delegate.setMaxFieldSize(max);
+	}
+
+	@Override
+	public int getMaxRows() throws SQLException {
+		return delegate.getMaxRows();
+	}
+
+	@Override
+	public void setMaxRows(int max) throws SQLException {
+		delegate.setMaxRows(max);
+	}
+
+	@Override
+	public void setEscapeProcessing(boolean enable) throws SQLException {
+		delegate.setEscapeProcessing(enable);
+	}
+
+	@Override
+	public int getQueryTimeout() throws SQLException {
+		return delegate.getQueryTimeout();
+	}
+
+	@Override
+	public void setQueryTimeout(int seconds) throws SQLException {
+		delegate.setQueryTimeout(seconds);
+	}
+
+	@Override
+	public void cancel() throws SQLException {
+		delegate.cancel();
+	}
+
+	@Override
+	public SQLWarning getWarnings() throws SQLException {
+		return delegate.getWarnings();
+	}
+
+	@Override
+	public void clearWarnings() throws SQLException {
+		delegate.clearWarnings();
+	}
+
+	@Override
+	public void setCursorName(String name) throws SQLException {
+		delegate.setCursorName(name);
+	}
+
+	@Override
+	public boolean execute(String sql) throws SQLException {
+		return delegate.execute(sql);
+	}
+
+	@Override
+	public ResultSet getResultSet() throws SQLException {
+		return wrap(delegate.getResultSet());
+	}
+
+	@Override
+	public int getUpdateCount() throws SQLException {
+		return delegate.getUpdateCount();
+	}
+
+	@Override
+	public boolean getMoreResults() throws SQLException {
+		return delegate.getMoreResults();
+	}
+
+	@Override
+	public void setFetchDirection(int direction) throws SQLException {
+		delegate.setFetchDirection(direction);
+	}
+
+	@Override
+	public int getFetchDirection() throws SQLException {
+		return delegate.getFetchDirection();
+	}
+
+	@Override
+	public void setFetchSize(int rows) throws SQLException {
+		delegate.setFetchSize(rows);
+	}
+
+	@Override
+	public int getFetchSize() throws SQLException {
+		return delegate.getFetchSize();
+	}
+
+	@Override
+	public int getResultSetConcurrency() throws SQLException {
+		return delegate.getResultSetConcurrency();
+	}
+
+	@Override
+	public int getResultSetType() throws SQLException {
+		return delegate.getResultSetType();
+	}
+
+	@Override
+	public void addBatch(String sql) throws SQLException {
+		delegate.addBatch(sql);
+	}
+
+	@Override
+	public void clearBatch() throws SQLException {
+		delegate.clearBatch();
+	}
+
+	@Override
+	public int[] executeBatch() throws SQLException {
+		return delegate.executeBatch();
+	}
+
+	@Override
+	public Connection getConnection() throws SQLException {
+		return connection;
+	}
+
+	@Override
+	public boolean getMoreResults(int current) throws SQLException {
+		return delegate.getMoreResults(current);
+	}
+
+	@Override
+	public ResultSet getGeneratedKeys() throws SQLException {
+		return wrap(delegate.getGeneratedKeys());
+	}
+
+	@Override
+	public int executeUpdate(String sql, int autoGeneratedKeys) throws SQLException {
+		return delegate.executeUpdate(sql, autoGeneratedKeys);
+	}
+
+	@Override
+	public int executeUpdate(String sql, int[] columnIndexes) throws SQLException {
+		return delegate.executeUpdate(sql, columnIndexes);
+	}
+
+	@Override
+	public int executeUpdate(String sql, String[] columnNames) throws SQLException {
+		return delegate.executeUpdate(sql, columnNames);
+	}
+
+	@Override
+	public boolean execute(String sql, int autoGeneratedKeys) throws SQLException {
+		return delegate.execute(sql, autoGeneratedKeys);
+	}
+
+	@Override
+	public boolean execute(String sql, int[] columnIndexes) throws SQLException {
+		return delegate.execute(sql, columnIndexes);
+	}
+
+	@Override
+	public boolean execute(String sql, String[] columnNames) throws SQLException {
+		return delegate.execute(sql, columnNames);
+	}
+
+	@Override
+	public int getResultSetHoldability() throws SQLException {
+		return delegate.getResultSetHoldability();
+	}
+
+	@Override
+	public boolean isClosed() throws SQLException {
+		return delegate.isClosed();
+	}
+
+	@Override
+	public void setPoolable(boolean poolable) throws SQLException {
+		delegate.setPoolable(poolable);
+	}
+
+	@Override
+	public boolean isPoolable() throws SQLException {
+		return delegate.isPoolable();
+	}
+
+	@Override
+	public void closeOnCompletion() throws SQLException {
+		delegate.closeOnCompletion();
+	}
+
+	@Override
+	public boolean isCloseOnCompletion() throws SQLException {
+		return delegate.isCloseOnCompletion();
+	}
+
+	@Override
+	public long getLargeUpdateCount() throws SQLException {
+		return delegate.getLargeUpdateCount();
+	}
+
+	@Override
+	public void setLargeMaxRows(long max) throws SQLException {
+		delegate.setLargeMaxRows(max);
+	}
+
+	@Override
+	public long getLargeMaxRows() throws SQLException {
+		return delegate.getLargeMaxRows();
+	}
+
+	@Override
+	public long[] executeLargeBatch() throws SQLException {
+		return delegate.executeLargeBatch();
+	}
+
+	@Override
+	public long executeLargeUpdate(String sql) throws SQLException {
+		return delegate.executeLargeUpdate(sql);
+	}
+
+	@Override
+	public long executeLargeUpdate(String sql, int autoGeneratedKeys) throws SQLException {
+		return delegate.executeLargeUpdate(sql, autoGeneratedKeys);
+	}
+
+	@Override
+	public long executeLargeUpdate(String sql, int[] columnIndexes) throws SQLException {
+		return delegate.executeLargeUpdate(sql, columnIndexes);
+	}
+
+	@Override
+	public long executeLargeUpdate(String sql, String[] columnNames) throws SQLException {
+		return delegate.executeLargeUpdate(sql, columnNames);
+	}
+
+	@Override
+	public String enquoteLiteral(String val) throws SQLException {
+		return delegate.enquoteLiteral(val);
+	}
+
+	@Override
+	public String enquoteIdentifier(String identifier, boolean alwaysQuote) throws SQLException {
+		return delegate.enquoteIdentifier(identifier, alwaysQuote);
+	}
+
+	@Override
+	public boolean isSimpleIdentifier(String identifier) throws SQLException {
+		return delegate.isSimpleIdentifier(identifier);
+	}
+
+	@Override
+	public String enquoteNCharLiteral(String val) throws SQLException {
+		return delegate.enquoteNCharLiteral(val);
+	}
+
+	@Override
+	public <W> W unwrap(Class<W> iface) throws SQLException {
+		if(iface.isInstance(this)) { return iface.cast(this); }
+		return delegate.unwrap(iface);
+	}
+
+	@Override
+	public boolean isWrapperFor(Class<?> iface) throws SQLException {
+		return iface.isInstance(this) || delegate.isWrapperFor(iface);
+	}
+
+	@Override
+	public String toString() {
+		return delegate.toString();
+	}
+}
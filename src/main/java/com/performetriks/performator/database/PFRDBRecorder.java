@@ -0,0 +1,243 @@
+package com.performetriks.performator.database;
+
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import com.xresch.hsr.base.HSR;
+
+/**************************************************************************************************************
+ * Low overhead recording of the measurements of PFRDBSQLBuilder.
+ *
+ * By default every statement is measured with HSR.start() and HSR.end() on the thread of the user.
+ * If asynchronous recording is enabled with PFRDBRecorder.async(true), a statement only stores its
+ * metric handle and the measured nanoseconds in a buffer of the current thread. The buffer is flushed
+ * to HSR in one batch after the iteration has been measured, so the time between two statements is not
+ * increased by the bookkeeping of HSR. Flushed buffers are reused by the next thread, so the virtual threads
+ * of the iterations do not allocate new buffers.
+ *
+ * Differences of the asynchronous recording:
+ * <ul>
+ * <li>Durations are reported with HSR.addMetric() in milliseconds with microsecond precision.</li>
+ * <li>Failed statements are only reported as count with the suffix " - Failed", not as duration.</li>
+ * <li>SLAs are not evaluated, statements with an SLA are always recorded synchronously.</li>
+ * </ul>
+ *
+ * Handles are created once per metric name, so names for ranged and failed metrics are not
+ * concatenated on every call.
+ *
+ * Copyright Owner: Performetriks GmbH, Switzerland
+ * License: Eclipse Public License v2.0
+ *
+ * @author Reto Scheiwiller
+ *
+ **************************************************************************************************************/
+public class PFRDBRecorder {
+
+	private static final int BUFFER_INITIAL_SIZE = 16;
+	// larger buffers are shrunk when flushed
+	private static final int BUFFER_MAX_SIZE = 512;
+	// flushed while recording, only reached by threads that are not flushed after every iteration
+	private static final int BUFFER_FLUSH_SIZE = 64 * 1024;
+
+	private static final String SUFFIX_FAILED = " - Failed";
+
+	private static boolean isAsync = false;
+
+	private static final ConcurrentHashMap<String, Handle> handles = new ConcurrentHashMap<>();
+	// not initialized with a default, flush() is called for every iteration, also by users not using a database
+	private static final ThreadLocal<Buffer> buffers = new ThreadLocal<>();
+	// flushed buffers, at most one per thread that is recording at the same time
+	private static final ConcurrentLinkedQueue<Buffer> freeBuffers = new ConcurrentLinkedQueue<>();
+
+	/***************************************************************************
+	 * A precomputed metric, get one with PFRDBRecorder.handle().
+	 ***************************************************************************/
+	public static class Handle {
+
+		private final String name;
+		private final String failedName;
+		private final ConcurrentHashMap<String, String> rangedNames = new ConcurrentHashMap<>();
+		private final ConcurrentHashMap<String, Handle> suffixed = new ConcurrentHashMap<>();
+
+		private Handle(String name) {
+			this.name = name;
+			this.failedName = name + SUFFIX_FAILED;
+		}
+
+		/******************************************************
+		 * Returns the name of the metric.
+		 ******************************************************/
+		public String name() {
+			return name;
+		}
+
+		/******************************************************
+		 * Returns the name of the ranged metric, e.g.
+		 * "{name} - {rangeName}".
+		 ******************************************************/
+		public String rangedName(String rangeName) {
+			return rangedNames.computeIfAbsent(rangeName, k -> name + " - " + k);
+		}
+
+		/******************************************************
+		 * Returns the handle for the name with the suffix, e.g.
+		 * " [EXEC]".
+		 ******************************************************/
+		public Handle suffixed(String suffix) {
+			return suffixed.computeIfAbsent(suffix, k -> new Handle(name + k));
+		}
+	}
+
+	/***************************************************************************
+	 * Measurements of one thread which have not been reported yet.
+	 ***************************************************************************/
+	private static class Buffer {
+
+		private Handle[] handles = new Handle[BUFFER_INITIAL_SIZE];
+		private String[] rangeNames = new String[BUFFER_INITIAL_SIZE];
+		private long[] nanos = new long[BUFFER_INITIAL_SIZE];
+		private int[] rangeValues = new int[BUFFER_INITIAL_SIZE];
+		private int[] initialRanges = new int[BUFFER_INITIAL_SIZE];
+		private boolean[] success = new boolean[BUFFER_INITIAL_SIZE];
+		private int size = 0;
+
+		/******************************************************
+		 *
+		 ******************************************************/
+		private void add(Handle handle, long durationNanos, boolean isSuccess, String rangeName, int rangeValue, int initialRange) {
+
+			if(size == handles.length) {
+				if(size >= BUFFER_FLUSH_SIZE) {
+					flush();
+				}else {
+					grow(Math.min(BUFFER_FLUSH_SIZE, handles.length * 2));
+				}
+			}
+
+			handles[size] = handle;
+			nanos[size] = durationNanos;
+			success[size] = isSuccess;
+			rangeNames[size] = rangeName;
+			rangeValues[size] = rangeValue;
+			initialRanges[size] = initialRange;
+			size++;
+		}
+
+		/******************************************************
+		 *
+		 ******************************************************/
+		private void grow(int newSize) {
+			handles = Arrays.copyOf(handles, newSize);
+			rangeNames = Arrays.copyOf(rangeNames, newSize);
+			nanos = Arrays.copyOf(nanos, newSize);
+			rangeValues = Arrays.copyOf(rangeValues, newSize);
+			initialRanges = Arrays.copyOf(initialRanges, newSize);
+			success = Arrays.copyOf(success, newSize);
+		}
+
+		/******************************************************
+		 *
+		 ******************************************************/
+		private void flush() {
+
+			for(int i = 0; i < size; i++) {
+
+				Handle handle = handles[i];
+				BigDecimal millis = BigDecimal.valueOf(nanos[i] / 1000, 3);
+
+				if( !success[i] ) {
+					HSR.addCount(handle.failedName, BigDecimal.ONE);
+				}else {
+					HSR.addMetric(handle.name, millis);
+					
+					if(rangeNames[i] != null) {
+						HSR.addMetricRanged(handle.rangedName(rangeNames[i]), millis, rangeValues[i], initialRanges[i]);
+					}
+				}
+
+				handles[i] = null;
+				rangeNames[i] = null;
+			}
+
+			size = 0;
+			
+			if(handles.length > BUFFER_MAX_SIZE) {
+				handles = new Handle[BUFFER_MAX_SIZE];
+				rangeNames = new String[BUFFER_MAX_SIZE];
+				nanos = new long[BUFFER_MAX_SIZE];
+				rangeValues = new int[BUFFER_MAX_SIZE];
+				initialRanges = new int[BUFFER_MAX_SIZE];
+				success = new boolean[BUFFER_MAX_SIZE];
+			}
+		}
+	}
+
+	/***************************************************************************
+	 * <b>Scope:</b> Global<br>
+	 * Enable or disable asynchronous recording of database calls, default is
+	 * false.
+	 ***************************************************************************/
+	public static void async(boolean async) {
+		isAsync = async;
+	}
+
+	/***************************************************************************
+	 * Returns true if database calls are recorded asynchronously.
+	 ***************************************************************************/
+	public static boolean async() {
+		return isAsync;
+	}
+
+	/***************************************************************************
+	 * Returns the handle for the given metric name.
+	 ***************************************************************************/
+	public static Handle handle(String name) {
+		
+		Handle handle = handles.get(name);
+		if(handle != null) { return handle; }
+		
+		return handles.computeIfAbsent(name, Handle::new);
+	}
+
+	/***************************************************************************
+	 * Adds a measurement to the buffer of the current thread.
+	 *
+	 * @param handle the metric
+	 * @param durationNanos the measured duration
+	 * @param success false if the call failed
+	 * @param rangeName the name of the range if a ranged metric should be
+	 * reported, else null
+	 * @param rangeValue the value used to select the range
+	 * @param initialRange the initial range
+	 ***************************************************************************/
+	public static void record(Handle handle, long durationNanos, boolean success, String rangeName, int rangeValue, int initialRange) {
+		Buffer buffer = buffers.get();
+		if(buffer == null) {
+			buffer = freeBuffers.poll();
+			if(buffer == null) { buffer = new Buffer(); }
+			buffers.set(buffer);
+		}
+		
+		buffer.add(handle, durationNanos, success, rangeName, rangeValue, initialRange);
+	}
+
+	/***************************************************************************
+	 * Reports all measurements in the buffer of the current thread to HSR and
+	 * releases the buffer for other threads.
+	 * Called by the executors at the end of every iteration after it has been
+	 * measured, call it yourself if you execute database calls outside of a
+	 * usecase.
+	 ***************************************************************************/
+	public static void flush() {
+
+		Buffer buffer = buffers.get();
+		if(buffer == null) { return; }
+		
+		buffers.remove();
+		buffer.flush();
+		freeBuffers.offer(buffer);
+	}
+
+}
@@ -0,0 +1,146 @@
+package com.performetriks.performator.database;
+
+import java.math.BigDecimal;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+
+import com.google.gson.JsonObject;
+
+/**************************************************************************************************************
+ * View on the current row of a result set, passed to the handler of PFRDBSQLBuilder.queryStream().
+ *
+ * The same instance is used for all rows of a query and is only valid during the call of the handler.
+ * Read the values you need, or copy the row with toJsonObject() if you have to keep it.
+ *
+ * Copyright Owner: Performetriks GmbH, Switzerland
+ * License: Eclipse Public License v2.0
+ *
+ * @author Reto Scheiwiller
+ *
+ **************************************************************************************************************/
+public class PFRDBRow {
+
+	private final ResultSet result;
+	private String[] labels = null;
+	private int rowNumber = 0;
+	private boolean isStopped = false;
+
+	/***************************************************************************
+	 * Called for every row of a streamed query.
+	 ***************************************************************************/
+	@FunctionalInterface
+	public interface Handler {
+		public void accept(PFRDBRow row) throws SQLException;
+	}
+
+	/***************************************************************************
+	 *
+	 ***************************************************************************/
+	PFRDBRow(ResultSet result) {
+		this.result = result;
+	}
+
+	/***************************************************************************
+	 * Moves to the next row.
+	 ***************************************************************************/
+	boolean next() throws SQLException {
+		if(isStopped || !result.next()) { return false; }
+		rowNumber++;
+		return true;
+	}
+
+	/***************************************************************************
+	 * Stops reading rows after the current one, the remaining rows are not
+	 * fetched.
+	 ***************************************************************************/
+	public void stop() {
+		isStopped = true;
+	}
+
+	/***************************************************************************
+	 * Returns the number of the current row, starting with 1.
+	 ***************************************************************************/
+	public int rowNumber() {
+		return rowNumber;
+	}
+
+	/***************************************************************************
+	 * Returns the number of columns.
+	 ***************************************************************************/
+	public int columnCount() throws SQLException {
+		return labels().length;
+	}
+
+	/***************************************************************************
+	 * Returns the label of the column, starting with 1.
+	 ***************************************************************************/
+	public String columnLabel(int column) throws SQLException {
+		return labels()[column - 1];
+	}
+
+	/***************************************************************************
+	 * Returns the column labels, read once from the meta data.
+	 ***************************************************************************/
+	private String[] labels() throws SQLException {
+
+		if(labels == null) {
+			ResultSetMetaData metadata = result.getMetaData();
+			labels = new String[metadata.getColumnCount()];
+			for(int i = 0; i < labels.length; i++) {
+				labels[i] = metadata.getColumnLabel(i + 1);
+			}
+		}
+
+		return labels;
+	}
+
+	public Object getObject(int column) throws SQLException 			{ return result.getObject(column); }
+	public Object getObject(String column) throws SQLException 			{ return result.getObject(column); }
+	public String getString(int column) throws SQLException 			{ return result.getString(column); }
+	public String getString(String column) throws SQLException 			{ return result.getString(column); }
+	public int getInt(int column) throws SQLException 					{ return result.getInt(column); }
+	public int getInt(String column) throws SQLException 				{ return result.getInt(column); }
+	public long getLong(int column) throws SQLException 				{ return result.getLong(column); }
+	public long getLong(String column) throws SQLException 				{ return result.getLong(column); }
+	public double getDouble(int column) throws SQLException 			{ return result.getDouble(column); }
+	public double getDouble(String column) throws SQLException 			{ return result.getDouble(column); }
+	public boolean getBoolean(int column) throws SQLException 			{ return result.getBoolean(column); }
+	public boolean getBoolean(String column) throws SQLException 		{ return result.getBoolean(column); }
+	public BigDecimal getBigDecimal(int column) throws SQLException 	{ return result.getBigDecimal(column); }
+	public BigDecimal getBigDecimal(String column) throws SQLException 	{ return result.getBigDecimal(column); }
+	public Timestamp getTimestamp(int column) throws SQLException 		{ return result.getTimestamp(column); }
+	public Timestamp getTimestamp(String column) throws SQLException 	{ return result.getTimestamp(column); }
+	public byte[] getBytes(int column) throws SQLException 				{ return result.getBytes(column); }
+	public byte[] getBytes(String column) throws SQLException 			{ return result.getBytes(column); }
+
+	/***************************************************************************
+	 * Returns true if the last read value was SQL NULL.
+	 ***************************************************************************/
+	public boolean wasNull() throws SQLException {
+		return result.wasNull();
+	}
+
+	/***************************************************************************
+	 * Copies the current row into a JsonObject, numbers and booleans are kept,
+	 * all other values are converted to strings.
+	 ***************************************************************************/
+	public JsonObject toJsonObject() throws SQLException {
+
+		JsonObject object = new JsonObject();
+		String[] labels = labels();
+
+		for(int i = 0; i < labels.length; i++) {
+			Object value = result.getObject(i + 1);
+
+			if		(value == null) 				{ object.add(labels[i], null); }
+			else if (value instanceof Number) 		{ object.addProperty(labels[i], (Number)value); }
+			else if (value instanceof Boolean) 		{ object.addProperty(labels[i], (Boolean)value); }
+			else 									{ object.addProperty(labels[i], value.toString()); }
+		}
+
+		return object;
+	}
+
+}
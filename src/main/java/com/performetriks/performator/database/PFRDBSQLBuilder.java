@@ -5,14 +5,19 @@ import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Statement;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.LinkedHashMap;
+import java.util.function.Function;
+import java.util.stream.Stream;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.google.gson.JsonArray;
+import com.performetriks.performator.data.PFRDataSource;
 import com.xresch.hsr.base.HSR;
 import com.xresch.hsr.stats.HSRExpression.Operator;
 import com.xresch.hsr.stats.HSRRecord;
@@ -39,8 +44,22 @@ public class PFRDBSQLBuilder {
 	
 	private HSRSLA sla = null;
 	
+	private int batchSize = 1000;
+	private int fetchSize = 500;
+	
 	private ResultSet result = null;
 	
+	// state of the current measurement, see measureStart()
+	private static final int MEASURE_NONE = 0;
+	private static final int MEASURE_STARTED = 1;
+	private static final int MEASURE_ENDED = 2;
+	
+	private int measureState = MEASURE_NONE;
+	private PFRDBRecorder.Handle measureHandle = null;
+	private long measureStartNanos = 0;
+	private long measureDurationNanos = 0;
+	private HSRRecord measureRecord = null;
+	
 	/********************************************************************************************
 	 * 
 	 ********************************************************************************************/
@@ -82,6 +101,24 @@ public class PFRDBSQLBuilder {
 		return this;
 	}
 	
+	/********************************************************************************************
+	 * Set the number of rows that are sent to the database with one executeBatch() call by
+	 * the batch methods that take multiple rows. Default is 1000.
+	 ********************************************************************************************/
+	public PFRDBSQLBuilder batchSize(int rowsPerBatch) {
+		this.batchSize = Math.max(1, rowsPerBatch);
+		return this;
+	}
+	
+	/********************************************************************************************
+	 * Set the number of rows the driver fetches from the database at once in queryStream().
+	 * Default is 500.
+	 ********************************************************************************************/
+	public PFRDBSQLBuilder fetchSize(int rowsPerFetch) {
+		this.fetchSize = Math.max(1, rowsPerFetch);
+		return this;
+	}
+	
 	/********************************************************************************************
 	 * 
 	 ********************************************************************************************/
@@ -114,7 +151,7 @@ public class PFRDBSQLBuilder {
 			// Initialize Variables
 			conn = db.getConnection();
 			
-			prepared = conn.prepareStatement(sql);
+			prepared = db.getStatement(conn, sql);
 			
 			//-----------------------------------------
 			// Prepare Statement
@@ -122,31 +159,23 @@ public class PFRDBSQLBuilder {
 			
 			//-----------------------------------------
 			// Execute
-			String finalName = (metricName != null) ? metricName : sql;
-			HSR.start(finalName, sla); 
+			PFRDBRecorder.Handle handle = handle(sql);
+			measureStart(handle); 
 				boolean isResultSet = prepared.execute();
-			HSRRecord r = HSR.end();
+			measureEnd();
 			
+			int updateCount = -1;
 			if(!isResultSet) {
-				int updateCount = prepared.getUpdateCount();
-				
+				updateCount = prepared.getUpdateCount();
 				if(updateCount > 0) { result = true; }
-				
-				//-----------------------------------------
-				// Ranged Metric
-				if(enableRangedMetric && r != null ) {
-					HSR.addMetricRanged(
-						    finalName + " - " + rangeName
-						  , r.value()
-						  , updateCount
-						  , initialRange
-						);
-				}
-				
 			}
 			
+			//-----------------------------------------
+			// Record and Ranged Metric
+			measureDone(handle, updateCount);
+			
 		} catch (SQLException e) {
-			if(metricName != null) { HSR.end(false, ""+e.getErrorCode() ); }
+			measureFailed(e);
 			
 			handleException(prepared, e);
 		} finally {
@@ -186,7 +215,7 @@ public class PFRDBSQLBuilder {
 			//-----------------------------------------
 			// Initialize Variables
 			conn = db.getConnection();
-			prepared = conn.prepareStatement(sql);
+			prepared = db.getStatement(conn, sql);
 			
 			//-----------------------------------------
 			// Prepare Statement
@@ -195,10 +224,10 @@ public class PFRDBSQLBuilder {
 			
 			//-----------------------------------------
 			// Execute
-			String finalName = (metricName != null) ? metricName : sql;
-			HSR.start(finalName, sla); 
+			PFRDBRecorder.Handle handle = PFRDBRecorder.handle( (metricName != null) ? metricName : sql );
+			measureStart(handle); 
 				int[] resultCounts = prepared.executeBatch();
-			HSRRecord r = HSR.end();
+			measureEnd();
 
 			int totalRows = 0;
 			for(int i : resultCounts) {
@@ -208,20 +237,13 @@ public class PFRDBSQLBuilder {
 			}
 			
 			//-----------------------------------------
-			// Ranged Metric
-			if(enableRangedMetric && r != null ) {
-				HSR.addMetricRanged(
-					    finalName + " - " + rangeName
-					  , r.value()
-					  , totalRows
-					  , initialRange
-					);
-			}
+			// Record and Ranged Metric
+			measureDone(handle, totalRows);
 				
 			return totalRows;
 			
 		} catch (SQLException e) {
-			if(metricName != null) { HSR.end(false, ""+e.getErrorCode() ); }
+			measureFailed(e);
 			
 			handleException(prepared, e);
 		} finally {
@@ -232,6 +254,178 @@ public class PFRDBSQLBuilder {
 		return -1;
 	}
 	
+	/********************************************************************************************
+	 * Executes the statement for every row, the rows are sent to the database in chunks of
+	 * batchSize() rows with PreparedStatement.executeBatch().
+	 * 
+	 * If no transaction is started, every chunk is committed separately. If a chunk fails,
+	 * it is rolled back and the rows of the chunks committed before are returned.
+	 * Every chunk is measured, and the rows per second of every chunk are reported with the 
+	 * suffix " - Rows/s". If ranged metrics are enabled, the range is the number of affected 
+	 * rows of the chunk.
+	 * 
+	 * For Postgres and MySQL, the drivers can rewrite batches into multi-row inserts, see
+	 * PFRDB.initDBInterfacePostgres() and PFRDB.initDBInterfaceMySQL().
+	 * 
+	 * @param sql with placeholders
+	 * @param rows the values to be placed in the prepared statement, one array per row
+	 * @return number of affected rows, -1 in case of an error before any chunk was committed
+	 ********************************************************************************************/
+	public int batch(String sql, Iterator<Object[]> rows){	
+        
+		Connection conn = null;
+		PreparedStatement prepared = null;
+		boolean isCommitPerChunk = false;
+		int committedChunks = 0;
+		int totalRows = 0;
+
+		try {
+			//-----------------------------------------
+			// Initialize Variables
+			conn = db.getConnection();
+			prepared = db.getStatement(conn, sql);
+			
+			if( !db.transactionIsStarted() && conn.getAutoCommit() ) {
+				conn.setAutoCommit(false);
+				isCommitPerChunk = true;
+			}
+			
+			PFRDBRecorder.Handle handle = handle(sql);
+			PFRDBRecorder.Handle handleRowsPerSecond = handle.suffixed(" - Rows/s");
+			
+			while(rows.hasNext()) {
+				
+				//-----------------------------------------
+				// Prepare Chunk
+				int chunkRows = 0;
+				while(chunkRows < batchSize && rows.hasNext()) {
+					PFRDB.prepareStatement(prepared, rows.next());
+					prepared.addBatch();
+					chunkRows++;
+				}
+				
+				//-----------------------------------------
+				// Execute Chunk
+				long startNanos = System.nanoTime();
+				measureStart(handle); 
+					int[] resultCounts = prepared.executeBatch();
+					if(isCommitPerChunk) { conn.commit(); }
+				measureEnd();
+				long durationNanos = System.nanoTime() - startNanos;
+
+				int affectedRows = countAffectedRows(resultCounts);
+				totalRows += affectedRows;
+				if(isCommitPerChunk) { committedChunks++; }
+				
+				//-----------------------------------------
+				// Record, Ranged Metric and Rows/s
+				measureDone(handle, affectedRows);
+				
+				if(durationNanos > 0) {
+					HSR.addMetric(handleRowsPerSecond.name()
+							, BigDecimal.valueOf(chunkRows * 1_000_000_000L / durationNanos) );
+				}
+			}
+			
+			return totalRows;
+			
+		} catch (SQLException e) {
+			measureFailed(e);
+			
+			if(isCommitPerChunk) {
+				try { conn.rollback(); } catch (SQLException rollbackException) { /* logged below */ }
+			}
+			
+			handleException(prepared, e);
+		} finally {
+			
+			if(isCommitPerChunk) {
+				try { conn.setAutoCommit(true); } catch (SQLException e) { logger.debug("Could not reset auto commit: "+e.getMessage()); }
+			}
+			
+			doClose(conn, prepared);
+		}
+		
+		logger.trace("SQL Statement: "+sql);
+		
+		// the rows of previous chunks stay in the database
+		return (committedChunks > 0) ? totalRows : -1;
+	}
+	
+	/********************************************************************************************
+	 * Executes the statement for every row in chunks, see batch(String, Iterator).
+	 * 
+	 * @param sql with placeholders
+	 * @param rows the values to be placed in the prepared statement, one array per row
+	 * @return number of affected rows, -1 in case of an error
+	 ********************************************************************************************/
+	public int batch(String sql, Iterable<Object[]> rows){	
+		return batch(sql, rows.iterator());
+	}
+	
+	/********************************************************************************************
+	 * Executes the statement for every row in chunks, see batch(String, Iterator).
+	 * 
+	 * @param sql with placeholders
+	 * @param rows the values to be placed in the prepared statement, one array per row
+	 * @return number of affected rows, -1 in case of an error
+	 ********************************************************************************************/
+	public int batch(String sql, Stream<Object[]> rows){	
+		return batch(sql, rows.iterator());
+	}
+	
+	/********************************************************************************************
+	 * Executes the statement for records of a data source in chunks, 
+	 * see batch(String, Iterator).
+	 * 
+	 * @param sql with placeholders
+	 * @param source the data source to read the records from
+	 * @param maxRows the maximum number of records to read from the source, reads at most
+	 *        size() records of the source if 0 or smaller, as infinite sources never run out.
+	 * @param mapper converts a record into the values of the prepared statement
+	 * @return number of affected rows, -1 in case of an error, see batch(String, Iterator)
+	 ********************************************************************************************/
+	public int batch(String sql, PFRDataSource source, int maxRows, Function<XRRecord, Object[]> mapper){	
+		
+		int limit = (maxRows > 0) ? maxRows : source.size();
+		
+		Iterator<Object[]> rows = new Iterator<Object[]>() {
+			
+			private int count = 0;
+			
+			@Override
+			public boolean hasNext() {
+				return count < limit && source.hasNext();
+			}
+
+			@Override
+			public Object[] next() {
+				count++;
+				return mapper.apply(source.next());
+			}
+		};
+		
+		return batch(sql, rows);
+	}
+	
+	/********************************************************************************************
+	 * Returns the sum of the update counts returned by executeBatch(). Rows with 
+	 * SUCCESS_NO_INFO, e.g. returned when the driver rewrites the batch, are counted as one.
+	 ********************************************************************************************/
+	private static int countAffectedRows(int[] resultCounts) {
+		
+		int totalRows = 0;
+		for(int i : resultCounts) {
+			if(i >= 0) {
+				totalRows += i;
+			}else if(i == Statement.SUCCESS_NO_INFO) {
+				totalRows++;
+			}
+		}
+		
+		return totalRows;
+	}
+	
 	/********************************************************************************************
 	 * Executes the insert and returns the generated Key of the new record. (what is a
 	 * primary key in most cases)
@@ -251,7 +445,7 @@ public class PFRDBSQLBuilder {
 			//-----------------------------------------
 			// Initialize Variables
 			conn = db.getConnection();
-			prepared = conn.prepareStatement(sql, new String[] {generatedKeyName});
+			prepared = db.getStatement(conn, sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY, generatedKeyName);
 			
 			//-----------------------------------------
 			// Prepare Statement
@@ -260,10 +454,10 @@ public class PFRDBSQLBuilder {
 			
 			//-----------------------------------------
 			// Execute
-			String finalName = (metricName != null) ? metricName : sql;
-			HSR.start(finalName, sla); 
+			PFRDBRecorder.Handle handle = handle(sql);
+			measureStart(handle); 
 				int affectedRows = prepared.executeUpdate();
-			HSRRecord r = HSR.end();
+			measureEnd();
 			
 			if(affectedRows > 0) {
 				ResultSet result = prepared.getGeneratedKeys();
@@ -272,18 +466,11 @@ public class PFRDBSQLBuilder {
 			}
 			
 			//-----------------------------------------
-			// Ranged Metric
-			if(enableRangedMetric && r != null ) {
-				HSR.addMetricRanged(
-					    finalName + " - " + rangeName
-					  , r.value()
-					  , affectedRows
-					  , initialRange
-					);
-			}
+			// Record and Ranged Metric
+			measureDone(handle, affectedRows);
 			
 		} catch (SQLException e) {
-			if(metricName != null) { HSR.end(false, ""+e.getErrorCode() ); }
+			measureFailed(e);
 			
 			handleException(prepared, e);
 		} finally {
@@ -297,6 +484,8 @@ public class PFRDBSQLBuilder {
 	
 	/********************************************************************************************
 	 * Returns the result or null if there was any issue.
+	 * The result set is scrollable, which makes most drivers read the whole result into memory,
+	 * use queryStream() for large results.
 	 * 
 	 * @param sql string with placeholders
 	 * @param values the values to be placed in the prepared statement
@@ -312,9 +501,10 @@ public class PFRDBSQLBuilder {
 			//-----------------------------------------
 			// Initialize Variables
 			conn = db.getConnection();
-			prepared = conn.prepareStatement(sql, 
+			prepared = db.getStatement(conn, sql, 
 					  ResultSet.TYPE_SCROLL_INSENSITIVE, 
-					  ResultSet.CONCUR_READ_ONLY);
+					  ResultSet.CONCUR_READ_ONLY,
+					  null);
 			
 			//-----------------------------------------
 			// Prepare Statement
@@ -322,29 +512,22 @@ public class PFRDBSQLBuilder {
 			
 			//-----------------------------------------
 			// Execute
-			String finalName = (metricName != null) ? metricName : sql;
-			HSR.start(finalName, sla); 
+			PFRDBRecorder.Handle handle = handle(sql);
+			measureStart(handle); 
 				result = prepared.executeQuery();
-			HSRRecord r = HSR.end();
+			measureEnd();
 			
 			result.last();
 		    int resultSize = result.getRow();
 		    result.beforeFirst();
 			
 			//-----------------------------------------
-			// Ranged Metric
-			if(enableRangedMetric && r != null ) {
-				HSR.addMetricRanged(
-					    finalName + " - " + rangeName
-					  , r.value()
-					  , resultSize
-					  , initialRange
-					);
-			}
+			// Record and Ranged Metric
+			measureDone(handle, resultSize);
 			
 		} catch (SQLException e) {
 			
-			if(metricName != null) { HSR.end(false, ""+e.getErrorCode() ); }
+			measureFailed(e);
 			
 			handleException(prepared, e);
 			doClose(conn, prepared);
@@ -354,6 +537,207 @@ public class PFRDBSQLBuilder {
 		return this;
 	}
 
+	/********************************************************************************************
+	 * Executes a query with a forward only result set and passes every row to the handler,
+	 * the rows are fetched from the database in chunks of fetchSize() rows. Use this instead of 
+	 * query() for large results, as the result is never held in memory as a whole.
+	 * 
+	 * The following metrics are recorded:
+	 * <ul>
+	 * <li>{name}: the duration of the query and of reading all rows, including the handler.
+	 *     If ranged metrics are enabled, the range is the number of rows.</li>
+	 * <li>{name} [TTFB]: the time until the first row was available.</li>
+	 * <li>{name} [FETCH]: the time spent fetching rows, excluding the handler.</li>
+	 * </ul>
+	 * 
+	 * @param sql string with placeholders
+	 * @param handler called for every row, the row is reused and only valid during the call.
+	 *        Call row.stop() to skip the remaining rows. Exceptions thrown by the handler fail
+	 *        the measurement and are rethrown.
+	 * @param values the values to be placed in the prepared statement
+	 * @return number of rows read, -1 in case of an error
+	 ********************************************************************************************/
+	public int queryStream(String sql, PFRDBRow.Handler handler, Object... values){	
+		
+		Connection conn = null;
+		PreparedStatement prepared = null;
+		ResultSet streamed = null;
+		boolean isAutoCommitReset = false;
+		
+		try {
+			//-----------------------------------------
+			// Initialize Variables
+			conn = db.getConnection();
+			
+			// some drivers, e.g. Postgres, only stream results inside a transaction 
+			if( !db.transactionIsStarted() && conn.getAutoCommit() ) {
+				conn.setAutoCommit(false);
+				isAutoCommitReset = true;
+			}
+			
+			prepared = db.getStatement(conn, sql);
+			prepared.setFetchSize(fetchSize);
+			
+			//-----------------------------------------
+			// Prepare Statement
+			PFRDB.prepareStatement(prepared, values);
+			
+			//-----------------------------------------
+			// Execute and Read
+			PFRDBRecorder.Handle handle = handle(sql);
+			
+			long startNanos = System.nanoTime();
+			long firstRowNanos = -1;
+			long fetchNanos = 0;
+			
+			measureStart(handle); 
+				streamed = prepared.executeQuery();
+				PFRDBRow row = new PFRDBRow(streamed);
+				
+				while(true) {
+					long nextStartNanos = System.nanoTime();
+					boolean hasRow = row.next();
+					long nextEndNanos = System.nanoTime();
+					
+					fetchNanos += nextEndNanos - nextStartNanos;
+					if(firstRowNanos < 0) { firstRowNanos = nextEndNanos - startNanos; }
+					if(!hasRow) { break; }
+					
+					handler.accept(row);
+				}
+			measureEnd();
+			
+			//-----------------------------------------
+			// Record, Ranged Metric and Times
+			int resultSize = row.rowNumber();
+			measureDone(handle, resultSize);
+			
+			HSR.addMetric(handle.suffixed(" [TTFB]").name(), BigDecimal.valueOf(firstRowNanos / 1000, 3));
+			HSR.addMetric(handle.suffixed(" [FETCH]").name(), BigDecimal.valueOf(fetchNanos / 1000, 3));
+			
+			return resultSize;
+			
+		} catch (SQLException e) {
+			measureFailed(e);
+			handleException(prepared, e);
+		} catch (RuntimeException | Error e) {
+			// thrown by the handler
+			measureFailed(e.getClass().getSimpleName());
+			throw e;
+		} finally {
+			
+			if(streamed != null) {
+				try { streamed.close(); } catch (SQLException e) { logger.debug("Could not close result set: "+e.getMessage()); }
+			}
+			
+			if(isAutoCommitReset) {
+				try { conn.setAutoCommit(true); } catch (SQLException e) { logger.debug("Could not reset auto commit: "+e.getMessage()); }
+			}
+			
+			doClose(conn, prepared);
+		}
+		
+		logger.trace("SQL Statement: "+sql);
+		return -1;
+	}
+	
+	/********************************************************************************************
+	 * Returns the handle of the metric for the given SQL.
+	 ********************************************************************************************/
+	private PFRDBRecorder.Handle handle(String sql) {
+		return PFRDBRecorder.handle( (metricName != null) ? metricName : sql );
+	}
+	
+	/********************************************************************************************
+	 * Returns true if the measurements of this builder are recorded with PFRDBRecorder instead
+	 * of HSR.start() and HSR.end().
+	 ********************************************************************************************/
+	private boolean isAsyncRecording() {
+		return sla == null && PFRDBRecorder.async();
+	}
+	
+	/********************************************************************************************
+	 * Starts the measurement of a database call.
+	 ********************************************************************************************/
+	private void measureStart(PFRDBRecorder.Handle handle) {
+		
+		measureRecord = null;
+		measureHandle = handle;
+		measureState = MEASURE_STARTED;
+		
+		if(isAsyncRecording()) {
+			measureStartNanos = System.nanoTime();
+		}else {
+			HSR.start(handle.name(), sla);
+		}
+	}
+	
+	/********************************************************************************************
+	 * Ends the measurement started with measureStart().
+	 ********************************************************************************************/
+	private void measureEnd() {
+		
+		if(isAsyncRecording()) {
+			measureDurationNanos = System.nanoTime() - measureStartNanos;
+		}else {
+			measureRecord = HSR.end();
+		}
+		
+		measureState = MEASURE_ENDED;
+	}
+	
+	/********************************************************************************************
+	 * Records the measurement ended with measureEnd() and the ranged metric if enabled.
+	 * 
+	 * @param handle the handle used with measureStart()
+	 * @param rangeValue value for the ranged metric, negative if no ranged metric should be
+	 * recorded
+	 ********************************************************************************************/
+	private void measureDone(PFRDBRecorder.Handle handle, int rangeValue) {
+		
+		if(measureState != MEASURE_ENDED) { return; }
+		measureState = MEASURE_NONE;
+		
+		String finalRangeName = (enableRangedMetric && rangeValue >= 0) ? rangeName : null;
+		
+		if(isAsyncRecording()) {
+			PFRDBRecorder.record(handle, measureDurationNanos, true, finalRangeName, rangeValue, initialRange);
+		}else if(finalRangeName != null && measureRecord != null) {
+			HSR.addMetricRanged(
+				    handle.rangedName(finalRangeName)
+				  , measureRecord.value()
+				  , rangeValue
+				  , initialRange
+				);
+		}
+	}
+	
+	/********************************************************************************************
+	 * Records a failed database call.
+	 ********************************************************************************************/
+	private void measureFailed(SQLException e) {
+		measureFailed(""+e.getErrorCode());
+	}
+	
+	/********************************************************************************************
+	 * Records a failed call, e.g. if the row handler of queryStream() has thrown.
+	 * 
+	 * @param code the code the HSR record is ended with
+	 ********************************************************************************************/
+	private void measureFailed(String code) {
+		
+		// only end measurements that have been started, else another open record would be ended
+		if(measureState == MEASURE_STARTED) {
+			if(isAsyncRecording()) {
+				PFRDBRecorder.record(measureHandle, System.nanoTime() - measureStartNanos, false, null, 0, initialRange);
+			}else { 
+				HSR.end(false, code); 
+			}
+		}
+		
+		measureState = MEASURE_NONE;
+	}
+	
 	/********************************************************************************************
 	 * Returns the result or null if there was any issue.
 	 * 
@@ -378,11 +762,13 @@ public class PFRDBSQLBuilder {
 	private void doClose(Connection conn, PreparedStatement prepared) {
 		
 		try {
+			// release first, cached statements must not be used after the connection is returned
+			db.releaseStatement(prepared);
+			
 			if(conn != null && db.transactionConnection.get() == null) { 
 				db.removeOpenConnection(conn);
 				conn.close(); 
 			}
-			if(prepared != null) { prepared.close(); }
 		} catch (SQLException e) {
 			logger.error("Error while closing DB connection: "+e.getMessage(), e);
 		}
@@ -406,7 +792,7 @@ public class PFRDBSQLBuilder {
 			conn = db.getConnection();
 			conn.setAutoCommit(false); // enable streaming
 			
-			prepared = conn.prepareStatement(sql);
+			prepared = db.getStatement(conn, sql);
 			prepared.setFetchSize(100); // enable streaming
 			
 			//-----------------------------------------
@@ -415,22 +801,26 @@ public class PFRDBSQLBuilder {
 
 			//-----------------------------------------
 			// Execute
-			String finalName = (metricName != null) ? metricName : sql;
-			HSR.start(finalName + " [EXEC]", sla); 
+			PFRDBRecorder.Handle handle = handle(sql);
+			PFRDBRecorder.Handle handleExec = handle.suffixed(" [EXEC]");
+			PFRDBRecorder.Handle handleFetch = handle.suffixed(" [FETCH]");
+			
+			measureStart(handleExec); 
 				result = prepared.executeQuery();
-			HSRRecord recordExec = HSR.end();
+			measureEnd();
+			
+			long execDurationNanos = measureDurationNanos;
+			HSRRecord recordExec = measureRecord;
 			
 			//-----------------------------------------
 			// 
-			HSRRecord recordFetch = null;
-
 			int resultSize = 0;
 			int jitPreventionCounter = 0;
 			if(result != null) {
 				
 				int columns = result.getMetaData().getColumnCount();
 				
-				HSR.start(finalName + " [FETCH]", sla); 
+				measureStart(handleFetch); 
 					while(result.next()) {
 						resultSize++;
 						for(int i = 1; i <= columns; i++) {
@@ -438,37 +828,25 @@ public class PFRDBSQLBuilder {
 									(result.getObject(i) != null) ? 1 : 0;
 						}
 					}
-				recordFetch = HSR.end();
+				measureEnd();
+				
+				//-----------------------------------------
+				// Record and Ranged Metric [FETCH]
+				measureDone(handleFetch, resultSize);
 			}
 			
 			// IMPORTANT: prevent JIT optimization
 			PFRDB.SINK = jitPreventionCounter;
 			
 			//-----------------------------------------
-			// Ranged Metric [EXEC]
-			if(enableRangedMetric && recordExec != null ) {
-				HSR.addMetricRanged(
-					    finalName + " [EXEC] - " + rangeName
-					  , recordExec.value()
-					  , resultSize
-					  , initialRange
-					);
-			}
-			
-			//-----------------------------------------
-			// Ranged Metric [FETCH]
-			if(enableRangedMetric && recordFetch != null ) {
-				HSR.addMetricRanged(
-					    finalName + " [FETCH] - " + rangeName
-					  , recordFetch.value()
-					  , resultSize
-					  , initialRange
-					);
-			}
-			
+			// Record and Ranged Metric [EXEC]
+			measureDurationNanos = execDurationNanos;
+			measureRecord = recordExec;
+			measureState = MEASURE_ENDED;
+			measureDone(handleExec, resultSize);
 
 		} catch (SQLException e) {
-			if(metricName != null) { HSR.end(false, ""+e.getErrorCode() ); }
+			measureFailed(e);
 			handleException(prepared, e);
 		} finally {
 			close();
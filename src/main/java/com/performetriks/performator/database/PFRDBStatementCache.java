@@ -0,0 +1,172 @@
+package com.performetriks.performator.database;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.performetriks.performator.base.PFRInternalMetrics;
+
+/**************************************************************************************************************
+ * Cache of prepared statements for one physical database connection.
+ *
+ * Statements are kept by SQL text, result set type, concurrency and generated key column. If the cache
+ * is full, the statement that was not used for the longest time is closed.
+ * A cache must only be used by the thread that has currently borrowed the connection from the pool.
+ *
+ * Hits, misses and evictions are reported as counters with PFRInternalMetrics.
+ *
+ * Copyright Owner: Performetriks GmbH, Switzerland
+ * License: Eclipse Public License v2.0
+ *
+ * @author Reto Scheiwiller
+ *
+ **************************************************************************************************************/
+public class PFRDBStatementCache {
+
+	private static final Logger logger = LoggerFactory.getLogger(PFRDBStatementCache.class.getName());
+
+	private static final String METRIC_HITS = "DB Statement Cache: Hits";
+	private static final String METRIC_MISSES = "DB Statement Cache: Misses";
+	private static final String METRIC_EVICTIONS = "DB Statement Cache: Evictions";
+
+	// all statements that are currently cached, used to not close them after execution
+	private static final Set<PreparedStatement> cachedStatements = ConcurrentHashMap.newKeySet();
+
+	private final Connection physicalConnection;
+	private final LinkedHashMap<Key, PreparedStatement> statements;
+
+	/***************************************************************************
+	 * Key of a statement in the cache.
+	 ***************************************************************************/
+	private record Key(String sql, int resultSetType, int resultSetConcurrency, String generatedKeyColumn) {}
+
+	/***************************************************************************
+	 * Creates a cache for the given connection.
+	 *
+	 * @param physicalConnection the connection of the database driver, not the
+	 * wrapper returned by the pool
+	 * @param maxSize maximum number of statements kept open
+	 ***************************************************************************/
+	public PFRDBStatementCache(Connection physicalConnection, int maxSize) {
+
+		this.physicalConnection = physicalConnection;
+
+		// access order makes this a LRU cache
+		this.statements = new LinkedHashMap<>(16, 0.75f, true) {
+
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Key, PreparedStatement> eldest) {
+
+				if(size() <= maxSize) { return false; }
+
+				PFRInternalMetrics.addCount(METRIC_EVICTIONS, 1);
+				closeQuietly(eldest.getValue());
+				return true;
+			}
+		};
+	}
+
+	/***************************************************************************
+	 * Returns a cached statement or prepares and caches a new one.
+	 *
+	 * @param sql the SQL of the statement
+	 * @param resultSetType e.g. ResultSet.TYPE_FORWARD_ONLY
+	 * @param resultSetConcurrency e.g. ResultSet.CONCUR_READ_ONLY
+	 * @param generatedKeyColumn name of the generated key column, or null
+	 ***************************************************************************/
+	public PreparedStatement prepare(String sql, int resultSetType, int resultSetConcurrency, String generatedKeyColumn) throws SQLException {
+
+		Key key = new Key(sql, resultSetType, resultSetConcurrency, generatedKeyColumn);
+
+		//----------------------------------
+		// Hit
+		PreparedStatement prepared = statements.get(key);
+		if(prepared != null) {
+			if( !prepared.isClosed() ) {
+				PFRInternalMetrics.addCount(METRIC_HITS, 1);
+				return prepared;
+			}
+
+			// closed from outside, e.g. together with a result set
+			statements.remove(key);
+			cachedStatements.remove(prepared);
+		}
+
+		//----------------------------------
+		// Miss
+		PFRInternalMetrics.addCount(METRIC_MISSES, 1);
+
+		if(generatedKeyColumn != null) {
+			prepared = physicalConnection.prepareStatement(sql, new String[] {generatedKeyColumn});
+		}else {
+			prepared = physicalConnection.prepareStatement(sql, resultSetType, resultSetConcurrency);
+		}
+
+		statements.put(key, prepared);
+		cachedStatements.add(prepared);
+
+		return prepared;
+	}
+
+	/***************************************************************************
+	 * Returns true if the connection of this cache has been closed.
+	 ***************************************************************************/
+	public boolean isClosed() {
+		try {
+			return physicalConnection.isClosed();
+		}catch(SQLException e) {
+			return true;
+		}
+	}
+
+	/***************************************************************************
+	 * Closes all statements of this cache.
+	 ***************************************************************************/
+	public void clear() {
+		for(PreparedStatement prepared : statements.values()) {
+			closeQuietly(prepared);
+		}
+		statements.clear();
+	}
+
+	/***************************************************************************
+	 * Closes the statement if it is not cached, else clears its parameters
+	 * and batch so it can be reused.
+	 ***************************************************************************/
+	public static void release(PreparedStatement prepared) throws SQLException {
+
+		if(prepared == null) { return; }
+
+		if(cachedStatements.contains(prepared) && !prepared.isClosed()) {
+			// rows of a failed executeBatch() must not be executed by the next borrower
+			prepared.clearBatch();
+			prepared.clearParameters();
+		}else {
+			prepared.close();
+		}
+	}
+
+	/***************************************************************************
+	 *
+	 ***************************************************************************/
+	private static void closeQuietly(PreparedStatement prepared) {
+
+		cachedStatements.remove(prepared);
+
+		try {
+			prepared.close();
+		}catch(SQLException e) {
+			logger.debug("Error while closing cached statement: "+e.getMessage());
+		}
+	}
+
+}
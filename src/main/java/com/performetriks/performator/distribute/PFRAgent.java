@@ -25,6 +25,7 @@ public class PFRAgent {
 	
 	// progress in percent of test jar file uploaded
 	private int uploadProgressPercent = 0;
+	private volatile boolean isUploadSuccessful = false;
 	
 	
 	/*************************************************************
@@ -193,5 +194,20 @@ public class PFRAgent {
 	protected void uploadProgressPercent(int percent) {
 		uploadProgressPercent = percent;
 	}
+	
+	/*************************************************************
+	 * Returns true if the last upload of the JAR file has been
+	 * accepted by the agent.
+	 *************************************************************/
+	public boolean isUploadSuccessful() {
+		return isUploadSuccessful;
+	}
+	
+	/*************************************************************
+	 * INTERNAL USE: Set if the JAR file upload was successful.
+	 *************************************************************/
+	protected void isUploadSuccessful(boolean isSuccessful) {
+		isUploadSuccessful = isSuccessful;
+	}
 
 }
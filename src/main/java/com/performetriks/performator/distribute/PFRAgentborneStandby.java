@@ -0,0 +1,398 @@
+package com.performetriks.performator.distribute;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.performetriks.performator.base.Main;
+import com.performetriks.performator.base.Main.CLIArgs;
+import com.performetriks.performator.cli.PFRCLIExecutor;
+import com.performetriks.performator.distribute.ZePFRServer.Command;
+
+import ch.qos.logback.classic.Level;
+
+/**************************************************************************************************************
+ * A pre-started agentborne process an agent keeps ready for the next test, removes the JVM startup and the
+ * class loading of the framework from the start of a test. Enabled with -Dpfr_standby=true.
+ *
+ * <ul>
+ * <li>The agent starts the process with its own classpath, the process starts its server on the agentborne
+ *     port and loads the classes of the framework while it waits.</li>
+ * <li>On teststart, the agent sends the command 'activate' with the path of the received jar and the
+ *     arguments it would otherwise pass on the command line.</li>
+ * <li>The process loads the jar in its own class loader and runs the test like any agentborne process.
+ *     Classes of the framework are taken from the standby process, all other classes are loaded from the
+ *     jar first, so libraries bundled with the test do not mix with the ones of the agent.</li>
+ * <li>Every standby process runs a single test, the agent starts a new one after the test has ended.</li>
+ * </ul>
+ *
+ * Relative paths used by the test resolve against the working directory of the standby process.
+ *
+ * Copyright Owner: Performetriks GmbH, Switzerland
+ * License: Eclipse Public License v2.0
+ *
+ * @author Reto Scheiwiller
+ *
+ **************************************************************************************************************/
+public class PFRAgentborneStandby {
+
+	private static final Logger logger = LoggerFactory.getLogger(PFRAgentborneStandby.class);
+
+	static final String PARAM_JAR = "jar";
+
+	private static final String DIRECTORY_NAME = "standby";
+
+	// packages loaded by the standby process while it waits, shared with the class loader of the test
+	private static final String[] PRELOAD_PACKAGES = {
+			  "com/performetriks/"
+			, "com/xresch/"
+			, "com/google/gson/"
+			, "com/google/common/"
+			, "com/microsoft/playwright/"
+			, "ch/qos/logback/"
+		};
+
+	// time to wait for a killed standby process to exit
+	private static final long KILL_WAIT_SECONDS = 15;
+
+	// completed with the class loader of the test when the standby process is activated
+	private static CompletableFuture<ClassLoader> activation = new CompletableFuture<>();
+
+	private int port;
+	private PFRCLIExecutor executor = null;
+	private boolean isActivated = false;
+
+	/*************************************************************
+	 * Creates a standby process for the given port, call start()
+	 * to start it.
+	 *
+	 * @param port the agentborne port
+	 *************************************************************/
+	public PFRAgentborneStandby(int port) {
+		this.port = port;
+	}
+
+	/*************************************************************
+	 * Starts the standby process.
+	 *************************************************************/
+	public void start() throws InterruptedException {
+
+		String classpath = PFRLocalProcessPool.toAbsoluteClasspath(System.getProperty("java.class.path"));
+
+		// use the same JVM as the agent, the commands are split by spaces
+		String javaBin = Paths.get(System.getProperty("java.home"), "bin", "java").toString();
+		if(javaBin.contains(" ")) { javaBin = "java"; }
+
+		Path workingDir = Paths.get(System.getProperty("user.dir"), DIRECTORY_NAME).toAbsolutePath();
+
+		HashMap<String, String> env = new HashMap<>();
+		env.put("CLASSPATH", classpath);
+
+		PFRClassDataSharing cds = PFRClassDataSharing.forClasspath(classpath);
+
+		String command = javaBin
+				+ cds.makeJVMArgs()
+				+ CLIArgs.pfr_mode.makeCLIArg("agentborne")
+				+ CLIArgs.pfr_port.makeCLIArg(port)
+				+ CLIArgs.pfr_standbyProcess.makeCLIArg(true)
+				+ CLIArgs.pfr_logfile.makeCLIArg(workingDir.resolve("performator.log").toString())
+				+ " " + Main.class.getName()
+				;
+
+		logger.info("Start standby agentborne: "+command);
+
+		executor = new PFRCLIExecutor(workingDir.toString(), command, env);
+		executor.setDaemon(true);
+		executor.execute();
+
+		cds.processStarted(executor);
+	}
+
+	/*************************************************************
+	 * Returns true if the standby process is running and answers
+	 * to requests.
+	 *************************************************************/
+	public boolean isReady() {
+
+		if(executor == null || isActivated || !executor.checkKeepExecuting()) { return false; }
+		if( !ZePFRServer.isPortInUse(port) ) { return false; }
+
+		RemoteResponse status = new ZePFRClient("localhost", port).getStatus();
+		return status != null && status.success();
+	}
+
+	/*************************************************************
+	 * Makes the standby process load the jar and start the test.
+	 *
+	 * @param jarFile the received jar
+	 * @param args the arguments for the agentborne process
+	 *
+	 * @return the executor of the process, or null if the process
+	 * could not be activated and has been killed.
+	 *************************************************************/
+	public PFRCLIExecutor activate(Path jarFile, Map<CLIArgs, String> args) {
+
+		isActivated = true;
+
+		RemoteRequest request = new RemoteRequest(new ZePFRClient("localhost", port), Command.activate, null)
+				.param(PARAM_JAR, jarFile.toAbsolutePath().toString());
+
+		for(Entry<CLIArgs, String> entry : args.entrySet()) {
+			request.param(entry.getKey().toString(), entry.getValue());
+		}
+
+		RemoteResponse response = request.send(Duration.ofSeconds(10));
+
+		if(response == null || !response.success()) {
+			logger.warn("Standby agentborne could not be activated, a new process is started.");
+			killAndWait();
+			return null;
+		}
+
+		logger.info("Standby agentborne activated.");
+		return executor;
+	}
+
+	/*************************************************************
+	 * Kills the standby process.
+	 *************************************************************/
+	public void kill() {
+		if(executor != null) {
+			executor.kill();
+		}
+	}
+
+	/*************************************************************
+	 * Kills the standby process and waits until it has exited, so
+	 * its port can be used by another process.
+	 *************************************************************/
+	public void killAndWait() {
+
+		if(executor == null) { return; }
+
+		executor.kill();
+
+		try {
+			executor.onCompletion().get(KILL_WAIT_SECONDS, TimeUnit.SECONDS);
+		}catch(InterruptedException e) {
+			Thread.currentThread().interrupt(); // restore interrupt flag
+		}catch(TimeoutException e) {
+			logger.warn("Standby agentborne did not exit "+KILL_WAIT_SECONDS+" seconds after it was killed.");
+		}catch(Exception e) {
+			logger.warn("Error while waiting for standby agentborne to exit: "+e.getMessage());
+		}
+	}
+
+	/*************************************************************
+	 * Returns the executor of the standby process.
+	 *************************************************************/
+	public PFRCLIExecutor getExecutor() {
+		return executor;
+	}
+
+	/*************************************************************
+	 * Returns true if this process has been started as a standby
+	 * process.
+	 *************************************************************/
+	public static boolean isStandbyProcess() {
+		return CLIArgs.pfr_standbyProcess.getValue().getAsBoolean();
+	}
+
+	/*************************************************************
+	 * Used by the standby process, loads the framework classes and
+	 * blocks until the process has been activated by the agent.
+	 *
+	 * @return the class loader of the test jar, or null if the
+	 * thread got interrupted
+	 *************************************************************/
+	public static ClassLoader awaitActivation() {
+
+		logger.info("Standby agentborne ready, waiting for activation.");
+
+		preloadClasses();
+
+		try {
+			return activation.get();
+		}catch(InterruptedException e) {
+			Thread.currentThread().interrupt(); // restore interrupt flag
+		}catch(Exception e) {
+			logger.error("Error while waiting for activation: "+e.getMessage(), e);
+		}
+
+		return null;
+	}
+
+	/*************************************************************
+	 * Used by the standby process, handles the command 'activate'
+	 * sent by the agent. Sets the arguments as system properties
+	 * and creates the class loader for the jar. Without a jar, the
+	 * test is loaded from the classpath of the process.
+	 *************************************************************/
+	static void handleActivate(Map<String, String> parameters, RemoteResponse response) {
+
+		//---------------------------------
+		// Check State
+		if( !isStandbyProcess() || activation.isDone() ) {
+			response.setSuccess(false);
+			response.addMessage(Level.ERROR, "Process is not a standby process or has already been activated.");
+			return;
+		}
+
+		// processes of the mode MULTIPROCESS have the test on their classpath
+		String jar = parameters.get(PARAM_JAR);
+		if(jar != null && !new File(jar).isFile()) {
+			response.setSuccess(false);
+			response.addMessage(Level.ERROR, "Jar file not found: "+jar);
+			return;
+		}
+
+		//---------------------------------
+		// Arguments
+		for(CLIArgs arg : CLIArgs.values()) {
+			String value = parameters.get(arg.toString());
+			if(value != null) {
+				System.setProperty(arg.toString(), value);
+			}
+		}
+
+		//---------------------------------
+		// Class Loader
+		if(jar == null) {
+			activation.complete(PFRAgentborneStandby.class.getClassLoader());
+			return;
+		}
+		
+		try {
+			URL jarURL = new File(jar).toURI().toURL();
+			TestClassLoader loader = new TestClassLoader(jarURL, PFRAgentborneStandby.class.getClassLoader());
+
+			activation.complete(loader);
+
+		}catch(IOException e) {
+			response.setSuccess(false);
+			response.addMessage(Level.ERROR, "Could not load jar file: "+e.getMessage());
+		}
+	}
+
+	/*************************************************************
+	 * Loads the classes of the framework and its libraries without
+	 * initializing them, so the test does not pay for it.
+	 *************************************************************/
+	static void preloadClasses() {
+
+		long start = System.currentTimeMillis();
+		int count = 0;
+		ClassLoader loader = PFRAgentborneStandby.class.getClassLoader();
+
+		for(String entry : System.getProperty("java.class.path").split(File.pathSeparator)) {
+
+			if( !entry.endsWith(".jar") ) { continue; }
+
+			try(JarFile jar = new JarFile(entry)) {
+
+				Enumeration<JarEntry> entries = jar.entries();
+				while(entries.hasMoreElements() && !activation.isDone()) {
+
+					String name = entries.nextElement().getName();
+					if( !name.endsWith(".class") || name.contains("-") || !isPreloadPackage(name) ) { continue; }
+
+					try {
+						Class.forName(name.substring(0, name.length() - 6).replace('/', '.'), false, loader);
+						count++;
+					}catch(Throwable e) {
+						// optional dependency not on the classpath, ignore
+					}
+				}
+			}catch(IOException e) {
+				logger.debug("Could not preload classes of "+entry+": "+e.getMessage());
+			}
+		}
+
+		logger.info("Standby agentborne preloaded "+count+" classes in "+(System.currentTimeMillis() - start)+"ms.");
+	}
+
+	/*************************************************************
+	 *
+	 *************************************************************/
+	private static boolean isPreloadPackage(String entryName) {
+
+		for(String prefix : PRELOAD_PACKAGES) {
+			if(entryName.startsWith(prefix)) { return true; }
+		}
+
+		return false;
+	}
+
+	/*************************************************************************************************
+	 * Class loader of the test jar. Loads classes and resources from the jar first, except the
+	 * classes of the JDK and of the preloaded packages, which are shared with the framework that
+	 * runs the test.
+	 *************************************************************************************************/
+	private static class TestClassLoader extends URLClassLoader {
+
+		static {
+			registerAsParallelCapable();
+		}
+
+		private TestClassLoader(URL jarURL, ClassLoader parent) {
+			super("test", new URL[] { jarURL }, parent);
+		}
+
+		@Override
+		protected Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
+
+			if( isSharedClass(name) ) {
+				return super.loadClass(name, resolve);
+			}
+
+			synchronized(getClassLoadingLock(name)) {
+
+				Class<?> clazz = findLoadedClass(name);
+				if(clazz == null) {
+					try {
+						clazz = findClass(name);
+					}catch(ClassNotFoundException e) {
+						return super.loadClass(name, resolve);
+					}
+				}
+
+				if(resolve) { resolveClass(clazz); }
+				return clazz;
+			}
+		}
+
+		@Override
+		public URL getResource(String name) {
+
+			URL url = findResource(name);
+			return (url != null) ? url : super.getResource(name);
+		}
+
+		private static boolean isSharedClass(String className) {
+
+			return className.startsWith("java.")
+				|| className.startsWith("javax.")
+				|| className.startsWith("jdk.")
+				|| className.startsWith("sun.")
+				|| isPreloadPackage(className.replace('.', '/'))
+				;
+		}
+	}
+
+}
@@ -0,0 +1,336 @@
+package com.performetriks.performator.distribute;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HexFormat;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Stream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.performetriks.performator.base.Main.CLIArgs;
+import com.performetriks.performator.base.PFRCoordinator;
+import com.performetriks.performator.cli.PFRCLIExecutor;
+
+/**************************************************************************************************************
+ * Creates and uses class data sharing (AppCDS) archives for the agentborne processes started by agents and by
+ * the mode MULTIPROCESS, removes most of the class loading from the JVM startup. Enabled by default, disable
+ * it with -Dpfr_cds=false.
+ *
+ * <ul>
+ * <li>The first process started for a classpath gets -XX:ArchiveClassesAtExit, the JVM writes a dynamic
+ *     archive of all loaded classes when the process ends.</li>
+ * <li>All later processes for the same classpath get -XX:SharedArchiveFile with that archive.</li>
+ * <li>Received test jars are copied to the folder 'cds' under a hash of their content. The archive is only
+ *     valid for the same jar file, the copy keeps the file the same as long as the content does not change.</li>
+ * <li>The newest archives are kept. Copied jars without archive are deleted, unless a running process uses
+ *     them, their archive is being created or they have been copied recently.</li>
+ * <li>Classpaths containing directories are not supported by CDS and are started without archive.</li>
+ * </ul>
+ *
+ * If an archive does not match, the JVM prints a warning and starts without it.
+ * The main method of this class is the training workload used by the build to create the class list of the
+ * framework, see the scripts of the agent.
+ *
+ * Copyright Owner: Performetriks GmbH, Switzerland
+ * License: Eclipse Public License v2.0
+ *
+ * @author Reto Scheiwiller
+ *
+ **************************************************************************************************************/
+public class PFRClassDataSharing {
+
+	private static final Logger logger = LoggerFactory.getLogger(PFRClassDataSharing.class);
+
+	private static final String DIRECTORY_NAME = "cds";
+	private static final int MAX_ARCHIVES = 10;
+
+	// copied jars younger than this might be about to be started
+	private static final long MIN_JAR_AGE_MILLIS = 10 * 60 * 1000;
+
+	// archives that are currently written by a process
+	private static final Set<Path> creating = ConcurrentHashMap.newKeySet();
+
+	// copied jars used by running processes, with the number of processes
+	private static final ConcurrentHashMap<Path, Integer> jarsInUse = new ConcurrentHashMap<>();
+
+	private Path archive = null;
+	private Path jar = null;
+	private boolean isCreating = false;
+	private boolean isStartPending = false;
+
+	/*************************************************************
+	 * Use forClasspath() or forJar().
+	 *************************************************************/
+	private PFRClassDataSharing() { }
+
+	/*************************************************************
+	 * Returns the archive for processes started with the given
+	 * classpath.
+	 *
+	 * @param classpath the absolute classpath of the process
+	 *************************************************************/
+	public static PFRClassDataSharing forClasspath(String classpath) {
+
+		PFRClassDataSharing cds = new PFRClassDataSharing();
+		if( !isEnabled() ) { return cds; }
+
+		//---------------------------------
+		// Key of Classpath
+		// changes when one of the jars changes
+		StringBuilder key = new StringBuilder(System.getProperty("java.vm.version"));
+		for(String entry : classpath.split(File.pathSeparator)) {
+
+			if(entry.isBlank()) { continue; }
+
+			File file = new File(entry);
+			if( !file.isFile() ) {
+				logger.debug("Classpath contains directories, CDS archive is not used.");
+				return cds;
+			}
+
+			key.append('|').append(file.getAbsolutePath())
+			   .append('|').append(file.length())
+			   .append('|').append(file.lastModified());
+		}
+
+		cds.archive = getDirectory().resolve(hash(key.toString().getBytes(StandardCharsets.UTF_8)) + ".jsa");
+		return cds;
+	}
+
+	/*************************************************************
+	 * Returns the archive for processes started with java -jar
+	 * and the given jar. Copies the jar to the folder 'cds', use
+	 * getJar() to get the path to start the process with.
+	 *
+	 * @param jarFile the jar file
+	 *************************************************************/
+	public static PFRClassDataSharing forJar(Path jarFile) {
+
+		PFRClassDataSharing cds = new PFRClassDataSharing();
+		cds.jar = jarFile;
+
+		// the commands are split by spaces
+		if( !isEnabled() || getDirectory().toString().contains(" ") ) { return cds; }
+
+		try {
+			//---------------------------------
+			// Hash of Content
+			MessageDigest digest = MessageDigest.getInstance("SHA-256");
+			digest.update(System.getProperty("java.vm.version").getBytes(StandardCharsets.UTF_8));
+
+			try(InputStream in = Files.newInputStream(jarFile)) {
+				byte[] buffer = new byte[64 * 1024];
+				int read;
+				while( (read = in.read(buffer)) > 0 ) {
+					digest.update(buffer, 0, read);
+				}
+			}
+
+			String name = HexFormat.of().formatHex(digest.digest(), 0, 16);
+
+			//---------------------------------
+			// Copy Jar
+			// moved in place when complete, a process might use it already
+			Path directory = getDirectory();
+			Path copy = directory.resolve(name + ".jar");
+			if( !Files.exists(copy) ) {
+				Files.createDirectories(directory);
+				Path temp = Files.createTempFile(directory, name, ".tmp");
+				Files.copy(jarFile, temp, StandardCopyOption.REPLACE_EXISTING);
+				Files.move(temp, copy, StandardCopyOption.ATOMIC_MOVE);
+			}
+
+			cds.jar = copy;
+			cds.archive = directory.resolve(name + ".jsa");
+
+		}catch(IOException | NoSuchAlgorithmException e) {
+			logger.warn("Could not prepare CDS archive, process is started without: "+e.getMessage());
+		}
+
+		return cds;
+	}
+
+	/*************************************************************
+	 * Returns the jar the process should be started with, the jar
+	 * given to forJar() if no archive is used.
+	 *************************************************************/
+	public Path getJar() {
+		return jar;
+	}
+
+	/*************************************************************
+	 * Returns the JVM arguments to use or create the archive, e.g.
+	 * " -XX:SharedArchiveFile=cds/1a2b.jsa". Returns an empty
+	 * string if no archive is used.
+	 * If another process is creating the archive, the process is
+	 * started without.
+	 *************************************************************/
+	public String makeJVMArgs() {
+
+		// the commands are split by spaces
+		if(archive == null || archive.toString().contains(" ")) { return ""; }
+
+		if(Files.isRegularFile(archive)) {
+			return " -XX:SharedArchiveFile=" + archive;
+		}
+
+		if( !isCreating && creating.add(archive) ) {
+			isCreating = true;
+
+			try {
+				Files.createDirectories(archive.getParent());
+			}catch(IOException e) {
+				logger.warn("Could not create CDS directory: "+e.getMessage());
+				creating.remove(archive);
+				return "";
+			}
+
+			isStartPending = true;
+			logger.info("CDS archive is created when the process ends: "+archive);
+			return " -XX:ArchiveClassesAtExit=" + archive;
+		}
+
+		return "";
+	}
+
+	/*************************************************************
+	 * Call after every process has been started. If the process
+	 * creates the archive, allows other processes to create it
+	 * when the process ended without, and removes old archives.
+	 *
+	 * @param executor the executor of the process
+	 *************************************************************/
+	public void processStarted(PFRCLIExecutor executor) {
+
+		//---------------------------------
+		// Keep Jar while in Use
+		if(jar != null && archive != null) {
+			final Path usedJar = jar;
+			jarsInUse.merge(usedJar, 1, Integer::sum);
+			executor.onCompletion().thenRun( () -> 
+				jarsInUse.computeIfPresent(usedJar, (key, count) -> (count > 1) ? count - 1 : null)
+			);
+		}
+
+		if( !isStartPending ) { return; }
+		isStartPending = false;
+
+		executor.onCompletion().thenRun( () -> {
+			creating.remove(archive);
+			removeOldArchives();
+		});
+	}
+
+	/*************************************************************
+	 * Returns true if the archives are enabled.
+	 *************************************************************/
+	public static boolean isEnabled() {
+		return CLIArgs.pfr_cds.getValue().getAsBoolean();
+	}
+
+	/*************************************************************
+	 *
+	 *************************************************************/
+	private static Path getDirectory() {
+		return Paths.get(System.getProperty("user.dir"), DIRECTORY_NAME).toAbsolutePath();
+	}
+
+	/*************************************************************
+	 *
+	 *************************************************************/
+	private static String hash(byte[] bytes) {
+		try {
+			return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(bytes), 0, 16);
+		}catch(NoSuchAlgorithmException e) {
+			// SHA-256 is available on every JVM
+			return Integer.toHexString(Arrays.hashCode(bytes));
+		}
+	}
+
+	/*************************************************************
+	 * Keeps the newest archives and their jars, deletes the rest.
+	 * Deletes copied jars without archive, e.g. if the process
+	 * creating the archive has failed.
+	 *************************************************************/
+	private static void removeOldArchives() {
+
+		Path directory = getDirectory();
+
+		try {
+			//---------------------------------
+			// Old Archives
+			Path[] archives;
+			try(Stream<Path> files = Files.list(directory)) {
+				archives = files
+						.filter(path -> path.toString().endsWith(".jsa"))
+						.sorted(Comparator.comparingLong( (Path path) -> path.toFile().lastModified() ).reversed())
+						.toArray(Path[]::new);
+			}
+
+			for(int i = MAX_ARCHIVES; i < archives.length; i++) {
+				Files.deleteIfExists(archives[i]);
+			}
+
+			//---------------------------------
+			// Orphan Jars
+			Path[] jars;
+			try(Stream<Path> files = Files.list(directory)) {
+				jars = files
+						.filter(path -> path.toString().endsWith(".jar"))
+						.toArray(Path[]::new);
+			}
+
+			long minModified = System.currentTimeMillis() - MIN_JAR_AGE_MILLIS;
+			for(Path jar : jars) {
+
+				String name = jar.getFileName().toString().replace(".jar", "");
+				Path archive = directory.resolve(name + ".jsa");
+
+				if(Files.exists(archive)
+				|| creating.contains(archive)
+				|| jarsInUse.containsKey(jar)
+				|| jar.toFile().lastModified() > minModified) {
+					continue;
+				}
+
+				Files.deleteIfExists(jar);
+			}
+
+		}catch(IOException e) {
+			logger.debug("Could not remove old CDS archives: "+e.getMessage());
+		}
+	}
+
+	/*************************************************************
+	 * Training workload for the class list of the framework, run
+	 * by the build with -XX:DumpLoadedClassList. Loads the classes
+	 * of the framework and its libraries and exits.
+	 *************************************************************/
+	public static void main(String[] args) {
+
+		PFRAgentborneStandby.preloadClasses();
+
+		try {
+			PFRCoordinator.getInfo();
+		}catch(Exception e) {
+			// the class list is complete without it, do not fail the build
+			logger.warn("Error during CDS training run: "+e.getMessage(), e);
+		}
+
+		System.exit(0);
+	}
+
+}
@@ -0,0 +1,367 @@
+package com.performetriks.performator.distribute;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Locale;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.performetriks.performator.base.Main;
+import com.performetriks.performator.base.Main.CLIArgs;
+import com.performetriks.performator.base.PFRConfig;
+import com.performetriks.performator.base.PFRTest;
+import com.performetriks.performator.cli.PFRCLIExecutor;
+import com.performetriks.performator.cli.PFRReadableOutputStream;
+import com.performetriks.performator.distribute.ZePFRServer.Command;
+
+/**************************************************************************************************************
+ * Starts multiple agentborne processes on the local machine, used by the mode MULTIPROCESS to scale a test
+ * over the cores of a large machine without the limits of a single JVM.
+ *
+ * <ul>
+ * <li>The processes are started as standby processes. When all processes are reachable, the test is started
+ *     in them with the number of processes which could be started.</li>
+ * <li>Every process gets its share of the load by distributeLoad(), like on remote agents.</li>
+ * <li>On Linux, every process is pinned to a subset of the CPUs with taskset, if available.</li>
+ * <li>Every process gets an equal part of the memory and of the available processors.</li>
+ * <li>Every process writes its logs and reports into its own working directory.</li>
+ * </ul>
+ *
+ * The controller connects to the processes over loopback like to any other agent. If started with
+ * -Dpfr_statsChannel=true, the processes write their statistics to a PFRStatsChannel instead.
+ *
+ * Copyright Owner: Performetriks GmbH, Switzerland
+ * License: Eclipse Public License v2.0
+ *
+ * @author Reto Scheiwiller
+ *
+ **************************************************************************************************************/
+public class PFRLocalProcessPool {
+
+	private static final Logger logger = LoggerFactory.getLogger(PFRLocalProcessPool.class);
+
+	private static final long STARTUP_TIMEOUT_MILLIS = 60_000;
+	private static final long KILL_TIMEOUT_MILLIS = 10_000;
+
+	private PFRTest test;
+	private int processCount;
+
+	private ArrayList<PFRCLIExecutor> executors = new ArrayList<>();
+	private ArrayList<ZePFRClient> clients = new ArrayList<>();
+	private ArrayList<Path> workingDirs = new ArrayList<>();
+	private HashMap<ZePFRClient, PFRStatsChannel> statsChannels = new HashMap<>();
+	private Thread outputDrainer = null;
+
+	/*************************************************************
+	 * Creates a new pool.
+	 *
+	 * @param test the test to execute
+	 * @param processCount the number of processes to start
+	 *************************************************************/
+	public PFRLocalProcessPool(PFRTest test, int processCount) {
+		this.test = test;
+		this.processCount = Math.max(1, processCount);
+	}
+
+	/*************************************************************
+	 * Starts the processes, waits until they are reachable and
+	 * starts the test in the processes which could be started.
+	 *
+	 * @return the clients connected to the processes which could
+	 * be started
+	 *************************************************************/
+	public ArrayList<ZePFRClient> start() throws InterruptedException {
+
+		int cpus = Runtime.getRuntime().availableProcessors();
+		int cpusPerProcess = Math.max(1, cpus / processCount);
+		boolean canPin = (cpus >= processCount) && isTasksetAvailable();
+
+		// spread 70% of the RAM over the processes, keeps some for the controller
+		double ramPercent = Math.max(1, 70.0 / processCount);
+
+		String classpath = toAbsoluteClasspath(System.getProperty("java.class.path"));
+		// use the same JVM as the controller
+		String javaBin = Paths.get(System.getProperty("java.home"), "bin", "java").toString();
+		Path baseDir = Paths.get(CLIArgs.pfr_target.getValue().getAsString(), "processes").toAbsolutePath();
+
+		HashMap<String, String> env = new HashMap<>();
+		env.put("CLASSPATH", classpath);
+
+		PFRClassDataSharing cds = PFRClassDataSharing.forClasspath(classpath);
+		
+		int port = PFRConfig.port() + 1;
+
+		for(int i = 0; i < processCount; i++) {
+
+			//----------------------------------
+			// Find free Port
+			while(ZePFRServer.isPortInUse(port)) { port++; }
+
+			//----------------------------------
+			// Create Command
+			// the processes wait as standby processes until the 
+			// number of started processes is known
+			ArrayList<String> command = new ArrayList<>();
+
+			if(canPin) {
+				int firstCpu = i * cpusPerProcess;
+				int lastCpu = firstCpu + cpusPerProcess - 1;
+				command.add("taskset");
+				command.add("-c");
+				command.add(firstCpu + "-" + lastCpu);
+			}
+
+			Path workingDir = baseDir.resolve("process-" + i);
+			
+			command.add(javaBin);
+			
+			String cdsArgs = cds.makeJVMArgs().trim();
+			if( !cdsArgs.isEmpty() ) { command.add(cdsArgs); }
+			
+			command.add("-XX:ActiveProcessorCount=" + cpusPerProcess);
+			command.add("-XX:MaxRAMPercentage=" + String.format(Locale.ROOT, "%.1f", ramPercent));
+			command.add(makeJVMArg(CLIArgs.pfr_mode, "agentborne"));
+			command.add(makeJVMArg(CLIArgs.pfr_port, ""+port));
+			command.add(makeJVMArg(CLIArgs.pfr_standbyProcess, "true"));
+			command.add(makeJVMArg(CLIArgs.pfr_target, workingDir.resolve("target").toString()));
+			command.add(makeJVMArg(CLIArgs.pfr_logfile, workingDir.resolve("performator.log").toString()));
+			command.add(Main.class.getName());
+
+			logger.info("Start local process: " + String.join(" ", command));
+
+			//----------------------------------
+			// Start Process
+			PFRCLIExecutor executor = new PFRCLIExecutor(workingDir.toString(), command, env);
+			executor.setDaemon(true);
+			executor.execute();
+			cds.processStarted(executor);
+
+			executors.add(executor);
+			clients.add(new ZePFRClient(new PFRAgent("localhost", port), test));
+			workingDirs.add(workingDir);
+
+			port++;
+		}
+
+		startOutputDrainer();
+
+		return activate(awaitReachable());
+	}
+
+	/*************************************************************
+	 * Waits until the processes answer to status requests.
+	 *************************************************************/
+	private ArrayList<ZePFRClient> awaitReachable() throws InterruptedException {
+
+		ArrayList<ZePFRClient> reachable = new ArrayList<>();
+		long deadline = System.currentTimeMillis() + STARTUP_TIMEOUT_MILLIS;
+
+		for(int i = 0; i < clients.size(); i++) {
+
+			ZePFRClient client = clients.get(i);
+			PFRCLIExecutor executor = executors.get(i);
+
+			while(System.currentTimeMillis() < deadline && executor.checkKeepExecuting()) {
+
+				if(ZePFRServer.isPortInUse(client.getPort()) && client.getStatus() != null) {
+					reachable.add(client);
+					break;
+				}
+				Thread.sleep(200);
+			}
+
+			if( !reachable.contains(client) ) {
+				logger.warn("Local process on port "+client.getPort()+" could not be reached and is ignored.");
+				executor.kill();
+			}
+		}
+
+		logger.info("Local processes started: "+reachable.size()+" of "+processCount);
+		return reachable;
+	}
+
+	/*************************************************************
+	 * Starts the test in the reachable processes. The load is 
+	 * distributed over the processes which have been started, so
+	 * processes that could not be started do not take a share.
+	 *
+	 * @return the clients of the processes running the test
+	 *************************************************************/
+	private ArrayList<ZePFRClient> activate(ArrayList<ZePFRClient> reachable) {
+
+		boolean useStatsChannel = CLIArgs.pfr_statsChannel.getValue().getAsBoolean();
+		
+		ArrayList<ZePFRClient> activated = new ArrayList<>();
+		
+		for(int i = 0; i < reachable.size(); i++) {
+			
+			ZePFRClient client = reachable.get(i);
+			Path workingDir = workingDirs.get(clients.indexOf(client));
+			
+			//----------------------------------
+			// Stats Channel
+			PFRStatsChannel channel = null;
+			if(useStatsChannel) {
+				try {
+					channel = PFRStatsChannel.create(workingDir.resolve(PFRStatsChannel.FILE_NAME), PFRStatsChannel.DEFAULT_CAPACITY);
+				}catch(IOException e) {
+					logger.warn("Could not create stats channel, statistics are sent over HTTPS: "+e.getMessage());
+				}
+			}
+			
+			//----------------------------------
+			// Activate
+			RemoteRequest request = new RemoteRequest(client, Command.activate, null)
+					.param(CLIArgs.pfr_test.toString(), test.getClass().getName())
+					.param(CLIArgs.pfr_agentIndex.toString(), ""+i)
+					.param(CLIArgs.pfr_agentTotal.toString(), ""+reachable.size())
+					.param(CLIArgs.pfr_agentIsData.toString(), "false");
+			
+			if(channel != null) {
+				request.param(CLIArgs.pfr_statsChannelFile.toString(), channel.getFile().toString());
+			}
+			
+			RemoteResponse response = request.send(Duration.ofSeconds(10));
+			
+			if(response == null || !response.success()) {
+				// the share of the process is lost, the others have been started already
+				logger.warn("Local process on port "+client.getPort()+" could not be activated, its share of the load is not executed.");
+				if(channel != null) { channel.close(true); }
+				continue;
+			}
+			
+			activated.add(client);
+			if(channel != null) { statsChannels.put(client, channel); }
+		}
+		
+		return activated;
+	}
+
+	/*************************************************************
+	 * Reads the output of the processes so their output buffers
+	 * do not fill up. The output is logged on debug level, every
+	 * process writes its own log file.
+	 *************************************************************/
+	private void startOutputDrainer() {
+
+		outputDrainer = new Thread(new Runnable() {
+			@Override
+			public void run() {
+
+				boolean isAnyRunning = true;
+				while(isAnyRunning && !Thread.currentThread().isInterrupted()) {
+
+					isAnyRunning = false;
+					for(int i = 0; i < executors.size(); i++) {
+						PFRCLIExecutor executor = executors.get(i);
+						PFRReadableOutputStream out = executor.getOutputStream();
+
+						while(out.hasLine()) {
+							String line = out.readLine();
+							if(logger.isDebugEnabled()) {
+								logger.debug("[process-"+i+"] "+line);
+							}
+						}
+
+						isAnyRunning |= executor.isAlive();
+					}
+
+					try {
+						Thread.sleep(500);
+					}catch(InterruptedException e) {
+						Thread.currentThread().interrupt(); // restore interrupt flag
+					}
+				}
+			}
+		});
+
+		outputDrainer.setName("LocalProcessOutput");
+		outputDrainer.setDaemon(true);
+		outputDrainer.start();
+	}
+
+	/*************************************************************
+	 * Returns the stats channels of the processes, empty if the
+	 * statistics are sent over HTTPS.
+	 *************************************************************/
+	public HashMap<ZePFRClient, PFRStatsChannel> getStatsChannels() {
+		return statsChannels;
+	}
+	
+	/*************************************************************
+	 * Asks the processes to kill themselves and destroys the ones
+	 * that are still alive after a timeout.
+	 *************************************************************/
+	public void terminate() {
+
+		for(ZePFRClient client : clients) {
+			if(ZePFRServer.isPortInUse(client.getPort())) {
+				client.kill();
+			}
+		}
+
+		long deadline = System.currentTimeMillis() + KILL_TIMEOUT_MILLIS;
+		for(PFRCLIExecutor executor : executors) {
+			try {
+				executor.join(Math.max(1, deadline - System.currentTimeMillis()));
+			}catch(InterruptedException e) {
+				Thread.currentThread().interrupt(); // restore interrupt flag
+			}
+
+			if(executor.isAlive()) {
+				executor.kill();
+			}
+		}
+
+		if(outputDrainer != null) {
+			outputDrainer.interrupt();
+		}
+		
+		for(PFRStatsChannel channel : statsChannels.values()) {
+			channel.close(true);
+		}
+	}
+
+	/*************************************************************
+	 * Returns true if the taskset command can be used to pin
+	 * processes to CPUs.
+	 *************************************************************/
+	private static boolean isTasksetAvailable() {
+
+		if( !System.getProperty("os.name", "").toLowerCase().contains("linux") ) {
+			return false;
+		}
+
+		return new File("/usr/bin/taskset").canExecute()
+			|| new File("/bin/taskset").canExecute();
+	}
+
+	/*************************************************************
+	 * Returns a JVM argument, e.g. "-Dpfr_agentIndex=1".
+	 *************************************************************/
+	private static String makeJVMArg(CLIArgs arg, String value) {
+		return "-D" + arg.toString() + "=" + value;
+	}
+
+	/*************************************************************
+	 * Makes all entries of the classpath absolute, as the processes
+	 * are started in another working directory.
+	 *************************************************************/
+	static String toAbsoluteClasspath(String classpath) {
+
+		StringBuilder builder = new StringBuilder();
+		for(String entry : classpath.split(File.pathSeparator)) {
+			if(entry.isBlank()) { continue; }
+			if(builder.length() > 0) { builder.append(File.pathSeparator); }
+			builder.append(new File(entry).getAbsolutePath());
+		}
+
+		return builder.toString();
+	}
+}
@@ -0,0 +1,439 @@
+package com.performetriks.performator.distribute;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.performetriks.performator.cli.PFRReadableOutputStream;
+
+/**************************************************************************************************************
+ * Reads the output of an agentborne process on the agent and prepares it to be streamed to the controller.
+ *
+ * <ul>
+ * <li>The output is read as soon as lines are written, so the line buffer of the process output does not
+ *     overflow.</li>
+ * <li>Lines are counted by log level (ERROR, WARN, INFO, DEBUG, TRACE).</li>
+ * <li>Repeated lines, equal after removing numbers, are forwarded up to 5 times per 10 seconds, the
+ *     remaining are summarized with a count.</li>
+ * <li>The number of lines per second is limited, ERROR lines are always forwarded.</li>
+ * <li>Lines are collected into chunks which are GZIP compressed. At most 8 MB of compressed chunks are
+ *     kept, if the controller does not fetch them, the oldest chunks are dropped.</li>
+ * </ul>
+ *
+ * The controller fetches the chunks with the command logstream, which waits on the agent until a chunk is
+ * available, so the controller has always one request open instead of polling.
+ *
+ * Copyright Owner: Performetriks GmbH, Switzerland
+ * License: Eclipse Public License v2.0
+ *
+ * @author Reto Scheiwiller
+ *
+ **************************************************************************************************************/
+public class PFRLogForwarder {
+
+	private static final Logger logger = LoggerFactory.getLogger(PFRLogForwarder.class);
+
+	public static final String FIELD_CHUNKS = "chunks";
+	public static final String FIELD_LEVELS = "levels";
+	public static final String FIELD_DROPPED = "dropped";
+	public static final String FIELD_SUPPRESSED = "suppressed";
+	public static final String FIELD_DONE = "done";
+
+	private static final String[] LEVELS = { "ERROR", "WARN", "INFO", "DEBUG", "TRACE" };
+	private static final Pattern PATTERN_LEVEL = Pattern.compile("\\b(ERROR|WARN|INFO|DEBUG|TRACE)\\b");
+	private static final Pattern PATTERN_NUMBERS = Pattern.compile("\\d+");
+
+	private static final long CHUNK_INTERVAL_MILLIS = 1000;
+	private static final int CHUNK_MAX_BYTES = 64 * 1024;
+	private static final long MAX_PENDING_BYTES = 8 * 1024 * 1024;
+
+	private static final long REPEAT_WINDOW_MILLIS = 10_000;
+	private static final int REPEAT_MAX_LINES = 5;
+
+	private PFRReadableOutputStream source;
+	private int maxLinesPerSecond;
+	private volatile Thread readerThread = null;
+	private volatile boolean isStopped = false;
+
+	// compressed chunks and the number of lines in them
+	private final ArrayDeque<byte[]> chunks = new ArrayDeque<>();
+	private final ArrayDeque<Integer> chunkLineCounts = new ArrayDeque<>();
+	private long pendingBytes = 0;
+
+	// counters since the last poll
+	private final long[] levelCounts = new long[LEVELS.length];
+	private long droppedCount = 0;
+	private long suppressedCount = 0;
+
+	// current chunk, only used by the reader thread
+	private StringBuilder chunk = new StringBuilder();
+	private int chunkLines = 0;
+	private long chunkStartMillis = System.currentTimeMillis();
+
+	// rate limit and repeated lines, only used by the reader thread
+	private long secondStartMillis = 0;
+	private int linesThisSecond = 0;
+	private long repeatWindowStartMillis = System.currentTimeMillis();
+	private HashMap<String, Integer> repeatCounts = new HashMap<>();
+
+	/*************************************************************
+	 * Creates a forwarder for the output of a process.
+	 *
+	 * @param source the output of the process
+	 * @param maxLinesPerSecond maximum lines forwarded per second
+	 *************************************************************/
+	public PFRLogForwarder(PFRReadableOutputStream source, int maxLinesPerSecond) {
+		this.source = source;
+		this.maxLinesPerSecond = Math.max(1, maxLinesPerSecond);
+	}
+
+	/*************************************************************
+	 * Starts reading the output in a background thread.
+	 *************************************************************/
+	public synchronized void start() {
+
+		if(readerThread != null) { return; }
+
+		readerThread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+
+				ArrayList<String> lines = new ArrayList<>();
+
+				while( !isStopped && !source.isClosed() ) {
+					try {
+						// wakes up on new lines or when the chunk has to be ended
+						long chunkRemaining = CHUNK_INTERVAL_MILLIS - (System.currentTimeMillis() - chunkStartMillis);
+						source.awaitLine(Math.max(1, chunkRemaining));
+					}catch(InterruptedException e) {
+						// read a last time before stopping
+						isStopped = true;
+					}
+
+					readLines(lines, false);
+				}
+
+				// lines written after the last read
+				readLines(lines, true);
+			}
+		});
+
+		readerThread.setName("PFRLogForwarder");
+		readerThread.setDaemon(true);
+		readerThread.start();
+	}
+
+	/*************************************************************
+	 * Reads the available lines and ends the chunk if the interval
+	 * is over or if this is the last read.
+	 *************************************************************/
+	private void readLines(ArrayList<String> lines, boolean isLast) {
+
+		try {
+			while(source.drainLines(lines, 1000) > 0) {
+				for(String line : lines) {
+					addLine(line);
+				}
+				lines.clear();
+			}
+
+			if(isLast || System.currentTimeMillis() - chunkStartMillis >= CHUNK_INTERVAL_MILLIS) {
+				endChunk(isLast);
+			}
+		}catch(Throwable e) {
+			lines.clear();
+			logger.warn("Error while reading process log: "+e.getMessage(), e);
+		}
+	}
+
+	/*************************************************************
+	 * Stops reading, the remaining lines are added to a last chunk.
+	 *************************************************************/
+	public void stop() {
+
+		isStopped = true;
+
+		Thread reader = readerThread;
+		if(reader != null) {
+			reader.interrupt();
+			try {
+				reader.join(2000);
+			}catch(InterruptedException e) {
+				Thread.currentThread().interrupt(); // restore interrupt flag
+			}
+		}
+
+		// wake up waiting polls
+		synchronized(this) {
+			this.notifyAll();
+		}
+	}
+
+	/*************************************************************
+	 * Counts, filters and adds a line to the current chunk.
+	 *************************************************************/
+	private void addLine(String line) {
+
+		long now = System.currentTimeMillis();
+
+		//----------------------------------
+		// Count Level
+		boolean isError = false;
+		Matcher matcher = PATTERN_LEVEL.matcher(line);
+		if(matcher.find()) {
+			String level = matcher.group(1);
+			for(int i = 0; i < LEVELS.length; i++) {
+				if(LEVELS[i].equals(level)) {
+					synchronized(this) { levelCounts[i]++; }
+					isError = (i == 0);
+					break;
+				}
+			}
+		}
+
+		//----------------------------------
+		// Repeated Lines
+		if(now - repeatWindowStartMillis >= REPEAT_WINDOW_MILLIS || repeatCounts.size() >= 10_000) {
+			appendRepeatSummary();
+			repeatCounts.clear();
+			repeatWindowStartMillis = now;
+		}
+
+		String key = PATTERN_NUMBERS.matcher(line).replaceAll("#");
+		int repeated = repeatCounts.merge(key, 1, Integer::sum);
+		if(repeated > REPEAT_MAX_LINES) {
+			synchronized(this) { suppressedCount++; }
+			return;
+		}
+
+		//----------------------------------
+		// Rate Limit
+		if(now - secondStartMillis >= 1000) {
+			secondStartMillis = now;
+			linesThisSecond = 0;
+		}
+
+		if( !isError && linesThisSecond >= maxLinesPerSecond) {
+			synchronized(this) { droppedCount++; }
+			return;
+		}
+		linesThisSecond++;
+
+		//----------------------------------
+		// Add to Chunk
+		chunk.append(line).append('\n');
+		chunkLines++;
+
+		if(chunk.length() >= CHUNK_MAX_BYTES) {
+			endChunk(false);
+		}
+	}
+
+	/*************************************************************
+	 * Adds a line for every line that has been suppressed in the
+	 * last window.
+	 *************************************************************/
+	private void appendRepeatSummary() {
+
+		for(Map.Entry<String, Integer> entry : repeatCounts.entrySet()) {
+			int suppressed = entry.getValue() - REPEAT_MAX_LINES;
+			if(suppressed > 0) {
+				chunk.append("[... repeated ").append(suppressed).append(" more times: ")
+					 .append(entry.getKey()).append(" ...]\n");
+				chunkLines++;
+			}
+		}
+	}
+
+	/*************************************************************
+	 * Compresses the current chunk and adds it to the pending
+	 * chunks.
+	 * 
+	 * @param isLast true to add the summary of the repeated lines
+	 *************************************************************/
+	private void endChunk(boolean isLast) {
+
+		if(isLast) { appendRepeatSummary(); repeatCounts.clear(); }
+
+		chunkStartMillis = System.currentTimeMillis();
+		if(chunkLines == 0) { return; }
+
+		byte[] compressed = compress(chunk.toString());
+		int lines = chunkLines;
+
+		chunk.setLength(0);
+		chunkLines = 0;
+
+		synchronized(this) {
+
+			chunks.add(compressed);
+			chunkLineCounts.add(lines);
+			pendingBytes += compressed.length;
+
+			//----------------------------------
+			// Limit Memory
+			while(pendingBytes > MAX_PENDING_BYTES && chunks.size() > 1) {
+				pendingBytes -= chunks.poll().length;
+				droppedCount += chunkLineCounts.poll();
+			}
+
+			this.notifyAll();
+		}
+	}
+
+	/*************************************************************
+	 * Waits until chunks are available or the timeout is reached
+	 * and returns the chunks and counters since the last call.
+	 *
+	 * <pre>
+	 * {
+	 *   "chunks": ["base64 of gzip", ...],
+	 *   "levels": {"ERROR": 0, "WARN": 2, ...},
+	 *   "dropped": 0,
+	 *   "suppressed": 12,
+	 *   "done": false
+	 * }
+	 * </pre>
+	 *
+	 * @param timeoutMillis maximum time to wait
+	 *************************************************************/
+	public synchronized JsonObject poll(long timeoutMillis) {
+
+		long deadline = System.currentTimeMillis() + timeoutMillis;
+		try {
+			while(chunks.isEmpty() && !isStopped) {
+				long remaining = deadline - System.currentTimeMillis();
+				if(remaining <= 0) { break; }
+				this.wait(remaining);
+			}
+		}catch(InterruptedException e) {
+			Thread.currentThread().interrupt(); // restore interrupt flag
+		}
+
+		JsonObject result = toResult();
+
+		chunks.clear();
+		chunkLineCounts.clear();
+		pendingBytes = 0;
+		
+		Arrays.fill(levelCounts, 0);
+		droppedCount = 0;
+		suppressedCount = 0;
+
+		return result;
+	}
+	
+	/*************************************************************
+	 * Returns the pending chunks and counters in the same format
+	 * as poll(), without taking them. Used to show the log without
+	 * interfering with the controller fetching it.
+	 *************************************************************/
+	public synchronized JsonObject peek() {
+		return toResult();
+	}
+	
+	/*************************************************************
+	 * Creates the result of poll() and peek().
+	 *************************************************************/
+	private JsonObject toResult() {
+
+		JsonObject result = new JsonObject();
+
+		JsonArray chunkArray = new JsonArray();
+		Base64.Encoder encoder = Base64.getEncoder();
+		for(byte[] compressed : chunks) {
+			chunkArray.add(encoder.encodeToString(compressed));
+		}
+		result.add(FIELD_CHUNKS, chunkArray);
+
+		JsonObject levels = new JsonObject();
+		for(int i = 0; i < LEVELS.length; i++) {
+			levels.addProperty(LEVELS[i], levelCounts[i]);
+		}
+		result.add(FIELD_LEVELS, levels);
+
+		result.addProperty(FIELD_DROPPED, droppedCount);
+		result.addProperty(FIELD_SUPPRESSED, suppressedCount);
+
+		Thread reader = readerThread;
+		result.addProperty(FIELD_DONE, isStopped && (reader == null || !reader.isAlive()) );
+
+		return result;
+	}
+
+	/*************************************************************
+	 * Returns true if the forwarder has been stopped and all
+	 * chunks have been fetched.
+	 *************************************************************/
+	public synchronized boolean isDone() {
+		return isStopped && chunks.isEmpty();
+	}
+
+	/*************************************************************
+	 * Returns the lines of the chunks of a result of poll().
+	 *************************************************************/
+	public static ArrayList<String> decodeLines(JsonObject polled) {
+
+		ArrayList<String> lines = new ArrayList<>();
+		if(polled == null || !polled.has(FIELD_CHUNKS)) { return lines; }
+
+		Base64.Decoder decoder = Base64.getDecoder();
+		for(JsonElement element : polled.getAsJsonArray(FIELD_CHUNKS)) {
+			String text = decompress(decoder.decode(element.getAsString()));
+			Iterator<String> iterator = text.lines().iterator();
+			while(iterator.hasNext()) {
+				lines.add(iterator.next());
+			}
+		}
+
+		return lines;
+	}
+
+	/*************************************************************
+	 *
+	 *************************************************************/
+	private static byte[] compress(String text) {
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream(text.length() / 4 + 64);
+		try(GZIPOutputStream gzip = new GZIPOutputStream(out)) {
+			gzip.write(text.getBytes(StandardCharsets.UTF_8));
+		}catch(IOException e) {
+			// not thrown by in-memory streams
+			logger.warn("Could not compress log chunk: "+e.getMessage());
+		}
+
+		return out.toByteArray();
+	}
+
+	/*************************************************************
+	 *
+	 *************************************************************/
+	private static String decompress(byte[] compressed) {
+
+		try(GZIPInputStream gzip = new GZIPInputStream(new ByteArrayInputStream(compressed))) {
+			return new String(gzip.readAllBytes(), StandardCharsets.UTF_8);
+		}catch(IOException e) {
+			logger.warn("Could not decompress log chunk: "+e.getMessage());
+			return "";
+		}
+	}
+
+}
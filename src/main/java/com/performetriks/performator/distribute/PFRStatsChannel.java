@@ -0,0 +1,339 @@
+package com.performetriks.performator.distribute;
+
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.function.Supplier;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonParser;
+
+/**************************************************************************************************************
+ * A ring buffer in a memory mapped file, used to transfer the statistics of an agentborne process to the
+ * agent or local controller running on the same host, without the round trip over HTTPS.
+ *
+ * The channel has exactly one writer (the agentborne process) and one reader (the process that created
+ * the channel). The positions are written with release and read with acquire semantics, so no locks and
+ * no system calls are needed to exchange records.
+ *
+ * <pre>
+ * Layout:
+ *   0   int  magic
+ *   4   int  version
+ *   8   int  capacity of the data region in bytes
+ *   64  long write position (total bytes written, only changed by the writer)
+ *   128 long read position (total bytes read, only changed by the reader)
+ *   192 data region, records are stored as [int length][bytes], a length of -1 marks
+ *       that the rest of the region is skipped and the next record starts at the beginning.
+ * </pre>
+ *
+ * Copyright Owner: Performetriks GmbH, Switzerland
+ * License: Eclipse Public License v2.0
+ *
+ * @author Reto Scheiwiller
+ *
+ **************************************************************************************************************/
+public class PFRStatsChannel {
+
+	private static final Logger logger = LoggerFactory.getLogger(PFRStatsChannel.class);
+
+	public static final String FILE_NAME = "stats.channel";
+	public static final int DEFAULT_CAPACITY = 32 * 1024 * 1024;
+
+	private static final int MAGIC = 0x50465253; // "PFRS"
+	private static final int VERSION = 1;
+
+	private static final int OFFSET_MAGIC = 0;
+	private static final int OFFSET_VERSION = 4;
+	private static final int OFFSET_CAPACITY = 8;
+	private static final int OFFSET_WRITE_POS = 64;
+	private static final int OFFSET_READ_POS = 128;
+	private static final int HEADER_SIZE = 192;
+
+	private static final int MARKER_WRAP = -1;
+
+	private static final VarHandle LONG_VIEW = MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.nativeOrder());
+
+	private Path file;
+	private MappedByteBuffer buffer;
+	private int capacity;
+
+	// records that did not fit into the buffer, written on the next call of flush()
+	private ArrayDeque<byte[]> pending = new ArrayDeque<>();
+	private boolean isFullWarned = false;
+
+	private Thread writerThread = null;
+	private Supplier<JsonArray> writerSource = null;
+
+	/*************************************************************
+	 * Creates a new channel file, or resets an existing one.
+	 * Used by the reading side before the writing process is
+	 * started.
+	 *
+	 * @param file the path of the file
+	 * @param capacity size of the data region in bytes
+	 *************************************************************/
+	public static PFRStatsChannel create(Path file, int capacity) throws IOException {
+
+		Files.createDirectories(file.toAbsolutePath().getParent());
+		Files.deleteIfExists(file);
+
+		PFRStatsChannel channel = new PFRStatsChannel(file, HEADER_SIZE + capacity, true);
+
+		channel.capacity = capacity;
+		channel.buffer.putInt(OFFSET_CAPACITY, capacity);
+		channel.buffer.putInt(OFFSET_VERSION, VERSION);
+		LONG_VIEW.setRelease(channel.buffer, OFFSET_WRITE_POS, 0L);
+		LONG_VIEW.setRelease(channel.buffer, OFFSET_READ_POS, 0L);
+		channel.buffer.putInt(OFFSET_MAGIC, MAGIC);
+		channel.buffer.force();
+
+		return channel;
+	}
+
+	/*************************************************************
+	 * Opens a channel file that has been created with create().
+	 * Used by the writing side.
+	 *
+	 * @param file the path of the file
+	 *************************************************************/
+	public static PFRStatsChannel open(Path file) throws IOException {
+
+		PFRStatsChannel channel = new PFRStatsChannel(file, Files.size(file), false);
+
+		if(channel.buffer.getInt(OFFSET_MAGIC) != MAGIC
+		|| channel.buffer.getInt(OFFSET_VERSION) != VERSION) {
+			throw new IOException("File is not a stats channel or has an unsupported version: "+file);
+		}
+
+		channel.capacity = channel.buffer.getInt(OFFSET_CAPACITY);
+		return channel;
+	}
+
+	/*************************************************************
+	 *
+	 *************************************************************/
+	private PFRStatsChannel(Path file, long size, boolean create) throws IOException {
+
+		this.file = file;
+
+		StandardOpenOption[] options = create
+				? new StandardOpenOption[] {StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE}
+				: new StandardOpenOption[] {StandardOpenOption.READ, StandardOpenOption.WRITE};
+
+		// the mapping stays valid after the file channel is closed
+		try(FileChannel fileChannel = FileChannel.open(file, options)) {
+			buffer = fileChannel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+		}
+	}
+
+	/*************************************************************
+	 * Returns the path of the channel file.
+	 *************************************************************/
+	public Path getFile() {
+		return file;
+	}
+
+	/*************************************************************
+	 * Writes a record to the buffer.
+	 *
+	 * @return false if there is not enough free space, the reader
+	 * has to read first.
+	 *************************************************************/
+	private boolean write(byte[] record) {
+
+		int needed = 4 + record.length;
+		if(needed > capacity / 2) {
+			logger.warn("Record of "+record.length+" bytes is too large for the stats channel and is dropped.");
+			return true;
+		}
+
+		long writePos = (long) LONG_VIEW.getAcquire(buffer, OFFSET_WRITE_POS);
+		long readPos = (long) LONG_VIEW.getAcquire(buffer, OFFSET_READ_POS);
+
+		int offset = (int) (writePos % capacity);
+		int remaining = capacity - offset;
+		int padding = (remaining < needed) ? remaining : 0;
+
+		if(writePos + padding + needed - readPos > capacity) {
+			return false;
+		}
+
+		//----------------------------------
+		// Skip rest of the region
+		if(padding > 0) {
+			if(remaining >= 4) {
+				buffer.putInt(HEADER_SIZE + offset, MARKER_WRAP);
+			}
+			writePos += padding;
+			offset = 0;
+		}
+
+		//----------------------------------
+		// Write Record
+		buffer.putInt(HEADER_SIZE + offset, record.length);
+		buffer.put(HEADER_SIZE + offset + 4, record);
+
+		LONG_VIEW.setRelease(buffer, OFFSET_WRITE_POS, writePos + needed);
+
+		return true;
+	}
+
+	/*************************************************************
+	 * Writes the given records as UTF-8 JSON. Records that do not
+	 * fit are kept and written on the next call.
+	 *
+	 * @return true if all records have been written
+	 *************************************************************/
+	public synchronized boolean write(JsonArray records) {
+
+		if(records != null) {
+			for(JsonElement record : records) {
+				pending.add(record.toString().getBytes(StandardCharsets.UTF_8));
+			}
+		}
+
+		while( !pending.isEmpty() ) {
+			if( !write(pending.peek()) ) {
+				if(!isFullWarned) {
+					logger.warn("Stats channel is full, records are kept until the reader catches up: "+file);
+					isFullWarned = true;
+				}
+				return false;
+			}
+			pending.poll();
+		}
+
+		isFullWarned = false;
+		return true;
+	}
+
+	/*************************************************************
+	 * Reads all records that have been written since the last
+	 * read and parses them as JSON.
+	 *
+	 * @return array of records, never null
+	 *************************************************************/
+	public synchronized JsonArray pollRecordsJson() {
+
+		JsonArray result = new JsonArray();
+
+		long readPos = (long) LONG_VIEW.getAcquire(buffer, OFFSET_READ_POS);
+		long writePos = (long) LONG_VIEW.getAcquire(buffer, OFFSET_WRITE_POS);
+
+		while(readPos < writePos) {
+
+			int offset = (int) (readPos % capacity);
+			int remaining = capacity - offset;
+
+			//----------------------------------
+			// Skip rest of the region
+			if(remaining < 4) {
+				readPos += remaining;
+				continue;
+			}
+
+			int length = buffer.getInt(HEADER_SIZE + offset);
+			if(length == MARKER_WRAP) {
+				readPos += remaining;
+				continue;
+			}
+
+			//----------------------------------
+			// Read Record
+			byte[] record = new byte[length];
+			buffer.get(HEADER_SIZE + offset + 4, record);
+			readPos += 4 + length;
+
+			try {
+				result.add(JsonParser.parseString(new String(record, StandardCharsets.UTF_8)));
+			}catch(Exception e) {
+				logger.warn("Could not parse record from stats channel: "+e.getMessage());
+			}
+		}
+
+		LONG_VIEW.setRelease(buffer, OFFSET_READ_POS, readPos);
+
+		return result;
+	}
+
+	/*************************************************************
+	 * Starts a thread that writes the records of the source into
+	 * the channel on the given interval, until the process ends.
+	 *
+	 * @param source returns the records to write, e.g. the poll
+	 * method of a HSRReporterPeekPoll
+	 * @param intervalMillis interval between writes
+	 *************************************************************/
+	public synchronized void startWriter(Supplier<JsonArray> source, long intervalMillis) {
+
+		if(writerThread != null) { return; }
+
+		writerSource = source;
+
+		writerThread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				while( !Thread.currentThread().isInterrupted() ) {
+					try {
+						Thread.sleep(intervalMillis);
+						flush();
+					}catch(InterruptedException e) {
+						break;
+					}catch(Throwable e) {
+						logger.warn("Error while writing to stats channel: " + e.getMessage(), e);
+					}
+				}
+			}
+		});
+
+		writerThread.setName("PFRStatsChannelWriter");
+		writerThread.setDaemon(true);
+		writerThread.start();
+	}
+
+	/*************************************************************
+	 * Writes the current records of the writer source to the
+	 * channel, called on the end of a test so the reader gets the
+	 * last records without waiting for the next interval.
+	 *************************************************************/
+	public synchronized void flush() {
+		if(writerSource != null) {
+			write(writerSource.get());
+		}
+	}
+
+	/*************************************************************
+	 * Stops the writer thread and deletes the file if this side
+	 * created it.
+	 *************************************************************/
+	public synchronized void close(boolean deleteFile) {
+
+		if(writerThread != null) {
+			writerThread.interrupt();
+			writerThread = null;
+		}
+
+		if(deleteFile) {
+			try {
+				Files.deleteIfExists(file);
+			}catch(IOException e) {
+				// might still be mapped on some platforms, is overwritten with the next test
+				logger.debug("Could not delete stats channel file: "+file);
+			}
+		}
+	}
+
+}
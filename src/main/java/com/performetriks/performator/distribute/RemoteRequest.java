@@ -17,6 +17,7 @@ import java.time.Duration;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.Flow;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.stream.Collectors;
 
@@ -29,6 +30,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.google.gson.JsonObject;
+import com.performetriks.performator.base.PFRInternalMetrics;
 import com.performetriks.performator.base.PFRTest;
 import com.performetriks.performator.distribute.ZePFRServer.Command;
 
@@ -174,7 +176,12 @@ public class RemoteRequest{
 				try {
 					try {
 
+						if(monitoredPublisher != null) {
+							client.getAgent().isUploadSuccessful(false);
+						}
+						
 						HttpRequest.Builder requestBuilder = prepareRequestBuilder(Duration.ofSeconds(60));
+						long startNanos = System.nanoTime();
 						
 						CompletableFuture<HttpResponse<Void>> future = 
 								getHttpClient().sendAsync(requestBuilder.build(),
@@ -189,6 +196,11 @@ public class RemoteRequest{
 							}
 							Thread.sleep(100);
 						}
+						PFRInternalMetrics.addRemoteCall(command.name(), System.nanoTime() - startNanos);
+						
+						if(monitoredPublisher != null) {
+							client.getAgent().isUploadSuccessful(future.get().statusCode() == 200);
+						}
 						
 					} catch(InterruptedException e) {
 						Thread.currentThread().interrupt(); // restore interrupt flag
@@ -215,12 +227,20 @@ public class RemoteRequest{
 
 			HttpRequest.Builder requestBuilder = prepareRequestBuilder(requestTimeout);
 
+			long startNanos = System.nanoTime();
 			HttpResponse<String> response =
 					getHttpClient().send(requestBuilder.build(),
 							HttpResponse.BodyHandlers.ofString());
+			long latencyNanos = System.nanoTime() - startNanos;
 			//client.sendAsync(request, HttpResponse.BodyHandlers.discarding());
 			
-			return new RemoteResponse(response.body());
+			RemoteResponse remoteResponse = new RemoteResponse(response.body());
+			
+			// long-poll requests are held open by the server, not slow
+			latencyNanos -= TimeUnit.MILLISECONDS.toNanos(remoteResponse.getHoldMillis());
+			PFRInternalMetrics.addRemoteCall(command.name(), Math.max(0, latencyNanos));
+			
+			return remoteResponse;
 
 		} catch (Exception e) {
 			logger.error("Error on remote request.", e);
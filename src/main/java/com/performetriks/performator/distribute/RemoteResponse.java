@@ -22,6 +22,7 @@ public class RemoteResponse {
 	public static final String FIELD_PAYLOAD = "payload";
 	public static final String FIELD_MESSAGES = "messages";
 	public static final String FIELD_SUCCESS = "success";
+	public static final String FIELD_HOLD_MILLIS = "holdMillis";
 	
 	public static final String FIELD_STATUS_MEMORYTOTAL = "agentMemoryTotalMB";
 	public static final String FIELD_STATUS_MEMORYFREE = "agentMemoryFreeMB";
@@ -186,6 +187,23 @@ public class RemoteResponse {
 		}
 	}
 	
+	/********************************************************
+	 * Sets the time a long-poll request has been held open by
+	 * the server, excluded from the measured latency.
+	 ********************************************************/
+	public void setHoldMillis(long holdMillis) {
+		response.addProperty(FIELD_HOLD_MILLIS, holdMillis);
+	}
+	
+	/********************************************************
+	 * Returns the time the request has been held open by the
+	 * server, 0 if not a long-poll request.
+	 ********************************************************/
+	public long getHoldMillis() {
+		JsonElement holdMillis = response.get(FIELD_HOLD_MILLIS);
+		return (holdMillis == null || holdMillis.isJsonNull()) ? 0 : holdMillis.getAsLong();
+	}
+	
 	/********************************************************
 	 * Override the data in the given response object with
 	 * what this RemoteResponse instance contains.
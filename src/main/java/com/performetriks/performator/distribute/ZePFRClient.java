@@ -34,6 +34,12 @@ public class ZePFRClient {
 	static final String PARAM_TESTCLASS = "test";
 	static final String PARAM_TESTNAME = "testname";
 	static final String PARAM_DATASOURCENAME = "datasourceName";
+	static final String PARAM_TIMEOUT_MILLIS = "timeoutMillis";
+	static final String PARAM_LOAD_FACTOR = "loadFactor";
+	static final String PARAM_END = "end";
+	static final String PARAM_AWAIT_ITERATIONS = "awaitIterations";
+	static final String PARAM_EXECUTOR_INDEX = "executorIndex";
+	static final String PARAM_USERS = "users";
 	
 	private PFRAgent agent;
 	private String remoteHost;
@@ -100,6 +106,8 @@ public class ZePFRClient {
 			
 		}catch (Exception e) {
 	        logger.error("Issue while loading and transferring jar-file to remote agent.", e);
+	        getAgent().isUploadSuccessful(false);
+	        latch.countDown(); // the request has not been sent
 	    }
 			
 
@@ -194,6 +202,95 @@ public class ZePFRClient {
 						.send(Duration.ofSeconds(5));
 	}
 	
+	/**********************************************************************************
+	 * Waits on the remote side until the test has ended or the timeout is reached.
+	 * The response contains the test status like for ping().
+	 * 
+	 * @param timeoutMillis max time the remote side will wait
+	 **********************************************************************************/
+	public RemoteResponse testAwait(long timeoutMillis){
+		return new RemoteRequest(this, Command.testawait, test)
+						.param(PARAM_TIMEOUT_MILLIS, ""+timeoutMillis)
+						.send(Duration.ofMillis(timeoutMillis).plusSeconds(10));
+	}
+	
+	/**********************************************************************************
+	 * Waits on the remote side until log lines of the agentborne process are available
+	 * or the timeout is reached. Use PFRLogForwarder.decodeLines() to read the lines.
+	 * 
+	 * @param timeoutMillis max time the remote side will wait
+	 **********************************************************************************/
+	public RemoteResponse logStream(long timeoutMillis){
+		return new RemoteRequest(this, Command.logstream, test)
+						.param(PARAM_TIMEOUT_MILLIS, ""+timeoutMillis)
+						.send(Duration.ofMillis(timeoutMillis).plusSeconds(10));
+	}
+	
+	/**********************************************************************************
+	 * Changes the load of the running test by the given factor, relative to the load
+	 * that has been assigned to the agent when the test was started.
+	 * 
+	 * @param loadFactor e.g. 1.5 to execute 50% more load
+	 **********************************************************************************/
+	public RemoteResponse rebalance(double loadFactor){
+		return new RemoteRequest(this, Command.rebalance, test)
+						.param(PARAM_LOAD_FACTOR, ""+loadFactor)
+						.send(Duration.ofSeconds(10));
+	}
+	
+	/**********************************************************************************
+	 * Returns the warm-up state of the running test, see PFRWarmup.addStateTo().
+	 * 
+	 * @param end true to end the warm-up and start the measurement
+	 **********************************************************************************/
+	public RemoteResponse warmup(boolean end){
+		return new RemoteRequest(this, Command.warmup, test)
+						.param(PARAM_END, ""+end)
+						.send(Duration.ofSeconds(10));
+	}
+	
+	/**********************************************************************************
+	 * Waits on the remote side until the given amount of warm-up iterations has been
+	 * executed, the warm-up has ended or the timeout is reached. The response contains
+	 * the warm-up state like for warmup().
+	 * 
+	 * @param iterations the iterations to wait for
+	 * @param timeoutMillis max time the remote side will wait
+	 **********************************************************************************/
+	public RemoteResponse warmupAwait(long iterations, long timeoutMillis){
+		return new RemoteRequest(this, Command.warmup, test)
+						.param(PARAM_END, "false")
+						.param(PARAM_AWAIT_ITERATIONS, ""+iterations)
+						.param(PARAM_TIMEOUT_MILLIS, ""+timeoutMillis)
+						.send(Duration.ofMillis(timeoutMillis).plusSeconds(10));
+	}
+	
+	/**********************************************************************************
+	 * Sets the users of an adaptive executor of the running test to the share of the
+	 * load searched by the controller.
+	 * 
+	 * @param executorIndex the index of the executor in the test
+	 * @param users the share of users of this agent, before its load factor is applied
+	 **********************************************************************************/
+	public RemoteResponse followUsers(int executorIndex, double users){
+		return new RemoteRequest(this, Command.followusers, test)
+						.param(PARAM_EXECUTOR_INDEX, ""+executorIndex)
+						.param(PARAM_USERS, ""+users)
+						.send(Duration.ofSeconds(10));
+	}
+	
+	/**********************************************************************************
+	 * Returns the iterations an adaptive executor of the running test has executed
+	 * since the last call, as created by PFRIterationStats.toJson().
+	 * 
+	 * @param executorIndex the index of the executor in the test
+	 **********************************************************************************/
+	public RemoteResponse iterationStats(int executorIndex){
+		return new RemoteRequest(this, Command.iterationstats, test)
+						.param(PARAM_EXECUTOR_INDEX, ""+executorIndex)
+						.send(Duration.ofSeconds(10));
+	}
+	
 	/**********************************************************************************
 	 * 
 	 **********************************************************************************/
@@ -13,8 +13,11 @@ import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.security.KeyStore;
 import java.util.Comparator;
+import java.util.EnumSet;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.Map.Entry;
 import java.util.Properties;
 import java.util.concurrent.Executors;
 
@@ -32,9 +35,12 @@ import com.performetriks.performator.base.PFR;
 import com.performetriks.performator.base.PFRConfig;
 import com.performetriks.performator.base.PFRConfig.Mode;
 import com.performetriks.performator.base.PFRCoordinator;
+import com.performetriks.performator.base.PFRSaturationGuard;
+import com.performetriks.performator.base.PFRWarmup;
 import com.performetriks.performator.cli.PFRCLIExecutor;
 import com.performetriks.performator.cli.PFRReadableOutputStream;
 import com.performetriks.performator.data.PFRDataSource;
+import com.performetriks.performator.executors.PFRExec;
 import com.sun.net.httpserver.HttpExchange;
 import com.sun.net.httpserver.HttpHandler;
 import com.sun.net.httpserver.HttpsConfigurator;
@@ -58,6 +64,9 @@ import ch.qos.logback.classic.Level;
 public class ZePFRServer {
 	
 	private static final String JAR_FILE_NAME = "received.jar";
+	private static final long TESTAWAIT_MAX_WAIT_MILLIS = 30_000;
+	private static final long LOGSTREAM_MAX_WAIT_MILLIS = 30_000;
+	private static final long WARMUP_MAX_WAIT_MILLIS = 30_000;
 	private long lastPingTime = 0;
 	private long tempStartMillis = 0;
 	
@@ -74,6 +83,9 @@ public class ZePFRServer {
 	// Test Execution Variables
 	private Path jarFilePath = null;
 	private PFRCLIExecutor executor;
+	private volatile PFRLogForwarder logForwarder = null; // streams the log of the agentborne to the controller
+	private volatile PFRAgentborneStandby standby = null; // pre-started agentborne, used if -Dpfr_standby=true
+	private PFRStatsChannel statsChannel = null; // used instead of statspoll requests to the agentborne if not null
 	private Integer agentTotal = null;
 	private Integer agentIndex = null;
 	private boolean isDataAgent  = false; // set to true if this agent should manage shared data sources
@@ -114,8 +126,12 @@ public class ZePFRServer {
 		, kill
 		/** Returns if the status of the test. */
 		, teststatus
+		/** Blocks until the test has ended or the timeout is reached, then returns the test status. Counts as ping. */
+		, testawait
 		/** returns the current sysout log of the test process started by an agent. */
 		, processlog
+		/** Waits until log lines of the agentborne process are available and returns them compressed. */
+		, logstream
 		/** Returns the current statistics without clearing the list of stats. */
 		, statspeek
 		/** Returns the current statistics and empties the list of stats. */
@@ -124,8 +140,21 @@ public class ZePFRServer {
 		, datasourcenext
 		/** Returns true if there are more records. */
 		, datasourcehasnext
+		/** Changes the load of the running test by a factor, used to redistribute load between agents. */
+		, rebalance
+		/** Returns the warm-up state of the test, ends the warm-up if the parameter 'end' is true. */
+		, warmup
+		/** Sets the users of an adaptive executor to the share of the load searched by the controller. */
+		, followusers
+		/** Returns the iterations of an adaptive executor since the last call and resets them. */
+		, iterationstats
+		/** Makes a pre-started standby agentborne process load the test jar and start the test. */
+		, activate
 	}
 	
+	// commands that are held open, handled on their own threads
+	private static final EnumSet<Command> LONG_POLL_COMMANDS = EnumSet.of(Command.testawait, Command.logstream, Command.warmup);
+	
 	/**********************************************************************************
 	 * Starts a server to server used as an agent or a collector.
 	 * 
@@ -137,6 +166,7 @@ public class ZePFRServer {
 		agentbornePort = CLIArgs.pfr_agentbornePort.getValue().getAsInt();
 		
 		startServer();
+		startStandby();
 	}
 	
 	/**********************************************************************************
@@ -198,7 +228,13 @@ public class ZePFRServer {
 			server.createContext("/api", new HttpHandler() {
 				@Override
 				public void handle(HttpExchange exchange) throws IOException {
-					handleRequest(exchange);
+					
+					// long-polls get their own thread to not block the workers
+					if( isLongPoll(exchange) ) {
+						PFRExec.startVirtualThread(() -> handleRequest(exchange), "LongPoll");
+					}else {
+						handleRequest(exchange);
+					}
 				}
 			});
 			
@@ -229,6 +265,23 @@ public class ZePFRServer {
 		return host;
 	}
 
+	/**********************************************************************************
+	 * Returns true if the request is a command that is held open by this server until
+	 * an event occurs or a timeout is reached.
+	 **********************************************************************************/
+	private boolean isLongPoll(HttpExchange exchange) {
+		
+		Map<String, String> parameters = queryToMap(exchange.getRequestURI().getQuery());
+		if(parameters == null || !parameters.containsKey("command")) { return false; }
+		
+		try {
+			Command command = Command.valueOf(parameters.get("command").trim().toLowerCase());
+			return LONG_POLL_COMMANDS.contains(command);
+		}catch(IllegalArgumentException e) {
+			return false;
+		}
+	}
+	
 	/**********************************************************************************
 	 * Resets this server and all its related values and makes it available again.
 	 **********************************************************************************/
@@ -302,6 +355,7 @@ public class ZePFRServer {
 				case transferjar:		handleCommandStoreJar(bodyBytes, test);						break;
 				
 				case processlog:		handleCommandProcesslog(response); 							break;
+				case logstream:			handleCommandLogstream(parameters, response); 				break;
 				case statspeek:			handleCommandStatsPeekPoll(response, command); 				break;
 				case statspoll:			handleCommandStatsPeekPoll(response, command); 				break;
 				
@@ -320,6 +374,13 @@ public class ZePFRServer {
 					handleCommandTestStart(parameters, response);
 				break;
 				
+				case testawait:			handleCommandTestAwait(parameters, response);				break;
+				case rebalance:			handleCommandRebalance(parameters, response);				break;
+				case warmup:			handleCommandWarmup(parameters, response);					break;
+				case followusers:		handleCommandFollowUsers(parameters, response);				break;
+				case iterationstats:	handleCommandIterationStats(parameters, response);			break;
+				case activate:			PFRAgentborneStandby.handleActivate(parameters, response);	break;
+				
 				case ping: lastPingTime = System.currentTimeMillis();
 					// vvvvvv fall-through vvvvvvv
 					// vvvvvvvvvvvvvvvvvvvvvvvvvvv
@@ -384,6 +445,267 @@ public class ZePFRServer {
 		return PFRCoordinator.isTestRunning();
 	}
 
+	/**********************************************************************************
+	 * Holds the request open until the test has ended or the timeout is reached.
+	 * This lets the controller react to the end of a test within milliseconds 
+	 * instead of polling.
+	 **********************************************************************************/
+	private void handleCommandTestAwait(Map<String, String> parameters, RemoteResponse response) {
+		
+		setPingNow();
+		
+		long timeoutMillis = 0;
+		try {
+			timeoutMillis = Long.parseLong(parameters.getOrDefault(ZePFRClient.PARAM_TIMEOUT_MILLIS, "0").trim());
+		}catch(NumberFormatException e) {
+			response.addMessage(Level.WARN, "Parameter '"+ZePFRClient.PARAM_TIMEOUT_MILLIS+"' is not a number, returning immediately.");
+		}
+		
+		timeoutMillis = Math.min(timeoutMillis, TESTAWAIT_MAX_WAIT_MILLIS);
+		boolean isRunning;
+		long holdStartMillis = System.currentTimeMillis();
+		
+		//---------------------------------------------
+		// If agent, forward request to Agentborne
+		if(PFRConfig.executionMode() == Mode.AGENT) {
+			
+			isRunning = false;
+			PFRCLIExecutor currentExecutor = executor;
+			if(currentExecutor != null && currentExecutor.checkKeepExecuting()) {
+				
+				RemoteResponse agentborneResponse = getAgenborneClient().testAwait(timeoutMillis);
+				
+				if(agentborneResponse != null) {
+					isRunning = agentborneResponse.payloadMemberAsBoolean(RemoteResponse.FIELD_STATUS_ISTESTRUNNING);
+					
+					// pass the saturation state of the agentborne to the controller
+					JsonObject agentbornePayload = agentborneResponse.payloadAsObject();
+					for(String field : new String[] { PFRSaturationGuard.FIELD_SATURATED
+													, PFRSaturationGuard.FIELD_SATURATION_REASON
+													, PFRSaturationGuard.FIELD_LOAD_SCORE}) {
+						if(agentbornePayload.has(field)) {
+							response.payloadAsObject().add(field, agentbornePayload.get(field));
+						}
+					}
+				}else {
+					// agentborne not reachable yet or anymore, wait a moment for the process
+					try {
+						currentExecutor.join(Math.max(1, Math.min(timeoutMillis, 1000)));
+					}catch(InterruptedException e) {
+						Thread.currentThread().interrupt(); // restore interrupt flag
+					}
+					isRunning = currentExecutor.checkKeepExecuting();
+				}
+			}
+			
+			setPingNow();
+			
+		}else {
+			//---------------------------------------------
+			// everything else
+			isRunning = PFRCoordinator.awaitTestEnd(timeoutMillis);
+			PFRSaturationGuard.addStateTo(response.payloadAsObject());
+		}
+		
+		response.payloadAsObject().addProperty(RemoteResponse.FIELD_STATUS_ISTESTRUNNING, isRunning );
+		response.setHoldMillis(System.currentTimeMillis() - holdStartMillis);
+	}
+	
+	/**********************************************************************************
+	 * Changes the load of the running test by the given factor.
+	 **********************************************************************************/
+	private void handleCommandRebalance(Map<String, String> parameters, RemoteResponse response) {
+		
+		double loadFactor;
+		try {
+			loadFactor = Double.parseDouble(parameters.getOrDefault(ZePFRClient.PARAM_LOAD_FACTOR, "").trim());
+		}catch(NumberFormatException e) {
+			response.setSuccess(false);
+			response.addMessage(Level.ERROR, "Parameter '"+ZePFRClient.PARAM_LOAD_FACTOR+"' is not a number.");
+			return;
+		}
+		
+		//---------------------------------------------
+		// If agent, forward request to Agentborne
+		if(PFRConfig.executionMode() == Mode.AGENT) {
+			
+			if(executor != null && executor.checkKeepExecuting()) {
+				RemoteResponse agentborneResponse = getAgenborneClient().rebalance(loadFactor);
+				if(agentborneResponse != null) {
+					agentborneResponse.overrideResponse(response);
+				}
+			}else {
+				response.addMessage(Level.INFO, "Test already finished, nothing to rebalance.");
+			}
+			return;
+		}
+		
+		//---------------------------------------------
+		// Rebalance if Agentborne
+		if(PFRConfig.executionMode() == Mode.AGENTBORNE) {
+			response.setPayload(PFRCoordinator.rebalanceLoad(loadFactor));
+			return;
+		}
+		
+		//---------------------------------------------
+		// All other Modes
+		response.addMessage(Level.INFO, "Command " + Command.rebalance + " not available for execution mode:" + PFRConfig.executionMode());
+	}
+	
+	/**********************************************************************************
+	 * Returns the warm-up state of the test, ends the warm-up first if the parameter
+	 * 'end' is true. If the parameter 'awaitIterations' is set, waits until the 
+	 * iterations have been executed, the warm-up has ended or the timeout is reached.
+	 **********************************************************************************/
+	private void handleCommandWarmup(Map<String, String> parameters, RemoteResponse response) {
+		
+		boolean end = Boolean.parseBoolean(parameters.getOrDefault(ZePFRClient.PARAM_END, "false").trim());
+		
+		long awaitIterations = 0;
+		long timeoutMillis = 0;
+		try {
+			awaitIterations = Long.parseLong(parameters.getOrDefault(ZePFRClient.PARAM_AWAIT_ITERATIONS, "0").trim());
+			timeoutMillis = Long.parseLong(parameters.getOrDefault(ZePFRClient.PARAM_TIMEOUT_MILLIS, "0").trim());
+		}catch(NumberFormatException e) {
+			response.addMessage(Level.WARN, "Parameters '"+ZePFRClient.PARAM_AWAIT_ITERATIONS+"' and '"+ZePFRClient.PARAM_TIMEOUT_MILLIS+"' have to be numbers, returning immediately.");
+		}
+		
+		timeoutMillis = Math.min(timeoutMillis, WARMUP_MAX_WAIT_MILLIS);
+		long holdStartMillis = System.currentTimeMillis();
+		
+		//---------------------------------------------
+		// If agent, forward request to Agentborne
+		if(PFRConfig.executionMode() == Mode.AGENT) {
+			
+			if(executor != null && executor.checkKeepExecuting()) {
+				RemoteResponse agentborneResponse = (awaitIterations > 0 && timeoutMillis > 0)
+						? getAgenborneClient().warmupAwait(awaitIterations, timeoutMillis)
+						: getAgenborneClient().warmup(end);
+				if(agentborneResponse != null) {
+					agentborneResponse.overrideResponse(response);
+				}
+				response.setHoldMillis(System.currentTimeMillis() - holdStartMillis);
+			}else {
+				response.addMessage(Level.INFO, "Test already finished, no warm-up running.");
+			}
+			return;
+		}
+		
+		//---------------------------------------------
+		// Warm-up if Agentborne
+		if(PFRConfig.executionMode() == Mode.AGENTBORNE) {
+			if(end) {
+				PFRWarmup.end("ended by controller");
+			}else if(awaitIterations > 0 && timeoutMillis > 0) {
+				try {
+					PFRWarmup.awaitIterations(awaitIterations, timeoutMillis);
+				}catch(InterruptedException e) {
+					Thread.currentThread().interrupt(); // restore interrupt flag
+				}
+				response.setHoldMillis(System.currentTimeMillis() - holdStartMillis);
+			}
+			PFRWarmup.addStateTo(response.payloadAsObject());
+			return;
+		}
+		
+		//---------------------------------------------
+		// All other Modes
+		response.addMessage(Level.INFO, "Command " + Command.warmup + " not available for execution mode:" + PFRConfig.executionMode());
+	}
+	
+	/**********************************************************************************
+	 * Returns the iterations an adaptive executor has executed since the last call.
+	 **********************************************************************************/
+	private void handleCommandIterationStats(Map<String, String> parameters, RemoteResponse response) {
+		
+		int executorIndex;
+		try {
+			executorIndex = Integer.parseInt(parameters.getOrDefault(ZePFRClient.PARAM_EXECUTOR_INDEX, "").trim());
+		}catch(NumberFormatException e) {
+			response.setSuccess(false);
+			response.addMessage(Level.ERROR, "Parameter '"+ZePFRClient.PARAM_EXECUTOR_INDEX+"' has to be a number.");
+			return;
+		}
+		
+		//---------------------------------------------
+		// If agent, forward request to Agentborne
+		if(PFRConfig.executionMode() == Mode.AGENT) {
+			
+			if(executor != null && executor.checkKeepExecuting()) {
+				RemoteResponse agentborneResponse = getAgenborneClient().iterationStats(executorIndex);
+				if(agentborneResponse != null) {
+					agentborneResponse.overrideResponse(response);
+				}
+			}else {
+				response.addMessage(Level.INFO, "Test already finished, no iterations executed.");
+			}
+			return;
+		}
+		
+		//---------------------------------------------
+		// Poll Stats if Agentborne
+		if(PFRConfig.executionMode() == Mode.AGENTBORNE) {
+			JsonObject stats = PFRCoordinator.pollIterationStats(executorIndex);
+			if(stats == null) {
+				response.setSuccess(false);
+				response.addMessage(Level.ERROR, "The executor with index "+executorIndex+" is not an adaptive executor.");
+				return;
+			}
+			response.setPayload(stats);
+			return;
+		}
+		
+		//---------------------------------------------
+		// All other Modes
+		response.addMessage(Level.INFO, "Command " + Command.iterationstats + " not available for execution mode:" + PFRConfig.executionMode());
+	}
+	
+	/**********************************************************************************
+	 * Sets the users of an adaptive executor to the share sent by the controller.
+	 **********************************************************************************/
+	private void handleCommandFollowUsers(Map<String, String> parameters, RemoteResponse response) {
+		
+		int executorIndex;
+		double users;
+		try {
+			executorIndex = Integer.parseInt(parameters.getOrDefault(ZePFRClient.PARAM_EXECUTOR_INDEX, "").trim());
+			users = Double.parseDouble(parameters.getOrDefault(ZePFRClient.PARAM_USERS, "").trim());
+		}catch(NumberFormatException e) {
+			response.setSuccess(false);
+			response.addMessage(Level.ERROR, "Parameters '"+ZePFRClient.PARAM_EXECUTOR_INDEX+"' and '"+ZePFRClient.PARAM_USERS+"' have to be numbers.");
+			return;
+		}
+		
+		//---------------------------------------------
+		// If agent, forward request to Agentborne
+		if(PFRConfig.executionMode() == Mode.AGENT) {
+			
+			if(executor != null && executor.checkKeepExecuting()) {
+				RemoteResponse agentborneResponse = getAgenborneClient().followUsers(executorIndex, users);
+				if(agentborneResponse != null) {
+					agentborneResponse.overrideResponse(response);
+				}
+			}else {
+				response.addMessage(Level.INFO, "Test already finished, no users to set.");
+			}
+			return;
+		}
+		
+		//---------------------------------------------
+		// Set Users if Agentborne
+		if(PFRConfig.executionMode() == Mode.AGENTBORNE) {
+			if( !PFRCoordinator.followUsers(executorIndex, users) ) {
+				response.setSuccess(false);
+				response.addMessage(Level.ERROR, "The executor with index "+executorIndex+" is not an adaptive executor.");
+			}
+			return;
+		}
+		
+		//---------------------------------------------
+		// All other Modes
+		response.addMessage(Level.INFO, "Command " + Command.followusers + " not available for execution mode:" + PFRConfig.executionMode());
+	}
+	
 	/**********************************************************************************
 	 * 
 	 **********************************************************************************/
@@ -608,33 +930,126 @@ public class ZePFRServer {
 		
 		//----------------------------------
 		// Kill Orphans
-		killOrphanedAgentborne(response);
+		// the standby process is listening on the port on purpose
+		PFRAgentborneStandby currentStandby = standby;
+		standby = null;
+		
+		boolean useStandby = (currentStandby != null && currentStandby.isReady());
+		if( !useStandby ) {
+			if(currentStandby != null) { currentStandby.killAndWait(); }
+			killOrphanedAgentborne(response);
+		}
 		
 		//----------------------------------
 		// Start Test
 		try {
 			
 			String executionDirectory = jarFilePath.getParent().toAbsolutePath().toString();
-			String vmargs = CLIArgs.pfr_mode.makeCLIArg("agentborne")
-						  + CLIArgs.pfr_port.makeCLIArg(agentbornePort)
-						  + CLIArgs.pfr_test.makeCLIArg(classname)
-						  + CLIArgs.pfr_agentIndex.makeCLIArg(agentIndex)
-						  + CLIArgs.pfr_agentTotal.makeCLIArg(agentTotal)
-						  + CLIArgs.pfr_agentIsData.makeCLIArg(isDataAgent)
-						  ;
 			
-			String startCommand = "java "+vmargs+" -jar "+JAR_FILE_NAME;
+			//----------------------------------
+			// Shared Memory Stats Channel
+			if(statsChannel != null) {
+				statsChannel.close(true);
+				statsChannel = null;
+			}
 			
-			logger.info("Start agentborne: "+startCommand);
+			if( !isDataAgent && CLIArgs.pfr_statsChannel.getValue().getAsBoolean() ) {
+				try {
+					statsChannel = PFRStatsChannel.create(
+							  Paths.get(executionDirectory, PFRStatsChannel.FILE_NAME)
+							, PFRStatsChannel.DEFAULT_CAPACITY
+						);
+				}catch(IOException e) {
+					logger.warn("Could not create stats channel, statistics are sent over HTTPS: "+e.getMessage());
+				}
+			}
 			
-			executor = new PFRCLIExecutor(executionDirectory, startCommand);
-			executor.execute();
+			//-------------------------------
+			// Activate Standby Process
+			executor = null;
+			if(useStandby) {
+				LinkedHashMap<CLIArgs, String> args = makeAgentborneArgs(classname);
+				
+				// the standby process runs in another directory
+				args.put(CLIArgs.pfr_target, Paths.get(executionDirectory, "target").toString());
+				args.put(CLIArgs.pfr_logfile, Paths.get(executionDirectory, "target", "performator.log").toString());
+				
+				executor = currentStandby.activate(jarFilePath, args);
+				
+				// might move agentbornePort, the arguments are created after this
+				if(executor == null) { killOrphanedAgentborne(response); }
+			}
+			
+			//-------------------------------
+			// Start New Process
+			if(executor == null) {
+				LinkedHashMap<CLIArgs, String> args = makeAgentborneArgs(classname);
+				
+				StringBuilder vmargs = new StringBuilder();
+				for(Entry<CLIArgs, String> entry : args.entrySet()) {
+					vmargs.append(entry.getKey().makeCLIArg(entry.getValue()));
+				}
+				
+				// the jar is started from the folder of the CDS archive
+				PFRClassDataSharing cds = PFRClassDataSharing.forJar(jarFilePath);
+				String jar = cds.getJar().equals(jarFilePath) ? JAR_FILE_NAME : cds.getJar().toString();
+				
+				String startCommand = "java"+cds.makeJVMArgs()+vmargs+" -jar "+jar;
+				
+				logger.info("Start agentborne: "+startCommand);
+				
+				executor = new PFRCLIExecutor(executionDirectory, startCommand);
+				executor.execute();
+				cds.processStarted(executor);
+			}
+			
+			//-------------------------------
+			// Log Forwarding
+			stopLogForwarder();
+			
+			if( CLIArgs.pfr_logForwarding.getValue().getAsBoolean() ) {
+				logForwarder = new PFRLogForwarder(
+						  executor.getOutputStream()
+						, CLIArgs.pfr_logRateLimit.getValue().getAsInteger()
+					);
+				logForwarder.start();
+			}
+			
+			//-------------------------------
+			// React to Process Exit
+			PFRLogForwarder forwarder = logForwarder;
+			executor.onCompletion().thenRun( () -> {
+				logger.info("Agentborne process has ended.");
+				if(forwarder != null) { forwarder.stop(); }
+			});
 			
 		} catch (Exception e) {
 			response.addMessage(Level.ERROR, "Error while starting process: "+e.getMessage());
 		}
 	}
 
+	/**********************************************************************************
+	 * Returns the arguments for the agentborne process of a test. Create them after 
+	 * killOrphanedAgentborne(), which might change the agentborne port.
+	 * 
+	 **********************************************************************************/
+	private LinkedHashMap<CLIArgs, String> makeAgentborneArgs(String classname) {
+		
+		LinkedHashMap<CLIArgs, String> args = new LinkedHashMap<>();
+		args.put(CLIArgs.pfr_mode, "agentborne");
+		args.put(CLIArgs.pfr_port, ""+agentbornePort);
+		args.put(CLIArgs.pfr_test, classname);
+		args.put(CLIArgs.pfr_agentIndex, ""+agentIndex);
+		args.put(CLIArgs.pfr_agentTotal, ""+agentTotal);
+		args.put(CLIArgs.pfr_agentIsData, ""+isDataAgent);
+		
+		if(statsChannel != null) {
+			args.put(CLIArgs.pfr_statsChannelFile, statsChannel.getFile().toString());
+		}
+		
+		return args;
+	}
+	
 	/**********************************************************************************
 	 * Checks if there is a process still running under the agentborne port and 
 	 * tries to kill it if it exists.
@@ -686,6 +1101,17 @@ public class ZePFRServer {
 		JsonArray array = new JsonArray();
 		response.setPayload(array);
 		
+		//---------------------------------------------
+		// Lines are consumed by the forwarder if there is one,
+		// show the pending lines without taking them from the log stream
+		PFRLogForwarder forwarder = logForwarder;
+		if(forwarder != null) {
+			for(String line : PFRLogForwarder.decodeLines(forwarder.peek())) {
+				array.add(line);
+			}
+			return;
+		}
+		
 		if(executor != null) {
 			PFRReadableOutputStream out = executor.getOutputStream();
 			
@@ -696,6 +1122,48 @@ public class ZePFRServer {
 		}
 	}
 	
+	/**********************************************************************************
+	 * Holds the request open until log lines of the agentborne process are available
+	 * or the timeout is reached. The lines are returned as GZIP compressed chunks, 
+	 * see PFRLogForwarder.
+	 **********************************************************************************/
+	private void handleCommandLogstream(Map<String, String> parameters, RemoteResponse response) {
+		
+		long timeoutMillis = 0;
+		try {
+			timeoutMillis = Long.parseLong(parameters.getOrDefault(ZePFRClient.PARAM_TIMEOUT_MILLIS, "0").trim());
+		}catch(NumberFormatException e) {
+			response.addMessage(Level.WARN, "Parameter '"+ZePFRClient.PARAM_TIMEOUT_MILLIS+"' is not a number, returning immediately.");
+		}
+		
+		timeoutMillis = Math.min(timeoutMillis, LOGSTREAM_MAX_WAIT_MILLIS);
+		
+		PFRLogForwarder forwarder = logForwarder;
+		if(forwarder != null) {
+			long holdStartMillis = System.currentTimeMillis();
+			response.setPayload(forwarder.poll(timeoutMillis));
+			response.setHoldMillis(System.currentTimeMillis() - holdStartMillis);
+		}else {
+			JsonObject empty = new JsonObject();
+			empty.add(PFRLogForwarder.FIELD_CHUNKS, new JsonArray());
+			empty.addProperty(PFRLogForwarder.FIELD_DONE, true);
+			response.setPayload(empty);
+		}
+	}
+	
+	/**********************************************************************************
+	 * Stops the log forwarder if there is one.
+	 **********************************************************************************/
+	private void stopLogForwarder() {
+		
+		PFRLogForwarder forwarder = logForwarder;
+		logForwarder = null;
+		
+		if(forwarder != null) {
+			forwarder.stop();
+		}
+	}
+	
 	/**********************************************************************************
 	 * 
 	 **********************************************************************************/
@@ -705,7 +1173,11 @@ public class ZePFRServer {
 		// If agent, forward request to Agentborne
 		if(PFRConfig.executionMode() == Mode.AGENT) {
 			
-			if(executor != null && executor.checkKeepExecuting()) {
+			if(command == Command.statspoll && statsChannel != null) {
+				// read directly from shared memory, also works after the agentborne ended
+				response.setPayload(statsChannel.pollRecordsJson());
+				
+			}else if(executor != null && executor.checkKeepExecuting()) {
 				
 				ZePFRClient agentClient = getAgenborneClient();
 				
@@ -862,13 +1334,47 @@ public class ZePFRServer {
 	 **********************************************************************************/
 	public void handleCommandDisconnect(RemoteResponse response) {
 		
+		stopLogForwarder();
+		
 		if (executor != null) {
-			executor.kill();
+			PFRCLIExecutor oldExecutor = executor;
+			oldExecutor.kill();
 			executor = null;
-		} 
+			
+			// the port is free when the old process has ended
+			oldExecutor.onCompletion().thenRun( () -> startStandby() );
+		}else {
+			startStandby();
+		}
 		
 		reset();
 	}
+	
+	/**********************************************************************************
+	 * Starts a standby agentborne process if enabled with -Dpfr_standby=true and 
+	 * there is none yet.
+	 **********************************************************************************/
+	private synchronized void startStandby() {
+		
+		if(PFRConfig.executionMode() != Mode.AGENT
+		|| !CLIArgs.pfr_standby.getValue().getAsBoolean()
+		|| standby != null) {
+			return;
+		}
+		
+		if(isPortInUse(agentbornePort)) {
+			logger.warn("Standby agentborne not started, port "+agentbornePort+" is in use.");
+			return;
+		}
+		
+		try {
+			PFRAgentborneStandby newStandby = new PFRAgentborneStandby(agentbornePort);
+			newStandby.start();
+			standby = newStandby;
+		}catch(Exception e) {
+			logger.warn("Could not start standby agentborne: "+e.getMessage(), e);
+		}
+	}
 
 	/**********************************************************************************
 	 * 
@@ -1,23 +1,29 @@
 package com.performetriks.performator.executors;
 
 import java.time.Duration;
+import java.util.List;
 import java.util.Timer;
 import java.util.TimerTask;
-import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledThreadPoolExecutor;
 import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.LongConsumer;
 
 import org.slf4j.LoggerFactory;
 
 import com.google.gson.JsonObject;
 import com.performetriks.performator.base.PFRContext;
+import com.performetriks.performator.base.PFRInternalMetrics;
 import com.performetriks.performator.base.PFRTest;
 import com.performetriks.performator.base.PFRUsecase;
+import com.performetriks.performator.base.PFRWarmup;
+import com.performetriks.performator.database.PFRDBRecorder;
 import com.xresch.hsr.base.HSR;
 import com.xresch.hsr.stats.HSRRecord.HSRRecordStatus;
+import com.xresch.hsr.stats.HSRRecordStats;
 
 import ch.qos.logback.classic.Logger;
 
@@ -26,6 +32,7 @@ import ch.qos.logback.classic.Logger;
  * Implementations of this class are responsible for:
  * - Calling "HSR.endAllOpen(HSRRecordStatus.Aborted);" after executing a usecase iteration.
  * - Calling "PFRContext.logDetailsClear()" after executing a usecase iteration.
+ * - Calling "PFRDBRecorder.flush()" after executing a usecase iteration.
  * - Handling exceptions thrown by usecases.
  * - Calling "HSR.endAllOpen(HSRRecordStatus.Failed);" in case an exception was thrown.
  * 
@@ -45,11 +52,35 @@ public abstract class PFRExec {
 	private Duration usecaseGracefulStopDuration = Duration.ofMinutes(1);
 	
 	protected Object GRACEFUL_LOCK = true;
-	protected boolean gracefulStopRequested = false;  
+	protected volatile boolean gracefulStopRequested = false;  
 	protected boolean gracefulStopDone = false;  
-	protected boolean isStopNow = false;
+	protected volatile boolean isStopNow = false;
+	
+	// notified on graceful stop requests and when scheduled tasks are done
+	private final Object STATE_LOCK = new Object();
+	private static final long STATE_CHECK_MILLIS = 1000;
 	
 	private ScheduledExecutorService scheduledUserThreadExecutor;
+	private SchedulerType schedulerType = SchedulerType.THREADPOOL;
+	
+	/*****************************************************************
+	 * The backend used to schedule the user iterations.
+	 *****************************************************************/
+	public enum SchedulerType {
+		  THREADPOOL("Uses a ScheduledThreadPoolExecutor. Good choice for up to a few thousand users.")
+		, TIMINGWHEEL("Uses a hashed timing wheel with O(1) scheduling and cancelling. Recommended for 10'000+ users per agent.")
+		;
+		
+		private String description;
+		
+		private SchedulerType(String description) {
+			this.description = description;
+		}
+		
+		public String description() {
+			return description;
+		}
+	}
 	
     // Optimized reflection cache for Virtual Thread support
     private static java.lang.reflect.Method ofVirtualMethod = null;
@@ -107,7 +138,7 @@ public abstract class PFRExec {
             try {
                 Object builder = ofVirtualMethod.invoke(null);
                 nameMethod.invoke(builder, name);
-                Thread t = (Thread) unstartedMethod.invoke(builder, r);
+                Thread t = (Thread) unstartedMethod.invoke(builder, PFRInternalMetrics.countVirtualThread(r));
                 t.start();
             } catch (Exception e) {
                 // Fallback to platform thread if reflection fails
@@ -138,6 +169,36 @@ public abstract class PFRExec {
 	 *****************************************************************/
 	public abstract void distributeLoad(int totalAgents, int agentIndex, int recursionIndex);
 	
+	/*****************************************************************
+	 * This method will be executed on agents while the test is running
+	 * when the controller redistributes the load, for example because 
+	 * an agent has dropped out, joined or is saturated.
+	 * 
+	 * The loadFactor is relative to the load that has been assigned
+	 * by distributeLoad(), 1.5 means this instance should execute 50%
+	 * more load, 1.0 restores the original load.
+	 * 
+	 * Returns false by default, override it if the executor can 
+	 * adjust its load at runtime.
+	 * 
+	 * @param loadFactor factor to apply to the distributed load
+	 * @return true if the load has been adjusted
+	 *****************************************************************/
+	public boolean rebalance(double loadFactor) {
+		return false;
+	}
+	
+	/*****************************************************************
+	 * Returns true if rebalance() can raise and lower the load of this
+	 * executor at any time. Used by the controller to decide if the 
+	 * load of agents that drop out can be moved to the other agents.
+	 * 
+	 * Returns false by default, override it together with rebalance().
+	 *****************************************************************/
+	public boolean isRebalanceSupported() {
+		return false;
+	}
+	
 	/*****************************************************************
 	 * Method to do any kind of initialization before executeUsecase()
 	 * is called.
@@ -237,11 +298,94 @@ public abstract class PFRExec {
 		return usecaseGracefulStopDuration;
 	}
 	
+	/***************************************************************************
+	 * Sets the backend used to schedule the users, default is THREADPOOL.
+	 * Must be set before the executor is started.
+	 * 
+	 * @param schedulerType the type of scheduler
+	 * @return instance for chaining
+	 ***************************************************************************/
+	public PFRExec scheduler(SchedulerType schedulerType){
+		if(schedulerType != null) {
+			this.schedulerType = schedulerType;
+		}
+		return this;
+	}
+	
+	/***************************************************************************
+	 * Returns the backend used to schedule the users.
+	 * @return scheduler type
+	 ***************************************************************************/
+	public SchedulerType scheduler(){
+		return schedulerType;
+	}
+	
 	/*****************************************************************
 	 * 
 	 *****************************************************************/
 	public void requestGracefulStop() {
 		this.gracefulStopRequested = true;
+		signalStateChange();
+	}
+	
+	/*****************************************************************
+	 * Wakes up all threads waiting in awaitStateChange(), e.g. when
+	 * a stop was requested or a scheduled task has finished.
+	 *****************************************************************/
+	protected void signalStateChange() {
+		synchronized(STATE_LOCK) {
+			STATE_LOCK.notifyAll();
+		}
+	}
+	
+	/*****************************************************************
+	 * Waits until signalStateChange() is called or the timeout is 
+	 * reached.
+	 * 
+	 * @param timeoutMillis max time to wait
+	 *****************************************************************/
+	protected void awaitStateChange(long timeoutMillis) throws InterruptedException {
+		if(timeoutMillis <= 0) { return; }
+		
+		synchronized(STATE_LOCK) {
+			STATE_LOCK.wait(timeoutMillis);
+		}
+	}
+	
+	/*****************************************************************
+	 * Blocks until a graceful stop has been requested or all the 
+	 * scheduled tasks have finished. Returns within milliseconds
+	 * after one of these events.
+	 *****************************************************************/
+	protected void awaitGracefulStopOrCompletion() throws InterruptedException {
+		synchronized(STATE_LOCK) {
+			while(!gracefulStopRequested && getCurrentTaskCount() > 0) {
+				// timeout is only a safety net, state changes are signaled
+				STATE_LOCK.wait(STATE_CHECK_MILLIS);
+			}
+		}
+	}
+	
+	/*****************************************************************
+	 * Sleeps for the given time, returns earlier if a graceful stop
+	 * has been requested.
+	 * 
+	 * @param millis time to sleep
+	 * @return true if a graceful stop was requested
+	 *****************************************************************/
+	protected boolean sleepUnlessStopped(long millis) throws InterruptedException {
+		
+		long end = System.currentTimeMillis() + millis;
+		
+		synchronized(STATE_LOCK) {
+			long remaining = millis;
+			while(!gracefulStopRequested && remaining > 0) {
+				STATE_LOCK.wait(remaining);
+				remaining = end - System.currentTimeMillis();
+			}
+		}
+		
+		return gracefulStopRequested;
 	}
 	
 	/*****************************************************************
@@ -251,6 +395,7 @@ public abstract class PFRExec {
 	public void doStopNow()  {
 		
 		isStopNow = true;
+		signalStateChange();
 		doGracefulStop(Duration.ofMillis(0));
 		
 	}
@@ -262,16 +407,52 @@ public abstract class PFRExec {
         if(scheduledUserThreadExecutor instanceof ScheduledThreadPoolExecutor) {
             ScheduledThreadPoolExecutor executor = (ScheduledThreadPoolExecutor)scheduledUserThreadExecutor;
             return executor.getActiveCount() + executor.getQueue().size();
+        }else if(scheduledUserThreadExecutor instanceof PFRTimingWheelScheduler) {
+        	return ((PFRTimingWheelScheduler)scheduledUserThreadExecutor).getTaskCount();
         }
         return 0;
 	}
 	
 	/*****************************************************************
-	 * Returns the scheduled thread pool executor for this executor
-	 * instance.
+	 * Returns true if the scheduler of this executor already hands
+	 * every task to its own thread. Scheduled tasks then execute the 
+	 * iteration directly instead of starting another thread.
+	 *****************************************************************/
+	protected boolean isSchedulerDispatching() {
+		return scheduledUserThreadExecutor instanceof PFRTimingWheelScheduler;
+	}
+	
+	/*****************************************************************
+	 * Returns the scheduled executor for this executor instance.
+	 * Depending on scheduler(), this is either a thread pool or a 
+	 * timing wheel.
+	 * 
+	 * @param threadPoolSize the number of threads for the pool, 
+	 * in case of a timing wheel the number of platform threads used
+	 * when virtual threads are not supported.
 	 *****************************************************************/
 	protected ScheduledExecutorService getScheduledUserExecutor(int threadPoolSize) {
 
+		if(scheduledUserThreadExecutor == null
+		&& schedulerType == SchedulerType.TIMINGWHEEL) {
+			String executorName = this.getClass().getSimpleName();
+			PFRTimingWheelScheduler wheel = new PFRTimingWheelScheduler(
+					  executorName
+					, PFRTimingWheelScheduler.createDefaultDispatcher(executorName, threadPoolSize)
+				);
+			wheel.onTaskDone(this::signalStateChange);
+			scheduledUserThreadExecutor = wheel;
+			
+			//-------------------------------
+			// Make sure to kill that pest
+			Runtime.getRuntime().addShutdownHook(
+				new Thread(() -> {
+					logger.info("Terminate timing wheel for "+ executorName);
+					scheduledUserThreadExecutor.shutdownNow();
+				})
+			);
+		}
+		
 		if(scheduledUserThreadExecutor == null) {
 			String executorName = this.getClass().getSimpleName();
 			ThreadFactory factory =  new ThreadFactory() {
@@ -285,7 +466,7 @@ public abstract class PFRExec {
                         try {
                             Object builder = ofVirtualMethod.invoke(null);
                             nameMethod.invoke(builder, executorName + "-User-" + count.getAndIncrement());
-                            return (Thread) unstartedMethod.invoke(builder, r);
+                            return (Thread) unstartedMethod.invoke(builder, PFRInternalMetrics.countVirtualThread(r));
                         } catch (Exception e) {
                             // Fallback on unexpected reflection error
                         }
@@ -299,7 +480,20 @@ public abstract class PFRExec {
 			    }
 			};
 			
-			scheduledUserThreadExecutor = Executors.newScheduledThreadPool(threadPoolSize, factory);
+			scheduledUserThreadExecutor = new ScheduledThreadPoolExecutor(threadPoolSize, factory) {
+				@Override
+				protected void afterExecute(Runnable r, Throwable t) {
+					super.afterExecute(r, t);
+					
+					// periodic tasks are only done when cancelled or failed
+					if(r instanceof Future && ((Future<?>)r).isDone()) {
+						signalStateChange();
+					}
+				}
+			};
+			
+			// cancelled users must not be counted as running tasks
+			((ScheduledThreadPoolExecutor)scheduledUserThreadExecutor).setRemoveOnCancelPolicy(true);
 			
 			//-------------------------------
 			// Make sure to kill that pest
@@ -339,22 +533,10 @@ public abstract class PFRExec {
 		// Wrapped Task, will be executed
 		// either as virtual or regular
 		// thread
-		Runnable wrappedTask = () -> {
+		LongConsumer wrappedTask = (dispatchedNanos) -> {
 			
-			long start = System.currentTimeMillis();
-			try {
-				usecase.execute();
-				HSR.endAllOpen(HSRRecordStatus.Aborted);
-			} catch (InterruptedException e) {
-				Thread.currentThread().interrupt();
-			} catch (Throwable e) {
-				HSR.addException(e);
-				HSR.endAllOpen(HSRRecordStatus.Failed);
-			} finally {
-				PFRContext.logDetailsClear();
-			}
+			long duration = executeIteration(usecase, dispatchedNanos);
 			
-			long duration = System.currentTimeMillis() - start;
 			if (pacingMillis > 0 && duration > pacingMillis) {
 				HSR.addWarnMessage("Duration of the iteration exceeded the pacing("+pacingSeconds+"s)."
 						 + " This might cause that you get lower execution/hour then expected."
@@ -366,20 +548,145 @@ public abstract class PFRExec {
 		//---------------------------
 		// Scheduled Task
 		return new Runnable() {
+			
+			private long plannedNanos = -1;
+			
 			@Override
 			public void run() {
 				
+				//---------------------------
+				// Scheduler Lag
+				if(pacingMillis > 0) {
+					long now = System.nanoTime();
+					if(plannedNanos < 0) { plannedNanos = now; }
+					PFRInternalMetrics.addSchedulerLag(getExecutedName(), now - plannedNanos);
+					plannedNanos += TimeUnit.MILLISECONDS.toNanos(pacingMillis);
+				}
+				
 				//---------------------------
 				// Execute Virtual or Regular
-				if (PFRExec.isVirtualThreadSupported()) {
-					PFRExec.startVirtualThread(wrappedTask, getExecutedName() + "-User-" + userId);
+				long dispatchedNanos = System.nanoTime();
+				if (PFRExec.isVirtualThreadSupported() && !isSchedulerDispatching()) {
+					PFRExec.startVirtualThread(() -> wrappedTask.accept(dispatchedNanos), getExecutedName() + "-User-" + userId);
 				} else {
-					wrappedTask.run();
+					wrappedTask.accept(dispatchedNanos);
 				}
 			}
 		};
 	}
 	
+	/*****************************************************************
+	 * Executes one iteration of the usecase in the current thread and
+	 * does the cleanup as described in the documentation of this class.
+	 * 
+	 * @param usecase the initialized usecase instance
+	 * @return the duration of the iteration in milliseconds, -1 if the 
+	 * thread was interrupted
+	 *****************************************************************/
+	protected long executeIteration(PFRUsecase usecase) {
+		return executeIteration(usecase, System.nanoTime());
+	}
+	
+	/*****************************************************************
+	 * Same as executeIteration(PFRUsecase), the time between the 
+	 * dispatch of the iteration and the start of usecase.execute()
+	 * is counted as framework overhead.
+	 * 
+	 * @param usecase the initialized usecase instance
+	 * @param dispatchedNanos System.nanoTime() when the iteration
+	 * has been dispatched to a thread
+	 * @return the duration of the iteration in milliseconds, -1 if the 
+	 * thread was interrupted
+	 *****************************************************************/
+	protected long executeIteration(PFRUsecase usecase, long dispatchedNanos) {
+		
+		long start = System.currentTimeMillis();
+		long end = start;
+		long executeStartNanos = System.nanoTime();
+		long executeEndNanos = -1;
+		boolean isSuccess = true;
+		
+		// record the warm-up in its own usecase
+		boolean isWarmup = PFRWarmup.isActive();
+		if(isWarmup) {
+			HSR.setUsecase(PFRWarmup.usecaseName(getExecutedName()));
+		}
+		
+		try {
+			usecase.execute();
+			executeEndNanos = System.nanoTime();
+			HSR.endAllOpen(HSRRecordStatus.Aborted);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return -1;
+		} catch (Throwable e) {
+			executeEndNanos = System.nanoTime();
+			isSuccess = false;
+			HSR.addException(e);
+			HSR.endAllOpen(HSRRecordStatus.Failed);
+		} finally {
+			// the flush is not part of the measured iteration
+			end = System.currentTimeMillis();
+			
+			PFRContext.logDetailsClear();
+			PFRDBRecorder.flush();
+			
+			if(isWarmup) {
+				HSR.setUsecase(getExecutedName());
+				PFRWarmup.countIteration();
+			}
+		}
+		
+		long duration = end - start;
+		
+		if(!isWarmup) {
+			onIterationEnd(duration, isSuccess);
+		}
+		
+		PFRInternalMetrics.addIterationOverhead(getExecutedName()
+				, (executeStartNanos - dispatchedNanos) + (System.nanoTime() - executeEndNanos) );
+		
+		return duration;
+	}
+	
+	/*****************************************************************
+	 * Called every report interval with the statistics HSR has 
+	 * reported for the previous interval. Only called on the instance
+	 * that reports the test, locally or on the controller where the
+	 * statistics are aggregated over all agents, never on agents.
+	 * Does nothing by default, override it to adjust the load based
+	 * on the statistics.
+	 * 
+	 * @param records the statistics of all records of the interval
+	 *****************************************************************/
+	public void onStatsReported(List<HSRRecordStats> records) {
+		// do nothing by default
+	}
+	
+	/*****************************************************************
+	 * Called after every iteration executed with executeIteration(),
+	 * except the iterations of the warm-up. Does nothing by default,
+	 * override it to measure the iterations.
+	 * 
+	 * @param durationMillis the duration of the iteration
+	 * @param isSuccess false if the usecase has thrown an exception
+	 *****************************************************************/
+	protected void onIterationEnd(long durationMillis, boolean isSuccess) {
+		// do nothing by default
+	}
+	
+	/*****************************************************************
+	 * Called while gracefully stopping with the number of scheduled 
+	 * tasks that have finished since the last call. By default every
+	 * task is counted as a user and the HSR user count is decreased.
+	 * Override this if the executor keeps track of its users itself.
+	 * 
+	 * @param stoppedTasks number of tasks that have finished
+	 *****************************************************************/
+	protected void onTasksStopped(int stoppedTasks) {
+		HSR.decreaseUsers(stoppedTasks);
+	}
+	
 	/*****************************************************************
 	 * Do the graceful stopping.
 	 * 
@@ -389,6 +696,7 @@ public abstract class PFRExec {
 		if(waitTime == null) { waitTime = Duration.ofMillis(0); }
 		
 		gracefulStopRequested = true;
+		signalStateChange();
 		
 		synchronized (GRACEFUL_LOCK) {
 			
@@ -402,17 +710,17 @@ public abstract class PFRExec {
 				// Wait Gracefully for Stopping
 				long shutdownStart = System.currentTimeMillis();
 				long shutdownEnd = shutdownStart;
-				long graceMillis = waitTime.getSeconds();
+				long graceMillis = waitTime.toMillis();
 				while( previousTasksCount > 0 
 				    && (shutdownEnd - shutdownStart) <= graceMillis 
 				    && !isStopNow ) {
-					Thread.sleep(100);
+					awaitStateChange(100);
 					
 					int currentTasksCount = getCurrentTaskCount();
-					HSR.decreaseUsers(previousTasksCount - currentTasksCount);
+					onTasksStopped(previousTasksCount - currentTasksCount);
 					
 					previousTasksCount = currentTasksCount;
-					
+					shutdownEnd = System.currentTimeMillis();
 				}
 				
 				//--------------------------------
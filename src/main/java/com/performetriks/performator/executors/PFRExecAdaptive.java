@@ -0,0 +1,935 @@
+package com.performetriks.performator.executors;
+
+import java.math.BigDecimal;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.LoggerFactory;
+
+import com.google.gson.JsonObject;
+import com.performetriks.performator.base.PFRConfig;
+import com.performetriks.performator.base.PFRConfig.Mode;
+import com.performetriks.performator.base.PFRCoordinator;
+import com.performetriks.performator.base.PFRUsecase;
+import com.xresch.hsr.base.HSR;
+import com.xresch.hsr.stats.HSRExpression.Operator;
+import com.xresch.hsr.stats.HSRRecordStats;
+import com.xresch.hsr.stats.HSRRecordStats.HSRMetric;
+
+import ch.qos.logback.classic.Logger;
+
+/***************************************************************************
+ * Executes a use case with a closed-loop adaptive load pattern that searches
+ * for the maximum load that still meets the defined service level agreements.
+ *
+ * <ul>
+ * <li>Runs the load at a level for one interval and evaluates the SLA on the
+ * iterations of the usecase executed in that interval.</li>
+ * <li>Adjusts the amount of users based on the result using either AIMD
+ * (additive increase, multiplicative decrease) or a binary search.</li>
+ * <li>Reports the highest load that met the SLA (the knee point) and keeps
+ * running at that load until the test ends.</li>
+ * </ul>
+ *
+ * The arrival rate is controlled by the amount of users, every user executes
+ * one iteration per pacing:
+ *
+ * <pre>
+ * <code>
+ * double arrivalRatePerSec = users / pacingSeconds;
+ * </code>
+ * </pre>
+ *
+ * The SLA is evaluated on the duration of whole usecase iterations, which
+ * are measured by the executor itself. An iteration fails if the usecase
+ * throws an exception. The iterations of the measured part of a level are
+ * evaluated together, the first settleSeconds after a change of the load
+ * are not measured. As the iterations are collected on every report of HSR,
+ * the interval should be a multiple of the report interval of HSR.
+ * If no SLA is defined, a fail rate of at most 1% is used.
+ * The search starts after the warm-up, warm-up iterations are not evaluated.
+ *
+ * When the test is distributed on multiple agents, the controller evaluates
+ * the iterations collected from all agents, searches the knee for the total
+ * load and sends every agent its share of the users.
+ *
+ * Copyright Owner: Performetriks GmbH, Switzerland
+ * License: Eclipse Public License v2.0
+ *
+ * @author Reto Scheiwiller
+ *
+ ***************************************************************************/
+public class PFRExecAdaptive extends PFRExec {
+
+	private static Logger logger = (Logger) LoggerFactory.getLogger(PFRExecAdaptive.class.getName());
+
+	private AdaptiveMode mode = AdaptiveMode.BINARYSEARCH;
+
+	private long offsetSeconds = 0;
+	private int startUsers = 1;
+	private int maxUsers = 1000;
+	private int increaseUsers = 1;
+	private double decreaseFactor = 0.5;
+	private int resolutionUsers = 1;
+	private int maxBreaches = 3;
+	private int pacingSeconds = 10;
+	private int intervalSeconds = 60;
+	private int settleSeconds = 10;
+	private double minThroughputRatio = 0;
+
+	private ArrayList<SLACondition> slaConditions = new ArrayList<>();
+
+	private ArrayDeque<ScheduledFuture<?>> userFutures = new ArrayDeque<>();
+	private ScheduledExecutorService scheduledUserThreadExecutor;
+
+	// users to run on this instance, set by the search or the controller
+	// agents get their share before the load factor has been applied
+	private volatile double targetUsers = -1;
+	// set by rebalance(), e.g. during the warm-up
+	private volatile double loadFactor = 1.0;
+	// true on agents, they run the share of the load sent by the controller
+	private boolean isFollower = false;
+
+	// state of the search, only used by the instance evaluating the statistics
+	private int users = -1;
+	private int lowerUsers = 0; 		// highest level that met the SLA
+	private int upperUsers = -1;		// lowest level that breached the SLA
+	private int breaches = 0;
+	private long levelStartMillis = -1;
+	private long lastReportMillis = -1;
+	private Measurement measurement = new Measurement();
+
+	// iterations since the last report, polled by the instance evaluating the statistics
+	private PFRIterationStats iterationStats = new PFRIterationStats();
+
+	// result of the search
+	private int kneeUsers = -1;
+	private double kneeThroughput = 0;
+	private boolean isKneeFound = false;
+	private boolean isKneeReported = false;
+
+	private Class<? extends PFRUsecase> usecaseClass;
+	private String usecaseName;
+
+	/*****************************************************************
+	 * The algorithm used to search for the knee point.
+	 *****************************************************************/
+	public enum AdaptiveMode {
+		  AIMD("Adds increaseUsers while the SLA is met, multiplies the users with decreaseFactor on a breach. Ends after maxBreaches.")
+		, BINARYSEARCH("Doubles the users until the SLA is breached, then does a binary search between the last good and the first bad level.")
+		;
+
+		private String description;
+
+		private AdaptiveMode(String description) {
+			this.description = description;
+		}
+
+		public String description() {
+			return description;
+		}
+	}
+
+	/*****************************************************************
+	 *
+	 *****************************************************************/
+	public PFRExecAdaptive(Class<? extends PFRUsecase> usecaseClass) {
+		this.usecaseClass = usecaseClass;
+		PFRUsecase instance = PFRUsecase.getUsecaseInstance(usecaseClass);
+		usecaseName = instance.getName();
+	}
+
+	/***************************************************************************
+	 * Searches the maximum amount of users that still meets the SLA.
+	 *
+	 * @param usecase 		the usecase to be executed with this executor
+	 * @param startUsers    number of users to start with
+	 * @param maxUsers     	number of maximum users as a safety limit
+	 * @param pacingSeconds the pacing between executions of the usecase
+	 * @param intervalSeconds the duration of one load level
+	 *
+	 ***************************************************************************/
+	public PFRExecAdaptive(
+						  Class<? extends PFRUsecase> usecase
+						, int startUsers
+						, int maxUsers
+						, int pacingSeconds
+						, int intervalSeconds
+					){
+
+		this(usecase);
+
+		this.startUsers = startUsers;
+		this.maxUsers = maxUsers;
+		this.pacingSeconds = pacingSeconds;
+		this.intervalSeconds = intervalSeconds;
+	}
+
+	/*****************************************************************
+	 * Set the algorithm used to search the knee point, default is
+	 * BINARYSEARCH.
+	 *****************************************************************/
+	public PFRExecAdaptive mode(AdaptiveMode mode) {
+		if(mode != null) {
+			this.mode = mode;
+		}
+		return this;
+	}
+
+	/*****************************************************************
+	 * Set the offset in seconds.
+	 *****************************************************************/
+	public PFRExecAdaptive offset(int offsetSeconds) {
+		this.offsetSeconds = offsetSeconds;
+		return this;
+	}
+
+	/*****************************************************************
+	 * Set the number of users for the first interval.
+	 *****************************************************************/
+	public PFRExecAdaptive startUsers(int startUsers) {
+		this.startUsers = startUsers;
+		return this;
+	}
+
+	/*****************************************************************
+	 * Set the limit of users to be started by this executor.
+	 *****************************************************************/
+	public PFRExecAdaptive maxUsers(int maxUsers) {
+		this.maxUsers = maxUsers;
+		return this;
+	}
+
+	/*****************************************************************
+	 * Set the pacing between executions of the usecase.
+	 *****************************************************************/
+	public PFRExecAdaptive pacingSeconds(int pacingSeconds) {
+		this.pacingSeconds = pacingSeconds;
+		return this;
+	}
+
+	/*****************************************************************
+	 * Set the duration each load level is executed before the SLA
+	 * is evaluated.
+	 *****************************************************************/
+	public PFRExecAdaptive intervalSeconds(int intervalSeconds) {
+		this.intervalSeconds = intervalSeconds;
+		return this;
+	}
+
+	/*****************************************************************
+	 * Set the time at the start of each interval that is not taken
+	 * into account for the statistics, to let the system settle after
+	 * a change of the load. Default is 10 seconds.
+	 *****************************************************************/
+	public PFRExecAdaptive settleSeconds(int settleSeconds) {
+		this.settleSeconds = settleSeconds;
+		return this;
+	}
+
+	/*****************************************************************
+	 * AIMD: Set the number of users added after an interval that met
+	 * the SLA. Default is 1.
+	 *****************************************************************/
+	public PFRExecAdaptive increaseUsers(int increaseUsers) {
+		this.increaseUsers = increaseUsers;
+		return this;
+	}
+
+	/*****************************************************************
+	 * AIMD: Set the factor the users are multiplied with after an
+	 * interval that breached the SLA. Default is 0.5.
+	 *****************************************************************/
+	public PFRExecAdaptive decreaseFactor(double decreaseFactor) {
+		this.decreaseFactor = decreaseFactor;
+		return this;
+	}
+
+	/*****************************************************************
+	 * AIMD: Set the number of SLA breaches after which the search
+	 * ends. Default is 3.
+	 *****************************************************************/
+	public PFRExecAdaptive maxBreaches(int maxBreaches) {
+		this.maxBreaches = maxBreaches;
+		return this;
+	}
+
+	/*****************************************************************
+	 * BINARYSEARCH: Set the precision in users, the search ends when
+	 * the last good and the first bad level are closer than this.
+	 * Default is 1.
+	 *****************************************************************/
+	public PFRExecAdaptive resolutionUsers(int resolutionUsers) {
+		this.resolutionUsers = resolutionUsers;
+		return this;
+	}
+
+	/*****************************************************************
+	 * Set the minimum ratio between the measured and the expected
+	 * throughput (users / pacing). An interval with a lower ratio
+	 * breaches the SLA, e.g. because the iterations take longer than
+	 * the pacing. Default is 0 (disabled).
+	 *
+	 * @param ratio between 0.0 and 1.0, e.g. 0.9 for 90%
+	 *****************************************************************/
+	public PFRExecAdaptive minThroughputRatio(double ratio) {
+		this.minThroughputRatio = ratio;
+		return this;
+	}
+
+	/*****************************************************************
+	 * Add a condition to the SLA, all conditions have to be met by
+	 * the iterations of a level. If no condition is added, 
+	 * failrate LTE 1 is used.
+	 * Supported metrics are count, success, failed, failrate (in 
+	 * percent), avg, min, max and the percentiles p50 to p99, the
+	 * durations are in milliseconds.
+	 * Supported operators are EQ, NEQ, GT, GTE, LT and LTE.
+	 * 
+	 * @throws IllegalArgumentException if the metric or the operator
+	 * is not supported
+	 *****************************************************************/
+	public PFRExecAdaptive sla(HSRMetric metric, Operator operator, Number value) {
+		slaConditions.add(new SLACondition(metric, operator, value));
+		return this;
+	}
+
+	/*****************************************************************
+	 * Returns the highest amount of users that met the SLA, or -1
+	 * if no level met the SLA.
+	 *****************************************************************/
+	public int kneeUsers() {
+		return kneeUsers;
+	}
+
+	/*****************************************************************
+	 * Returns the throughput in iterations per second measured at
+	 * the knee point.
+	 *****************************************************************/
+	public double kneeThroughput() {
+		return kneeThroughput;
+	}
+
+	/*****************************************************************
+	 * Returns true if the search has ended before the test was
+	 * stopped.
+	 *****************************************************************/
+	public boolean isKneeFound() {
+		return isKneeFound;
+	}
+
+	/*****************************************************************
+	 *
+	 *****************************************************************/
+	@Override
+	public void initialize() {
+
+		HSR.setUsecase(usecaseName);
+
+		synchronized(logger) {
+			// -----------------------------------------------
+			// Log Warnings
+			// -----------------------------------------------
+			String sides = "=".repeat(16);
+			String title = " Load Config: "+this.getExecutedName()+" ";
+			logger.info(sides + title + sides);
+
+			if(pacingSeconds <= 0) {
+				pacingSeconds = 1;
+
+				String message = "Pacing was 0 seconds, set to 1 second.";
+				HSR.addWarnMessage(message);
+				logger.warn("==> "+message);
+			}
+
+			if(settleSeconds >= intervalSeconds) {
+				settleSeconds = 0;
+
+				String message = "Settle time is longer than the interval, set to 0 seconds.";
+				HSR.addWarnMessage(message);
+				logger.warn("==> "+message);
+			}
+
+			if(intervalSeconds - settleSeconds < pacingSeconds) {
+				String message = "Measured part of the interval is shorter than the pacing, some users will not execute in every interval.";
+				HSR.addWarnMessage(message);
+				logger.warn("==> "+message);
+			}
+
+			// -----------------------------------------------
+			// Log infos
+			// -----------------------------------------------
+			logger.info("Executor: " + this.getClass().getSimpleName() );
+			logger.info("Usecase: " + this.getExecutedName());
+			logger.info("Mode: " + mode);
+			logger.info("Start Offset: " + offsetSeconds);
+			logger.info("Start Users: " + startUsers);
+			logger.info("Max Users: " + maxUsers);
+			logger.info("Pacing(s): " + pacingSeconds);
+			logger.info("Interval(s): " + intervalSeconds);
+			logger.info("Settle(s): " + settleSeconds);
+			logger.info("SLA: " + slaToString());
+			logger.info(sides.repeat(2) + "=".repeat( title.length()) ); // cosmetics, just because we can!
+		}
+	}
+
+	/*****************************************************************
+	 *
+	 *****************************************************************/
+	@Override
+	public void getSettings(JsonObject settings) {
+
+		settings.addProperty("mode", mode.toString());
+		settings.addProperty("startOffsetSec", offsetSeconds);
+		settings.addProperty("startUsers", startUsers);
+		settings.addProperty("maxUsers", maxUsers);
+		settings.addProperty("pacingSec", pacingSeconds);
+		settings.addProperty("intervalSec", intervalSeconds);
+		settings.addProperty("settleSec", settleSeconds);
+		settings.addProperty("sla", slaToString());
+
+		if(mode == AdaptiveMode.AIMD) {
+			settings.addProperty("increaseUsers", increaseUsers);
+			settings.addProperty("decreaseFactor", decreaseFactor);
+			settings.addProperty("maxBreaches", maxBreaches);
+		}else {
+			settings.addProperty("resolutionUsers", resolutionUsers);
+		}
+
+	}
+
+	/*****************************************************************
+	 * Return the name of the usecase or other thing that is
+	 * executed by this executor.
+	 *
+	 * @return the name of the usecase or null
+	 *****************************************************************/
+	public String getExecutedName() {
+		return usecaseName;
+	}
+
+	/*****************************************************************
+	 * Executes the threads of this executor.
+	 *****************************************************************/
+	public void executeThreads() {
+
+		//-------------------------
+		// Nothing todo?
+		if(startUsers <= 0 || maxUsers <= 0) {
+			return;
+		}
+
+		if(startUsers > maxUsers) { startUsers = maxUsers; }
+
+		// agents run the level searched by the controller
+		isFollower = (PFRConfig.executionMode() == Mode.AGENTBORNE);
+
+		//-------------------------
+		// Create Scheduler
+		int poolSize = 1; // Single-threaded scheduler for pacing
+		if(!PFRExec.isVirtualThreadSupported()) {
+			poolSize = maxUsers; // Fallback to platform threads
+		}
+
+		scheduledUserThreadExecutor = getScheduledUserExecutor(poolSize);
+
+		try {
+
+			if(offsetSeconds >= 0) {
+				sleepUnlessStopped(offsetSeconds * 1000L);
+			}
+
+			//-------------------------
+			// Start first Level
+			if(isFollower) {
+				if(targetUsers < 0) { targetUsers = startUsers; }
+			}else {
+				startSearch(startUsers, System.currentTimeMillis());
+				targetUsers = startUsers;
+			}
+
+			//-------------------------
+			// Run the Levels
+			// the search is done in onStatsReported()
+			int runningUsers = -1;
+			while(!gracefulStopRequested) {
+
+				int target = (int)Math.round(targetUsers * loadFactor);
+				if(target != runningUsers) {
+					setUserCount(target);
+					runningUsers = target;
+				}
+
+				// no level has met the SLA
+				if(isKneeFound && targetUsers == 0) { break; }
+
+				awaitStateChange(1000);
+			}
+
+			//--------------------------------
+			// Initialize Graceful stop
+			doGracefulStop(this.test().gracefulStop());
+
+		}catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}finally {
+			if(!isFollower) { reportKnee(); }
+		}
+	}
+
+	/*****************************************************************
+	 * Collects the iterations for the evaluation of the SLA.
+	 *****************************************************************/
+	@Override
+	protected void onIterationEnd(long durationMillis, boolean isSuccess) {
+		iterationStats.add(durationMillis, isSuccess);
+	}
+
+	/*****************************************************************
+	 * INTERNAL USE ONLY
+	 * Returns the iterations executed since the last call and resets
+	 * them. Used by the controller to collect the iterations of the
+	 * agents.
+	 *****************************************************************/
+	public PFRIterationStats pollIterationStats() {
+		return iterationStats.poll();
+	}
+
+	/*****************************************************************
+	 * Evaluates the iterations of the last report interval and
+	 * calculates the next level of the search.
+	 * On the controller the iterations are collected from all agents.
+	 *****************************************************************/
+	@Override
+	public synchronized void onStatsReported(List<HSRRecordStats> records) {
+
+		long now = System.currentTimeMillis();
+		long previousReportMillis = lastReportMillis;
+		lastReportMillis = now;
+
+		if(isFollower || isKneeFound || gracefulStopRequested) { return; }
+
+		//--------------------------
+		// Collect Iterations
+		// always polled, iterations outside the measured part are dropped
+		PFRIterationStats intervalStats = pollIterationStats();
+		if( PFRCoordinator.isControllingAgents() ) {
+			intervalStats.add(PFRCoordinator.agentsPollIterationStats(this));
+		}
+
+		//--------------------------
+		// Start Search on Controller
+		// agents start their share of the first level themselves
+		if(levelStartMillis < 0) {
+			if( !PFRCoordinator.isControllingAgents() ) { return; } // started by executeThreads()
+
+			// agents spread their start over one pacing
+			startSearch(Math.min(startUsers, maxUsers), now + (offsetSeconds + pacingSeconds) * 1000L);
+		}
+
+		//--------------------------
+		// Skip Warm-up
+		// the level only counts after the load has been raised
+		if(PFRCoordinator.isWarmupActive()) {
+			levelStartMillis = Math.max(levelStartMillis, now);
+			measurement.reset();
+			return;
+		}
+
+		//--------------------------
+		// Skip Settle Time
+		// the iterations have ended since the previous report
+		if(previousReportMillis < 0) { return; }
+
+		if(previousReportMillis < levelStartMillis + settleSeconds * 1000L) {
+			return;
+		}
+
+		//--------------------------
+		// Measure
+		measurement.add(intervalStats, now - previousReportMillis);
+		if(measurement.millis < (intervalSeconds - settleSeconds) * 1000L) {
+			return;
+		}
+
+		boolean slaMet = measurement.isSLAMet(users);
+		logger.info(getExecutedName() + " Adaptive Interval: " + measurement.toString(users, slaMet));
+
+		if(slaMet) {
+			lowerUsers = users;
+			if(users > kneeUsers) {
+				kneeUsers = users;
+				kneeThroughput = measurement.throughput();
+			}
+		}
+
+		measurement.reset();
+		levelStartMillis = now;
+
+		//--------------------------
+		// Calculate next Level
+		if(mode == AdaptiveMode.AIMD) {
+
+			if(slaMet) {
+				if(users >= maxUsers) {
+					isKneeFound = true;
+				}
+				users = Math.min(maxUsers, users + Math.max(1, increaseUsers));
+			}else {
+				breaches++;
+				if(breaches >= maxBreaches) {
+					isKneeFound = true;
+				}
+				users = Math.max(1, (int)Math.floor(users * decreaseFactor));
+			}
+
+		}else {
+
+			if(!slaMet) { upperUsers = users; }
+
+			if(slaMet && users >= maxUsers) {
+				isKneeFound = true;
+			}else if(upperUsers < 0) {
+				// exponential phase
+				users = Math.min(maxUsers, users * 2);
+			}else if(upperUsers - lowerUsers <= Math.max(1, resolutionUsers)) {
+				isKneeFound = true;
+			}else {
+				users = lowerUsers + (upperUsers - lowerUsers) / 2;
+			}
+		}
+
+		//--------------------------------
+		// Hold the Knee
+		if(isKneeFound) {
+			reportKnee();
+			users = Math.max(kneeUsers, 0);
+		}
+
+		applyLevel(users);
+	}
+
+	/*****************************************************************
+	 * INTERNAL USE ONLY
+	 * Sets the amount of users of this agent, called with the share
+	 * of the level the controller has searched for all agents.
+	 * The load factor of the agent is applied to the share.
+	 *****************************************************************/
+	public void followUsers(double userCount) {
+		targetUsers = Math.max(0, userCount);
+		signalStateChange();
+	}
+
+	/*****************************************************************
+	 * Scales the users of the current level by the given factor.
+	 *****************************************************************/
+	@Override
+	public boolean rebalance(double loadFactor) {
+		this.loadFactor = Math.max(0, loadFactor);
+		signalStateChange();
+		return true;
+	}
+
+	/*****************************************************************
+	 * 
+	 *****************************************************************/
+	@Override
+	public boolean isRebalanceSupported() {
+		return true;
+	}
+
+	/*****************************************************************
+	 * Sets the first level of the search.
+	 *****************************************************************/
+	private synchronized void startSearch(int userCount, long startMillis) {
+		users = userCount;
+		levelStartMillis = startMillis;
+		HSR.addGauge(getExecutedName() + " Adaptive: Level Users", new BigDecimal(users));
+	}
+
+	/*****************************************************************
+	 * Runs the given level on this instance, or on the agents if
+	 * this is the controller.
+	 *****************************************************************/
+	private void applyLevel(int userCount) {
+
+		HSR.addGauge(getExecutedName() + " Adaptive: Level Users", new BigDecimal(userCount));
+
+		if(PFRCoordinator.isControllingAgents()) {
+			PFRCoordinator.agentsFollowUsers(this, userCount);
+		}else {
+			targetUsers = userCount;
+			signalStateChange();
+		}
+	}
+
+	/*****************************************************************
+	 * Starts or stops users until the given amount of users is
+	 * running. New users are spread over one pacing interval.
+	 *****************************************************************/
+	private void setUserCount(int userCount) {
+
+		//--------------------------
+		// Stop Users
+		while(userFutures.size() > userCount) {
+			userFutures.pollLast().cancel(false);
+			HSR.decreaseUsers(1);
+		}
+
+		//--------------------------
+		// Start Users
+		int toStart = userCount - userFutures.size();
+		long pacingMillis = pacingSeconds * 1000L;
+		for(int i = 0; i < toStart && !gracefulStopRequested; i++) {
+			try {
+				Runnable task = createDefaultUserRunnable(usecaseClass, userFutures.size(), pacingSeconds);
+				ScheduledFuture<?> future = scheduledUserThreadExecutor.scheduleAtFixedRate(
+						  task
+						, (pacingMillis * i) / toStart
+						, pacingMillis
+						, TimeUnit.MILLISECONDS
+					);
+
+				userFutures.add(future);
+				HSR.increaseUsers(1);
+
+			}catch (Exception e) {
+				HSR.addException(e);
+				logger.warn(this.getExecutedName()+": Error While starting User Thread: " + e.getMessage(), e);
+			}
+		}
+
+		HSR.addGauge(getExecutedName() + " Adaptive: Users", new BigDecimal(userFutures.size()));
+	}
+
+	/*****************************************************************
+	 * Writes the knee point to the log and the HSR report.
+	 * Only done once.
+	 *****************************************************************/
+	private synchronized void reportKnee() {
+
+		if(isKneeReported) { return; }
+		isKneeReported = true;
+
+		String message;
+		if(kneeUsers < 0) {
+			message = getExecutedName() + ": No load level has met the SLA (" + slaToString() + ").";
+			logger.warn(message);
+			HSR.addWarnMessage(message);
+			return;
+		}
+
+		message = getExecutedName()
+				+ ": Knee point" + (isKneeFound ? "" : " (search not finished)")
+				+ " at " + kneeUsers + " users"
+				+ ", " + String.format("%.2f", kneeThroughput) + " iterations/sec"
+				+ (kneeUsers >= maxUsers ? ", max users reached" : "")
+				+ ". SLA: " + slaToString();
+
+		logger.info(message);
+		HSR.addInfoMessage(message);
+		HSR.addGauge(getExecutedName() + " Adaptive: Knee Users", new BigDecimal(kneeUsers));
+		HSR.addGauge(getExecutedName() + " Adaptive: Knee Throughput/sec", new BigDecimal(kneeThroughput));
+	}
+
+	/*****************************************************************
+	 *
+	 *****************************************************************/
+	private String slaToString() {
+
+		StringBuilder builder = new StringBuilder();
+		for(SLACondition condition : slaConditions()) {
+			if(builder.length() > 0) { builder.append(" AND "); }
+			builder.append(condition);
+		}
+
+		if(minThroughputRatio > 0) {
+			builder.append(" AND throughputRatio GTE " + minThroughputRatio);
+		}
+		return builder.toString();
+	}
+
+	/*****************************************************************
+	 * Returns the conditions of the SLA, or the default if none
+	 * have been added.
+	 *****************************************************************/
+	private List<SLACondition> slaConditions() {
+		if(slaConditions.isEmpty()) {
+			slaConditions.add(new SLACondition(HSRMetric.failrate, Operator.LTE, 1));
+		}
+		return slaConditions;
+	}
+
+	/*****************************************************************
+	 * INTERNAL USE ONLY
+	 *****************************************************************/
+	@Override
+	public void distributeLoad(int totalAgents, int agentIndex, int recursionIndex) {
+
+		int startPerAgent = (int)Math.ceil((1.0f * startUsers) / totalAgents);
+		int maxPerAgent = (int)Math.ceil((1.0f * maxUsers) / totalAgents);
+
+		startUsers = Math.max(1, startPerAgent);
+		maxUsers = Math.max(1, maxPerAgent);
+		increaseUsers = Math.max(1, (int)Math.ceil((1.0f * increaseUsers) / totalAgents));
+		resolutionUsers = Math.max(1, (int)Math.ceil((1.0f * resolutionUsers) / totalAgents));
+
+		// spread the start of the agents over one pacing
+		offsetSeconds += (long)Math.ceil((1.0f * pacingSeconds) / totalAgents) * agentIndex;
+	}
+
+	/*****************************************************************
+	 *
+	 *****************************************************************/
+	@Override
+	public void terminate() {
+		if(!isFollower) { reportKnee(); }
+	}
+
+	/*************************************************************************************************
+	 * One condition of the SLA, evaluated on the iterations of a level.
+	 *************************************************************************************************/
+	private static class SLACondition {
+
+		private HSRMetric metric;
+		private Operator operator;
+		private double value;
+
+		private SLACondition(HSRMetric metric, Operator operator, Number value) {
+
+			this.metric = metric;
+			this.operator = operator;
+			this.value = value.doubleValue();
+
+			// fail early on unsupported values
+			isMet(new PFRIterationStats());
+		}
+
+		/*****************************************************
+		 *
+		 *****************************************************/
+		private boolean isMet(PFRIterationStats stats) {
+
+			double actual = metricValue(stats);
+
+			switch(operator.toString()) {
+				case "EQ":	return actual == value;
+				case "NEQ":	return actual != value;
+				case "GT":	return actual > value;
+				case "GTE":	return actual >= value;
+				case "LT":	return actual < value;
+				case "LTE":	return actual <= value;
+				default: throw new IllegalArgumentException("Operator not supported by "+PFRExecAdaptive.class.getSimpleName()+": "+operator);
+			}
+		}
+
+		/*****************************************************
+		 *
+		 *****************************************************/
+		private double metricValue(PFRIterationStats stats) {
+			switch(metric.toString()) {
+				case "count":		return stats.count();
+				case "success":		return stats.count() - stats.failed();
+				case "failed":		return stats.failed();
+				case "failrate":	return stats.failRate();
+				case "avg":			return stats.avgMillis();
+				case "min":			return stats.minMillis();
+				case "max":			return stats.maxMillis();
+				case "p50":			return stats.percentileMillis(50);
+				case "p75":			return stats.percentileMillis(75);
+				case "p90":			return stats.percentileMillis(90);
+				case "p95":			return stats.percentileMillis(95);
+				case "p99":			return stats.percentileMillis(99);
+				default: throw new IllegalArgumentException("Metric not supported by "+PFRExecAdaptive.class.getSimpleName()+": "+metric);
+			}
+		}
+
+		@Override
+		public String toString() {
+			return metric + " " + operator + " " + value;
+		}
+	}
+
+	/*************************************************************************************************
+	 * Statistics of the measured part of one level, collected from the iterations of the usecase.
+	 *************************************************************************************************/
+	private class Measurement {
+
+		private long millis = 0;
+		private PFRIterationStats stats = new PFRIterationStats();
+		private SLACondition breachedCondition = null;
+
+		/*****************************************************
+		 * Adds the iterations of one report interval.
+		 *****************************************************/
+		private void add(PFRIterationStats intervalStats, long intervalMillis) {
+			millis += intervalMillis;
+			stats.add(intervalStats);
+		}
+
+		/*****************************************************
+		 * Iterations per second.
+		 *****************************************************/
+		private double throughput() {
+			return (millis == 0) ? 0 : (stats.count() * 1000.0) / millis;
+		}
+
+		/*****************************************************
+		 * Iterations per second the users should execute.
+		 *****************************************************/
+		private double expectedThroughput(int userCount) {
+			return (1.0 * userCount) / Math.max(1, pacingSeconds);
+		}
+
+		/*****************************************************
+		 *
+		 *****************************************************/
+		private boolean isSLAMet(int userCount) {
+
+			breachedCondition = null;
+			for(SLACondition condition : slaConditions()) {
+				if(!condition.isMet(stats)) {
+					breachedCondition = condition;
+					break;
+				}
+			}
+
+			// nothing finished in a whole interval is never good
+			boolean slaMet = stats.count() > 0 && breachedCondition == null;
+
+			if(minThroughputRatio > 0) {
+				slaMet &= throughput() >= expectedThroughput(userCount) * minThroughputRatio;
+			}
+
+			return slaMet;
+		}
+
+		/*****************************************************
+		 *
+		 *****************************************************/
+		private void reset() {
+			millis = 0;
+			stats.reset();
+			breachedCondition = null;
+		}
+
+		/*****************************************************
+		 *
+		 *****************************************************/
+		private String toString(int userCount, boolean slaMet) {
+			return "users=" + userCount
+				 + ", iterations=" + stats.count()
+				 + ", failrate=" + String.format("%.2f", stats.failRate())
+				 + ", p95=" + (long)stats.percentileMillis(95)
+				 + ", throughput/sec=" + String.format("%.2f", throughput())
+				 + ", expected/sec=" + String.format("%.2f", expectedThroughput(userCount))
+				 + (breachedCondition != null ? ", breached=" + breachedCondition : "")
+				 + ", slaMet=" + slaMet;
+		}
+	}
+
+}
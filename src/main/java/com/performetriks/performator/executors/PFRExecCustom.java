@@ -5,7 +5,6 @@ import java.util.Iterator;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledFuture;
-import java.util.concurrent.ScheduledThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 
 import org.slf4j.LoggerFactory;
@@ -84,7 +83,14 @@ public class PFRExecCustom extends PFRExec {
     private ScheduledExecutorService gracefulScheduler = Executors.newScheduledThreadPool(1);
     
     // Central storage for running user tasks
-    private ArrayList<ScheduledFuture<?>> futureList = new ArrayList<>();
+    private PFRUserRegistry userRegistry = new PFRUserRegistry();
+    
+    // users defined by the steps executed so far, before the load factor is applied
+    private int baseUsers = 0;
+    
+    // set by rebalance()
+    private volatile double loadFactor = 1.0;
+    private volatile int lastPacingSeconds = 0;
     
 	/*****************************************************************
 	 * Constructor
@@ -454,7 +460,7 @@ public class PFRExecCustom extends PFRExec {
 		// Handle Start Offset 
 		if (offsetSeconds > 0) {
             try {
-                Thread.sleep(offsetSeconds * 1000);
+                sleepUnlessStopped(offsetSeconds * 1000L);
             } catch (InterruptedException e) {
                 Thread.currentThread().interrupt();
                 return;
@@ -487,9 +493,7 @@ public class PFRExecCustom extends PFRExec {
             
             //--------------------------------
             // Wait for graceful stop signal
-            while(!gracefulStopRequested && getCurrentTaskCount() > 0) {
-                Thread.sleep(1000);
-            }
+            awaitGracefulStopOrCompletion();
             
             //--------------------------------
             // Execute global Graceful stop		
@@ -519,30 +523,18 @@ public class PFRExecCustom extends PFRExec {
 	    int rampUpInterval = settings.getInteger(FIELD_RAMP_INTERVAL);
 	    int pacingSeconds = settings.containsKey(FIELD_PACING_SECONDS) ? settings.getInteger(FIELD_PACING_SECONDS) : 0;
 	    
-	    int finalPacingMillis = (pacingSeconds > 0) ? pacingSeconds * 1000 : 1;
+	    lastPacingSeconds = pacingSeconds;
 	    
 	    //--------------------------------
         // Do Ramp Up
 	    for(int i = 0; i < numUsers && !gracefulStopRequested ; i++) {
 	        try {
-	            Runnable userThread = createDefaultUserRunnable(usecaseClass, getCurrentUserCount(), pacingSeconds);
-	            //userThread.setName(this.getExecutedName() + "-User-" + getCurrentUserCount());
-	            
-	            // Submit to executor and track future
-	            ScheduledFuture<?> future = (ScheduledFuture<?>) scheduledUserThreadExecutor.scheduleAtFixedRate(
-	            		  userThread
-						, 0
-						, finalPacingMillis
-						, TimeUnit.MILLISECONDS
-					);
-	            futureList.add(future);
-	            
-	            HSR.increaseUsers(1);
+	        	changeBaseUsers(1, 0);
 	            
 	            //--------------------------
 	            // Manage Ramp Up Interval
 	            if( userPerInterval > 0 && ( (i+1) % userPerInterval ) == 0 ){
-	                Thread.sleep(rampUpInterval * 1000L);
+	                sleepUnlessStopped(rampUpInterval * 1000L);
 	            }
 	            
 	        }catch (InterruptedException e) {
@@ -573,30 +565,101 @@ public class PFRExecCustom extends PFRExec {
 	    	pacingSeconds = settings.getInteger(FIELD_PACING_SECONDS);
 	    }
 	    
-	    int finalPacingMillis = (pacingSeconds > 0) ? pacingSeconds * 1000 : 1;
+	    lastPacingSeconds = pacingSeconds;
 	    
 		//--------------------------------
         // Start Users
-	    for (int i = 0; i < numUsers && !gracefulStopRequested; i++) {
-	        try {
-	        	Runnable userThread = createDefaultUserRunnable(usecaseClass, getCurrentUserCount(), pacingSeconds); 
-	            //userThread.setName(this.getExecutedName() + "-User-" + getCurrentUserCount());
-	            
-	            ScheduledFuture<?> future = scheduledUserThreadExecutor.scheduleAtFixedRate(
-	            		  userThread
-						, 0
-						, finalPacingMillis // can't be zero, therefore using milliseconds
-						, TimeUnit.MILLISECONDS
-					);
-	            
-	            futureList.add(future);
-	            HSR.increaseUsers(1);
-	            
-	        } catch (Exception e) {
-	            HSR.addException(e);
-	            logger.warn(this.getExecutedName() + ": Error while starting user thread.");
-	        }
-	    }
+        try {
+        	changeBaseUsers(numUsers, 0);
+        } catch (Exception e) {
+            HSR.addException(e);
+            logger.warn(this.getExecutedName() + ": Error while starting user thread.");
+        }
+	}
+	
+	/*****************************************************************
+	 * Starts a single user and registers it.
+	 *
+	 * @param pacingSeconds the pacing of the user, 0 for no pacing
+	 *****************************************************************/
+	private void startUser(int pacingSeconds) {
+		
+		int finalPacingMillis = (pacingSeconds > 0) ? pacingSeconds * 1000 : 1;
+		
+		int userId = userRegistry.nextUserId();
+		Runnable userThread = createDefaultUserRunnable(usecaseClass, userId, pacingSeconds); 
+		
+		ScheduledFuture<?> future = scheduledUserThreadExecutor.scheduleAtFixedRate(
+				  userThread
+				, 0
+				, finalPacingMillis // can't be zero, therefore using milliseconds
+				, TimeUnit.MILLISECONDS
+			);
+		
+		userRegistry.add(userId, future);
+	}
+	
+	/*****************************************************************
+	 * Changes the users defined by the steps and starts or stops users
+	 * until the users multiplied with the factor set by rebalance() 
+	 * are running.
+	 *
+	 * @param difference the users to add, negative to remove users
+	 * @param gracefulMillis time stopped users can finish their 
+	 * iteration, 0 to stop them immediately
+	 *****************************************************************/
+	private synchronized void changeBaseUsers(int difference, long gracefulMillis) {
+		baseUsers = Math.max(0, baseUsers + difference);
+		adjustUsers(gracefulMillis);
+	}
+	
+	/*****************************************************************
+	 * Starts or stops users until the users defined by the steps
+	 * multiplied with the factor set by rebalance() are running.
+	 *
+	 * @param gracefulMillis see changeBaseUsers()
+	 *****************************************************************/
+	private synchronized void adjustUsers(long gracefulMillis) {
+		
+		if(scheduledUserThreadExecutor == null || gracefulStopRequested || isTerminated) { 
+			return; 
+		}
+		
+		int difference = (int)Math.round(baseUsers * loadFactor) - userRegistry.size();
+		
+		if(difference > 0) {
+			for(int i = 0; i < difference; i++) {
+				startUser(lastPacingSeconds);
+			}
+		}else if(difference < 0) {
+			ArrayList<PFRUserRegistry.User> stopped = userRegistry.stop(-difference, gracefulMillis <= 0);
+			if(gracefulMillis > 0) {
+				gracefulScheduler.schedule(() -> userRegistry.release(stopped), gracefulMillis, TimeUnit.MILLISECONDS);
+			}
+		}
+	}
+	
+	/*****************************************************************
+	 * Scales the amount of users of the current and all following 
+	 * steps. Stopped users finish their current iteration.
+	 * Users are started again when the factor was 0 before.
+	 *****************************************************************/
+	@Override
+	public synchronized boolean rebalance(double loadFactor) {
+		
+		this.loadFactor = Math.max(0, loadFactor);
+		adjustUsers(Math.max(1000, lastPacingSeconds * 1000L));
+		
+		logger.info(getExecutedName() + ": Rebalanced to " + userRegistry.size() + " users.");
+		return true;
+	}
+
+	/*****************************************************************
+	 * 
+	 *****************************************************************/
+	@Override
+	public boolean isRebalanceSupported() {
+		return true;
 	}
 	
 	/*****************************************************************
@@ -613,7 +676,7 @@ public class PFRExecCustom extends PFRExec {
 
         if (millis > 0) {
             try {
-                Thread.sleep(millis);
+                sleepUnlessStopped(millis);
             } catch (InterruptedException e) {
                 Thread.currentThread().interrupt();
             }
@@ -638,33 +701,19 @@ public class PFRExecCustom extends PFRExec {
         //--------------------------------
         // Ramp Down
         int stopped = 0;
-        while (stopped < numUsers && !futureList.isEmpty() && !gracefulStopRequested) {
+        while (stopped < numUsers && getBaseUsers() > 0 && !gracefulStopRequested) {
             
-        	int batchSize = Math.min(userPerInterval, numUsers - stopped);
+        	int batchSize = (userPerInterval > 0) ? Math.min(userPerInterval, numUsers - stopped) : numUsers - stopped;
         	
-            for (int i = 0; i < batchSize && !futureList.isEmpty(); i++) {
-                ScheduledFuture<?> future = futureList.remove(futureList.size() - 1);
-                
-                if (gracefulMillis > 0) {
-                    // Cancel without interrupting immediately
-                    future.cancel(false);
-                    // Schedule a hard kill after the graceful time
-                    gracefulScheduler.schedule(() -> {
-                        if(!future.isDone()) { future.cancel(true); }
-                        HSR.decreaseUsers(1);
-                    }, gracefulMillis, TimeUnit.MILLISECONDS);
-                } else {
-                    // Immediate stop
-                    future.cancel(true);
-                    HSR.decreaseUsers(1);
-                }
-                stopped++;
-            }
+        	// Cancel without interrupting if graceful, else immediate stop
+        	// a hard kill is scheduled after the graceful time
+        	changeBaseUsers(-batchSize, gracefulMillis);
+        	stopped += batchSize;
             
             // Wait between batches if we haven't stopped enough users yet
             if (stopped < numUsers && rampDownInterval > 0) {
                 try {
-                    Thread.sleep(rampDownInterval * 1000); 
+                    sleepUnlessStopped(rampDownInterval * 1000L);
                 } catch (InterruptedException e) {
                     Thread.currentThread().interrupt();
                     break;
@@ -688,32 +737,8 @@ public class PFRExecCustom extends PFRExec {
         
         //--------------------------
         // Request Stop
-        ArrayList<ScheduledFuture<?>> usersBeingCancelled = new ArrayList<>();
-        
-        for (int i = 0; i < numUsers && !futureList.isEmpty(); i++) {
-        	ScheduledFuture<?> future = futureList.remove(futureList.size() - 1);
-            usersBeingCancelled.add(future);
- 
-            if (gracefulMillis == 0) {
-                future.cancel(true); // Immediate interrupt
-                HSR.decreaseUsers(1);
-            } else {
-                future.cancel(false); // Let it finish gracefully
-            }
-        }
- 
-        //--------------------------
-        // Force Stop after Graceful Period
-        if (gracefulMillis > 0) {
-            gracefulScheduler.schedule(() -> {
-                for(ScheduledFuture<?> user : usersBeingCancelled){
-                    if(!user.isDone()){ 
-                        user.cancel(true); // Force kill
-                    }
-                    HSR.decreaseUsers(1); // Decrease stats when forcefully killed
-                }
-            }, gracefulMillis, TimeUnit.MILLISECONDS);
-        }
+        // users are killed after the graceful period
+        changeBaseUsers(-numUsers, gracefulMillis);
     }
 	
 
@@ -723,22 +748,37 @@ public class PFRExecCustom extends PFRExec {
 	 * 
 	 *****************************************************************/
 	public void doModificationKillAll() {
-		for (ScheduledFuture<?> future : futureList) {
-            if (future != null && !future.isDone()) {
-                future.cancel(true);
-            }
-        }
-        HSR.decreaseUsers(futureList.size());
-        futureList.clear();
+		synchronized(this) {
+			baseUsers = 0;
+		}
+		userRegistry.stopAll();
+	}
+	
+	/*****************************************************************
+	 * Returns the users defined by the steps executed so far.
+	 *****************************************************************/
+	private synchronized int getBaseUsers() {
+		return baseUsers;
 	}
 	
 	/*****************************************************************
-	 * Returns the number of current users.
+	 * Returns the number of current users. Users that are stopping
+	 * gracefully are not counted.
 	 * @return 
 	 *****************************************************************/
 	public int getCurrentUserCount() {
-		return futureList.size();
+		return userRegistry.size();
 	}
+	
+	/*****************************************************************
+	 * Users are counted by the registry, releases the users whose
+	 * tasks have been stopped by the graceful stop.
+	 *****************************************************************/
+	@Override
+	protected void onTasksStopped(int stoppedTasks) {
+		userRegistry.releaseDone();
+	}
+	
 	/*****************************************************************
 	 * Set the offset in seconds.
 	 * @param offsetSeconds 
@@ -91,9 +91,7 @@ public class PFRExecEmpty extends PFRExec {
 				
 			//--------------------------------
 			// Wait for graceful stop
-			while(!gracefulStopRequested && getCurrentTaskCount() > 0) {
-				Thread.sleep(1000);
-			}
+			awaitGracefulStopOrCompletion();
 			
 			//--------------------------------
 			// Initialize Graceful stop		
@@ -117,6 +115,14 @@ public class PFRExecEmpty extends PFRExec {
 		// nothing todo
 	}
 	
+	/*****************************************************************
+	 * Has no load that could be lost.
+	 *****************************************************************/
+	@Override
+	public boolean isRebalanceSupported() {
+		return true;
+	}
+	
 	/*****************************************************************
 	 * Creates a Runnable for a user iteration.
 	 *****************************************************************/
@@ -144,7 +150,7 @@ public class PFRExecEmpty extends PFRExec {
 				
 				//---------------------------
 				// Execute Virtual or Regular
-				if (PFRExec.isVirtualThreadSupported()) {
+				if (PFRExec.isVirtualThreadSupported() && !isSchedulerDispatching()) {
 					PFRExec.startVirtualThread(iterationTask, getExecutedName() + "-VT-" + userId);
 				} else {
 					iterationTask.run();
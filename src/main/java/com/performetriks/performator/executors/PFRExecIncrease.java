@@ -2,15 +2,14 @@ package com.performetriks.performator.executors;
 
 import java.util.ArrayList;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
 
 import org.slf4j.LoggerFactory;
 
 import com.google.gson.JsonObject;
-import com.performetriks.performator.base.PFRContext;
 import com.performetriks.performator.base.PFRUsecase;
 import com.xresch.hsr.base.HSR;
-import com.xresch.hsr.stats.HSRRecord.HSRRecordStatus;
 
 import ch.qos.logback.classic.Logger;
 
@@ -53,7 +52,11 @@ public class PFRExecIncrease extends PFRExec {
 	
 	private boolean isTerminated = false;
 	
-	private ArrayList<Thread> userThreadList = new ArrayList<>();
+	private PFRUserRegistry userRegistry = new PFRUserRegistry();
+	
+	// set by rebalance()
+	private volatile double loadFactor = 1.0;
+	private volatile int rampedUpUsers = 0;
 	
 	private ScheduledExecutorService scheduledUserThreadExecutor;
 	
@@ -329,7 +332,7 @@ public class PFRExecIncrease extends PFRExec {
 			//-------------------------
 			// Create Threads
 			if(offsetSeconds >= 0) {
-				Thread.sleep(offsetSeconds * 1000);
+				sleepUnlessStopped(offsetSeconds * 1000L);
 			}
 			
 			//-------------------------
@@ -337,44 +340,30 @@ public class PFRExecIncrease extends PFRExec {
 			for(int i = 0; i < maxUsers && !gracefulStopRequested ; i++) {
 				
 				try {
-					Thread userThread = createUserThread();
-					
-						userThread.setName(this.getExecutedName()+"-User-"+i);
-						scheduledUserThreadExecutor.scheduleAtFixedRate(
-								  userThread
-								, 0
-								, pacingSeconds
-								, TimeUnit.SECONDS
-							);
-												
-						userThreadList.add(userThread);
-						
-					HSR.increaseUsers(1);
+					rampedUpUsers = i + 1;
+					adjustUsers();
 					
 					//--------------------------
 					// Manage Ramp Up
 					if( rampUpUsers > 0 
 					&&  ( (i+1) % rampUpUsers ) == 0
 					){
-						Thread.sleep(rampUpInterval * 1000);
+						sleepUnlessStopped(rampUpInterval * 1000L);
 					}
 					
 				}catch (InterruptedException e) {
-					HSR.decreaseUsers(1);
 				    Thread.currentThread().interrupt();
 				    return;                              
 				}catch (Exception e) {
 					HSR.addException(e);
-					logger.warn(this.getExecutedName()+": Error While starting User Thread.");
+					logger.warn(this.getExecutedName()+": Error While starting User Thread: " + e.getMessage(), e);
 				}
 				
 			}
 			
 			//--------------------------------
 			// Wait for graceful stop
-			while(!gracefulStopRequested && getCurrentTaskCount() > 0) {
-				Thread.sleep(1000);
-			}
+			awaitGracefulStopOrCompletion();
 			
 			//--------------------------------
 			// Initialize Graceful stop		
@@ -388,6 +377,75 @@ public class PFRExecIncrease extends PFRExec {
 		}	
 	}
 	
+	/*****************************************************************
+	 * Starts a single user and registers it.
+	 *****************************************************************/
+	private void startUser() {
+		
+		int userId = userRegistry.nextUserId();
+		Runnable task = createDefaultUserRunnable(usecaseClass, userId, pacingSeconds);
+		ScheduledFuture<?> future = scheduledUserThreadExecutor.scheduleAtFixedRate(
+				  task
+				, 0
+				, pacingSeconds
+				, TimeUnit.SECONDS
+			);
+		
+		userRegistry.add(userId, future);
+	}
+	
+	/*****************************************************************
+	 * Starts or stops users until the users ramped up so far, scaled
+	 * by the factor set by rebalance(), are running. Stopped users 
+	 * finish their current iteration and are released after one 
+	 * pacing.
+	 *****************************************************************/
+	private synchronized void adjustUsers() {
+		
+		if(gracefulStopRequested || isTerminated) { return; }
+		
+		int difference = (int)Math.round(rampedUpUsers * loadFactor) - userRegistry.size();
+		
+		if(difference > 0) {
+			for(int i = 0; i < difference; i++) {
+				startUser();
+			}
+		}else if(difference < 0) {
+			ArrayList<PFRUserRegistry.User> stopped = userRegistry.stop(-difference, false);
+			scheduledUserThreadExecutor.schedule(() -> userRegistry.release(stopped), pacingSeconds, TimeUnit.SECONDS);
+		}
+	}
+	
+	/*****************************************************************
+	 * Scales the amount of users of this instance, also during the
+	 * ramp up.
+	 *****************************************************************/
+	@Override
+	public boolean rebalance(double loadFactor) {
+		this.loadFactor = Math.max(0, loadFactor);
+		if(scheduledUserThreadExecutor != null) {
+			adjustUsers();
+		}
+		return true;
+	}
+
+	/*****************************************************************
+	 * 
+	 *****************************************************************/
+	@Override
+	public boolean isRebalanceSupported() {
+		return true;
+	}
+	
+	/*****************************************************************
+	 * Users are counted by the registry, releases the users whose
+	 * tasks have been stopped by the graceful stop.
+	 *****************************************************************/
+	@Override
+	protected void onTasksStopped(int stoppedTasks) {
+		userRegistry.releaseDone();
+	}
+	
 	/*****************************************************************
 	 * INTERNAL USE ONLY
 	 *****************************************************************/
@@ -420,59 +478,6 @@ public class PFRExecIncrease extends PFRExec {
 		
 	}
 	
-	/*****************************************************************
-	 * 
-	 *****************************************************************/
-	public Thread createUserThread() {
-		
-		int pacingMillis = pacingSeconds * 1000;
-		
-		PFRUsecase usecase = PFRUsecase.getUsecaseInstance(usecaseClass);
-				
-		usecase.initializeUser();
-		
-		return new Thread(new Runnable() {
-			
-			@Override
-			public void run() {
-				
-				try {
-					
-					long start = System.currentTimeMillis();
-					
-					try {
-						usecase.execute();
-						
-						// make sure everything is closed
-						HSR.endAllOpen(HSRRecordStatus.Aborted);
-						
-					}catch (InterruptedException e) {
-					    Thread.currentThread().interrupt(); // prevent lingering of threads
-					    return;                              
-					}catch (Throwable e) {
-						HSR.addException(e);
-						logger.error("Unhandled Exception occured.", e);
-						HSR.endAllOpen(HSRRecordStatus.Failed);
-					}finally {
-						PFRContext.logDetailsClear();
-					}
-					
-					long duration = System.currentTimeMillis() - start;
-					
-					if(duration > pacingMillis)  {
-						HSR.addWarnMessage("Duration of the iteration exceeded the pacing("+pacingSeconds+"s)."
-										 + " This might cause that you get lower execution/hour then expected."
-										 + " Increase the number of users to fix this if you get lots of these messages.");
-					}
-					
-				}catch(Exception e) {
-					logger.info("User Thread interrupted.");
-				}
-			}
-		});
-	}
-
-	
 	/*****************************************************************
 	 * 
 	 *****************************************************************/
@@ -481,17 +486,7 @@ public class PFRExecIncrease extends PFRExec {
 		
 		if(!isTerminated) {
 			isTerminated = true;
-			for(Thread thread : userThreadList) {
-				
-				try {
-					if(thread.isAlive() && !thread.isInterrupted()) {
-						thread.interrupt();
-					}
-				}catch(Throwable e) {
-					HSR.addException(e);
-					logger.error("Error while stopping user thread: " + e.getMessage(), e);
-				}
-			}
+			userRegistry.stopAll();
 		}
 			
 	}
@@ -7,10 +7,8 @@ import java.util.concurrent.TimeUnit;
 import org.slf4j.LoggerFactory;
 
 import com.google.gson.JsonObject;
-import com.performetriks.performator.base.PFRContext;
 import com.performetriks.performator.base.PFRUsecase;
 import com.xresch.hsr.base.HSR;
-import com.xresch.hsr.stats.HSRRecord.HSRRecordStatus;
 
 import ch.qos.logback.classic.Logger;
 
@@ -168,9 +166,7 @@ public class PFRExecOnce extends PFRExec {
 				
 			//--------------------------------
 			// Wait for graceful stop
-			while(!gracefulStopRequested && getCurrentTaskCount() > 0) {
-				Thread.sleep(1000);
-			}
+			awaitGracefulStopOrCompletion();
 			
 			//--------------------------------
 			// Initialize Graceful stop
@@ -198,6 +194,16 @@ public class PFRExecOnce extends PFRExec {
 				
 	}
 	
+	/*****************************************************************
+	 * A single execution can not be scaled, the load is not adjusted.
+	 * If the execution is done during the warm-up, it is recorded in 
+	 * the usecase of the warm-up.
+	 *****************************************************************/
+	@Override
+	public boolean rebalance(double loadFactor) {
+		return false;
+	}
+	
 	/*****************************************************************
 	 * 
 	 *****************************************************************/
@@ -213,24 +219,8 @@ public class PFRExecOnce extends PFRExec {
 			public void run() {
 				
 				try {
-					
-					try {
-						usecase.execute();
-						
-						// make sure everything is closed
-						HSR.endAllOpen(HSRRecordStatus.Aborted);
-						
-					}catch (InterruptedException e) {
-					    Thread.currentThread().interrupt(); // prevent lingering of threads
-					    return;                              
-					}catch (Throwable e) {
-						logger.error("Unhandled Exception occured.", e);
-						HSR.endAllOpen(HSRRecordStatus.Failed);
-					}finally {
-						PFRContext.logDetailsClear();
-					}
-					
-					
+					// recorded as warm-up if executed during the warm-up
+					executeIteration(usecase);
 				}catch(Exception e) {
 					logger.info("User Thread interrupted.");
 				}
@@ -0,0 +1,635 @@
+package com.performetriks.performator.executors;
+
+import java.math.BigDecimal;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Map.Entry;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+import org.slf4j.LoggerFactory;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.performetriks.performator.base.PFRInternalMetrics;
+import com.performetriks.performator.base.PFRUsecase;
+import com.performetriks.performator.data.PFRDataSource;
+import com.performetriks.performator.data.PFRDataSourceStatic;
+import com.xresch.hsr.base.HSR;
+import com.xresch.xrutils.data.XRRecord;
+
+import ch.qos.logback.classic.Logger;
+
+/***************************************************************************
+ * Executes a use case with an arrival rate that follows a time series of
+ * target rates, e.g. the traffic curve recorded on production.
+ *
+ * <ul>
+ * <li>The rate between two points of the profile is interpolated linearly
+ * and updated every few milliseconds (default 100ms).</li>
+ * <li>The profile can be compressed in time, e.g. to replay 24 hours in one
+ * hour. The rates of the profile stay the same.</li>
+ * <li>Iterations are started independent of the response times (open model),
+ * the amount of users is the amount of concurrently running iterations and
+ * is limited by maxUsers.</li>
+ * </ul>
+ *
+ * The points can be loaded from any data source, for example a CSV file:
+ *
+ * <pre>
+ * <code>
+ * PFRDataSource source = PFR.Data.newSourceCSV("com.example.data", "traffic.csv", ",").build();
+ *
+ * new PFRExecRateProfile(MyUsecase.class)
+ * 		.points(source, "time", TimeUnit.SECONDS, "requests")
+ * 		.rateUnit(TimeUnit.MINUTES)
+ * 		.fitTo(Duration.ofHours(1));
+ * </code>
+ * </pre>
+ *
+ * Copyright Owner: Performetriks GmbH, Switzerland
+ * License: Eclipse Public License v2.0
+ *
+ * @author Reto Scheiwiller
+ *
+ ***************************************************************************/
+public class PFRExecRateProfile extends PFRExec {
+
+	private static Logger logger = (Logger) LoggerFactory.getLogger(PFRExecRateProfile.class.getName());
+
+	// offset in seconds from the first point >> rate in rateUnit
+	private TreeMap<Double, Double> profile = new TreeMap<>();
+
+	private TimeUnit rateUnit = TimeUnit.HOURS;
+	private double timeCompression = 1.0;
+	private Duration fitTo = null;
+	private int percent = 100;
+	private long offsetSeconds = 0;
+	private int maxUsers = 1000;
+	private long updateMillis = 100;
+
+	// set by distributeLoad()
+	private double agentFactor = 1.0;
+	private double agentPhase = 0.0;
+	
+	// set by rebalance()
+	private volatile double loadFactor = 1.0;
+
+	private ScheduledExecutorService scheduledUserThreadExecutor;
+	private ScheduledFuture<?> driverFuture;
+
+	private ConcurrentLinkedQueue<PFRUsecase> idleUsers = new ConcurrentLinkedQueue<>();
+	private AtomicInteger createdUsers = new AtomicInteger();
+	private AtomicInteger runningIterations = new AtomicInteger();
+	private LongAdder skippedArrivals = new LongAdder();
+
+	private volatile boolean isProfileEnded = false;
+	private boolean isCalculated = false;
+
+	private Class<? extends PFRUsecase> usecaseClass;
+	private String usecaseName;
+
+	/*****************************************************************
+	 *
+	 *****************************************************************/
+	public PFRExecRateProfile(Class<? extends PFRUsecase> usecaseClass) {
+		this.usecaseClass = usecaseClass;
+		PFRUsecase instance = PFRUsecase.getUsecaseInstance(usecaseClass);
+		usecaseName = instance.getName();
+	}
+
+	/*****************************************************************
+	 * Adds a point to the profile.
+	 *
+	 * @param offsetSeconds time of the point in seconds, relative to
+	 * the start of the profile
+	 * @param rate the target rate at that time in the rateUnit
+	 *****************************************************************/
+	public PFRExecRateProfile point(double offsetSeconds, double rate) {
+		profile.put(offsetSeconds, Math.max(0, rate));
+		return this;
+	}
+
+	/*****************************************************************
+	 * Adds all the records of the data source as points to the profile.
+	 * The data source must have been built already.
+	 * The time values are made relative to the lowest time, therefore
+	 * timestamps like epoch seconds or milliseconds can be used as well.
+	 * The records of the sources of PFR.Data are read without taking 
+	 * them, so the source can still be used by usecases. Other sources
+	 * are read with next(), use a dedicated source for them.
+	 *
+	 * @param source the data source containing the points
+	 * @param timeField the name of the field containing the time
+	 * @param timeUnit the unit of the time values
+	 * @param rateField the name of the field containing the rate
+	 *****************************************************************/
+	public PFRExecRateProfile points(PFRDataSource source, String timeField, TimeUnit timeUnit, String rateField) {
+
+		TreeMap<Double, Double> loaded = new TreeMap<>();
+
+		for(XRRecord record : readRecords(source)) {
+
+			JsonObject object = record.toJsonObject();
+			JsonElement time = object.get(timeField);
+			JsonElement rate = object.get(rateField);
+
+			if(time == null || time.isJsonNull()
+			|| rate == null || rate.isJsonNull()) {
+				logger.warn(usecaseName + ": Skipped rate profile record without '"+timeField+"' or '"+rateField+"': "+object);
+				continue;
+			}
+
+			try {
+				double seconds = time.getAsDouble() * timeUnit.toNanos(1) / 1_000_000_000.0;
+				loaded.put(seconds, rate.getAsDouble());
+			}catch(NumberFormatException | UnsupportedOperationException e) {
+				logger.warn(usecaseName + ": Skipped rate profile record with non-numeric values: "+object);
+			}
+		}
+
+		if(loaded.isEmpty()) {
+			return this;
+		}
+
+		double first = loaded.firstKey();
+		for(Entry<Double, Double> entry : loaded.entrySet()) {
+			point(entry.getKey() - first, entry.getValue());
+		}
+
+		return this;
+	}
+
+	/*****************************************************************
+	 * Returns all the records of the source, see points().
+	 *****************************************************************/
+	private static ArrayList<XRRecord> readRecords(PFRDataSource source) {
+		
+		if(source instanceof PFRDataSourceStatic) {
+			return ((PFRDataSourceStatic)source).records();
+		}
+		
+		logger.warn("Rate profile points are taken from the data source '"+source.name()+"', use a dedicated source if it is also used by usecases.");
+		
+		ArrayList<XRRecord> records = new ArrayList<>();
+		int size = source.size();
+		for(int i = 0; i < size; i++) {
+			XRRecord record = source.next();
+			if(record == null) { break; }
+			records.add(record);
+		}
+		
+		return records;
+	}
+
+	/*****************************************************************
+	 * Adds all the records of the data source as points to the profile.
+	 *
+	 * @param source the data source containing the points
+	 * @param timeField the name of the field containing the time in seconds
+	 * @param rateField the name of the field containing the rate
+	 *****************************************************************/
+	public PFRExecRateProfile points(PFRDataSource source, String timeField, String rateField) {
+		return points(source, timeField, TimeUnit.SECONDS, rateField);
+	}
+
+	/*****************************************************************
+	 * Set the time unit of the rates, default is HOURS (executions per
+	 * hour).
+	 *****************************************************************/
+	public PFRExecRateProfile rateUnit(TimeUnit rateUnit) {
+		if(rateUnit != null) {
+			this.rateUnit = rateUnit;
+		}
+		return this;
+	}
+
+	/*****************************************************************
+	 * Set the factor the profile is compressed with in time.
+	 * A factor of 24 will execute a profile of 24 hours in one hour.
+	 *****************************************************************/
+	public PFRExecRateProfile timeCompression(double factor) {
+		if(factor > 0) {
+			this.timeCompression = factor;
+			this.fitTo = null;
+		}
+		return this;
+	}
+
+	/*****************************************************************
+	 * Compress or stretch the profile so that it is executed in the
+	 * given duration.
+	 *****************************************************************/
+	public PFRExecRateProfile fitTo(Duration duration) {
+		this.fitTo = duration;
+		return this;
+	}
+
+	/*****************************************************************
+	 * Set the offset in seconds.
+	 *****************************************************************/
+	public PFRExecRateProfile offset(int offsetSeconds) {
+		this.offsetSeconds = offsetSeconds;
+		return this;
+	}
+
+	/*****************************************************************
+	 * Set the maximum number of iterations running concurrently.
+	 * Arrivals exceeding this limit are skipped and counted in the
+	 * metric "RateProfile: Skipped Arrivals". Default is 1000.
+	 *****************************************************************/
+	public PFRExecRateProfile maxUsers(int maxUsers) {
+		this.maxUsers = maxUsers;
+		return this;
+	}
+
+	/*****************************************************************
+	 * Set the interval in milliseconds in which the rate is updated,
+	 * default is 100.
+	 *****************************************************************/
+	public PFRExecRateProfile updateMillis(long updateMillis) {
+		this.updateMillis = Math.max(1, updateMillis);
+		return this;
+	}
+
+	/*****************************************************************
+	 * Call this method to run a percentage of the rates.
+	 *
+	 * @param percent 100 is 100%, you can go lower or higher, e.g. 50% or 200%
+	 *****************************************************************/
+	public PFRExecRateProfile percent(int percent) {
+		this.percent = percent;
+		return this;
+	}
+
+	/*****************************************************************
+	 * Calculates the compression factor.
+	 *****************************************************************/
+	public void calculateLoadSettings() {
+
+		if(!isCalculated) {
+			if(fitTo != null
+			&& !fitTo.isZero()
+			&& getProfileSeconds() > 0) {
+				timeCompression = getProfileSeconds() / (fitTo.toMillis() / 1000.0);
+			}
+			isCalculated = true;
+		}
+	}
+
+	/*****************************************************************
+	 * Returns the duration of the uncompressed profile in seconds.
+	 *****************************************************************/
+	private double getProfileSeconds() {
+		if(profile.isEmpty()) { return 0; }
+		return profile.lastKey();
+	}
+
+	/*****************************************************************
+	 * Returns the target rate per second for this agent at the given
+	 * time of the uncompressed profile.
+	 *****************************************************************/
+	private double getRatePerSecond(double profileSeconds) {
+
+		Entry<Double, Double> lower = profile.floorEntry(profileSeconds);
+		Entry<Double, Double> upper = profile.ceilingEntry(profileSeconds);
+
+		double rate;
+		if(lower == null) {
+			rate = upper.getValue();
+		}else if(upper == null || upper.getKey().equals(lower.getKey())) {
+			rate = lower.getValue();
+		}else {
+			double ratio = (profileSeconds - lower.getKey()) / (upper.getKey() - lower.getKey());
+			rate = lower.getValue() + (upper.getValue() - lower.getValue()) * ratio;
+		}
+
+		double unitSeconds = rateUnit.toNanos(1) / 1_000_000_000.0;
+		return (rate / unitSeconds) * (percent / 100.0) * agentFactor * loadFactor;
+	}
+
+	/*****************************************************************
+	 * Returns the highest rate per second of the profile for this agent.
+	 *****************************************************************/
+	private double getPeakRatePerSecond() {
+		double peak = 0;
+		for(Double seconds : profile.keySet()) {
+			peak = Math.max(peak, getRatePerSecond(seconds));
+		}
+		return peak;
+	}
+
+	/*****************************************************************
+	 *
+	 *****************************************************************/
+	@Override
+	public void initialize() {
+
+		HSR.setUsecase(usecaseName);
+
+		// -----------------------------------------------
+		// Calculate Load Parameters
+		// -----------------------------------------------
+		calculateLoadSettings();
+
+		synchronized(logger) {
+			// -----------------------------------------------
+			// Log Warnings
+			// -----------------------------------------------
+			String sides = "=".repeat(16);
+			String title = " Load Config: "+this.getExecutedName()+" ";
+			logger.info(sides + title + sides);
+
+			if(profile.isEmpty()) {
+				String message = "The rate profile has no points, no load will be executed.";
+				HSR.addWarnMessage(message);
+				logger.warn("==> " + message);
+			}
+
+			// -----------------------------------------------
+			// Log infos
+			// -----------------------------------------------
+			logger.info("Executor: " + this.getClass().getSimpleName() );
+			logger.info("Usecase: " + this.getExecutedName());
+			logger.info("Percent: " + percent);
+			logger.info("Start Offset: " + offsetSeconds);
+			logger.info("Profile Points: " + profile.size());
+			logger.info("Profile Duration(s): " + getProfileSeconds());
+			logger.info("Time Compression: " + timeCompression);
+			logger.info("Execution Duration(s): " + (getProfileSeconds() / timeCompression));
+			logger.info("Rate Unit: " + rateUnit);
+			logger.info("Peak Rate/s: " + String.format("%.3f", getPeakRatePerSecond()));
+			logger.info("Max Users: " + maxUsers);
+			logger.info("Update Interval(ms): " + updateMillis);
+			logger.info(sides.repeat(2) + "=".repeat( title.length()) ); // cosmetics, just because we can!
+		}
+	}
+
+	/*****************************************************************
+	 *
+	 *****************************************************************/
+	@Override
+	public void getSettings(JsonObject settings) {
+
+		calculateLoadSettings();
+
+		settings.addProperty("percent", percent);
+		settings.addProperty("startOffsetSec", offsetSeconds);
+		settings.addProperty("profilePoints", profile.size());
+		settings.addProperty("profileDurationSec", getProfileSeconds());
+		settings.addProperty("timeCompression", timeCompression);
+		settings.addProperty("rateUnit", rateUnit.toString());
+		settings.addProperty("peakRatePerSec", getPeakRatePerSecond());
+		settings.addProperty("maxUsers", maxUsers);
+		settings.addProperty("updateMillis", updateMillis);
+
+	}
+
+	/*****************************************************************
+	 * Return the name of the usecase or other thing that is
+	 * executed by this executor.
+	 *
+	 * @return the name of the usecase or null
+	 *****************************************************************/
+	public String getExecutedName() {
+		return usecaseName;
+	}
+
+	/*****************************************************************
+	 * Executes the threads of this executor.
+	 *****************************************************************/
+	public void executeThreads() {
+
+		//-------------------------
+		// Nothing todo?
+		if(profile.isEmpty() || maxUsers <= 0 || percent <= 0) {
+			return;
+		}
+
+		//-------------------------
+		// Create Scheduler
+		int poolSize = 1; // Single-threaded scheduler, iterations run in virtual threads
+		if(!PFRExec.isVirtualThreadSupported()) {
+			poolSize = maxUsers; // Fallback to platform threads
+		}
+
+		scheduledUserThreadExecutor = getScheduledUserExecutor(poolSize);
+
+		try {
+
+			if(offsetSeconds >= 0) {
+				sleepUnlessStopped(offsetSeconds * 1000L);
+			}
+
+			//-------------------------
+			// Start Driver
+			if(!gracefulStopRequested) {
+				driverFuture = scheduledUserThreadExecutor.scheduleAtFixedRate(
+						  new RateDriver()
+						, 0
+						, updateMillis
+						, TimeUnit.MILLISECONDS
+					);
+			}
+
+			//--------------------------------
+			// Wait for end of profile
+			while(!gracefulStopRequested
+			   && (!isProfileEnded || runningIterations.get() > 0) ) {
+				awaitStateChange(1000);
+			}
+
+			if(driverFuture != null) {
+				driverFuture.cancel(false);
+			}
+
+			if(skippedArrivals.sum() > 0) {
+				String message = getExecutedName() + ": "+skippedArrivals.sum()+" arrivals have been skipped because "
+							   + maxUsers+" iterations were already running. Increase maxUsers to reach the target rate.";
+				logger.warn(message);
+				HSR.addWarnMessage(message);
+			}
+
+			//--------------------------------
+			// Initialize Graceful stop
+			doGracefulStop(this.test().gracefulStop());
+
+		}catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/*****************************************************************
+	 * Starts an iteration at the given time, or skips it when the
+	 * maximum amount of users is reached.
+	 *****************************************************************/
+	private void startIteration(long dueNanos) {
+
+		//-------------------------
+		// Get a User
+		PFRUsecase usecase = idleUsers.poll();
+		if(usecase == null) {
+			if(createdUsers.incrementAndGet() > maxUsers * loadFactor) {
+				createdUsers.decrementAndGet();
+				skippedArrivals.increment();
+				HSR.addCount(getExecutedName() + " RateProfile: Skipped Arrivals", BigDecimal.ONE);
+				return;
+			}
+			usecase = PFRUsecase.getUsecaseInstance(usecaseClass);
+			usecase.initializeUser();
+		}
+
+		runningIterations.incrementAndGet();
+		HSR.increaseUsers(1);
+
+		//-------------------------
+		// Run Iteration
+		PFRUsecase user = usecase;
+		Runnable iteration = () -> {
+			try {
+				long waitNanos = dueNanos - System.nanoTime();
+				if(waitNanos > 0) {
+					LockSupport.parkNanos(waitNanos);
+				}
+
+				long startNanos = System.nanoTime();
+				PFRInternalMetrics.addSchedulerLag(getExecutedName(), startNanos - dueNanos);
+				executeIteration(user, startNanos);
+			}finally {
+				idleUsers.offer(user);
+				HSR.decreaseUsers(1);
+				if(runningIterations.decrementAndGet() == 0 && isProfileEnded) {
+					signalStateChange();
+				}
+			}
+		};
+
+		if (PFRExec.isVirtualThreadSupported()) {
+			PFRExec.startVirtualThread(iteration, getExecutedName() + "-User");
+		} else {
+			scheduledUserThreadExecutor.schedule(
+					  iteration
+					, Math.max(0, dueNanos - System.nanoTime())
+					, TimeUnit.NANOSECONDS
+				);
+		}
+	}
+
+	/*****************************************************************
+	 * INTERNAL USE ONLY
+	 *****************************************************************/
+	@Override
+	public void distributeLoad(int totalAgents, int agentIndex, int recursionIndex) {
+
+		if(totalAgents <= 1) { return; }
+
+		// every agent executes its share of the rate, the phase prevents
+		// that all agents start their iterations at the same time
+		agentFactor = 1.0 / totalAgents;
+		agentPhase = (1.0 * agentIndex) / totalAgents;
+		maxUsers = (int)Math.ceil((1.0f * maxUsers) / totalAgents);
+	}
+	
+	/*****************************************************************
+	 * Scales the rate and the max users of this instance, takes 
+	 * effect with the next update of the rate.
+	 *****************************************************************/
+	@Override
+	public boolean rebalance(double loadFactor) {
+		this.loadFactor = Math.max(0, loadFactor);
+		return true;
+	}
+
+	/*****************************************************************
+	 * 
+	 *****************************************************************/
+	@Override
+	public boolean isRebalanceSupported() {
+		return true;
+	}
+
+	/*****************************************************************
+	 *
+	 *****************************************************************/
+	@Override
+	public void terminate() {
+
+		if(driverFuture != null) {
+			driverFuture.cancel(false);
+		}
+
+		for(PFRUsecase usecase : idleUsers) {
+			try {
+				usecase.terminate();
+			}catch(Throwable e) {
+				logger.warn(getExecutedName() + ": Error while terminating user: " + e.getMessage(), e);
+			}
+		}
+		idleUsers.clear();
+	}
+
+	/*************************************************************************************************
+	 * Runs every updateMillis, calculates the current rate and spreads the arrivals evenly
+	 * over the next update interval. Fractions of arrivals are carried over to the next update.
+	 *************************************************************************************************/
+	private class RateDriver implements Runnable {
+
+		private long startNanos = -1;
+		private long lastNanos;
+		private double credit = agentPhase;
+		private long lastGaugeMillis = 0;
+
+		@Override
+		public void run() {
+
+			if(isProfileEnded) { return; }
+
+			long now = System.nanoTime();
+			long updateNanos = TimeUnit.MILLISECONDS.toNanos(updateMillis);
+			if(startNanos < 0) {
+				startNanos = now;
+				lastNanos = now - updateNanos; // first update covers one interval
+			}
+
+			//-------------------------
+			// Check End of Profile
+			double profileSeconds = ((now - startNanos) / 1_000_000_000.0) * timeCompression;
+			if(profileSeconds > getProfileSeconds() || gracefulStopRequested) {
+				isProfileEnded = true;
+				signalStateChange();
+				return;
+			}
+
+			//-------------------------
+			// Calculate Arrivals
+			double rate = getRatePerSecond(profileSeconds);
+			long elapsedNanos = now - lastNanos;
+			lastNanos = now;
+
+			credit += rate * (elapsedNanos / 1_000_000_000.0);
+			int arrivals = (int)Math.floor(credit);
+			credit -= arrivals;
+
+			//-------------------------
+			// Spread Arrivals
+			for(int i = 0; i < arrivals && !gracefulStopRequested; i++) {
+				startIteration(now + (updateNanos * i) / arrivals);
+			}
+
+			//-------------------------
+			// Report Target Rate
+			long nowMillis = System.currentTimeMillis();
+			if(nowMillis - lastGaugeMillis >= 1000) {
+				lastGaugeMillis = nowMillis;
+				HSR.addGauge(getExecutedName() + " RateProfile: Target Rate/s", BigDecimal.valueOf(rate));
+			}
+		}
+	}
+
+}
@@ -7,10 +7,8 @@ import java.util.concurrent.TimeUnit;
 import org.slf4j.LoggerFactory;
 
 import com.google.gson.JsonObject;
-import com.performetriks.performator.base.PFRContext;
 import com.performetriks.performator.base.PFRUsecase;
 import com.xresch.hsr.base.HSR;
-import com.xresch.hsr.stats.HSRRecord.HSRRecordStatus;
 
 import ch.qos.logback.classic.Logger;
 
@@ -40,6 +38,9 @@ public class PFRExecRepeat extends PFRExec {
 	private String usecaseName;
 	
 	private int repetitions = 1;
+	
+	// set by rebalance()
+	private volatile double loadFactor = 1.0;
 
 	/*****************************************************************
 	 * Clones this instance of the executor.
@@ -174,9 +175,7 @@ public class PFRExecRepeat extends PFRExec {
 				
 			//--------------------------------
 			// Wait for graceful stop
-			while(!gracefulStopRequested && getCurrentTaskCount() > 0) {
-				Thread.sleep(1000);
-			}
+			awaitGracefulStopOrCompletion();
 			
 			//--------------------------------
 			// Initialize Graceful stop
@@ -204,6 +203,38 @@ public class PFRExecRepeat extends PFRExec {
 				
 	}
 	
+	/*****************************************************************
+	 * Reduces the load of the single user by pausing after every 
+	 * repetition, e.g. by the duration of the repetition for a factor 
+	 * of 0.5. A factor of 0 pauses until the load is rebalanced.
+	 * One user can not execute more than its full load.
+	 * 
+	 * @param durationMillis the duration of the last repetition
+	 *****************************************************************/
+	private void awaitLoadFactor(long durationMillis) throws InterruptedException {
+		
+		while(loadFactor <= 0 && !gracefulStopRequested) {
+			awaitStateChange(1000);
+		}
+		
+		double factor = loadFactor;
+		if(factor > 0 && factor < 1.0) {
+			sleepUnlessStopped( (long)(Math.max(1, durationMillis) * (1.0 / factor - 1.0)) );
+		}
+	}
+	
+	/*****************************************************************
+	 * Scales the load of the user, see awaitLoadFactor().
+	 * 
+	 * @return false if the factor would need more than one user
+	 *****************************************************************/
+	@Override
+	public boolean rebalance(double loadFactor) {
+		this.loadFactor = Math.max(0, loadFactor);
+		signalStateChange();
+		return loadFactor <= 1.0;
+	}
+	
 	/*****************************************************************
 	 * 
 	 *****************************************************************/
@@ -223,25 +254,15 @@ public class PFRExecRepeat extends PFRExec {
 				try {
 					
 					for(int i = 0; i < repetitions; i++) {
-						try {
-							
-							usecase.execute();
-							
-							// make sure everything is closed
-							HSR.endAllOpen(HSRRecordStatus.Aborted);
-							
-						}catch (InterruptedException e) {
-						    Thread.currentThread().interrupt(); // prevent lingering of threads
-						    return;                              
-						}catch (Throwable e) {
-							logger.error("Unhandled Exception occured.", e);
-							HSR.endAllOpen(HSRRecordStatus.Failed);
-						}finally {
-							PFRContext.logDetailsClear();
-						}
+						
+						long duration = executeIteration(usecase);
+						if(duration < 0) { return; } // interrupted
+						
+						awaitLoadFactor(duration);
 					}
 					
-					
+				}catch(InterruptedException e) {
+				    Thread.currentThread().interrupt(); // prevent lingering of threads
 				}catch(Exception e) {
 					logger.info("User Thread interrupted.");
 				}
@@ -182,9 +182,7 @@ public class PFRExecSequential extends PFRExec {
 				
 			//--------------------------------
 			// Wait for graceful stop
-			while(!gracefulStopRequested && getCurrentTaskCount() > 0) {
-				Thread.sleep(1000);
-			}
+			awaitGracefulStopOrCompletion();
 			
 			//--------------------------------
 			// Initialize Graceful stop
@@ -209,6 +207,34 @@ public class PFRExecSequential extends PFRExec {
 		
 	}
 	
+	/*****************************************************************
+	 * Rebalances all the executors, including the ones that have not
+	 * been started yet.
+	 *****************************************************************/
+	@Override
+	public boolean rebalance(double loadFactor) {
+		
+		boolean isRebalanced = false;
+		for(PFRExec executor : executorList) {
+			isRebalanced |= executor.rebalance(loadFactor);
+		}
+		
+		return isRebalanced;
+	}
+	
+	/*****************************************************************
+	 * Returns true if all the executors support rebalancing.
+	 *****************************************************************/
+	@Override
+	public boolean isRebalanceSupported() {
+		
+		for(PFRExec executor : executorList) {
+			if( !executor.isRebalanceSupported() ) { return false; }
+		}
+		
+		return true;
+	}
+	
 	/*****************************************************************
 	 * 
 	 *****************************************************************/
@@ -2,6 +2,7 @@ package com.performetriks.performator.executors;
 
 import java.util.ArrayList;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
 
 import org.slf4j.LoggerFactory;
@@ -54,6 +55,11 @@ public class PFRExecStandard extends PFRExec {
 	private boolean isTerminated = false;
 	
 	private ArrayList<Thread> userThreadList = new ArrayList<>();
+	private PFRUserRegistry userRegistry = new PFRUserRegistry();
+	
+	// set by rebalance()
+	private volatile double loadFactor = 1.0;
+	private volatile boolean isRampUpDone = false;
 	
 	private ScheduledExecutorService scheduledUserThreadExecutor;
 	
@@ -294,35 +300,26 @@ public class PFRExecStandard extends PFRExec {
 			//-------------------------
 			// Create Threads
 			if(offsetSeconds >= 0) {
-				Thread.sleep(offsetSeconds * 1000);
+				sleepUnlessStopped(offsetSeconds * 1000L);
 			}
 			
 			//-------------------------
 			// Start User Threads
-			for(int i = 0; i < users && !gracefulStopRequested ; i++) {
+			for(int i = 0; userRegistry.size() < targetUsers() && !gracefulStopRequested ; i++) {
 				
 				try {
-						Runnable task = createDefaultUserRunnable(usecaseClass, i, pacingSeconds);
-						scheduledUserThreadExecutor.scheduleAtFixedRate(
-								  task
-								, 0
-								, pacingSeconds
-								, TimeUnit.SECONDS
-							);
-												
-						HSR.increaseUsers(1); 					
+					startUser();
 					
 					//--------------------------
 					// Manage Ramp Up
 					if( rampUpUsers > 0 
 					&&  ( (i+1) % rampUpUsers ) == 0
 					){
-						Thread.sleep(rampUpInterval * 1000);
+						sleepUnlessStopped(rampUpInterval * 1000L);
 					}
 					
 				}catch (InterruptedException e) {
 					logger.info("User Thread interrupted.");
-					HSR.decreaseUsers(1);
 				    Thread.currentThread().interrupt();
 				    return;                              
 				}catch (Exception e) {
@@ -332,11 +329,15 @@ public class PFRExecStandard extends PFRExec {
 				
 			}
 			
+			//-------------------------
+			// Apply rebalancing that 
+			// happened during ramp up
+			isRampUpDone = true;
+			adjustUsers();
+			
 			//--------------------------------
 			// Wait for graceful stop
-			while(!gracefulStopRequested && getCurrentTaskCount() > 0) {
-				Thread.sleep(1000);
-			}
+			awaitGracefulStopOrCompletion();
 			
 			//--------------------------------
 			// Initialize Graceful stop		
@@ -350,6 +351,84 @@ public class PFRExecStandard extends PFRExec {
 	}
 	
 	
+	/*****************************************************************
+	 * Starts a single user and registers it.
+	 *****************************************************************/
+	private void startUser() {
+		
+		int userId = userRegistry.nextUserId();
+		Runnable task = createDefaultUserRunnable(usecaseClass, userId, pacingSeconds);
+		ScheduledFuture<?> future = scheduledUserThreadExecutor.scheduleAtFixedRate(
+				  task
+				, 0
+				, pacingSeconds
+				, TimeUnit.SECONDS
+			);
+		
+		userRegistry.add(userId, future);
+	}
+	
+	/*****************************************************************
+	 * Returns the number of users this instance should run, including
+	 * the factor set by rebalance().
+	 *****************************************************************/
+	private int targetUsers() {
+		return (int)Math.round(users * loadFactor);
+	}
+	
+	/*****************************************************************
+	 * Starts or stops users until the target amount of users is 
+	 * reached. Stopped users finish their current iteration and are
+	 * released after one pacing.
+	 *****************************************************************/
+	private synchronized void adjustUsers() {
+		
+		if(!isRampUpDone || gracefulStopRequested || isTerminated) { return; }
+		
+		int difference = targetUsers() - userRegistry.size();
+		
+		if(difference > 0) {
+			for(int i = 0; i < difference; i++) {
+				startUser();
+			}
+		}else if(difference < 0) {
+			ArrayList<PFRUserRegistry.User> stopped = userRegistry.stop(-difference, false);
+			scheduledUserThreadExecutor.schedule(() -> userRegistry.release(stopped), pacingSeconds, TimeUnit.SECONDS);
+		}
+		
+		if(difference != 0) {
+			logger.info(getExecutedName() + ": Rebalanced to " + userRegistry.size() + " users.");
+		}
+	}
+	
+	/*****************************************************************
+	 * Scales the amount of users of this instance. Users are started
+	 * or stopped right away if the ramp up is already done.
+	 *****************************************************************/
+	@Override
+	public boolean rebalance(double loadFactor) {
+		this.loadFactor = Math.max(0, loadFactor);
+		adjustUsers();
+		return true;
+	}
+
+	/*****************************************************************
+	 * 
+	 *****************************************************************/
+	@Override
+	public boolean isRebalanceSupported() {
+		return true;
+	}
+	
+	/*****************************************************************
+	 * Users are counted by the registry, releases the users whose
+	 * tasks have been stopped by the graceful stop.
+	 *****************************************************************/
+	@Override
+	protected void onTasksStopped(int stoppedTasks) {
+		userRegistry.releaseDone();
+	}
+	
 	/*****************************************************************
 	 * INTERNAL USE ONLY
 	 *****************************************************************/
@@ -411,6 +490,7 @@ public class PFRExecStandard extends PFRExec {
 		
 		if(!isTerminated) {
 			isTerminated = true;
+			userRegistry.stopAll();
 			for(Thread thread : userThreadList) {
 				
 				try {
@@ -0,0 +1,247 @@
+package com.performetriks.performator.executors;
+
+import java.util.Arrays;
+import java.util.Map.Entry;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+
+/***************************************************************************
+ * Statistics of the iterations of a usecase, used by executors that adjust
+ * the load based on the measured iterations.
+ * The durations are counted in buckets that grow by 5%, which gives the
+ * percentiles a precision of 5% and lets the statistics of multiple agents
+ * be added together.
+ *
+ * Copyright Owner: Performetriks GmbH, Switzerland
+ * License: Eclipse Public License v2.0
+ *
+ * @author Reto Scheiwiller
+ *
+ ***************************************************************************/
+public class PFRIterationStats {
+
+	private static final double BUCKET_GROWTH = 1.05;
+	private static final int BUCKET_COUNT = 400; // upper bound of last bucket is about 3.5 days
+
+	private static final String FIELD_COUNT = "count";
+	private static final String FIELD_FAILED = "failed";
+	private static final String FIELD_SUM_MILLIS = "sumMillis";
+	private static final String FIELD_MIN_MILLIS = "minMillis";
+	private static final String FIELD_MAX_MILLIS = "maxMillis";
+	private static final String FIELD_BUCKETS = "buckets";
+
+	private long count = 0;
+	private long failed = 0;
+	private long sumMillis = 0;
+	private long minMillis = Long.MAX_VALUE;
+	private long maxMillis = 0;
+	private long[] buckets = new long[BUCKET_COUNT];
+
+	/*****************************************************************
+	 * Adds the result of one iteration.
+	 *
+	 * @param durationMillis the duration of the iteration
+	 * @param isSuccess false if the iteration failed
+	 *****************************************************************/
+	public synchronized void add(long durationMillis, boolean isSuccess) {
+
+		durationMillis = Math.max(0, durationMillis);
+
+		count++;
+		if(!isSuccess) { failed++; }
+		sumMillis += durationMillis;
+		minMillis = Math.min(minMillis, durationMillis);
+		maxMillis = Math.max(maxMillis, durationMillis);
+		buckets[bucketIndex(durationMillis)]++;
+	}
+
+	/*****************************************************************
+	 * Adds the iterations of the other statistics to these.
+	 *****************************************************************/
+	public synchronized void add(PFRIterationStats other) {
+
+		if(other == null || other == this) { return; }
+
+		PFRIterationStats copy = other.copy();
+
+		count += copy.count;
+		failed += copy.failed;
+		sumMillis += copy.sumMillis;
+		minMillis = Math.min(minMillis, copy.minMillis);
+		maxMillis = Math.max(maxMillis, copy.maxMillis);
+		for(int i = 0; i < BUCKET_COUNT; i++) {
+			buckets[i] += copy.buckets[i];
+		}
+	}
+
+	/*****************************************************************
+	 * Returns the iterations added since the last poll and resets
+	 * the statistics.
+	 *****************************************************************/
+	public synchronized PFRIterationStats poll() {
+		PFRIterationStats polled = copy();
+		reset();
+		return polled;
+	}
+
+	/*****************************************************************
+	 * Removes all iterations.
+	 *****************************************************************/
+	public synchronized void reset() {
+		count = 0;
+		failed = 0;
+		sumMillis = 0;
+		minMillis = Long.MAX_VALUE;
+		maxMillis = 0;
+		Arrays.fill(buckets, 0);
+	}
+
+	/*****************************************************************
+	 *
+	 *****************************************************************/
+	private synchronized PFRIterationStats copy() {
+
+		PFRIterationStats copy = new PFRIterationStats();
+		copy.count = count;
+		copy.failed = failed;
+		copy.sumMillis = sumMillis;
+		copy.minMillis = minMillis;
+		copy.maxMillis = maxMillis;
+		copy.buckets = buckets.clone();
+
+		return copy;
+	}
+
+	/*****************************************************************
+	 * Number of iterations.
+	 *****************************************************************/
+	public synchronized long count() {
+		return count;
+	}
+
+	/*****************************************************************
+	 * Number of failed iterations.
+	 *****************************************************************/
+	public synchronized long failed() {
+		return failed;
+	}
+
+	/*****************************************************************
+	 * Failed iterations in percent of all iterations.
+	 *****************************************************************/
+	public synchronized double failRate() {
+		return (count == 0) ? 0 : (failed * 100.0) / count;
+	}
+
+	/*****************************************************************
+	 * Average duration in milliseconds.
+	 *****************************************************************/
+	public synchronized double avgMillis() {
+		return (count == 0) ? 0 : (1.0 * sumMillis) / count;
+	}
+
+	/*****************************************************************
+	 * Minimum duration in milliseconds.
+	 *****************************************************************/
+	public synchronized long minMillis() {
+		return (count == 0) ? 0 : minMillis;
+	}
+
+	/*****************************************************************
+	 * Maximum duration in milliseconds.
+	 *****************************************************************/
+	public synchronized long maxMillis() {
+		return maxMillis;
+	}
+
+	/*****************************************************************
+	 * Returns the duration in milliseconds the given percentage of
+	 * the iterations did not exceed, with a precision of 5%.
+	 *
+	 * @param percentile between 0 and 100, e.g. 90
+	 *****************************************************************/
+	public synchronized double percentileMillis(double percentile) {
+
+		if(count == 0) { return 0; }
+
+		long rank = Math.max(1, (long)Math.ceil(count * (percentile / 100.0)));
+
+		long seen = 0;
+		for(int i = 0; i < BUCKET_COUNT; i++) {
+			seen += buckets[i];
+			if(seen >= rank) {
+				double upperBound = (i == 0) ? 0 : Math.pow(BUCKET_GROWTH, i);
+				return Math.max(minMillis, Math.min(maxMillis, upperBound));
+			}
+		}
+
+		return maxMillis;
+	}
+
+	/*****************************************************************
+	 * Returns the statistics as JSON, only buckets containing
+	 * iterations are added.
+	 *****************************************************************/
+	public synchronized JsonObject toJson() {
+
+		JsonObject object = new JsonObject();
+		object.addProperty(FIELD_COUNT, count);
+		object.addProperty(FIELD_FAILED, failed);
+		object.addProperty(FIELD_SUM_MILLIS, sumMillis);
+		object.addProperty(FIELD_MIN_MILLIS, minMillis());
+		object.addProperty(FIELD_MAX_MILLIS, maxMillis);
+
+		JsonObject bucketObject = new JsonObject();
+		for(int i = 0; i < BUCKET_COUNT; i++) {
+			if(buckets[i] > 0) {
+				bucketObject.addProperty(""+i, buckets[i]);
+			}
+		}
+		object.add(FIELD_BUCKETS, bucketObject);
+
+		return object;
+	}
+
+	/*****************************************************************
+	 * Creates the statistics from the JSON created by toJson().
+	 *
+	 * @return statistics, empty if the JSON is null or invalid
+	 *****************************************************************/
+	public static PFRIterationStats fromJson(JsonObject object) {
+
+		PFRIterationStats stats = new PFRIterationStats();
+		if(object == null || !object.has(FIELD_COUNT)) { return stats; }
+
+		try {
+			stats.count = object.get(FIELD_COUNT).getAsLong();
+			stats.failed = object.get(FIELD_FAILED).getAsLong();
+			stats.sumMillis = object.get(FIELD_SUM_MILLIS).getAsLong();
+			stats.maxMillis = object.get(FIELD_MAX_MILLIS).getAsLong();
+			stats.minMillis = (stats.count == 0) ? Long.MAX_VALUE : object.get(FIELD_MIN_MILLIS).getAsLong();
+
+			for(Entry<String, JsonElement> entry : object.getAsJsonObject(FIELD_BUCKETS).entrySet()) {
+				int index = Integer.parseInt(entry.getKey());
+				if(index >= 0 && index < BUCKET_COUNT) {
+					stats.buckets[index] = entry.getValue().getAsLong();
+				}
+			}
+		}catch(RuntimeException e) {
+			stats.reset();
+		}
+
+		return stats;
+	}
+
+	/*****************************************************************
+	 *
+	 *****************************************************************/
+	private static int bucketIndex(long durationMillis) {
+
+		if(durationMillis <= 0) { return 0; }
+
+		int index = (int)Math.ceil(Math.log(durationMillis) / Math.log(BUCKET_GROWTH));
+		return Math.max(1, Math.min(BUCKET_COUNT - 1, index));
+	}
+
+}
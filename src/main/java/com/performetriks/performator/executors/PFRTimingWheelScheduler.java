@@ -0,0 +1,652 @@
+package com.performetriks.performator.executors;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import org.slf4j.LoggerFactory;
+
+import ch.qos.logback.classic.Logger;
+
+/*************************************************************************************************
+ * A hashed timing wheel implementing ScheduledExecutorService, used as an alternative scheduler
+ * backend for executors with a very large amount of users.
+ *
+ * The ScheduledThreadPoolExecutor keeps its tasks in a heap guarded by a single lock, which
+ * makes scheduling and cancelling O(log n) and lets all users contend on the same lock.
+ * This implementation keeps tasks in an array of buckets:
+ * - Scheduling and cancelling are O(1), callers only add to lock-free queues.
+ * - A single ticker thread advances the wheel and owns all buckets, no locking is needed.
+ * - Expired tasks are handed off to the dispatcher (virtual threads if supported), the ticker
+ *   never runs user code itself.
+ *
+ * Periodic tasks are rescheduled after an execution has finished, same as with the
+ * ScheduledThreadPoolExecutor executions of the same task never overlap. Fixed rate tasks are
+ * rescheduled relative to their last planned start, fixed delay tasks relative to the end of
+ * their last execution.
+ * On shutdown(), periodic tasks are cancelled and delayed one-shot tasks are still executed.
+ * The precision is limited by the tick duration, default is 10 milliseconds.
+ *
+ * Copyright Owner: Performetriks GmbH, Switzerland
+ * License: Eclipse Public License v2.0
+ *
+ * @author Reto Scheiwiller
+ *
+ *************************************************************************************************/
+public class PFRTimingWheelScheduler extends AbstractExecutorService implements ScheduledExecutorService {
+
+	private static Logger logger = (Logger) LoggerFactory.getLogger(PFRTimingWheelScheduler.class.getName());
+
+	public static final Duration DEFAULT_TICK = Duration.ofMillis(10);
+	public static final int DEFAULT_WHEEL_SIZE = 512;
+
+	private static final int STATE_RUNNING = 0;
+	private static final int STATE_SHUTDOWN = 1;
+	private static final int STATE_STOP = 2;
+
+	private static final AtomicLong sequencer = new AtomicLong();
+
+	// state of the tasks, changed with compare and set only
+	private static final VarHandle TASK_STATE;
+	static {
+		try {
+			TASK_STATE = MethodHandles.lookup().findVarHandle(WheelTask.class, "state", int.class);
+		}catch(ReflectiveOperationException e) {
+			throw new ExceptionInInitializerError(e);
+		}
+	}
+
+	private final long tickNanos;
+	private final int mask;
+	private final Bucket[] wheel;
+	private final Executor dispatcher;
+	private final Thread ticker;
+
+	private final Queue<WheelTask<?>> pendingAdds = new ConcurrentLinkedQueue<>();
+	private final Queue<WheelTask<?>> pendingCancels = new ConcurrentLinkedQueue<>();
+
+	private final AtomicInteger taskCount = new AtomicInteger(0);
+	private final AtomicInteger runningCount = new AtomicInteger(0);
+	private final CountDownLatch terminated = new CountDownLatch(1);
+
+	private volatile Runnable taskDoneListener = null;
+	private volatile int state = STATE_RUNNING;
+	private boolean periodicCancelled = false; // only accessed by ticker
+
+	private final long startNanos;
+	private long currentTick = 0; // only accessed by ticker
+
+	/*****************************************************************
+	 * Creates a timing wheel with default tick and wheel size.
+	 *
+	 * @param name the name of the ticker thread
+	 * @param dispatcher the executor the expired tasks are handed off
+	 * to
+	 *****************************************************************/
+	public PFRTimingWheelScheduler(String name, Executor dispatcher) {
+		this(name, DEFAULT_TICK, DEFAULT_WHEEL_SIZE, dispatcher);
+	}
+
+	/*****************************************************************
+	 * Creates a timing wheel.
+	 *
+	 * @param name the name of the ticker thread
+	 * @param tick the duration of one tick, defines the precision
+	 * @param wheelSize number of buckets, will be rounded up to the
+	 * next power of two
+	 * @param dispatcher the executor the expired tasks are handed off
+	 * to
+	 *****************************************************************/
+	public PFRTimingWheelScheduler(String name, Duration tick, int wheelSize, Executor dispatcher) {
+
+		if(tick == null || tick.toNanos() <= 0) { tick = DEFAULT_TICK; }
+
+		int size = 1;
+		while(size < Math.max(wheelSize, 2)) { size <<= 1; }
+
+		this.tickNanos = tick.toNanos();
+		this.mask = size - 1;
+		this.wheel = new Bucket[size];
+		for(int i = 0; i < size; i++) { wheel[i] = new Bucket(); }
+
+		this.dispatcher = dispatcher;
+		this.startNanos = System.nanoTime();
+
+		ticker = new Thread(this::runTicker, name+"-Ticker");
+		ticker.setDaemon(true);
+		ticker.start();
+	}
+
+	/*****************************************************************
+	 * Creates a dispatcher that starts a virtual thread per task if
+	 * supported, else a fixed pool of platform threads is used.
+	 *
+	 * @param name prefix for thread names
+	 * @param platformPoolSize the number of platform threads used
+	 * when virtual threads are not supported
+	 *****************************************************************/
+	public static Executor createDefaultDispatcher(String name, int platformPoolSize) {
+
+		if(PFRExec.isVirtualThreadSupported()) {
+			AtomicInteger count = new AtomicInteger(1);
+			return (r) -> PFRExec.startVirtualThread(r, name + "-User-" + count.getAndIncrement());
+		}
+
+		AtomicInteger count = new AtomicInteger(1);
+		return Executors.newFixedThreadPool(Math.max(1, platformPoolSize), (r) -> {
+			Thread t = new Thread(r);
+			t.setName(name + "-User-" + count.getAndIncrement());
+			t.setDaemon(true);
+			return t;
+		});
+	}
+
+	/*****************************************************************
+	 * Sets a listener that is called every time a task is done, 
+	 * either by completion, failure or cancellation.
+	 * The listener is called on the thread completing the task and
+	 * should return quickly.
+	 *
+	 * @param listener the listener to call
+	 * @return instance for chaining
+	 *****************************************************************/
+	public PFRTimingWheelScheduler onTaskDone(Runnable listener) {
+		this.taskDoneListener = listener;
+		return this;
+	}
+
+	/*****************************************************************
+	 *
+	 *****************************************************************/
+	private void notifyTaskDone() {
+		Runnable listener = taskDoneListener;
+		if(listener != null) {
+			try {
+				listener.run();
+			}catch(Throwable e) {
+				logger.warn("Error in task done listener: "+e.getMessage(), e);
+			}
+		}
+	}
+
+	/*****************************************************************
+	 * Returns the number of tasks that are scheduled or currently
+	 * executing.
+	 *****************************************************************/
+	public int getTaskCount() {
+		return taskCount.get();
+	}
+
+	/*****************************************************************
+	 * Returns the number of tasks that are currently executing.
+	 *****************************************************************/
+	public int getActiveCount() {
+		return runningCount.get();
+	}
+
+	/*****************************************************************
+	 *
+	 *****************************************************************/
+	@Override
+	public ScheduledFuture<?> schedule(Runnable command, long delay, TimeUnit unit) {
+		return enqueue(new WheelTask<Object>(Executors.callable(command), deadline(delay, unit), 0));
+	}
+
+	/*****************************************************************
+	 *
+	 *****************************************************************/
+	@Override
+	public <V> ScheduledFuture<V> schedule(Callable<V> callable, long delay, TimeUnit unit) {
+		return enqueue(new WheelTask<V>(callable, deadline(delay, unit), 0));
+	}
+
+	/*****************************************************************
+	 *
+	 *****************************************************************/
+	@Override
+	public ScheduledFuture<?> scheduleAtFixedRate(Runnable command, long initialDelay, long period, TimeUnit unit) {
+		if(period <= 0) { throw new IllegalArgumentException("period must be greater than 0"); }
+		return enqueue(new WheelTask<Object>(Executors.callable(command), deadline(initialDelay, unit), unit.toNanos(period)));
+	}
+
+	/*****************************************************************
+	 * The next execution is scheduled with the delay after the end of
+	 * the previous execution.
+	 *****************************************************************/
+	@Override
+	public ScheduledFuture<?> scheduleWithFixedDelay(Runnable command, long initialDelay, long delay, TimeUnit unit) {
+		if(delay <= 0) { throw new IllegalArgumentException("delay must be greater than 0"); }
+		// negative period marks fixed delay, same as ScheduledThreadPoolExecutor
+		return enqueue(new WheelTask<Object>(Executors.callable(command), deadline(initialDelay, unit), -unit.toNanos(delay)));
+	}
+
+	/*****************************************************************
+	 *
+	 *****************************************************************/
+	@Override
+	public void execute(Runnable command) {
+		schedule(command, 0, TimeUnit.NANOSECONDS);
+	}
+
+	/*****************************************************************
+	 * Cancels all periodic tasks, delayed tasks will still be executed.
+	 *****************************************************************/
+	@Override
+	public void shutdown() {
+		if(state == STATE_RUNNING) { state = STATE_SHUTDOWN; }
+		LockSupport.unpark(ticker);
+	}
+
+	/*****************************************************************
+	 * Cancels all tasks. Tasks that are currently executing are not
+	 * interrupted. The returned list is always empty, as the tasks are
+	 * cleaned up by the ticker thread.
+	 *****************************************************************/
+	@Override
+	public List<Runnable> shutdownNow() {
+		state = STATE_STOP;
+		LockSupport.unpark(ticker);
+		return new ArrayList<>();
+	}
+
+	/*****************************************************************
+	 *
+	 *****************************************************************/
+	@Override
+	public boolean isShutdown() {
+		return state != STATE_RUNNING;
+	}
+
+	/*****************************************************************
+	 *
+	 *****************************************************************/
+	@Override
+	public boolean isTerminated() {
+		return terminated.getCount() == 0;
+	}
+
+	/*****************************************************************
+	 *
+	 *****************************************************************/
+	@Override
+	public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+		return terminated.await(timeout, unit);
+	}
+
+	/*****************************************************************
+	 *
+	 *****************************************************************/
+	private long deadline(long delay, TimeUnit unit) {
+		return System.nanoTime() + Math.max(0, unit.toNanos(delay));
+	}
+
+	/*****************************************************************
+	 *
+	 *****************************************************************/
+	private <V> WheelTask<V> enqueue(WheelTask<V> task) {
+		if(state != STATE_RUNNING) {
+			throw new RejectedExecutionException("Timing wheel has been shut down.");
+		}
+
+		taskCount.incrementAndGet();
+		pendingAdds.add(task);
+		return task;
+	}
+
+	/*****************************************************************
+	 * The loop of the ticker thread.
+	 *****************************************************************/
+	private void runTicker() {
+
+		try {
+			while(true) {
+
+				//--------------------------------
+				// Wait for next Tick
+				long tickDeadline = startNanos + (currentTick + 1) * tickNanos;
+				long sleepNanos = tickDeadline - System.nanoTime();
+				while(sleepNanos > 0 && state == STATE_RUNNING) {
+					LockSupport.parkNanos(this, sleepNanos);
+					sleepNanos = tickDeadline - System.nanoTime();
+				}
+
+				//--------------------------------
+				// Handle Shutdown
+				if(state == STATE_STOP) {
+					clearAll(false);
+					break;
+				}
+
+				if(state == STATE_SHUTDOWN && !periodicCancelled) {
+					clearAll(true);
+					periodicCancelled = true;
+				}
+
+				if(state != STATE_RUNNING && taskCount.get() <= 0) {
+					break;
+				}
+
+				//--------------------------------
+				// Process Bucket
+				processCancels();
+				transferAdds();
+
+				if(System.nanoTime() >= tickDeadline) {
+					expire(wheel[(int)(currentTick & mask)]);
+					currentTick++;
+				}else {
+					// woken up by shutdown, wait until the remaining tasks are done
+					LockSupport.parkNanos(this, tickNanos);
+				}
+			}
+		}catch(Throwable e) {
+			logger.error("Timing wheel ticker has stopped unexpectedly: "+e.getMessage(), e);
+		}finally {
+			terminated.countDown();
+		}
+	}
+
+	/*****************************************************************
+	 * Moves tasks from the add-queue into the wheel.
+	 *****************************************************************/
+	private void transferAdds() {
+
+		WheelTask<?> task;
+		while( (task = pendingAdds.poll()) != null ) {
+
+			if(task.state != WheelTask.WAITING) { continue; }
+
+			long ticks = (task.deadlineNanos - startNanos) / tickNanos;
+			if(ticks < currentTick) { ticks = currentTick; }
+
+			task.remainingRounds = (ticks - currentTick) / wheel.length;
+			wheel[(int)(ticks & mask)].add(task);
+		}
+	}
+
+	/*****************************************************************
+	 * Removes cancelled tasks from their buckets.
+	 *****************************************************************/
+	private void processCancels() {
+
+		WheelTask<?> task;
+		while( (task = pendingCancels.poll()) != null ) {
+			if(task.bucket != null) {
+				task.bucket.remove(task);
+			}
+		}
+	}
+
+	/*****************************************************************
+	 * Hands off all expired tasks of the bucket to the dispatcher.
+	 *****************************************************************/
+	private void expire(Bucket bucket) {
+
+		WheelTask<?> task = bucket.head;
+		while(task != null) {
+			WheelTask<?> next = task.next;
+
+			if(task.state != WheelTask.WAITING) {
+				bucket.remove(task);
+			}else if(task.remainingRounds <= 0) {
+				bucket.remove(task);
+				dispatch(task);
+			}else {
+				task.remainingRounds--;
+			}
+
+			task = next;
+		}
+	}
+
+	/*****************************************************************
+	 * Cancels all tasks, or only periodic ones.
+	 *****************************************************************/
+	private void clearAll(boolean periodicOnly) {
+
+		transferAdds();
+		for(Bucket bucket : wheel) {
+			WheelTask<?> task = bucket.head;
+			while(task != null) {
+				WheelTask<?> next = task.next;
+				if(!periodicOnly || task.isPeriodic()) {
+					task.cancel(false);
+					bucket.remove(task);
+				}
+				task = next;
+			}
+		}
+		pendingCancels.clear();
+	}
+
+	/*****************************************************************
+	 *
+	 *****************************************************************/
+	private void dispatch(WheelTask<?> task) {
+
+		// lost against cancel()
+		if( !task.compareAndSetState(WheelTask.WAITING, WheelTask.RUNNING) ) {
+			return;
+		}
+
+		runningCount.incrementAndGet();
+		try {
+			dispatcher.execute(task);
+		}catch(RejectedExecutionException e) {
+			runningCount.decrementAndGet();
+			task.finish(null, e);
+		}
+	}
+
+	/*************************************************************************************************
+	 * Doubly linked list of tasks, only accessed by the ticker thread.
+	 *************************************************************************************************/
+	private static class Bucket {
+
+		private WheelTask<?> head;
+		private WheelTask<?> tail;
+
+		private void add(WheelTask<?> task) {
+			task.bucket = this;
+			task.prev = tail;
+			task.next = null;
+			if(tail == null) { head = task; }
+			else { tail.next = task; }
+			tail = task;
+		}
+
+		private void remove(WheelTask<?> task) {
+			if(task.bucket != this) { return; }
+
+			if(task.prev == null) { head = task.next; }
+			else { task.prev.next = task.next; }
+
+			if(task.next == null) { tail = task.prev; }
+			else { task.next.prev = task.prev; }
+
+			task.prev = null;
+			task.next = null;
+			task.bucket = null;
+		}
+	}
+
+	/*************************************************************************************************
+	 * A task in the wheel, also acting as its own future.
+	 *************************************************************************************************/
+	private class WheelTask<V> implements ScheduledFuture<V>, Runnable {
+
+		private static final int WAITING = 0;
+		private static final int RUNNING = 1;
+		private static final int DONE = 2;
+		private static final int CANCELLED = 3;
+
+		private final Callable<V> callable;
+		private final long periodNanos;
+		private final long sequence = sequencer.getAndIncrement();
+		private final CompletableFuture<V> result = new CompletableFuture<>();
+
+		private volatile long deadlineNanos;
+		private volatile int state = WAITING;
+
+		// only accessed by ticker
+		private long remainingRounds;
+		private Bucket bucket;
+		private WheelTask<?> prev;
+		private WheelTask<?> next;
+
+		private WheelTask(Callable<V> callable, long deadlineNanos, long periodNanos) {
+			this.callable = callable;
+			this.deadlineNanos = deadlineNanos;
+			this.periodNanos = periodNanos;
+		}
+
+		private boolean isPeriodic() {
+			return periodNanos != 0;
+		}
+
+		/*****************************************************************
+		 *
+		 *****************************************************************/
+		private boolean compareAndSetState(int expected, int newState) {
+			return TASK_STATE.compareAndSet(this, expected, newState);
+		}
+
+		/*****************************************************************
+		 * Executed by the dispatcher.
+		 *****************************************************************/
+		@Override
+		public void run() {
+
+			V value = null;
+			Throwable error = null;
+			try {
+				value = callable.call();
+			}catch(Throwable e) {
+				error = e;
+			}finally {
+				runningCount.decrementAndGet();
+			}
+
+			//--------------------------------
+			// Reschedule Periodic
+			if(isPeriodic()
+			&& error == null
+			&& PFRTimingWheelScheduler.this.state == STATE_RUNNING) {
+
+				deadlineNanos = (periodNanos > 0)
+						? deadlineNanos + periodNanos
+						: System.nanoTime() - periodNanos;
+
+				// fails if cancelled during the execution
+				if( compareAndSetState(RUNNING, WAITING) ) {
+					pendingAdds.add(this);
+					return;
+				}
+			}
+
+			finish(value, error);
+		}
+
+		/*****************************************************************
+		 *
+		 *****************************************************************/
+		private void finish(V value, Throwable error) {
+
+			int current;
+			do {
+				current = state;
+				if(current == DONE || current == CANCELLED) {
+					return;
+				}
+			}while( !compareAndSetState(current, DONE) );
+
+			taskCount.decrementAndGet();
+			if(error != null) { result.completeExceptionally(error); }
+			else { result.complete(value); }
+
+			notifyTaskDone();
+		}
+
+		/*****************************************************************
+		 * O(1), the removal from the bucket is done by the ticker.
+		 *****************************************************************/
+		@Override
+		public boolean cancel(boolean mayInterruptIfRunning) {
+
+			int previousState;
+			do {
+				previousState = state;
+				if(previousState == DONE || previousState == CANCELLED) {
+					return false;
+				}
+			}while( !compareAndSetState(previousState, CANCELLED) );
+
+			// running tasks are not in a bucket
+			taskCount.decrementAndGet();
+			if(previousState == WAITING) {
+				pendingCancels.add(this);
+			}
+
+			result.cancel(mayInterruptIfRunning);
+			notifyTaskDone();
+			return true;
+		}
+
+		@Override
+		public long getDelay(TimeUnit unit) {
+			return unit.convert(deadlineNanos - System.nanoTime(), TimeUnit.NANOSECONDS);
+		}
+
+		@Override
+		public int compareTo(Delayed other) {
+			if(other == this) { return 0; }
+
+			long diff = getDelay(TimeUnit.NANOSECONDS) - other.getDelay(TimeUnit.NANOSECONDS);
+			if(diff == 0 && other instanceof WheelTask) {
+				return Long.compare(sequence, ((WheelTask<?>)other).sequence);
+			}
+			return Long.compare(diff, 0);
+		}
+
+		@Override
+		public boolean isCancelled() {
+			return state == CANCELLED;
+		}
+
+		@Override
+		public boolean isDone() {
+			return state == DONE || state == CANCELLED;
+		}
+
+		@Override
+		public V get() throws InterruptedException, ExecutionException {
+			return result.get();
+		}
+
+		@Override
+		public V get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+			return result.get(timeout, unit);
+		}
+	}
+
+}
@@ -0,0 +1,209 @@
+package com.performetriks.performator.executors;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.xresch.hsr.base.HSR;
+
+/*************************************************************************************************
+ * Thread safe registry of the users started by an executor.
+ *
+ * - Adding and stopping users is O(1), users are stopped in the reverse order of their start.
+ * - Users that are stopped gracefully are kept in a separate set until they are released, so
+ *   they can still be killed when the executor terminates.
+ * - Every user is counted exactly once with HSR.increaseUsers() when added and exactly once
+ *   with HSR.decreaseUsers() when released, no matter how many threads try to release it.
+ *
+ * Copyright Owner: Performetriks GmbH, Switzerland
+ * License: Eclipse Public License v2.0
+ *
+ * @author Reto Scheiwiller
+ *
+ *************************************************************************************************/
+public class PFRUserRegistry {
+
+	private final ConcurrentLinkedDeque<User> activeUsers = new ConcurrentLinkedDeque<>();
+	private final Set<User> stoppingUsers = ConcurrentHashMap.newKeySet();
+
+	private final AtomicInteger activeCount = new AtomicInteger();
+	private final AtomicInteger userIdCounter = new AtomicInteger();
+
+	/*************************************************************************************************
+	 * A user registered in this registry.
+	 *************************************************************************************************/
+	public static class User {
+
+		private final int id;
+		private final ScheduledFuture<?> future;
+		private final AtomicBoolean isReleased = new AtomicBoolean(false);
+		// set by the thread that removes the user from the active users
+		private final AtomicBoolean isRemoved = new AtomicBoolean(false);
+
+		private User(int id, ScheduledFuture<?> future) {
+			this.id = id;
+			this.future = future;
+		}
+
+		public int id() {
+			return id;
+		}
+
+		public ScheduledFuture<?> future() {
+			return future;
+		}
+
+		public boolean isReleased() {
+			return isReleased.get();
+		}
+	}
+
+	/*****************************************************************
+	 * Returns a new unique id that can be used for the next user.
+	 *****************************************************************/
+	public int nextUserId() {
+		return userIdCounter.getAndIncrement();
+	}
+
+	/*****************************************************************
+	 * Registers a started user and increases the HSR user count.
+	 *
+	 * @param id the id of the user, see nextUserId()
+	 * @param future the future of the scheduled user task
+	 * @return the registered user
+	 *****************************************************************/
+	public User add(int id, ScheduledFuture<?> future) {
+
+		User user = new User(id, future);
+
+		activeUsers.addLast(user);
+		activeCount.incrementAndGet();
+		HSR.increaseUsers(1);
+
+		return user;
+	}
+
+	/*****************************************************************
+	 * Stops the amount of users that have been started last.
+	 *
+	 * If interrupt is true, running iterations are interrupted and the
+	 * users are released immediately.
+	 * Else the users finish their current iteration and remain in the
+	 * registry as stopping users until release() is called for them.
+	 *
+	 * @param count the number of users to stop
+	 * @param interrupt true to interrupt running iterations
+	 * @return the stopped users
+	 *****************************************************************/
+	public ArrayList<User> stop(int count, boolean interrupt) {
+
+		ArrayList<User> stopped = new ArrayList<>();
+
+		while(stopped.size() < count) {
+			User user = activeUsers.pollLast();
+			if(user == null) { break; }
+
+			// already removed by releaseDone()
+			if( !user.isRemoved.compareAndSet(false, true) ) { continue; }
+
+			activeCount.decrementAndGet();
+			if(!interrupt) {
+				stoppingUsers.add(user);
+			}
+
+			user.future.cancel(interrupt);
+			stopped.add(user);
+		}
+
+		if(interrupt) {
+			release(stopped);
+		}
+
+		return stopped;
+	}
+
+	/*****************************************************************
+	 * Interrupts the users if they are still running and decreases the
+	 * HSR user count for every user that has not been released yet.
+	 *
+	 * @param users the users to release
+	 *****************************************************************/
+	public void release(Collection<User> users) {
+
+		int released = 0;
+		for(User user : users) {
+
+			if(!user.future.isDone()) {
+				user.future.cancel(true);
+			}
+
+			if(user.isReleased.compareAndSet(false, true)) {
+				stoppingUsers.remove(user);
+				released++;
+			}
+		}
+
+		if(released > 0) {
+			HSR.decreaseUsers(released);
+		}
+	}
+
+	/*****************************************************************
+	 * Releases all users that are stopping or active but whose tasks
+	 * are already done, e.g. after the scheduler has been shut down.
+	 *
+	 * @return the number of released users
+	 *****************************************************************/
+	public int releaseDone() {
+
+		ArrayList<User> done = new ArrayList<>();
+
+		for(User user : stoppingUsers) {
+			if(user.future.isDone()) { done.add(user); }
+		}
+
+		Iterator<User> iterator = activeUsers.iterator();
+		while(iterator.hasNext()) {
+			User user = iterator.next();
+			if(user.future.isDone() && user.isRemoved.compareAndSet(false, true)) {
+				iterator.remove();
+				activeCount.decrementAndGet();
+				done.add(user);
+			}
+		}
+
+		release(done);
+		return done.size();
+	}
+
+	/*****************************************************************
+	 * Stops and releases all active and stopping users immediately.
+	 *****************************************************************/
+	public void stopAll() {
+		stop(Integer.MAX_VALUE, true);
+		release(new ArrayList<>(stoppingUsers));
+	}
+
+	/*****************************************************************
+	 * Returns the number of active users, users that are stopping
+	 * are not included.
+	 *****************************************************************/
+	public int size() {
+		return activeCount.get();
+	}
+
+	/*****************************************************************
+	 * Returns the number of users that have been stopped gracefully
+	 * but have not been released yet.
+	 *****************************************************************/
+	public int stoppingSize() {
+		return stoppingUsers.size();
+	}
+
+}
@@ -0,0 +1,288 @@
+package com.performetriks.performator.test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.lang.reflect.Proxy;
+import java.sql.BatchUpdateException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.sql.DataSource;
+
+import org.junit.jupiter.api.Test;
+
+import com.performetriks.performator.database.PFRDB;
+import com.performetriks.performator.database.PFRDBAsync;
+import com.performetriks.performator.database.PFRDBPool;
+
+public class TestDBAsync {
+
+	private static final String INSERT = "INSERT INTO items (name) VALUES (?)";
+	private static final String SELECT = "SELECT name FROM items";
+
+	// values handled by the stand-in database
+	private static final String VALUE_FAIL = "fail";
+	private static final String VALUE_BLOCK = "block";
+
+	/*****************************************************************
+	 * Executes updates and queries over a few connections.
+	 *****************************************************************/
+	@Test
+	void testUpdatesAndQueries() throws Exception {
+
+		StandInDatabase database = new StandInDatabase();
+		PFRDBAsync async = new PFRDBAsync(new PFRDB(database), 4).usecase("TestDBAsync");
+
+		List<CompletableFuture<Integer>> futures = new ArrayList<>();
+		for(int i = 0; i < 2000; i++) {
+			futures.add(async.update("insertItem", INSERT, "item"+i));
+		}
+
+		for(CompletableFuture<Integer> future : futures) {
+			assertEquals(1, future.get(10, TimeUnit.SECONDS));
+		}
+
+		AtomicInteger rows = new AtomicInteger(0);
+		int count = async.query("selectItems", SELECT, row -> rows.incrementAndGet()).get(10, TimeUnit.SECONDS);
+
+		assertEquals(2000, count);
+		assertEquals(2000, rows.get());
+		assertEquals(0, async.inFlight());
+
+		async.close();
+		assertEquals(0, database.getOpenConnections(), "Connections not returned");
+	}
+
+	/*****************************************************************
+	 * A failing request in a batch only fails itself, the other
+	 * requests are executed once.
+	 *****************************************************************/
+	@Test
+	void testFailedBatchOnlyFailsAffected() throws Exception {
+
+		StandInDatabase database = new StandInDatabase();
+		PFRDBAsync async = new PFRDBAsync(new PFRDB(database), 1).usecase("TestDBAsync");
+
+		//---------------------------
+		// Queue the Batch
+		// the worker is blocked, so the requests are taken together
+		CompletableFuture<Integer> blocking = async.update("insertItem", INSERT, VALUE_BLOCK);
+		assertTrue(database.blocked.await(10, TimeUnit.SECONDS), "Worker not blocked");
+
+		List<CompletableFuture<Integer>> futures = new ArrayList<>();
+		for(int i = 0; i < 50; i++) {
+			futures.add(async.update("insertItem", INSERT, (i == 25) ? VALUE_FAIL : "item"+i));
+		}
+
+		database.unblock.countDown();
+		assertEquals(1, blocking.get(10, TimeUnit.SECONDS));
+
+		//---------------------------
+		// Check Results
+		for(int i = 0; i < futures.size(); i++) {
+			CompletableFuture<Integer> future = futures.get(i);
+			try {
+				assertEquals(1, future.get(10, TimeUnit.SECONDS));
+				assertTrue(i != 25, "Failing request succeeded");
+			}catch(ExecutionException e) {
+				assertEquals(25, i, "Request failed that was not affected: "+e.getCause().getMessage());
+			}
+		}
+
+		assertTrue(database.batches.get() > 0, "No batch was executed");
+		assertEquals(49, database.rows.size(), "Rows are missing or duplicated");
+
+		async.close();
+	}
+
+	/*****************************************************************
+	 * Requests submitted while the executor is closed are always
+	 * completed.
+	 *****************************************************************/
+	@Test
+	void testSubmitRacingClose() throws Exception {
+
+		for(int round = 0; round < 20; round++) {
+
+			PFRDBAsync async = new PFRDBAsync(new PFRDB(new StandInDatabase()), 2).usecase("TestDBAsync");
+
+			ConcurrentLinkedQueue<CompletableFuture<Integer>> futures = new ConcurrentLinkedQueue<>();
+			CountDownLatch started = new CountDownLatch(4);
+			List<Thread> submitters = new ArrayList<>();
+
+			for(int t = 0; t < 4; t++) {
+				Thread submitter = new Thread(() -> {
+					started.countDown();
+					for(int i = 0; i < 500; i++) {
+						futures.add(async.update("insertItem", INSERT, "item"+i));
+					}
+				});
+				submitter.start();
+				submitters.add(submitter);
+			}
+
+			started.await();
+			async.close(1000);
+
+			for(Thread submitter : submitters) {
+				submitter.join();
+			}
+
+			for(CompletableFuture<Integer> future : futures) {
+				try {
+					future.get(5, TimeUnit.SECONDS);
+				}catch(ExecutionException e) {
+					// failed because closed, expected
+				}
+			}
+
+			assertEquals(0, async.inFlight());
+		}
+	}
+
+	/*************************************************************************************************
+	 * Local stand-in for a database with a single table, supports the calls used by PFRDBAsync.
+	 * Inserting the value "fail" throws, inserting "block" waits until unblock is counted down.
+	 *************************************************************************************************/
+	private static class StandInDatabase implements PFRDBPool {
+
+		private final ConcurrentLinkedQueue<String> rows = new ConcurrentLinkedQueue<>();
+		private final AtomicInteger openConnections = new AtomicInteger(0);
+		private final AtomicInteger batches = new AtomicInteger(0);
+		private final CountDownLatch blocked = new CountDownLatch(1);
+		private final CountDownLatch unblock = new CountDownLatch(1);
+
+		@Override
+		public String getName() { return "stand-in"; }
+
+		@Override
+		public DataSource getDataSource() { return null; }
+
+		@Override
+		public int getNumActive() { return openConnections.get(); }
+
+		@Override
+		public int getMaxSize() { return 100; }
+
+		@Override
+		public Connection getPhysicalConnection(Connection conn) { return null; }
+
+		@Override
+		public void close() { }
+
+		private int getOpenConnections() {
+			return openConnections.get();
+		}
+
+		@Override
+		public Connection getConnection() {
+
+			openConnections.incrementAndGet();
+
+			boolean[] state = { true, false }; // autoCommit, closed
+			List<String> pending = new ArrayList<>();
+
+			return (Connection) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] { Connection.class }, (proxy, method, args) -> {
+				switch(method.getName()) {
+					case "getAutoCommit":		return state[0];
+					case "setAutoCommit":		if((boolean) args[0] && !state[0]) { commit(pending); } state[0] = (boolean) args[0]; return null;
+					case "commit":				commit(pending); return null;
+					case "rollback":			pending.clear(); return null;
+					case "isClosed":			return state[1];
+					case "close":				if( !state[1] ) { state[1] = true; openConnections.decrementAndGet(); } return null;
+					case "prepareStatement":	return createStatement((String) args[0], state, pending);
+					default:					return handleObjectMethod(proxy, method.getName(), args);
+				}
+			});
+		}
+
+		private void commit(List<String> pending) {
+			rows.addAll(pending);
+			pending.clear();
+		}
+
+		private PreparedStatement createStatement(String sql, boolean[] connectionState, List<String> pending) {
+
+			String[] value = { null };
+			List<String> batch = new ArrayList<>();
+
+			return (PreparedStatement) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] { PreparedStatement.class }, (proxy, method, args) -> {
+				switch(method.getName()) {
+					case "setString":		value[0] = (String) args[1]; return null;
+					case "addBatch":		batch.add(value[0]); return null;
+					case "clearBatch":		batch.clear(); return null;
+					case "executeUpdate":	insert(value[0], connectionState[0], pending); return 1;
+					case "executeQuery":	return createResultSet(new ArrayList<>(rows));
+					case "isClosed":		return false;
+					case "executeBatch":
+						batches.incrementAndGet();
+						int[] counts = new int[batch.size()];
+						for(int i = 0; i < batch.size(); i++) {
+							try {
+								insert(batch.get(i), connectionState[0], pending);
+								counts[i] = 1;
+							}catch(SQLException e) {
+								throw new BatchUpdateException(e.getMessage(), Arrays.copyOf(counts, i));
+							}
+						}
+						batch.clear();
+						return counts;
+					default:				return handleObjectMethod(proxy, method.getName(), args);
+				}
+			});
+		}
+
+		private void insert(String value, boolean isAutoCommit, List<String> pending) throws SQLException {
+
+			if(VALUE_FAIL.equals(value)) { throw new SQLException("Stand-in failure"); }
+
+			if(VALUE_BLOCK.equals(value)) {
+				blocked.countDown();
+				try {
+					unblock.await(10, TimeUnit.SECONDS);
+				}catch(InterruptedException e) {
+					Thread.currentThread().interrupt(); // restore interrupt flag
+				}
+				return;
+			}
+
+			if(isAutoCommit) { rows.add(value); }
+			else { pending.add(value); }
+		}
+
+		private ResultSet createResultSet(List<String> values) {
+
+			int[] index = { -1 };
+
+			return (ResultSet) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] { ResultSet.class }, (proxy, method, args) -> {
+				switch(method.getName()) {
+					case "next":			return ++index[0] < values.size();
+					case "getString":
+					case "getObject":		return values.get(index[0]);
+					default:				return handleObjectMethod(proxy, method.getName(), args);
+				}
+			});
+		}
+
+		private static Object handleObjectMethod(Object proxy, String methodName, Object[] args) {
+			switch(methodName) {
+				case "hashCode":	return System.identityHashCode(proxy);
+				case "equals":		return proxy == args[0];
+				case "toString":	return "stand-in";
+				default:			return null;
+			}
+		}
+	}
+}
@@ -0,0 +1,389 @@
+package com.performetriks.performator.test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.Driver;
+import java.sql.DriverManager;
+import java.sql.DriverPropertyInfo;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import com.performetriks.performator.database.PFRDBPoolLean;
+
+public class TestDBPoolLean {
+
+	private static final String URL_PREFIX = "jdbc:standin:";
+
+	private static final ConcurrentHashMap<String, StandInDatabase> databases = new ConcurrentHashMap<>();
+
+	/*****************************************************************
+	 *
+	 *****************************************************************/
+	@BeforeAll
+	static void registerDriver() throws SQLException {
+		DriverManager.registerDriver(new StandInDriver());
+	}
+
+	/*****************************************************************
+	 * Creates a pool on a new stand-in database.
+	 *****************************************************************/
+	private static PFRDBPoolLean createPool(String name, StandInDatabase database) {
+		databases.put(name, database);
+		return new PFRDBPoolLean(null, URL_PREFIX + name, "user", "password");
+	}
+
+	/*****************************************************************
+	 * A returned connection is borrowed again, its open statements
+	 * and result sets are closed and changed settings are restored.
+	 *****************************************************************/
+	@Test
+	void testBorrowAndReturn() throws Exception {
+
+		StandInDatabase database = new StandInDatabase();
+		PFRDBPoolLean pool = createPool("borrowAndReturn", database);
+
+		//---------------------------
+		// Borrow and Change
+		Connection conn = pool.getConnection();
+		assertEquals(1, pool.getNumActive());
+
+		Connection physical = pool.getPhysicalConnection(conn);
+
+		conn.setAutoCommit(false);
+		conn.setReadOnly(true);
+		conn.setTransactionIsolation(Connection.TRANSACTION_SERIALIZABLE);
+		conn.setCatalog("other");
+
+		PreparedStatement statement = conn.prepareStatement("SELECT 1");
+		ResultSet result = statement.executeQuery();
+		assertSame(statement, result.getStatement());
+		assertSame(conn, statement.getConnection());
+
+		//---------------------------
+		// Return
+		conn.close();
+		assertEquals(0, pool.getNumActive());
+		assertTrue(conn.isClosed());
+		assertThrows(SQLException.class, () -> conn.prepareStatement("SELECT 1"));
+
+		assertTrue(result.isClosed(), "Result set not closed");
+		assertTrue(statement.isClosed(), "Statement not closed");
+		assertEquals(1, database.rollbacks.get());
+
+		assertFalse(physical.isReadOnly());
+		assertTrue(physical.getAutoCommit());
+		assertEquals(Connection.TRANSACTION_READ_COMMITTED, physical.getTransactionIsolation());
+		assertEquals("main", physical.getCatalog());
+
+		//---------------------------
+		// Borrow Again
+		Connection again = pool.getConnection();
+		assertNotSame(conn, again);
+		assertSame(physical, pool.getPhysicalConnection(again));
+		assertEquals(1, database.created.get());
+
+		again.close();
+		pool.close();
+		assertEquals(0, database.openConnections());
+	}
+
+	/*****************************************************************
+	 * Connections are only validated after they have been idle,
+	 * invalid connections are replaced.
+	 *****************************************************************/
+	@Test
+	void testValidationAfterIdle() throws Exception {
+
+		StandInDatabase database = new StandInDatabase();
+		PFRDBPoolLean pool = createPool("validationAfterIdle", database)
+									.validateAfterIdle(200);
+
+		Connection physical;
+		try(Connection conn = pool.getConnection()) {
+			physical = pool.getPhysicalConnection(conn);
+		}
+
+		//---------------------------
+		// Busy Pool
+		try(Connection conn = pool.getConnection()) {
+			assertSame(physical, pool.getPhysicalConnection(conn));
+		}
+		assertEquals(0, database.validations.get(), "Validated before idle");
+
+		//---------------------------
+		// Idle and Invalid
+		database.isValid = false;
+		Thread.sleep(300);
+
+		try(Connection conn = pool.getConnection()) {
+			assertNotSame(physical, pool.getPhysicalConnection(conn));
+		}
+
+		assertEquals(1, database.validations.get());
+		assertEquals(2, database.created.get());
+		assertTrue(physical.isClosed(), "Invalid connection not closed");
+
+		pool.close();
+		assertEquals(0, database.openConnections());
+	}
+
+	/*****************************************************************
+	 * Reducing the size below the borrowed connections takes effect
+	 * when they are returned.
+	 *****************************************************************/
+	@Test
+	void testResizeBelowBorrowed() throws Exception {
+
+		StandInDatabase database = new StandInDatabase();
+		PFRDBPoolLean pool = createPool("resizeBelowBorrowed", database)
+									.maxSize(3)
+									.borrowTimeout(100);
+
+		Connection first = pool.getConnection();
+		Connection second = pool.getConnection();
+		Connection third = pool.getConnection();
+
+		pool.maxSize(1);
+		assertEquals(1, pool.getMaxSize());
+		assertEquals(3, pool.getNumActive());
+		assertThrows(SQLException.class, () -> pool.getConnection());
+
+		first.close();
+		second.close();
+		assertThrows(SQLException.class, () -> pool.getConnection());
+
+		third.close();
+		assertEquals(0, pool.getNumActive());
+
+		Connection conn = pool.getConnection();
+		assertThrows(SQLException.class, () -> pool.getConnection());
+		conn.close();
+
+		//---------------------------
+		// Grow Again
+		pool.maxSize(2);
+		Connection grown1 = pool.getConnection();
+		Connection grown2 = pool.getConnection();
+		assertEquals(2, pool.getNumActive());
+		grown1.close();
+		grown2.close();
+
+		pool.close();
+		assertEquals(0, database.openConnections());
+	}
+
+	/*****************************************************************
+	 * Connections that have been closed on the driver without
+	 * returning them do not block the pool.
+	 *****************************************************************/
+	@Test
+	void testReclaimLost() throws Exception {
+
+		StandInDatabase database = new StandInDatabase();
+		PFRDBPoolLean pool = createPool("reclaimLost", database)
+									.maxSize(1)
+									.borrowTimeout(1000);
+
+		Connection lost = pool.getConnection();
+		pool.getPhysicalConnection(lost).close();
+
+		Connection conn = pool.getConnection();
+		assertNotSame(pool.getPhysicalConnection(lost), pool.getPhysicalConnection(conn));
+		assertEquals(1, pool.getNumActive());
+
+		// returning the lost connection later does not add a permit
+		lost.close();
+		assertEquals(1, pool.getNumActive());
+
+		conn.close();
+		assertEquals(0, pool.getNumActive());
+
+		pool.close();
+		assertEquals(0, database.openConnections());
+	}
+
+	/*****************************************************************
+	 * Closing the pool closes borrowed connections, their users get
+	 * an exception and returning them does not fail.
+	 *****************************************************************/
+	@Test
+	void testCloseWhileBorrowed() throws Exception {
+
+		StandInDatabase database = new StandInDatabase();
+		PFRDBPoolLean pool = createPool("closeWhileBorrowed", database);
+
+		Connection idle = pool.getConnection();
+		Connection borrowed = pool.getConnection();
+		idle.close();
+		assertEquals(2, database.openConnections());
+
+		pool.close();
+		assertEquals(0, database.openConnections());
+
+		assertThrows(SQLException.class, () -> borrowed.prepareStatement("SELECT 1"));
+		assertThrows(SQLException.class, () -> pool.getConnection());
+
+		borrowed.close();
+		assertEquals(0, pool.getNumActive());
+	}
+
+	/*************************************************************************************************
+	 * Driver for the URLs of the stand-in databases.
+	 *************************************************************************************************/
+	private static class StandInDriver implements Driver {
+
+		@Override
+		public Connection connect(String url, Properties info) throws SQLException {
+			if( !acceptsURL(url) ) { return null; }
+
+			StandInDatabase database = databases.get(url.substring(URL_PREFIX.length()));
+			if(database == null) { throw new SQLException("Unknown stand-in database: "+url); }
+
+			return database.connect();
+		}
+
+		@Override
+		public boolean acceptsURL(String url) { return url != null && url.startsWith(URL_PREFIX); }
+
+		@Override
+		public DriverPropertyInfo[] getPropertyInfo(String url, Properties info) { return new DriverPropertyInfo[0]; }
+
+		@Override
+		public int getMajorVersion() { return 1; }
+
+		@Override
+		public int getMinorVersion() { return 0; }
+
+		@Override
+		public boolean jdbcCompliant() { return false; }
+
+		@Override
+		public java.util.logging.Logger getParentLogger() throws SQLFeatureNotSupportedException {
+			throw new SQLFeatureNotSupportedException();
+		}
+	}
+
+	/*************************************************************************************************
+	 * Local stand-in for a database, supports the calls used by PFRDBPoolLean and its wrappers.
+	 * Calls on closed connections, statements and result sets throw.
+	 *************************************************************************************************/
+	private static class StandInDatabase {
+
+		private final List<Connection> connections = new CopyOnWriteArrayList<>();
+		private final AtomicInteger created = new AtomicInteger(0);
+		private final AtomicInteger validations = new AtomicInteger(0);
+		private final AtomicInteger rollbacks = new AtomicInteger(0);
+		private volatile boolean isValid = true;
+
+		private int openConnections() throws SQLException {
+			int open = 0;
+			for(Connection conn : connections) {
+				if( !conn.isClosed() ) { open++; }
+			}
+			return open;
+		}
+
+		private Connection connect() {
+
+			created.incrementAndGet();
+
+			// autoCommit, readOnly, closed
+			boolean[] state = { true, false, false };
+			int[] isolation = { Connection.TRANSACTION_READ_COMMITTED };
+			String[] catalog = { "main" };
+
+			Connection[] self = { null };
+			self[0] = (Connection) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] { Connection.class }, (proxy, method, args) -> {
+
+				switch(method.getName()) {
+					case "isClosed":	return state[2];
+					case "close":		state[2] = true; return null;
+					case "isValid":		validations.incrementAndGet(); return isValid && !state[2];
+					default:			break;
+				}
+
+				if(state[2] && !isObjectMethod(method.getName())) { throw new SQLException("Stand-in connection is closed."); }
+
+				switch(method.getName()) {
+					case "getAutoCommit":				return state[0];
+					case "setAutoCommit":				state[0] = (boolean) args[0]; return null;
+					case "isReadOnly":					return state[1];
+					case "setReadOnly":					state[1] = (boolean) args[0]; return null;
+					case "getTransactionIsolation":		return isolation[0];
+					case "setTransactionIsolation":		isolation[0] = (int) args[0]; return null;
+					case "getCatalog":					return catalog[0];
+					case "setCatalog":					catalog[0] = (String) args[0]; return null;
+					case "rollback":					rollbacks.incrementAndGet(); return null;
+					case "commit":
+					case "clearWarnings":				return null;
+					case "prepareStatement":			return createStatement(self[0]);
+					default:							return handleObjectMethod(proxy, method.getName(), args);
+				}
+			});
+
+			connections.add(self[0]);
+			return self[0];
+		}
+
+		private PreparedStatement createStatement(Connection conn) {
+
+			boolean[] closed = { false };
+
+			return (PreparedStatement) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] { PreparedStatement.class }, (proxy, method, args) -> {
+				switch(method.getName()) {
+					case "isClosed":		return closed[0];
+					case "close":			closed[0] = true; return null;
+					case "getConnection":	return conn;
+					case "executeQuery":
+						if(closed[0] || conn.isClosed()) { throw new SQLException("Stand-in statement is closed."); }
+						return createResultSet();
+					default:				return handleObjectMethod(proxy, method.getName(), args);
+				}
+			});
+		}
+
+		private ResultSet createResultSet() {
+
+			boolean[] closed = { false };
+
+			return (ResultSet) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] { ResultSet.class }, (proxy, method, args) -> {
+				switch(method.getName()) {
+					case "isClosed":	return closed[0];
+					case "close":		closed[0] = true; return null;
+					case "next":		return false;
+					default:			return handleObjectMethod(proxy, method.getName(), args);
+				}
+			});
+		}
+
+		private static boolean isObjectMethod(String methodName) {
+			return methodName.equals("hashCode") || methodName.equals("equals") || methodName.equals("toString");
+		}
+
+		private static Object handleObjectMethod(Object proxy, String methodName, Object[] args) {
+			switch(methodName) {
+				case "hashCode":	return System.identityHashCode(proxy);
+				case "equals":		return proxy == args[0];
+				case "toString":	return "stand-in";
+				default:			return null;
+			}
+		}
+	}
+}
@@ -0,0 +1,152 @@
+package com.performetriks.performator.test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+
+import org.junit.jupiter.api.Test;
+
+import com.performetriks.performator.cli.PFRReadableOutputStream;
+
+public class TestReadableOutputStream {
+
+	private static final int MAX_LINE_BYTES = 64 * 1024;
+
+	// euro sign, 3 bytes in UTF-8
+	private static final String EURO = "\u20AC";
+
+	/*****************************************************************
+	 * A write containing several lines is split into these lines,
+	 * the rest is kept until the next newline.
+	 *****************************************************************/
+	@Test
+	void testWriteSpanningLines() throws Exception {
+
+		PFRReadableOutputStream stream = new PFRReadableOutputStream(100);
+
+		stream.write("first\nsecond\nthi".getBytes(StandardCharsets.UTF_8));
+		stream.write("rd\n".getBytes(StandardCharsets.UTF_8));
+
+		assertEquals("first", stream.readLine());
+		assertEquals("second", stream.readLine());
+		assertEquals("third", stream.readLine());
+		assertNull(stream.readLine());
+
+		// single bytes and empty lines
+		for(byte b : "a\n\nb\n".getBytes(StandardCharsets.UTF_8)) {
+			stream.write(b);
+		}
+
+		assertEquals("a", stream.readLine());
+		assertEquals("", stream.readLine());
+		assertEquals("b", stream.readLine());
+		assertFalse(stream.hasLine());
+
+		stream.close();
+	}
+
+	/*****************************************************************
+	 * A carriage return before the newline is removed, carriage
+	 * returns inside the line are kept.
+	 *****************************************************************/
+	@Test
+	void testCarriageReturnLineEndings() throws Exception {
+
+		PFRReadableOutputStream stream = new PFRReadableOutputStream(100);
+
+		stream.write("windows\r\nmixed\rline\r\n\r\nunix\n".getBytes(StandardCharsets.UTF_8));
+
+		assertEquals("windows", stream.readLine());
+		assertEquals("mixed\rline", stream.readLine());
+		assertEquals("", stream.readLine());
+		assertEquals("unix", stream.readLine());
+		assertNull(stream.readLine());
+
+		stream.close();
+	}
+
+	/*****************************************************************
+	 * Lines longer than 64 KB are split before a character that does
+	 * not fit completely, no character is broken.
+	 *****************************************************************/
+	@Test
+	void testMultiByteCharacterAtSplit() throws Exception {
+
+		PFRReadableOutputStream stream = new PFRReadableOutputStream(100);
+
+		// the euro sign has 3 bytes and starts 1 byte before the limit
+		String prefix = "x".repeat(MAX_LINE_BYTES - 1);
+		String line = prefix + EURO + "end";
+
+		// written in two parts to split the character between writes as well
+		byte[] bytes = (line + "\n").getBytes(StandardCharsets.UTF_8);
+		stream.write(bytes, 0, MAX_LINE_BYTES);
+		stream.write(bytes, MAX_LINE_BYTES, bytes.length - MAX_LINE_BYTES);
+
+		String first = stream.readLine();
+		String second = stream.readLine();
+
+		assertEquals(prefix, first);
+		assertEquals(EURO + "end", second);
+		assertNull(stream.readLine());
+
+		//---------------------------
+		// Split without Multi-Byte Character
+		stream.write(("y".repeat(MAX_LINE_BYTES) + "z\n").getBytes(StandardCharsets.UTF_8));
+
+		assertEquals(MAX_LINE_BYTES, stream.readLine().length());
+		assertEquals("z", stream.readLine());
+
+		stream.close();
+	}
+
+	/*****************************************************************
+	 * The oldest lines are dropped if the reader does not keep up.
+	 *****************************************************************/
+	@Test
+	void testRingBufferOverflow() throws Exception {
+
+		PFRReadableOutputStream stream = new PFRReadableOutputStream(3);
+
+		for(int i = 0; i < 10; i++) {
+			stream.write(("line" + i + "\n").getBytes(StandardCharsets.UTF_8));
+		}
+
+		assertEquals(7, stream.getDroppedLineCount());
+		assertEquals("line7", stream.readLine());
+		assertEquals("line8", stream.readLine());
+		assertEquals("line9", stream.readLine());
+		assertNull(stream.readLine());
+
+		// lines read in time are not dropped
+		stream.write("line10\n".getBytes(StandardCharsets.UTF_8));
+		assertEquals("line10", stream.readLine());
+		assertEquals(7, stream.getDroppedLineCount());
+
+		stream.close();
+	}
+
+	/*****************************************************************
+	 * Closing adds the last line if the output did not end with a
+	 * newline.
+	 *****************************************************************/
+	@Test
+	void testCloseFlushesIncompleteLine() throws Exception {
+
+		PFRReadableOutputStream stream = new PFRReadableOutputStream(100);
+
+		stream.write("complete\nincomplete".getBytes(StandardCharsets.UTF_8));
+		assertEquals("complete", stream.readLine());
+		assertNull(stream.readLine());
+
+		stream.close();
+
+		assertTrue(stream.isClosed());
+		assertEquals("incomplete", stream.readLine());
+		assertNull(stream.readLine());
+		assertFalse(stream.awaitLine(10));
+	}
+}
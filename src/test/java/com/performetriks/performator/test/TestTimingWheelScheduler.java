@@ -0,0 +1,199 @@
+package com.performetriks.performator.test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.jupiter.api.Test;
+
+import com.performetriks.performator.executors.PFRTimingWheelScheduler;
+
+public class TestTimingWheelScheduler {
+
+	private static final Duration TICK = Duration.ofMillis(1);
+	private static final int ROUNDS = 20;
+
+	/*****************************************************************
+	 * Cancels periodic tasks from several threads while the ticker
+	 * expires and dispatches them. No task may run after it has been
+	 * cancelled and the counters must end at zero.
+	 *****************************************************************/
+	@Test
+	void testConcurrentCancelAndExpire() throws Exception {
+
+		Executor dispatcher = Executors.newFixedThreadPool(8);
+		for(int round = 0; round < ROUNDS; round++) {
+			cancelWhileExpiring(new PFRTimingWheelScheduler("Test", TICK, 64, dispatcher));
+		}
+	}
+
+	/*****************************************************************
+	 * One round of testConcurrentCancelAndExpire().
+	 *****************************************************************/
+	private void cancelWhileExpiring(PFRTimingWheelScheduler wheel) throws Exception {
+
+		int taskCount = 5000;
+		AtomicInteger negativeCount = new AtomicInteger(0);
+		AtomicInteger runAfterCancel = new AtomicInteger(0);
+
+		List<ScheduledFuture<?>> futures = new ArrayList<>();
+		List<CancelAwareTask> tasks = new ArrayList<>();
+		for(int i = 0; i < taskCount; i++) {
+			CancelAwareTask task = new CancelAwareTask(runAfterCancel);
+			tasks.add(task);
+			futures.add(wheel.scheduleAtFixedRate(task, i % 5, 1, TimeUnit.MILLISECONDS));
+		}
+
+		//---------------------------
+		// Cancel Concurrently
+		int threads = 4;
+		CountDownLatch done = new CountDownLatch(threads);
+		for(int t = 0; t < threads; t++) {
+			final int offset = t;
+			new Thread(() -> {
+				try {
+					for(int i = offset; i < taskCount; i += threads) {
+						if(i % 500 == 0) { Thread.sleep(ThreadLocalRandom.current().nextInt(2)); }
+						tasks.get(i).markCancelled();
+						futures.get(i).cancel(false);
+
+						if(wheel.getTaskCount() < 0 || wheel.getActiveCount() < 0) {
+							negativeCount.incrementAndGet();
+						}
+					}
+				}catch(InterruptedException e) {
+					Thread.currentThread().interrupt(); // restore interrupt flag
+				}finally {
+					done.countDown();
+				}
+			}).start();
+		}
+
+		assertTrue(done.await(30, TimeUnit.SECONDS), "Cancel threads did not finish");
+
+		//---------------------------
+		// Wait for Running Tasks
+		long deadline = System.currentTimeMillis() + 10_000;
+		while( (wheel.getTaskCount() != 0 || wheel.getActiveCount() != 0)
+			&& System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+		}
+
+		// runs that were dispatched before the cancel may still finish
+		int runsAfterCancelBefore = runAfterCancel.get();
+		Thread.sleep(100);
+
+		assertEquals(0, wheel.getTaskCount(), "Task count");
+		assertEquals(0, wheel.getActiveCount(), "Active count");
+		assertEquals(0, negativeCount.get(), "Counters went negative");
+		assertEquals(runsAfterCancelBefore, runAfterCancel.get(), "Cancelled tasks are still executed");
+
+		for(ScheduledFuture<?> future : futures) {
+			assertTrue(future.isCancelled());
+		}
+
+		wheel.shutdownNow();
+		assertTrue(wheel.awaitTermination(5, TimeUnit.SECONDS));
+	}
+
+	/*****************************************************************
+	 * Fixed delay waits the delay after the end of an execution,
+	 * fixed rate keeps the period between the starts.
+	 *****************************************************************/
+	@Test
+	void testFixedDelayAndFixedRate() throws Exception {
+
+		PFRTimingWheelScheduler wheel = new PFRTimingWheelScheduler("Test", TICK, 64, Executors.newCachedThreadPool());
+
+		long delayMillis = 40;
+		long runMillis = 30;
+
+		AverageInterval fixedDelay = new AverageInterval(runMillis);
+		AverageInterval fixedRate = new AverageInterval(runMillis);
+
+		ScheduledFuture<?> delayFuture = wheel.scheduleWithFixedDelay(fixedDelay, 0, delayMillis, TimeUnit.MILLISECONDS);
+		ScheduledFuture<?> rateFuture = wheel.scheduleAtFixedRate(fixedRate, 0, delayMillis, TimeUnit.MILLISECONDS);
+
+		Thread.sleep(1000);
+		delayFuture.cancel(false);
+		rateFuture.cancel(false);
+
+		long delayInterval = fixedDelay.averageMillis();
+		long rateInterval = fixedRate.averageMillis();
+
+		assertTrue(delayInterval >= delayMillis + runMillis - 2, "Fixed delay interval too short: "+delayInterval);
+		assertTrue(rateInterval < delayMillis + 10, "Fixed rate interval too long: "+rateInterval);
+
+		wheel.shutdownNow();
+	}
+
+	/*************************************************************************************************
+	 * Counts executions that start after the task has been marked as cancelled.
+	 *************************************************************************************************/
+	private static class CancelAwareTask implements Runnable {
+
+		private volatile boolean isCancelled = false;
+		private final AtomicInteger runAfterCancel;
+
+		private CancelAwareTask(AtomicInteger runAfterCancel) {
+			this.runAfterCancel = runAfterCancel;
+		}
+
+		private void markCancelled() {
+			isCancelled = true;
+		}
+
+		@Override
+		public void run() {
+			if(isCancelled) {
+				runAfterCancel.incrementAndGet();
+			}
+		}
+	}
+
+	/*************************************************************************************************
+	 * Sleeps for the run duration and measures the time between the starts.
+	 *************************************************************************************************/
+	private static class AverageInterval implements Runnable {
+
+		private final long runMillis;
+		private final AtomicLong firstStart = new AtomicLong(-1);
+		private final AtomicLong lastStart = new AtomicLong(-1);
+		private final AtomicInteger count = new AtomicInteger(0);
+
+		private AverageInterval(long runMillis) {
+			this.runMillis = runMillis;
+		}
+
+		@Override
+		public void run() {
+			long now = System.nanoTime();
+			firstStart.compareAndSet(-1, now);
+			lastStart.set(now);
+			count.incrementAndGet();
+
+			try {
+				Thread.sleep(runMillis);
+			}catch(InterruptedException e) {
+				Thread.currentThread().interrupt(); // restore interrupt flag
+			}
+		}
+
+		private long averageMillis() {
+			int intervals = count.get() - 1;
+			if(intervals <= 0) { return Long.MAX_VALUE; }
+			return TimeUnit.NANOSECONDS.toMillis(lastStart.get() - firstStart.get()) / intervals;
+		}
+	}
+}